@@ -0,0 +1,129 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.benchmark;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Generates the synthetic image corpus used by the benchmarks. The images are generated from a fixed seed, so every
+ * benchmark run uses the same data. The benchmarks generate the corpus in memory during setup, run this class with a
+ * target directory as argument to write the images to disk for inspection.
+ */
+public final class CorpusGenerator {
+	private static final long SEED = 42;
+
+	private CorpusGenerator() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		Path target = Paths.get(args.length > 0 ? args[0] : "corpus");
+		Files.createDirectories(target);
+
+		for (CorpusImage image : CorpusImage.values()) {
+			Path file = target.resolve(image.getFileName());
+			Files.write(file, encode(image));
+
+			System.out.println("Wrote " + file + " (" + Files.size(file) + " bytes)");
+		}
+	}
+
+	/**
+	 * Generate the image and encode it in its format.
+	 * 
+	 * @param image to generate
+	 * @return the encoded image data
+	 * @throws IOException if the image could not be encoded
+	 */
+	static byte[] encode(CorpusImage image) throws IOException {
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+
+		if (!ImageIO.write(generate(image), image.getFormat(), encoded)) {
+			throw new IOException("No writer for " + image.getFormat());
+		}
+
+		return encoded.toByteArray();
+	}
+
+	/**
+	 * Draw a deterministic image with gradients, shapes and noise, so the encoders have something to work with.
+	 */
+	static BufferedImage generate(CorpusImage image) {
+		Random random = new Random(SEED + image.ordinal());
+		int width = image.getWidth();
+		int height = image.getHeight();
+
+		BufferedImage generated = new BufferedImage(width, height, image.getImageType());
+		Graphics2D g = generated.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+		g.setPaint(new GradientPaint(0, 0, randomColor(random), width, height, randomColor(random)));
+		g.fillRect(0, 0, width, height);
+
+		int shapes = 20 + random.nextInt(20);
+
+		for (int i = 0; i < shapes; i++) {
+			g.setColor(randomColor(random));
+			g.setStroke(new BasicStroke(1 + random.nextInt(Math.max(2, width / 200))));
+
+			int x = random.nextInt(width);
+			int y = random.nextInt(height);
+			int w = 1 + random.nextInt(width / 3);
+			int h = 1 + random.nextInt(height / 3);
+
+			switch (random.nextInt(3)) {
+			case 0:
+				g.fillOval(x, y, w, h);
+				break;
+			case 1:
+				g.fillRect(x, y, w, h);
+				break;
+			default:
+				g.drawLine(x, y, random.nextInt(width), random.nextInt(height));
+				break;
+			}
+		}
+
+		g.dispose();
+		addNoise(generated, random);
+
+		return generated;
+	}
+
+	private static void addNoise(BufferedImage image, Random random) {
+		for (int y = 0; y < image.getHeight(); y += 2) {
+			for (int x = 0; x < image.getWidth(); x += 2) {
+				int rgb = image.getRGB(x, y);
+				int delta = random.nextInt(17) - 8;
+
+				int r = clamp(((rgb >> 16) & 0xff) + delta);
+				int g = clamp(((rgb >> 8) & 0xff) + delta);
+				int b = clamp((rgb & 0xff) + delta);
+
+				image.setRGB(x, y, (rgb & 0xff000000) | (r << 16) | (g << 8) | b);
+			}
+		}
+	}
+
+	private static int clamp(int value) {
+		return Math.max(0, Math.min(255, value));
+	}
+
+	private static Color randomColor(Random random) {
+		return new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), 128 + random.nextInt(128));
+	}
+}
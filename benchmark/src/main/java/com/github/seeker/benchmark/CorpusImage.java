@@ -0,0 +1,73 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Images in the synthetic benchmark corpus, covering the formats and sizes found in typical collections.
+ */
+public enum CorpusImage {
+	SMALL_JPEG("small.jpg", "jpg", 640, 480, BufferedImage.TYPE_INT_RGB),
+	HD_JPEG("hd.jpg", "jpg", 1920, 1080, BufferedImage.TYPE_INT_RGB),
+	LARGE_JPEG("large.jpg", "jpg", 4000, 3000, BufferedImage.TYPE_INT_RGB),
+	GRAY_JPEG("gray.jpg", "jpg", 1280, 960, BufferedImage.TYPE_BYTE_GRAY),
+	ALPHA_PNG("alpha.png", "png", 1024, 768, BufferedImage.TYPE_INT_ARGB),
+	INDEXED_GIF("indexed.gif", "gif", 800, 600, BufferedImage.TYPE_BYTE_INDEXED);
+
+	private final String fileName;
+	private final String format;
+	private final int width;
+	private final int height;
+	private final int imageType;
+	private byte[] encoded;
+
+	private CorpusImage(String fileName, String format, int width, int height, int imageType) {
+		this.fileName = fileName;
+		this.format = format;
+		this.width = width;
+		this.height = height;
+		this.imageType = imageType;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getImageType() {
+		return imageType;
+	}
+
+	/**
+	 * Get the encoded image. The image is generated on first use, so call this during benchmark setup.
+	 * 
+	 * @return the encoded image data
+	 */
+	public synchronized byte[] load() {
+		if (encoded == null) {
+			try {
+				encoded = CorpusGenerator.encode(this);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		return encoded;
+	}
+}
@@ -0,0 +1,55 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.seeker.processor.ImageDigester;
+
+/**
+ * Benchmarks for hashing image data with one or more message digests, as done by the digest node.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DigestBenchmark {
+	@Param({ "SMALL_JPEG", "LARGE_JPEG" })
+	private CorpusImage image;
+
+	@Param({ "SHA-256", "SHA-512", "SHA-256,SHA-512", "MD5,SHA-1,SHA-256,SHA-512" })
+	private String algorithms;
+
+	private byte[] data;
+	private List<String> algorithmList;
+
+	@Setup
+	public void setUp() {
+		data = image.load();
+		algorithmList = Arrays.asList(algorithms.split(","));
+	}
+
+	@Benchmark
+	public Map<String, byte[]> digest() {
+		return ImageDigester.digest(data, algorithmList);
+	}
+}
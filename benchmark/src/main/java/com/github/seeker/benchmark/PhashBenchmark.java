@@ -0,0 +1,69 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.seeker.processor.ImageScaler;
+import com.github.seeker.processor.PerceptualHasher;
+
+/**
+ * Benchmarks for the perceptual hash calculation. The hasher is not thread safe, so every benchmark thread gets its
+ * own instance.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PhashBenchmark {
+	@Param({ "SMALL_JPEG", "LARGE_JPEG", "ALPHA_PNG" })
+	private CorpusImage image;
+
+	private PerceptualHasher hasher;
+	private BufferedImage decoded;
+	private BufferedImage preProcessed;
+
+	@Setup
+	public void setUp() throws IOException {
+		hasher = new PerceptualHasher();
+		decoded = ImageIO.read(new ByteArrayInputStream(image.load()));
+		preProcessed = ImageScaler.createPreProcessed(decoded);
+	}
+
+	/**
+	 * Only the DCT based hash on an image that has already been scaled down.
+	 */
+	@Benchmark
+	public long phash() {
+		return hasher.calculatePhash(preProcessed);
+	}
+
+	/**
+	 * Scaling and hashing, as done for every image by the custom hash node.
+	 */
+	@Benchmark
+	public long preProcessAndPhash() {
+		return hasher.calculatePhash(ImageScaler.createPreProcessed(decoded));
+	}
+}
@@ -0,0 +1,208 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.benchmark;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.seeker.app.PipelineConsumers;
+import com.github.seeker.configuration.QueueConfiguration;
+import com.github.seeker.configuration.QueueConfiguration.ConfiguredExchanges;
+import com.github.seeker.configuration.QueueConfiguration.ConfiguredQueues;
+import com.github.seeker.helpers.InMemoryBroker;
+import com.github.seeker.helpers.InMemoryMorphium;
+import com.github.seeker.helpers.InMemoryObjectStore;
+import com.github.seeker.messaging.TraceAggregator;
+import com.github.seeker.messaging.VirtualThreadConsumer;
+import com.github.seeker.persistence.MongoDbMapper;
+import com.github.seeker.persistence.ObjectStore;
+import com.github.seeker.processor.FileToQueueVistor;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+/**
+ * Runs the complete pipeline in a single process, with in-memory stand-ins for the message broker, object store and
+ * database, and reports the throughput and per-stage latency. The loader walks a synthetic corpus on an in-memory file
+ * system, the resizer, digest, custom hash and database consumers process the messages until the pipeline is idle.
+ * <p>
+ * Run with {@code java -cp benchmark/target/benchmarks.jar com.github.seeker.benchmark.PipelineHarness --images 1000}.
+ * The custom hash consumers process one message at a time even with virtual threads, as they do in the custom hash node.
+ */
+public class PipelineHarness {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PipelineHarness.class);
+
+	private static final String ANCHOR = "benchmark";
+	private static final List<String> REQUIRED_HASHES = List.of("SHA-256", "SHA-512");
+	private static final int THUMBNAIL_SIZE = 300;
+	private static final int IMAGES_PER_DIRECTORY = 100;
+
+	private final int imageCount;
+	private final int consumersPerStage;
+	private final int virtualThreadLimit;
+
+	/**
+	 * Create a new harness.
+	 *
+	 * @param imageCount         number of images in the generated corpus
+	 * @param consumersPerStage  number of competing consumers for each stage
+	 * @param virtualThreadLimit if greater than 0, each consumer processes messages on virtual threads with at most
+	 *                           this many messages in flight
+	 */
+	public PipelineHarness(int imageCount, int consumersPerStage, int virtualThreadLimit) {
+		this.imageCount = imageCount;
+		this.consumersPerStage = consumersPerStage;
+		this.virtualThreadLimit = virtualThreadLimit;
+	}
+
+	public static void main(String[] args) throws Exception {
+		ArgumentParser parser = ArgumentParsers.newFor("PipelineHarness").build()
+				.description("Measure the pipeline throughput with in-memory stand-ins for all services");
+		parser.addArgument("--images").type(Integer.class).setDefault(500).help("Number of images to process");
+		parser.addArgument("--consumers").type(Integer.class).setDefault(1).help("Number of consumers per stage");
+		parser.addArgument("--virtual-threads").type(Integer.class).setDefault(0).metavar("N")
+				.help("Process messages on virtual threads with at most N messages in flight per consumer");
+		parser.addArgument("--timeout").type(Integer.class).setDefault(30).help("Maximum run time in minutes");
+
+		Namespace namespace;
+
+		try {
+			namespace = parser.parseArgs(args);
+		} catch (ArgumentParserException e) {
+			parser.handleError(e);
+			System.exit(1);
+			return;
+		}
+
+		PipelineHarness harness = new PipelineHarness(namespace.getInt("images"), namespace.getInt("consumers"),
+				namespace.getInt("virtual_threads"));
+		boolean completed = harness.run(namespace.getInt("timeout"), TimeUnit.MINUTES);
+
+		System.exit(completed ? 0 : 1);
+	}
+
+	/**
+	 * Generate the corpus, run the pipeline until it is idle and print the results.
+	 *
+	 * @param timeout maximum time to wait for the pipeline
+	 * @param unit    unit of the timeout
+	 * @return true if all messages were processed before the timeout
+	 * @throws IOException          if the corpus cannot be created
+	 * @throws InterruptedException if interrupted while waiting for the pipeline
+	 */
+	public boolean run(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+		try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix()); InMemoryBroker broker = new InMemoryBroker()) {
+			Path root = fileSystem.getPath("/" + ANCHOR);
+			long corpusBytes = createCorpus(root);
+
+			ObjectStore minio = new InMemoryObjectStore();
+			MongoDbMapper mapper = InMemoryMorphium.createMapper("si2-benchmark");
+			QueueConfiguration queueConfig = new QueueConfiguration(broker.createChannel());
+			TraceAggregator traceAggregator = new TraceAggregator();
+
+			startConsumers(broker, queueConfig, minio, mapper, traceAggregator);
+
+			FileToQueueVistor visitor = new FileToQueueVistor(broker.createChannel(), ANCHOR, root, mapper, minio, REQUIRED_HASHES,
+					queueConfig.getExchangeName(ConfiguredExchanges.loader));
+
+			LOGGER.info("Processing {} images ({} bytes) with {} consumer(s) per stage", imageCount, corpusBytes, consumersPerStage);
+
+			long started = System.nanoTime();
+			Files.walkFileTree(root, visitor);
+			long walkFinished = System.nanoTime();
+			boolean completed = broker.awaitIdle(timeout, unit);
+			long finished = System.nanoTime();
+
+			report(broker, queueConfig, traceAggregator, corpusBytes, walkFinished - started, finished - started, completed);
+
+			return completed;
+		}
+	}
+
+	private long createCorpus(Path root) throws IOException {
+		CorpusImage[] images = CorpusImage.values();
+		byte[][] data = new byte[images.length][];
+
+		for (int i = 0; i < images.length; i++) {
+			data[i] = images[i].load();
+		}
+
+		long totalBytes = 0;
+
+		for (int i = 0; i < imageCount; i++) {
+			int index = i % images.length;
+			Path directory = root.resolve("dir-" + (i / IMAGES_PER_DIRECTORY));
+			Files.createDirectories(directory);
+			Files.write(directory.resolve("image-" + i + "-" + images[index].getFileName()), data[index]);
+			totalBytes += data[index].length;
+		}
+
+		return totalBytes;
+	}
+
+	private void startConsumers(InMemoryBroker broker, QueueConfiguration queueConfig, ObjectStore minio, MongoDbMapper mapper,
+			TraceAggregator traceAggregator) throws IOException {
+		// one factory, so the database consumers share their update locks
+		PipelineConsumers consumers = new PipelineConsumers(queueConfig, minio, mapper, traceAggregator);
+
+		for (int i = 0; i < consumersPerStage; i++) {
+			Channel resizer = broker.createChannel();
+			consume(resizer, queueConfig.getQueueName(ConfiguredQueues.fileResize), consumers.resizer(resizer, THUMBNAIL_SIZE), true);
+
+			Channel digest = broker.createChannel();
+			consume(digest, queueConfig.getQueueName(ConfiguredQueues.fileDigest), consumers.digest(digest), true);
+
+			Channel customHash = broker.createChannel();
+			consume(customHash, queueConfig.getQueueName(ConfiguredQueues.filePreProcessed), consumers.customHash(customHash), false);
+
+			Channel db = broker.createChannel();
+			consume(db, queueConfig.getQueueName(ConfiguredQueues.persistence), consumers.database(db), true);
+		}
+	}
+
+	private void consume(Channel channel, String queue, Consumer consumer, boolean threadSafe) throws IOException {
+		if (virtualThreadLimit > 0 && threadSafe) {
+			channel.basicConsume(queue, new VirtualThreadConsumer(channel, consumer, virtualThreadLimit));
+		} else {
+			channel.basicConsume(queue, consumer);
+		}
+	}
+
+	private void report(InMemoryBroker broker, QueueConfiguration queueConfig, TraceAggregator traceAggregator, long corpusBytes,
+			long walkNanos, long totalNanos, boolean completed) {
+		double seconds = totalNanos / 1_000_000_000.0;
+
+		System.out.println();
+		System.out.printf("Images:          %d (%.1f MiB)%n", imageCount, corpusBytes / (1024.0 * 1024.0));
+		System.out.printf("Consumers:       %d per stage%s%n", consumersPerStage,
+				virtualThreadLimit > 0 ? ", " + virtualThreadLimit + " virtual threads each" : "");
+		System.out.printf("Loader walk:     %.2f s%n", walkNanos / 1_000_000_000.0);
+		System.out.printf("Total:           %.2f s%s%n", seconds, completed ? "" : " (timed out)");
+		System.out.printf("Throughput:      %.1f images/s, %.1f MiB/s%n", imageCount / seconds, corpusBytes / (1024.0 * 1024.0) / seconds);
+
+		for (ConfiguredQueues queue : ConfiguredQueues.values()) {
+			int deadLettered = broker.getMessageCount(queueConfig.getDeadLetterQueueName(queue));
+
+			if (deadLettered > 0) {
+				System.out.printf("Dead lettered:   %d on %s%n", deadLettered, queue);
+			}
+		}
+
+		System.out.println("Stage latency:   " + traceAggregator.summary());
+	}
+}
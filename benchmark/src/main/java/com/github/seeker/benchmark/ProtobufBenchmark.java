@@ -0,0 +1,78 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.seeker.messaging.proto.DbUpdateOuterClass.DbUpdate;
+import com.github.seeker.messaging.proto.DbUpdateOuterClass.UpdateType;
+import com.github.seeker.messaging.proto.FileLoadOuterClass.FileLoad;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Benchmarks for encoding and decoding the protobuf messages sent for every image.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProtobufBenchmark {
+	private static final String IMAGE_ID = "6f1a2c3e-2b5d-4c8e-9a7f-0e1d2c3b4a59";
+
+	private FileLoad fileLoad;
+	private DbUpdate dbUpdate;
+	private byte[] fileLoadBytes;
+	private byte[] dbUpdateBytes;
+
+	@Setup
+	public void setUp() {
+		FileLoad.Builder fileLoadBuilder = FileLoad.newBuilder().addMissingHash("SHA-256").addMissingHash("SHA-512")
+				.addMissingCustomHash("phash").setGenerateThumbnail(true).setImageId(IMAGE_ID);
+		fileLoadBuilder.getImagePathBuilder().setAnchor("pictures").setRelativePath("holiday/2019/beach/IMG_1234.jpg");
+		fileLoad = fileLoadBuilder.build();
+		fileLoadBytes = fileLoad.toByteArray();
+
+		DbUpdate.Builder dbUpdateBuilder = DbUpdate.newBuilder().setUpdateType(UpdateType.UPDATE_TYPE_HASH).setImageId(IMAGE_ID)
+				.putHash("SHA-256", ByteString.copyFrom(new byte[32])).putHash("SHA-512", ByteString.copyFrom(new byte[64]))
+				.putHash("phash", ByteString.copyFrom(new byte[8]));
+		dbUpdateBuilder.getImagePathBuilder().setAnchor("pictures").setRelativePath("holiday/2019/beach/IMG_1234.jpg");
+		dbUpdate = dbUpdateBuilder.build();
+		dbUpdateBytes = dbUpdate.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] encodeFileLoad() {
+		return fileLoad.toByteArray();
+	}
+
+	@Benchmark
+	public FileLoad decodeFileLoad() throws InvalidProtocolBufferException {
+		return FileLoad.parseFrom(fileLoadBytes);
+	}
+
+	@Benchmark
+	public byte[] encodeDbUpdate() {
+		return dbUpdate.toByteArray();
+	}
+
+	@Benchmark
+	public DbUpdate decodeDbUpdate() throws InvalidProtocolBufferException {
+		return DbUpdate.parseFrom(dbUpdateBytes);
+	}
+}
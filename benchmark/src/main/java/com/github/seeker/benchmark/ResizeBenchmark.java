@@ -0,0 +1,73 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.seeker.processor.ImageScaler;
+
+/**
+ * Benchmarks for decoding, scaling and encoding images, as done by the resizer and custom hash nodes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResizeBenchmark {
+	private static final int THUMBNAIL_SIZE = 300;
+
+	@Param({ "SMALL_JPEG", "HD_JPEG", "LARGE_JPEG", "GRAY_JPEG", "ALPHA_PNG", "INDEXED_GIF" })
+	private CorpusImage image;
+
+	private byte[] encoded;
+	private BufferedImage decoded;
+	private BufferedImage thumbnail;
+
+	@Setup
+	public void setUp() throws IOException {
+		encoded = image.load();
+		decoded = ImageIO.read(new ByteArrayInputStream(encoded));
+		thumbnail = ImageScaler.createThumbnail(decoded, THUMBNAIL_SIZE);
+	}
+
+	@Benchmark
+	public BufferedImage decode() throws IOException {
+		return ImageIO.read(new ByteArrayInputStream(encoded));
+	}
+
+	@Benchmark
+	public BufferedImage thumbnail() {
+		return ImageScaler.createThumbnail(decoded, THUMBNAIL_SIZE);
+	}
+
+	@Benchmark
+	public BufferedImage preProcess() {
+		return ImageScaler.createPreProcessed(decoded);
+	}
+
+	@Benchmark
+	public byte[] encodeThumbnail() throws IOException {
+		return ImageScaler.toJpeg(thumbnail);
+	}
+}
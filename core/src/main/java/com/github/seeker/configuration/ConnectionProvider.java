@@ -1,6 +1,8 @@
 package com.github.seeker.configuration;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -20,10 +22,12 @@ import com.github.seeker.persistence.MongoDbMapper;
 import com.orbitz.consul.model.health.Node;
 import com.orbitz.consul.model.health.Service;
 import com.orbitz.consul.model.health.ServiceHealth;
+import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.ConnectionFactory;
 
 import de.caluga.morphium.Morphium;
 import de.caluga.morphium.MorphiumConfig;
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
 
 /**
@@ -37,6 +41,7 @@ public class ConnectionProvider {
 	private final ConsulConfiguration consulConfig;
 	private final boolean overrideVirtualBoxAddress;
 	private final ScheduledExecutorService renewPool;
+	private String nodeId;
 	
 	private static final String LOCALHOST_ADDRESS = "127.0.0.1";
 	private static final String PRODUCTION_DB_CONSUL_KEY = "config/mongodb/database/si2";
@@ -56,6 +61,46 @@ public class ConnectionProvider {
 		return new ConsulClient(consulConfig);
 	}
 	
+	/**
+	 * Set the id of this node, used to name node queues if stages are co-located. Defaults to the host name.
+	 * 
+	 * @param nodeId the id of this node
+	 */
+	public void setNodeId(String nodeId) {
+		this.nodeId = nodeId;
+	}
+	
+	/**
+	 * Get the id of this node.
+	 * 
+	 * @return the node id set with {@link #setNodeId(String)}, or the host name
+	 */
+	public String getNodeId() {
+		if (nodeId != null) {
+			return nodeId;
+		}
+
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException("Failed to get host name for node id, set it explicitly", e);
+		}
+	}
+	
+	/**
+	 * Create a queue configuration using the cluster wide settings in consul.
+	 * 
+	 * @param channel a channel to declare the queues on
+	 * @return a new queue configuration
+	 * @throws IOException if there is an error declaring queues
+	 */
+	public QueueConfiguration getQueueConfiguration(Channel channel) throws IOException {
+		boolean colocated = consul.getKvAsBoolean(QueueConfiguration.COLOCATION_KV_PATH, false);
+		LOGGER.info("Stages are {}co-located", colocated ? "" : "not ");
+
+		return new QueueConfiguration(channel, false, colocated, colocated ? getNodeId() : null);
+	}
+	
 	public ConnectionFactory getRabbitMQConnectionFactory(RabbitMqRole role) throws IOException, TimeoutException, VaultException {
 		ServiceHealth rabbitmqService = consul.getFirstHealtyInstance(ConfiguredService.rabbitmq);
 		
@@ -183,6 +228,24 @@ public class ConnectionProvider {
 	}
 
 	public MinioClient getMinioClient() throws VaultException {
+		MinioConnection connection = getMinioConnection();
+
+		return MinioClient.builder().endpoint(connection.endpoint).credentials(connection.username, connection.password).build();
+	}
+
+	/**
+	 * Get a client for non-blocking requests, e.g. to upload several images at once.
+	 * 
+	 * @return a new asynchronous client
+	 * @throws VaultException if the credentials cannot be read
+	 */
+	public MinioAsyncClient getMinioAsyncClient() throws VaultException {
+		MinioConnection connection = getMinioConnection();
+
+		return MinioAsyncClient.builder().endpoint(connection.endpoint).credentials(connection.username, connection.password).build();
+	}
+
+	private MinioConnection getMinioConnection() throws VaultException {
 		Service minioSerivce = consul.getFirstHealtyInstance(ConfiguredService.minio).getService();
 		// FIXME generate minio creds for service, should not use admin account
 		LogicalResponse response = this.vault.logical().read("kv/minio/admin");
@@ -195,9 +258,20 @@ public class ConnectionProvider {
 		String username = response.getData().get("username");
 		String password = response.getData().get("password");
 
-		return MinioClient.builder().endpoint("http://" + overrideVirtualBoxNatAddress(minioSerivce.getAddress()) + ":" + minioSerivce.getPort())
-				.credentials(username, password)
-				.build();
+		return new MinioConnection("http://" + overrideVirtualBoxNatAddress(minioSerivce.getAddress()) + ":" + minioSerivce.getPort(), username,
+				password);
+	}
+
+	private static class MinioConnection {
+		private final String endpoint;
+		private final String username;
+		private final String password;
+
+		MinioConnection(String endpoint, String username, String password) {
+			this.endpoint = endpoint;
+			this.username = username;
+			this.password = password;
+		}
 	}
 
 	public void shutdown() {
@@ -57,6 +57,18 @@ public class ConsulClient {
 		return Long.parseLong(value); 
 	}
 	
+	/**
+	 * Get a boolean value, or the default if the key does not exist.
+	 * 
+	 * @param key          the key to read
+	 * @param defaultValue returned if there is no value for the key
+	 * @return the value of the key
+	 */
+	public boolean getKvAsBoolean(String key, boolean defaultValue) {
+		return client.keyValueClient().getValue(key).flatMap(value -> value.getValueAsString()).map(Boolean::parseBoolean)
+				.orElse(defaultValue);
+	}
+	
 	/**
 	 * Return a {@link KVCache} for the given root path.
 	 * Listeners must still be added to the cache and it needs to be started.
@@ -2,24 +2,76 @@ package com.github.seeker.configuration;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.seeker.messaging.MessagePriority;
+import com.github.seeker.messaging.TraceContext;
 import com.rabbitmq.client.BuiltinExchangeType;
 import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.GetResponse;
 
 /**
  * Class that sets up queues.
  */
 public class QueueConfiguration {
 	private static final Logger LOGGER = LoggerFactory.getLogger(QueueConfiguration.class);
+
+	/**
+	 * Delay in milliseconds for each retry tier. Failed messages wait in the retry queue for the tier before they are
+	 * dead-lettered back to the work queue.
+	 */
+	private static final int[] RETRY_DELAYS = { 5000, 30000, 180000 };
+	private static final String RETRY_QUEUE_INFIX = "-retry-";
+	private static final String DEAD_LETTER_QUEUE_SUFFIX = "-dead";
+	private static final String NODE_QUEUE_INFIX = "-node-";
+	private static final String HASH_EXCHANGE_SUFFIX = "-hash";
+	private static final String UNROUTED_EXCHANGE_SUFFIX = "-unrouted";
+
+	/**
+	 * Time in milliseconds to wait for the broker to confirm a batch of moved messages.
+	 */
+	private static final long MOVE_CONFIRM_TIMEOUT = 10000;
+
+	/**
+	 * Number of messages moved before waiting for the broker to confirm them.
+	 */
+	private static final int MOVE_BATCH_SIZE = 100;
+
+	/**
+	 * Exchange type provided by the rabbitmq_consistent_hash_exchange plugin.
+	 */
+	private static final String CONSISTENT_HASH_EXCHANGE_TYPE = "x-consistent-hash";
+
+	/**
+	 * Binding weight of a node queue on the consistent hash exchange. All nodes use the same weight, so images are spread
+	 * evenly.
+	 */
+	private static final String NODE_WEIGHT = "1";
+
+	/**
+	 * Consul key for the cluster wide switch that enables co-located stages. All nodes must use the same setting.
+	 */
+	public static final String COLOCATION_KV_PATH = "config/general/colocated-stages";
+
+	/**
+	 * Queues of stages that read the same image, and will run on the same node if stages are co-located.
+	 */
+	private static final EnumSet<ConfiguredQueues> COLOCATED_QUEUES = EnumSet.of(ConfiguredQueues.fileDigest,
+			ConfiguredQueues.fileResize, ConfiguredQueues.filePreProcessed);
 	
 	private Channel channel;
 	private boolean integration;
+	private boolean colocated;
+	private String nodeId;
 	private Map<ConfiguredExchanges, String> exchangeNames;
 	
 	public enum ConfiguredQueues 
@@ -51,7 +103,11 @@ public class QueueConfiguration {
 		/**
 		 * Exchange for loader to place loaded image data.
 		 */
-		loader
+		loader,
+		/**
+		 * Exchange for messages that were rejected or exceeded the maximum number of attempts.
+		 */
+		deadLetter
 	};
 
 	/**
@@ -75,8 +131,29 @@ public class QueueConfiguration {
 	 * @throws IOException if there is an error declaring queues
 	 */
 	public QueueConfiguration(Channel channel, boolean integration) throws IOException {
+		this(channel, integration, false, null);
+	}
+
+	/**
+	 * Create a new Queue configuration.
+	 * 
+	 * If stages are co-located, messages for the digest, resize and custom hash stages are routed by image id via
+	 * consistent hash exchanges to per node queues, so all stages for an image run on the same node and the original
+	 * only needs to be downloaded once. Nodes join a stage with {@link #joinStage(ConfiguredQueues)}. Requires the
+	 * rabbitmq_consistent_hash_exchange plugin.
+	 * 
+	 * @param channel     a channel to declare the queues on
+	 * @param integration if the queues will be used for integration testing
+	 * @param colocated   if messages for the same image should be routed to the same node
+	 * @param nodeId      the id of this node, used for the node queues. Can be null if this instance only publishes
+	 *                    messages.
+	 * @throws IOException if there is an error declaring queues
+	 */
+	public QueueConfiguration(Channel channel, boolean integration, boolean colocated, String nodeId) throws IOException {
 		this.channel = channel;
 		this.integration = integration;
+		this.colocated = colocated;
+		this.nodeId = nodeId;
 		
 		setupExchangeNames();
 		declareExchanges();
@@ -91,6 +168,15 @@ public class QueueConfiguration {
 	public boolean isIntegrationConfig() {
 		return this.integration;
 	}
+
+	/**
+	 * Check if messages for the same image are routed to the same node.
+	 * 
+	 * @return true if stages are co-located
+	 */
+	public boolean isColocated() {
+		return this.colocated;
+	}
 	
 	private void setupExchangeNames() {
 		exchangeNames = new HashMap<QueueConfiguration.ConfiguredExchanges, String>();
@@ -113,38 +199,347 @@ public class QueueConfiguration {
 		
 		channel.exchangeDeclare(getExchangeName(ConfiguredExchanges.loader), BuiltinExchangeType.FANOUT);
 		channel.exchangeDeclare(getExchangeName(ConfiguredExchanges.loaderCommand), BuiltinExchangeType.FANOUT);
+		channel.exchangeDeclare(getExchangeName(ConfiguredExchanges.deadLetter), BuiltinExchangeType.DIRECT);
+
+		if (colocated) {
+			declareHashExchanges();
+		}
+	}
+
+	/**
+	 * The hash exchanges hash on the image id in the trace header instead of the routing key, so retried and re-queued
+	 * messages are routed to the same node. Messages that arrive while no node has joined a stage are passed to the
+	 * alternate exchange, which keeps them in the shared queue until a node joins.
+	 */
+	private void declareHashExchanges() throws IOException {
+		for (ConfiguredQueues queue : COLOCATED_QUEUES) {
+			Map<String, Object> exchangeProperties = new HashMap<String, Object>();
+			exchangeProperties.put("hash-header", TraceContext.IMAGE_ID_HEADER);
+			exchangeProperties.put("alternate-exchange", unroutedExchangeName(queue));
+
+			LOGGER.debug("Declaring consistent hash exchange {} ...", getHashExchangeName(queue));
+			channel.exchangeDeclare(unroutedExchangeName(queue), BuiltinExchangeType.FANOUT);
+			channel.exchangeDeclare(getHashExchangeName(queue), CONSISTENT_HASH_EXCHANGE_TYPE, false, false, exchangeProperties);
+		}
+
+		channel.exchangeBind(getHashExchangeName(ConfiguredQueues.fileDigest), getExchangeName(ConfiguredExchanges.loader), "");
+		channel.exchangeBind(getHashExchangeName(ConfiguredQueues.fileResize), getExchangeName(ConfiguredExchanges.loader), "");
 	}
 	
+	private Map<String, Object> baseQueueProperties() {
+		Map<String, Object> queueProperties = new HashMap<String, Object>();
+
+		if (integration) {
+			queueProperties.put("x-expires", 60000);
+		}
+
+		return queueProperties;
+	}
+
 	private void declareQueues() throws IOException {
 		LOGGER.info("Declaring {} queues...", ConfiguredQueues.values().length);
 		
 		for(ConfiguredQueues queue : ConfiguredQueues.values()) {
-			LOGGER.debug("Declaring queue {} ...", getQueueName(queue));
+			declareWorkQueue(sharedQueueName(queue));
+		}
+		
+		String fileDigest = sharedQueueName(ConfiguredQueues.fileDigest);
+		String fileResize = sharedQueueName(ConfiguredQueues.fileResize);
 
-			Map<String, Object> queueProperties;
+		if (colocated) {
+			// messages are routed via the hash exchanges, the shared queues only hold messages no node could take
+			channel.queueUnbind(fileDigest, getExchangeName(ConfiguredExchanges.loader), "");
+			channel.queueUnbind(fileResize, getExchangeName(ConfiguredExchanges.loader), "");
 
-			if (integration) {
-				queueProperties = new HashMap<String, Object>();
-				queueProperties.put("x-expires", 60000);
-			} else {
-				queueProperties = Collections.emptyMap();
+			for (ConfiguredQueues queue : COLOCATED_QUEUES) {
+				channel.queueBind(sharedQueueName(queue), unroutedExchangeName(queue), "");
 			}
+		} else {
+			channel.queueBind(fileDigest, getExchangeName(ConfiguredExchanges.loader), "");
+			channel.queueBind(fileResize, getExchangeName(ConfiguredExchanges.loader), "");
+		}
+	}
+
+	private void declareWorkQueue(String queueName) throws IOException {
+		LOGGER.debug("Declaring queue {} ...", queueName);
+
+		Map<String, Object> queueProperties = baseQueueProperties();
+		queueProperties.put("x-dead-letter-exchange", getExchangeName(ConfiguredExchanges.deadLetter));
+		queueProperties.put("x-dead-letter-routing-key", queueName);
+		queueProperties.put("x-max-priority", MessagePriority.MAX_PRIORITY);
+
+		channel.queueDeclare(queueName, false, false, integration, queueProperties);
 
-			channel.queueDeclare(getQueueName(queue), false, false, integration, queueProperties);
+		declareDeadLetterQueue(queueName);
+		declareRetryQueues(queueName);
+	}
+
+	/**
+	 * Rejected messages and messages that ran out of attempts are routed to the dead letter queue, where they are kept
+	 * for inspection or manual re-queuing.
+	 */
+	private void declareDeadLetterQueue(String queueName) throws IOException {
+		String deadLetterQueue = deadLetterQueueName(queueName);
+
+		channel.queueDeclare(deadLetterQueue, false, false, integration, baseQueueProperties());
+		channel.queueBind(deadLetterQueue, getExchangeName(ConfiguredExchanges.deadLetter), queueName);
+	}
+
+	/**
+	 * Retry queues have no consumers. Messages expire after the tier delay and are dead-lettered back to the work
+	 * queue via the default exchange.
+	 */
+	private void declareRetryQueues(String queueName) throws IOException {
+		for (int tier = 0; tier < RETRY_DELAYS.length; tier++) {
+			Map<String, Object> queueProperties = baseQueueProperties();
+			queueProperties.put("x-message-ttl", RETRY_DELAYS[tier]);
+			queueProperties.put("x-dead-letter-exchange", "");
+			queueProperties.put("x-dead-letter-routing-key", queueName);
+
+			channel.queueDeclare(retryQueueName(queueName, tier), false, false, integration, queueProperties);
 		}
-		
-		channel.queueBind(getQueueName(ConfiguredQueues.fileDigest), getExchangeName(ConfiguredExchanges.loader), "");
-		channel.queueBind(getQueueName(ConfiguredQueues.fileResize), getExchangeName(ConfiguredExchanges.loader), "");
+	}
+
+	/**
+	 * Declare the queue of this node for a co-located stage and bind it to the hash exchange of the stage. Once bound,
+	 * the exchange moves a share of the images to this node. Messages that were kept in the shared queue while no node
+	 * was bound are re-published to the exchange. Does nothing if stages are not co-located.
+	 * 
+	 * @param queue the stage to join
+	 * @throws IOException              if there is an error declaring the queue or moving messages
+	 * @throws IllegalArgumentException if the stage cannot be co-located
+	 * @throws IllegalStateException    if no node id was set
+	 */
+	public void joinStage(ConfiguredQueues queue) throws IOException {
+		if (!colocated) {
+			return;
+		}
+
+		String nodeQueue = nodeQueueName(queue, requireNodeId());
+
+		LOGGER.info("Joining stage {} with queue {}", queue, nodeQueue);
+		declareWorkQueue(nodeQueue);
+		channel.queueBind(nodeQueue, getHashExchangeName(queue), NODE_WEIGHT);
+
+		int moved = moveMessages(sharedQueueName(queue), getHashExchangeName(queue));
+
+		if (moved > 0) {
+			LOGGER.info("Moved {} messages from the shared queue {} to the hash exchange", moved, sharedQueueName(queue));
+		}
+	}
+
+	/**
+	 * Remove this node from a co-located stage. See {@link #drainNode(ConfiguredQueues, String)}.
+	 * 
+	 * @param queue the stage to leave
+	 * @return the number of messages moved to other nodes
+	 * @throws IOException if there is an error moving messages
+	 */
+	public int leaveStage(ConfiguredQueues queue) throws IOException {
+		return drainNode(queue, requireNodeId());
+	}
+
+	/**
+	 * Remove a node from a co-located stage, e.g. after the node was shut down. The node queue is unbound from the hash
+	 * exchange, so new messages are routed to the remaining nodes, and queued messages are re-published to the
+	 * exchange. If no node is left, the messages are kept in the shared queue. Messages waiting in the retry queues of
+	 * the node are only moved once they return to the node queue, so this should be repeated after the longest retry
+	 * delay.
+	 * 
+	 * @param queue  the stage to remove the node from
+	 * @param nodeId the id of the node to remove
+	 * @return the number of messages moved to other nodes
+	 * @throws IOException              if there is an error moving messages
+	 * @throws IllegalArgumentException if the stage cannot be co-located
+	 * @throws IllegalStateException    if stages are not co-located
+	 */
+	public int drainNode(ConfiguredQueues queue, String nodeId) throws IOException {
+		if (!colocated) {
+			throw new IllegalStateException("Stages are not co-located");
+		}
+
+		String nodeQueue = nodeQueueName(queue, nodeId);
+		String hashExchange = getHashExchangeName(queue);
+
+		channel.queueUnbind(nodeQueue, hashExchange, NODE_WEIGHT);
+
+		int moved = moveMessages(nodeQueue, hashExchange);
+
+		LOGGER.info("Moved {} messages from {} to the remaining nodes", moved, nodeQueue);
+		return moved;
+	}
+
+	/**
+	 * Move all messages from a queue to an exchange in batches. The messages of a batch are acknowledged together once
+	 * the broker has confirmed that all of them were routed, otherwise the batch is returned to the queue. Messages of
+	 * a failed batch that were routed are moved again later, so they may be delivered twice. Uses a separate channel,
+	 * as publisher confirms cannot be disabled once enabled.
+	 */
+	private int moveMessages(String queueName, String exchange) throws IOException {
+		Channel moveChannel = channel.getConnection().createChannel();
+		AtomicBoolean returned = new AtomicBoolean();
+		int moved = 0;
+
+		try {
+			moveChannel.addReturnListener(message -> returned.set(true));
+			moveChannel.confirmSelect();
+
+			int batch;
+
+			while ((batch = moveBatch(moveChannel, queueName, exchange, returned)) > 0) {
+				moved += batch;
+			}
+		} finally {
+			closeQuietly(moveChannel);
+		}
+
+		return moved;
+	}
+
+	/**
+	 * Move up to {@link #MOVE_BATCH_SIZE} messages, waiting once for the broker to confirm all of them.
+	 * 
+	 * @return the number of moved messages, 0 if the queue is empty
+	 */
+	private int moveBatch(Channel moveChannel, String queueName, String exchange, AtomicBoolean returned) throws IOException {
+		long lastDeliveryTag = 0;
+		int count = 0;
+		GetResponse response;
+
+		returned.set(false);
+
+		while (count < MOVE_BATCH_SIZE && (response = moveChannel.basicGet(queueName, false)) != null) {
+			lastDeliveryTag = response.getEnvelope().getDeliveryTag();
+			moveChannel.basicPublish(exchange, "", true, response.getProps(), response.getBody());
+			count++;
+		}
+
+		if (count == 0) {
+			return 0;
+		}
+
+		waitForConfirms(moveChannel, lastDeliveryTag);
+
+		// the broker sends returns before the confirms
+		if (returned.get()) {
+			moveChannel.basicNack(lastDeliveryTag, true, true);
+			throw new IOException("Messages from " + queueName + " could not be routed by " + exchange);
+		}
+
+		moveChannel.basicAck(lastDeliveryTag, true);
+		return count;
+	}
+
+	private void waitForConfirms(Channel moveChannel, long lastDeliveryTag) throws IOException {
+		try {
+			// closes the channel if the broker rejects a message, which returns the batch to the queue
+			moveChannel.waitForConfirmsOrDie(MOVE_CONFIRM_TIMEOUT);
+		} catch (TimeoutException e) {
+			moveChannel.basicNack(lastDeliveryTag, true, true);
+			throw new IOException("Timed out waiting for the broker to confirm moved messages", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			moveChannel.basicNack(lastDeliveryTag, true, true);
+			throw new IOException("Interrupted while waiting for the broker to confirm moved messages", e);
+		}
+	}
+
+	private void closeQuietly(Channel moveChannel) {
+		if (!moveChannel.isOpen()) {
+			return;
+		}
+
+		try {
+			moveChannel.close();
+		} catch (IOException | TimeoutException e) {
+			LOGGER.warn("Failed to close channel: {}", e.getMessage());
+		}
+	}
+
+	private String requireNodeId() {
+		if (Objects.isNull(nodeId)) {
+			throw new IllegalStateException("No node id set");
+		}
+
+		return nodeId;
+	}
+
+	private String unroutedExchangeName(ConfiguredQueues queue) {
+		return sharedQueueName(queue) + UNROUTED_EXCHANGE_SUFFIX;
+	}
+
+	private String nodeQueueName(ConfiguredQueues queue, String nodeId) {
+		if (!COLOCATED_QUEUES.contains(queue)) {
+			throw new IllegalArgumentException("Stage " + queue + " cannot be co-located");
+		}
+
+		return sharedQueueName(queue) + NODE_QUEUE_INFIX + nodeId;
+	}
+
+	/**
+	 * Get the queues of stages that run on the same node if stages are co-located.
+	 * 
+	 * @return the co-located queues
+	 */
+	public static Set<ConfiguredQueues> getColocatedQueues() {
+		return Collections.unmodifiableSet(COLOCATED_QUEUES);
+	}
+
+	/**
+	 * Get the name of the consistent hash exchange for a co-located stage.
+	 * 
+	 * @param queue the stage to get the exchange for
+	 * @return the exchange name
+	 */
+	public String getHashExchangeName(ConfiguredQueues queue) {
+		return sharedQueueName(queue) + HASH_EXCHANGE_SUFFIX;
+	}
+
+	/**
+	 * Get the exchange to publish messages for the queue to. Use with {@link #getPublishRoutingKey(ConfiguredQueues)}.
+	 * 
+	 * @param queue the queue that should receive the message
+	 * @return the exchange name
+	 */
+	public String getPublishExchange(ConfiguredQueues queue) {
+		if (colocated && COLOCATED_QUEUES.contains(queue)) {
+			return getHashExchangeName(queue);
+		}
+
+		return "";
+	}
+
+	/**
+	 * Get the routing key to publish messages for the queue with. Use with {@link #getPublishExchange(ConfiguredQueues)}.
+	 * 
+	 * @param queue the queue that should receive the message
+	 * @return the routing key
+	 */
+	public String getPublishRoutingKey(ConfiguredQueues queue) {
+		if (colocated && COLOCATED_QUEUES.contains(queue)) {
+			return "";
+		}
+
+		return getQueueName(queue);
 	}
 
 	/**
 	 * Get the queue name for the configured queue. If the configuration is in
 	 * integration test mode, the queue names will be prefixed with integration-
+	 * If stages are co-located, the queue of this node is returned for co-located stages.
 	 * 
 	 * @param queue to get the name for
 	 * @return the queue name
 	 */
 	public String getQueueName(ConfiguredQueues queue) {
+		if (colocated && nodeId != null && COLOCATED_QUEUES.contains(queue)) {
+			return nodeQueueName(queue, nodeId);
+		}
+
+		return sharedQueueName(queue);
+	}
+
+	private String sharedQueueName(ConfiguredQueues queue) {
 		if (Objects.isNull(queue)) {
 			LOGGER.error("Queue cannot be null");
 			throw new IllegalStateException("Queue cannot be null");
@@ -157,6 +552,49 @@ public class QueueConfiguration {
 		}
 	}
 	
+	/**
+	 * Get the name of the queue that holds dead-lettered messages for the configured queue.
+	 * 
+	 * @param queue to get the dead letter queue name for
+	 * @return the dead letter queue name
+	 */
+	public String getDeadLetterQueueName(ConfiguredQueues queue) {
+		return deadLetterQueueName(getQueueName(queue));
+	}
+
+	private String deadLetterQueueName(String queueName) {
+		return queueName + DEAD_LETTER_QUEUE_SUFFIX;
+	}
+
+	/**
+	 * Get the name of the retry queue for the configured queue and tier. Higher tiers have longer delays.
+	 * 
+	 * @param queue to get the retry queue name for
+	 * @param tier  the retry tier, starting at 0
+	 * @return the retry queue name
+	 * @throws IllegalArgumentException if the tier does not exist
+	 */
+	public String getRetryQueueName(ConfiguredQueues queue, int tier) {
+		if (tier < 0 || tier >= RETRY_DELAYS.length) {
+			throw new IllegalArgumentException("No retry tier " + tier + ", valid tiers are 0 to " + (RETRY_DELAYS.length - 1));
+		}
+
+		return retryQueueName(getQueueName(queue), tier);
+	}
+
+	private String retryQueueName(String queueName, int tier) {
+		return queueName + RETRY_QUEUE_INFIX + tier;
+	}
+
+	/**
+	 * Get the number of retry tiers.
+	 * 
+	 * @return the number of tiers
+	 */
+	public int getRetryTierCount() {
+		return RETRY_DELAYS.length;
+	}
+
 	/**
 	 * Get the exchange name for the configured exchange.
 	 * 
@@ -180,7 +618,8 @@ public class QueueConfiguration {
 	}
 
 	/**
-	 * Delete the queue. Will throw an exception if the queue does not exist.
+	 * Delete the queue, including the associated retry and dead letter queues. Will throw an exception if the queue
+	 * does not exist.
 	 * 
 	 * @param queue to delete
 	 * @throws IOException if there is an error
@@ -190,6 +629,11 @@ public class QueueConfiguration {
 		String queueName = getQueueName(queue);
 
 		channel.queueDelete(queueName);
+		channel.queueDelete(getDeadLetterQueueName(queue));
+
+		for (int tier = 0; tier < RETRY_DELAYS.length; tier++) {
+			channel.queueDelete(getRetryQueueName(queue, tier));
+		}
 	}
 
 	/**
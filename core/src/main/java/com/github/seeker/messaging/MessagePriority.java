@@ -0,0 +1,62 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.messaging;
+
+/**
+ * Priority lanes for messages. Work queues are declared with a maximum priority, so messages with a higher priority
+ * overtake queued messages with a lower priority.
+ */
+public enum MessagePriority {
+	/**
+	 * Large background jobs, such as initial ingests or recreating all thumbnails.
+	 */
+	BULK(1),
+	/**
+	 * Default priority for file loader jobs.
+	 */
+	NORMAL(5),
+	/**
+	 * Work a user is waiting for, such as a newly added directory.
+	 */
+	INTERACTIVE(9);
+
+	/**
+	 * The highest priority supported by the queues.
+	 */
+	public static final int MAX_PRIORITY = 9;
+
+	private final int value;
+
+	private MessagePriority(int value) {
+		this.value = value;
+	}
+
+	/**
+	 * Get the AMQP priority value.
+	 * 
+	 * @return the priority value
+	 */
+	public int getValue() {
+		return value;
+	}
+
+	/**
+	 * Map a priority value to the highest lane it satisfies. Values below {@link #BULK} are mapped to {@link #BULK}.
+	 * 
+	 * @param value the priority value
+	 * @return the matching priority lane
+	 */
+	public static MessagePriority fromValue(int value) {
+		MessagePriority result = BULK;
+
+		for (MessagePriority priority : values()) {
+			if (value >= priority.value) {
+				result = priority;
+			}
+		}
+
+		return result;
+	}
+}
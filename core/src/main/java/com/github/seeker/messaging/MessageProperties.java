@@ -0,0 +1,54 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.messaging;
+
+import java.util.Collections;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Helper for creating message properties for the processing pipeline.
+ */
+public final class MessageProperties {
+	private MessageProperties() {
+	}
+
+	/**
+	 * Create properties with the given priority and no headers.
+	 * 
+	 * @param priority of the message
+	 * @return new message properties
+	 */
+	public static BasicProperties forPriority(MessagePriority priority) {
+		return new BasicProperties.Builder().headers(Collections.emptyMap()).priority(priority.getValue()).build();
+	}
+
+	/**
+	 * Create properties for a message that is derived from a received message. The priority and the
+	 * {@link TraceContext} are carried over, headers used for retries are not.
+	 * 
+	 * @param received properties of the received message, may be null
+	 * @return new message properties
+	 */
+	public static BasicProperties inherit(BasicProperties received) {
+		if (received == null) {
+			return new BasicProperties.Builder().headers(Collections.emptyMap()).build();
+		}
+
+		return new BasicProperties.Builder().headers(TraceContext.copyTraceHeaders(received.getHeaders()))
+				.priority(received.getPriority()).build();
+	}
+
+	/**
+	 * Create properties for a message that is derived from a received message, and stamp the stage that produced it.
+	 * 
+	 * @param received properties of the received message, may be null
+	 * @param stage    the stage that is handing the image on
+	 * @return new message properties
+	 */
+	public static BasicProperties inherit(BasicProperties received, PipelineStage stage) {
+		return TraceContext.stamp(inherit(received), stage);
+	}
+}
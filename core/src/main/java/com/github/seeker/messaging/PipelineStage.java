@@ -0,0 +1,48 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.messaging;
+
+/**
+ * Stages an image passes through in the processing pipeline. The digest and resize stages both start from the loader
+ * and run in parallel, the custom hashes are calculated from the output of the resizer.
+ */
+public enum PipelineStage {
+	/**
+	 * The file loader uploaded the image and queued it.
+	 */
+	LOADER(null),
+	/**
+	 * The resizer created the thumbnail and the pre-processed image.
+	 */
+	RESIZER(LOADER),
+	/**
+	 * The message digests were calculated.
+	 */
+	DIGEST(LOADER),
+	/**
+	 * The custom hashes were calculated from the pre-processed image.
+	 */
+	CUSTOM_HASH(RESIZER),
+	/**
+	 * The metadata was updated in the database.
+	 */
+	DB(null);
+
+	private final PipelineStage input;
+
+	private PipelineStage(PipelineStage input) {
+		this.input = input;
+	}
+
+	/**
+	 * Get the stage that produces the input of this stage.
+	 * 
+	 * @return the previous stage, or null for the loader, which starts the trace, and the database, which receives
+	 *         updates from all stages
+	 */
+	public PipelineStage getInput() {
+		return input;
+	}
+}
@@ -0,0 +1,144 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.messaging;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.seeker.configuration.QueueConfiguration;
+import com.github.seeker.configuration.QueueConfiguration.ConfiguredQueues;
+import com.github.seeker.metrics.MetricsRegistry;
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Schedules failed deliveries for another attempt using the retry queues declared by {@link QueueConfiguration}.
+ * The number of attempts is tracked in a message header. Once the maximum number of attempts is reached, the
+ * message is rejected and routed to the dead letter queue.
+ */
+public class RetryHandler {
+	private static final Logger LOGGER = LoggerFactory.getLogger(RetryHandler.class);
+
+	/**
+	 * Header with the number of failed attempts for the message.
+	 */
+	public static final String ATTEMPT_HEADER = "x-si2-attempt";
+	/**
+	 * Optional header to override the maximum number of attempts for a message.
+	 */
+	public static final String MAX_ATTEMPTS_HEADER = "x-si2-max-attempts";
+	public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+	private final QueueConfiguration queueConfig;
+	private final int defaultMaxAttempts;
+
+	/**
+	 * Create a new handler with the default maximum number of attempts.
+	 *
+	 * @param queueConfig used to look up the retry queues
+	 */
+	public RetryHandler(QueueConfiguration queueConfig) {
+		this(queueConfig, DEFAULT_MAX_ATTEMPTS);
+	}
+
+	/**
+	 * Create a new handler.
+	 *
+	 * @param queueConfig        used to look up the retry queues
+	 * @param defaultMaxAttempts maximum number of attempts for messages without a {@link #MAX_ATTEMPTS_HEADER}
+	 */
+	public RetryHandler(QueueConfiguration queueConfig, int defaultMaxAttempts) {
+		if (defaultMaxAttempts < 1) {
+			throw new IllegalArgumentException("The maximum number of attempts must be at least 1");
+		}
+
+		this.queueConfig = queueConfig;
+		this.defaultMaxAttempts = defaultMaxAttempts;
+	}
+
+	/**
+	 * Retry a failed delivery. The message is published to the retry queue of the current tier and the original
+	 * delivery is acknowledged. If the message has run out of attempts, the delivery is rejected without requeue,
+	 * which routes it to the dead letter queue.
+	 *
+	 * @param channel    the channel the message was received on
+	 * @param queue      the queue the message was consumed from
+	 * @param envelope   of the failed delivery
+	 * @param properties of the failed delivery, may be null
+	 * @param body       of the failed delivery
+	 * @return true if the message was scheduled for a retry, false if it was dead-lettered
+	 * @throws IOException if there is an error communicating with the broker
+	 */
+	public boolean retry(Channel channel, ConfiguredQueues queue, Envelope envelope, BasicProperties properties, byte[] body)
+			throws IOException {
+		int failedAttempts = getAttempts(properties) + 1;
+		int maxAttempts = getMaxAttempts(properties);
+
+		if (failedAttempts >= maxAttempts) {
+			MetricsRegistry.global().counter("si2_messages_dead_lettered_total", "Messages that ran out of attempts", "queue", queue.name())
+					.increment();
+			LOGGER.warn("Message {} on {} failed {} times, sending to dead letter queue", envelope.getDeliveryTag(), queue,
+					failedAttempts);
+			channel.basicNack(envelope.getDeliveryTag(), false, false);
+			return false;
+		}
+
+		int tier = Math.min(failedAttempts, queueConfig.getRetryTierCount()) - 1;
+		String retryQueue = queueConfig.getRetryQueueName(queue, tier);
+
+		Map<String, Object> headers = new HashMap<String, Object>();
+
+		if (properties != null && properties.getHeaders() != null) {
+			headers.putAll(properties.getHeaders());
+		}
+
+		headers.put(ATTEMPT_HEADER, failedAttempts);
+
+		BasicProperties.Builder builder = properties == null ? new BasicProperties.Builder() : properties.builder();
+
+		LOGGER.debug("Scheduling message {} for retry {} of {} via {}", envelope.getDeliveryTag(), failedAttempts, maxAttempts,
+				retryQueue);
+
+		channel.basicPublish("", retryQueue, builder.headers(headers).build(), body);
+		channel.basicAck(envelope.getDeliveryTag(), false);
+		MetricsRegistry.global().counter("si2_messages_retried_total", "Messages scheduled for another attempt", "queue", queue.name())
+				.increment();
+
+		return true;
+	}
+
+	/**
+	 * Get the number of failed attempts recorded in the message headers.
+	 *
+	 * @param properties of the message, may be null
+	 * @return number of failed attempts, 0 if none are recorded
+	 */
+	public static int getAttempts(BasicProperties properties) {
+		return getIntHeader(properties, ATTEMPT_HEADER, 0);
+	}
+
+	private int getMaxAttempts(BasicProperties properties) {
+		return getIntHeader(properties, MAX_ATTEMPTS_HEADER, defaultMaxAttempts);
+	}
+
+	private static int getIntHeader(BasicProperties properties, String header, int defaultValue) {
+		if (properties == null || properties.getHeaders() == null) {
+			return defaultValue;
+		}
+
+		Object value = properties.getHeaders().get(header);
+
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
+		}
+
+		return defaultValue;
+	}
+}
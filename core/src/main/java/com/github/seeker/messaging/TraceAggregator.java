@@ -0,0 +1,227 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.messaging;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+import com.github.seeker.metrics.Histogram;
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Aggregates finished traces into per-stage latency histograms. The latency of a stage is the time between its input
+ * stage handing the image on and the stage itself handing it on, so it includes the time spent waiting in the queue.
+ * <p>
+ * An image results in one database update per stage that had work to do. The updates of an image are collected until
+ * the last one arrives, so every image is recorded once. Traces that are not completed within
+ * {@link #PENDING_TIMEOUT}, e.g. because a stage failed, are discarded.
+ */
+public class TraceAggregator {
+	/**
+	 * Time in milliseconds after which an incomplete trace is discarded.
+	 */
+	public static final long PENDING_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+
+	/**
+	 * Maximum number of incomplete traces. The oldest trace is discarded if there are more.
+	 */
+	private static final int MAX_PENDING = 100000;
+
+	private final Map<PipelineStage, Histogram> stageLatency;
+	private final Histogram endToEndLatency;
+	private final LinkedHashMap<String, PendingTrace> pending = new LinkedHashMap<>();
+
+	public TraceAggregator() {
+		stageLatency = new EnumMap<PipelineStage, Histogram>(PipelineStage.class);
+
+		for (PipelineStage stage : PipelineStage.values()) {
+			stageLatency.put(stage, Histogram.milliseconds());
+		}
+
+		endToEndLatency = Histogram.milliseconds();
+	}
+
+	/**
+	 * Record a database update that was stored now.
+	 * 
+	 * @param properties of the update message
+	 * @return true if the message contained a trace
+	 */
+	public boolean record(BasicProperties properties) {
+		return record(properties, System.currentTimeMillis());
+	}
+
+	/**
+	 * Record a database update that was stored at the given time. Once the last update of the image is recorded, the
+	 * trace is added to the histograms.
+	 * 
+	 * @param properties of the update message
+	 * @param finished   time in epoch milliseconds
+	 * @return true if the message contained a trace
+	 */
+	public boolean record(BasicProperties properties, long finished) {
+		OptionalLong start = TraceContext.getStart(properties);
+
+		if (!start.isPresent()) {
+			return false;
+		}
+
+		int expectedUpdates = TraceContext.getExpectedUpdates(properties);
+		Optional<String> imageId = TraceContext.getImageId(properties);
+
+		if (expectedUpdates == 1 || !imageId.isPresent()) {
+			recordTrace(start.getAsLong(), TraceContext.getTimestamps(properties), finished);
+			return true;
+		}
+
+		PendingTrace completed = null;
+
+		synchronized (pending) {
+			discardExpired(finished);
+
+			PendingTrace trace = pending.computeIfAbsent(imageId.get(), key -> new PendingTrace(finished));
+			trace.timestamps.putAll(TraceContext.getTimestamps(properties));
+			trace.updates++;
+
+			if (trace.updates >= expectedUpdates) {
+				pending.remove(imageId.get());
+				completed = trace;
+			}
+		}
+
+		if (completed != null) {
+			recordTrace(start.getAsLong(), completed.timestamps, finished);
+		}
+
+		return true;
+	}
+
+	private void discardExpired(long now) {
+		Iterator<PendingTrace> oldest = pending.values().iterator();
+
+		while (oldest.hasNext()) {
+			PendingTrace trace = oldest.next();
+
+			if (pending.size() <= MAX_PENDING && now - trace.firstUpdate < PENDING_TIMEOUT) {
+				break;
+			}
+
+			oldest.remove();
+		}
+	}
+
+	private void recordTrace(long start, Map<PipelineStage, Long> timestamps, long finished) {
+		long lastStage = start;
+
+		for (Entry<PipelineStage, Long> entry : timestamps.entrySet()) {
+			PipelineStage stage = entry.getKey();
+
+			if (stage == PipelineStage.DB) {
+				continue;
+			}
+
+			Long input = stage.getInput() == null ? Long.valueOf(start) : timestamps.get(stage.getInput());
+
+			if (input != null) {
+				stageLatency.get(stage).record(Math.max(0, entry.getValue() - input));
+			}
+
+			lastStage = Math.max(lastStage, entry.getValue());
+		}
+
+		stageLatency.get(PipelineStage.DB).record(Math.max(0, finished - lastStage));
+		endToEndLatency.record(Math.max(0, finished - start));
+	}
+
+	/**
+	 * Get the number of images whose trace is waiting for more updates.
+	 * 
+	 * @return number of incomplete traces
+	 */
+	public int getPendingCount() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	/**
+	 * Get the latency histogram for a stage.
+	 * 
+	 * @param stage to get the histogram for
+	 * @return latency histogram in milliseconds
+	 */
+	public Histogram getStageLatency(PipelineStage stage) {
+		return stageLatency.get(stage);
+	}
+
+	/**
+	 * Get the latency histogram for the whole pipeline.
+	 * 
+	 * @return latency histogram in milliseconds
+	 */
+	public Histogram getEndToEndLatency() {
+		return endToEndLatency;
+	}
+
+	/**
+	 * Create a human readable summary of the recorded latencies.
+	 * 
+	 * @return the summary
+	 */
+	public String summary() {
+		StringBuilder sb = new StringBuilder();
+
+		for (Entry<PipelineStage, Histogram> entry : stageLatency.entrySet()) {
+			appendSummary(sb, entry.getKey().toString(), entry.getValue());
+		}
+
+		appendSummary(sb, "TOTAL", endToEndLatency);
+
+		return sb.toString();
+	}
+
+	private void appendSummary(StringBuilder sb, String name, Histogram histogram) {
+		if (sb.length() > 0) {
+			sb.append(", ");
+		}
+
+		sb.append(name).append(": n=").append(histogram.getCount());
+
+		if (histogram.getCount() > 0) {
+			appendQuantile(sb, "p50", histogram, 0.5);
+			appendQuantile(sb, "p95", histogram, 0.95);
+			appendQuantile(sb, "p99", histogram, 0.99);
+		}
+	}
+
+	private void appendQuantile(StringBuilder sb, String name, Histogram histogram, double quantile) {
+		long value = histogram.quantile(quantile);
+		sb.append(' ').append(name);
+
+		if (value == Long.MAX_VALUE) {
+			// the quantile is in the overflow bucket
+			long[] upperBounds = histogram.getUpperBounds();
+			sb.append('>').append(upperBounds[upperBounds.length - 1]).append("ms");
+		} else {
+			sb.append("<=").append(value).append("ms");
+		}
+	}
+
+	private static final class PendingTrace {
+		private final long firstUpdate;
+		private final Map<PipelineStage, Long> timestamps = new EnumMap<PipelineStage, Long>(PipelineStage.class);
+		private int updates;
+
+		PendingTrace(long firstUpdate) {
+			this.firstUpdate = firstUpdate;
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.messaging;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import com.github.seeker.messaging.proto.FileLoadOuterClass.FileLoad;
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Trace context for following an image through the pipeline. The context is stored in the message headers and
+ * consists of the image ID, the time the loader started processing the image and a timestamp for every stage that
+ * handed the image on. Timestamps are epoch milliseconds taken from the clock of the node that ran the stage.
+ */
+public final class TraceContext {
+	/**
+	 * Prefix for all trace headers.
+	 */
+	public static final String HEADER_PREFIX = "x-si2-trace-";
+	public static final String IMAGE_ID_HEADER = HEADER_PREFIX + "image";
+	public static final String START_HEADER = HEADER_PREFIX + "start";
+	public static final String EXPECTED_UPDATES_HEADER = HEADER_PREFIX + "updates";
+
+	private TraceContext() {
+	}
+
+	/**
+	 * Start a new trace for an image that results in a single database update. The {@link PipelineStage#LOADER} stage
+	 * is stamped with the current time.
+	 * 
+	 * @param properties to add the trace to
+	 * @param imageId    of the traced image
+	 * @param started    time in epoch milliseconds when processing of the image started
+	 * @return new properties with the trace headers
+	 */
+	public static BasicProperties start(BasicProperties properties, String imageId, long started) {
+		return start(properties, imageId, started, 1);
+	}
+
+	/**
+	 * Start a new trace. The {@link PipelineStage#LOADER} stage is stamped with the current time.
+	 * 
+	 * @param properties      to add the trace to
+	 * @param imageId         of the traced image
+	 * @param started         time in epoch milliseconds when processing of the image started
+	 * @param expectedUpdates number of database updates the stages will send for the image, see
+	 *                        {@link #expectedUpdates(FileLoad)}
+	 * @return new properties with the trace headers
+	 */
+	public static BasicProperties start(BasicProperties properties, String imageId, long started, int expectedUpdates) {
+		Map<String, Object> headers = copyHeaders(properties);
+		headers.put(IMAGE_ID_HEADER, imageId);
+		headers.put(START_HEADER, started);
+		headers.put(EXPECTED_UPDATES_HEADER, expectedUpdates);
+		headers.put(stageHeader(PipelineStage.LOADER), System.currentTimeMillis());
+
+		return properties.builder().headers(headers).build();
+	}
+
+	/**
+	 * Get the number of database updates the stages will send for a loaded file. The digest, thumbnail and custom hash
+	 * stages each send one update if they have work to do.
+	 * 
+	 * @param message sent by the loader
+	 * @return the number of updates, at least 1
+	 */
+	public static int expectedUpdates(FileLoad message) {
+		if (message.getRecreateThumbnail()) {
+			return 1;
+		}
+
+		int updates = 0;
+
+		if (message.getMissingHashCount() > 0) {
+			updates++;
+		}
+
+		if (message.getGenerateThumbnail()) {
+			updates++;
+		}
+
+		if (message.getMissingCustomHashCount() > 0) {
+			updates++;
+		}
+
+		return Math.max(1, updates);
+	}
+
+	/**
+	 * Stamp the stage with the current time. Does nothing if the properties do not contain a trace.
+	 * 
+	 * @param properties containing the trace
+	 * @param stage      to stamp
+	 * @return new properties with the stage timestamp
+	 */
+	public static BasicProperties stamp(BasicProperties properties, PipelineStage stage) {
+		if (!getStart(properties).isPresent()) {
+			return properties;
+		}
+
+		Map<String, Object> headers = copyHeaders(properties);
+		headers.put(stageHeader(stage), System.currentTimeMillis());
+
+		return properties.builder().headers(headers).build();
+	}
+
+	/**
+	 * Copy all trace headers.
+	 * 
+	 * @param headers to copy from, may be null
+	 * @return a new map containing only the trace headers
+	 */
+	public static Map<String, Object> copyTraceHeaders(Map<String, Object> headers) {
+		if (headers == null) {
+			return Collections.emptyMap();
+		}
+
+		Map<String, Object> traceHeaders = new HashMap<String, Object>();
+
+		for (Entry<String, Object> entry : headers.entrySet()) {
+			if (entry.getKey().startsWith(HEADER_PREFIX)) {
+				traceHeaders.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		return traceHeaders;
+	}
+
+	/**
+	 * Get the ID of the traced image.
+	 * 
+	 * @param properties containing the trace, may be null
+	 * @return the image ID if present
+	 */
+	public static Optional<String> getImageId(BasicProperties properties) {
+		Object value = getHeader(properties, IMAGE_ID_HEADER);
+
+		// strings are received as LongString
+		return value == null ? Optional.empty() : Optional.of(value.toString());
+	}
+
+	/**
+	 * Get the time the trace was started.
+	 * 
+	 * @param properties containing the trace, may be null
+	 * @return the start time in epoch milliseconds if present
+	 */
+	public static OptionalLong getStart(BasicProperties properties) {
+		return getLongHeader(properties, START_HEADER);
+	}
+
+	/**
+	 * Get the number of database updates that complete the trace.
+	 * 
+	 * @param properties containing the trace, may be null
+	 * @return the number of updates, 1 if not set
+	 */
+	public static int getExpectedUpdates(BasicProperties properties) {
+		return (int) Math.max(1, getLongHeader(properties, EXPECTED_UPDATES_HEADER).orElse(1));
+	}
+
+	/**
+	 * Get the timestamps of all stamped stages.
+	 * 
+	 * @param properties containing the trace, may be null
+	 * @return timestamps in epoch milliseconds by stage
+	 */
+	public static Map<PipelineStage, Long> getTimestamps(BasicProperties properties) {
+		Map<PipelineStage, Long> timestamps = new EnumMap<PipelineStage, Long>(PipelineStage.class);
+
+		for (PipelineStage stage : PipelineStage.values()) {
+			getLongHeader(properties, stageHeader(stage)).ifPresent(timestamp -> timestamps.put(stage, timestamp));
+		}
+
+		return timestamps;
+	}
+
+	private static String stageHeader(PipelineStage stage) {
+		return HEADER_PREFIX + stage.name().toLowerCase();
+	}
+
+	private static Map<String, Object> copyHeaders(BasicProperties properties) {
+		Map<String, Object> headers = new HashMap<String, Object>();
+
+		if (properties.getHeaders() != null) {
+			headers.putAll(properties.getHeaders());
+		}
+
+		return headers;
+	}
+
+	private static Object getHeader(BasicProperties properties, String header) {
+		if (properties == null || properties.getHeaders() == null) {
+			return null;
+		}
+
+		return properties.getHeaders().get(header);
+	}
+
+	private static OptionalLong getLongHeader(BasicProperties properties, String header) {
+		Object value = getHeader(properties, header);
+
+		if (value instanceof Number) {
+			return OptionalLong.of(((Number) value).longValue());
+		}
+
+		return OptionalLong.empty();
+	}
+}
@@ -0,0 +1,115 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.messaging;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * Wraps a {@link Consumer} and runs every delivery on its own virtual thread.
+ * The number of deliveries processed at the same time is bounded by a
+ * {@link Semaphore}. The prefetch count of the channel should be set to the
+ * same limit, so the broker does not push more messages than can be processed.
+ */
+public class VirtualThreadConsumer extends DefaultConsumer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadConsumer.class);
+
+	private final Consumer delegate;
+	private final Semaphore inFlight;
+	private final ThreadFactory threadFactory;
+
+	/**
+	 * Create a consumer that hands deliveries to the delegate on virtual threads.
+	 *
+	 * @param channel     the channel the delegate consumes from
+	 * @param delegate    consumer that processes the deliveries
+	 * @param maxInFlight the maximum number of deliveries processed concurrently
+	 */
+	public VirtualThreadConsumer(Channel channel, Consumer delegate, int maxInFlight) {
+		super(channel);
+
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("The number of deliveries in flight must be at least 1");
+		}
+
+		this.delegate = delegate;
+		this.inFlight = new Semaphore(maxInFlight);
+		this.threadFactory = Thread.ofVirtual().name(delegate.getClass().getSimpleName() + "-", 0).factory();
+	}
+
+	@Override
+	public void handleDelivery(String consumerTag, Envelope envelope, BasicProperties properties, byte[] body) throws IOException {
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a free delivery slot", e);
+		}
+
+		threadFactory.newThread(() -> {
+			try {
+				delegate.handleDelivery(consumerTag, envelope, properties, body);
+			} catch (IOException | RuntimeException e) {
+				rejectDelivery(envelope, e);
+			} finally {
+				inFlight.release();
+			}
+		}).start();
+	}
+
+	/**
+	 * The platform thread consumers rely on the channel being closed when a delivery
+	 * fails, which returns unacknowledged messages to the queue. A single failed
+	 * virtual thread must not take down the channel, so the message is requeued
+	 * once and rejected if it fails again.
+	 */
+	private void rejectDelivery(Envelope envelope, Exception cause) {
+		boolean requeue = !envelope.isRedeliver();
+		LOGGER.warn("Failed to process delivery {}, requeue: {}", envelope.getDeliveryTag(), requeue, cause);
+
+		try {
+			getChannel().basicNack(envelope.getDeliveryTag(), false, requeue);
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Failed to reject delivery {}: {}", envelope.getDeliveryTag(), e.getMessage());
+		}
+	}
+
+	@Override
+	public void handleConsumeOk(String consumerTag) {
+		super.handleConsumeOk(consumerTag);
+		delegate.handleConsumeOk(consumerTag);
+	}
+
+	@Override
+	public void handleCancelOk(String consumerTag) {
+		delegate.handleCancelOk(consumerTag);
+	}
+
+	@Override
+	public void handleCancel(String consumerTag) throws IOException {
+		delegate.handleCancel(consumerTag);
+	}
+
+	@Override
+	public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+		delegate.handleShutdownSignal(consumerTag, sig);
+	}
+
+	@Override
+	public void handleRecoverOk(String consumerTag) {
+		delegate.handleRecoverOk(consumerTag);
+	}
+}
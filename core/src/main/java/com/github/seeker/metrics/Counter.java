@@ -0,0 +1,43 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe, monotonically increasing counter.
+ */
+public class Counter {
+	private final LongAdder value = new LongAdder();
+
+	/**
+	 * Increment the counter by one.
+	 */
+	public void increment() {
+		value.increment();
+	}
+
+	/**
+	 * Increment the counter by the given amount.
+	 * 
+	 * @param amount to add, must not be negative
+	 */
+	public void increment(long amount) {
+		if (amount < 0) {
+			throw new IllegalArgumentException("Counters can only be incremented");
+		}
+
+		value.add(amount);
+	}
+
+	/**
+	 * Get the current value.
+	 * 
+	 * @return the current count
+	 */
+	public long get() {
+		return value.sum();
+	}
+}
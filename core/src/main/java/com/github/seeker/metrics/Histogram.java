@@ -0,0 +1,180 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe histogram with fixed bucket boundaries. Values are counted in the first bucket with an upper bound
+ * greater or equal to the value. Values larger than the last bound are counted in an overflow bucket.
+ */
+public class Histogram {
+	private final long[] upperBounds;
+	private final AtomicLongArray buckets;
+	private final LongAdder count;
+	private final LongAdder sum;
+
+	/**
+	 * Create a histogram with the given bucket bounds.
+	 * 
+	 * @param upperBounds inclusive upper bounds of the buckets, in ascending order
+	 */
+	public Histogram(long... upperBounds) {
+		if (upperBounds.length == 0) {
+			throw new IllegalArgumentException("At least one bucket is required");
+		}
+
+		for (int i = 1; i < upperBounds.length; i++) {
+			if (upperBounds[i] <= upperBounds[i - 1]) {
+				throw new IllegalArgumentException("Bucket bounds must be in ascending order");
+			}
+		}
+
+		this.upperBounds = Arrays.copyOf(upperBounds, upperBounds.length);
+		this.buckets = new AtomicLongArray(upperBounds.length + 1);
+		this.count = new LongAdder();
+		this.sum = new LongAdder();
+	}
+
+	/**
+	 * Create a histogram with exponentially growing bucket bounds.
+	 * 
+	 * @param start  upper bound of the first bucket, must be at least 1
+	 * @param factor the factor between bucket bounds, must be greater than 1
+	 * @param count  number of buckets
+	 * @return a new histogram
+	 */
+	public static Histogram exponential(long start, double factor, int count) {
+		if (start < 1 || factor <= 1 || count < 1) {
+			throw new IllegalArgumentException("Invalid bucket parameters");
+		}
+
+		long[] bounds = new long[count];
+		double bound = start;
+
+		for (int i = 0; i < count; i++) {
+			bounds[i] = i == 0 ? start : Math.max(bounds[i - 1] + 1, Math.round(bound));
+			bound *= factor;
+		}
+
+		return new Histogram(bounds);
+	}
+
+	/**
+	 * Histogram suitable for latencies in milliseconds, from 1 ms to about 10 minutes.
+	 * 
+	 * @return a new histogram
+	 */
+	public static Histogram milliseconds() {
+		return exponential(1, 2, 20);
+	}
+
+	/**
+	 * Histogram suitable for sizes in bytes, from 1 KiB to 1 GiB.
+	 * 
+	 * @return a new histogram
+	 */
+	public static Histogram bytes() {
+		return exponential(1024, 4, 11);
+	}
+
+	/**
+	 * Record a value.
+	 * 
+	 * @param value to record
+	 */
+	public void record(long value) {
+		int index = Arrays.binarySearch(upperBounds, value);
+
+		if (index < 0) {
+			index = -index - 1;
+		}
+
+		buckets.incrementAndGet(index);
+		count.increment();
+		sum.add(value);
+	}
+
+	/**
+	 * Get the number of recorded values.
+	 * 
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Get the sum of all recorded values.
+	 * 
+	 * @return the sum of the values
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Get the upper bounds of the buckets, excluding the overflow bucket.
+	 * 
+	 * @return a copy of the bucket bounds
+	 */
+	public long[] getUpperBounds() {
+		return Arrays.copyOf(upperBounds, upperBounds.length);
+	}
+
+	/**
+	 * Get the number of values counted in each bucket. The last entry is the overflow bucket.
+	 * 
+	 * @return a snapshot of the bucket counts
+	 */
+	public long[] getBucketCounts() {
+		long[] counts = new long[buckets.length()];
+
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+		}
+
+		return counts;
+	}
+
+	/**
+	 * Estimate a quantile. The result is the upper bound of the bucket that contains the quantile, so it is an upper
+	 * estimate. If the quantile falls into the overflow bucket, {@link Long#MAX_VALUE} is returned.
+	 * 
+	 * @param quantile between 0 and 1
+	 * @return the estimated value, 0 if no values have been recorded
+	 */
+	public long quantile(double quantile) {
+		if (quantile < 0 || quantile > 1) {
+			throw new IllegalArgumentException("Quantile must be between 0 and 1");
+		}
+
+		long[] counts = getBucketCounts();
+		long total = 0;
+
+		for (long bucketCount : counts) {
+			total += bucketCount;
+		}
+
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+
+		for (int i = 0; i < upperBounds.length; i++) {
+			seen += counts[i];
+
+			if (seen >= rank) {
+				return upperBounds[i];
+			}
+		}
+
+		return Long.MAX_VALUE;
+	}
+}
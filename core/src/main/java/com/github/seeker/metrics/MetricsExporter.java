@@ -0,0 +1,119 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Exposes the metrics of a {@link MetricsRegistry} for scraping on an embedded HTTP server at {@value #PATH}, and/or
+ * writes them to a file periodically, for collection with the node exporter text file collector.
+ */
+public class MetricsExporter implements AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MetricsExporter.class);
+
+	public static final String PATH = "/metrics";
+
+	private final PrometheusFormatter formatter;
+	private HttpServer server;
+	private ScheduledExecutorService fileWriter;
+
+	public MetricsExporter(MetricsRegistry registry) {
+		this.formatter = new PrometheusFormatter(registry);
+	}
+
+	/**
+	 * Start serving metrics on the given port.
+	 * 
+	 * @param port to listen on, 0 to pick a free port
+	 * @return the port the server is listening on
+	 * @throws IOException if the server could not be started
+	 */
+	public int startHttpServer(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext(PATH, this::handleScrape);
+		server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metrics-http");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		server.start();
+
+		int boundPort = server.getAddress().getPort();
+		LOGGER.info("Serving metrics on port {} at {}", boundPort, PATH);
+
+		return boundPort;
+	}
+
+	private void handleScrape(HttpExchange exchange) throws IOException {
+		byte[] response = formatter.format().getBytes(StandardCharsets.UTF_8);
+
+		exchange.getResponseHeaders().set("Content-Type", PrometheusFormatter.CONTENT_TYPE);
+		exchange.sendResponseHeaders(200, response.length);
+
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(response);
+		}
+	}
+
+	/**
+	 * Start writing the metrics to a file. The file is replaced atomically, so readers never see a partial file.
+	 * 
+	 * @param file            to write the metrics to
+	 * @param intervalSeconds time between writes
+	 */
+	public void startFileDump(Path file, long intervalSeconds) {
+		fileWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metrics-file");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		fileWriter.scheduleAtFixedRate(() -> writeFile(file), 0, intervalSeconds, TimeUnit.SECONDS);
+		LOGGER.info("Writing metrics to {} every {} seconds", file, intervalSeconds);
+	}
+
+	/**
+	 * Write the current metrics to the file.
+	 * 
+	 * @param file to write the metrics to
+	 */
+	public void writeFile(Path file) {
+		Path absolute = file.toAbsolutePath();
+
+		try {
+			Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+			Files.write(temp, formatter.format().getBytes(StandardCharsets.UTF_8));
+			Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to write metrics to {}: {}", file, e.getMessage());
+		}
+	}
+
+	@Override
+	public void close() {
+		if (server != null) {
+			server.stop(0);
+		}
+
+		if (fileWriter != null) {
+			fileWriter.shutdown();
+		}
+	}
+}
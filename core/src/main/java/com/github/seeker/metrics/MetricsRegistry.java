@@ -0,0 +1,162 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.metrics;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Holds the metrics of a node. Metrics are identified by name and an optional list of label name and value pairs.
+ * Requesting a metric that already exists returns the existing instance. Names should follow the Prometheus naming
+ * conventions, with the unit as suffix.
+ */
+public class MetricsRegistry {
+	private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+	private static final Pattern VALID_NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+
+	enum Type {
+		counter, histogram
+	}
+
+	static class Family {
+		final String name;
+		final String help;
+		final Type type;
+		final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+
+		Family(String name, String help, Type type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+	}
+
+	private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<String, Family>();
+
+	/**
+	 * Get the registry shared by all components of this process.
+	 * 
+	 * @return the global registry
+	 */
+	public static MetricsRegistry global() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Get or create a counter.
+	 * 
+	 * @param name   of the metric
+	 * @param help   description of the metric
+	 * @param labels label name and value pairs
+	 * @return the counter
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		return get(name, help, Type.counter, labels, Counter.class, Counter::new);
+	}
+
+	/**
+	 * Get or create a timer. The metric name should end in _milliseconds.
+	 * 
+	 * @param name   of the metric
+	 * @param help   description of the metric
+	 * @param labels label name and value pairs
+	 * @return the timer
+	 */
+	public Timer timer(String name, String help, String... labels) {
+		return get(name, help, Type.histogram, labels, Timer.class, Timer::new);
+	}
+
+	/**
+	 * Get or create a histogram for sizes in bytes. The metric name should end in _bytes.
+	 * 
+	 * @param name   of the metric
+	 * @param help   description of the metric
+	 * @param labels label name and value pairs
+	 * @return the histogram
+	 */
+	public Histogram byteHistogram(String name, String help, String... labels) {
+		return register(name, help, Histogram::bytes, labels);
+	}
+
+	/**
+	 * Register an existing histogram, if there is no histogram with the same name and labels.
+	 * 
+	 * @param name      of the metric
+	 * @param help      description of the metric
+	 * @param histogram supplier for the histogram to register
+	 * @param labels    label name and value pairs
+	 * @return the registered histogram
+	 */
+	public Histogram register(String name, String help, Supplier<Histogram> histogram, String... labels) {
+		return get(name, help, Type.histogram, labels, Histogram.class, histogram);
+	}
+
+	private <T> T get(String name, String help, Type type, String[] labels, Class<T> clazz, Supplier<T> factory) {
+		Objects.requireNonNull(name, "Name cannot be null!");
+
+		if (!VALID_NAME.matcher(name).matches()) {
+			throw new IllegalArgumentException("Invalid metric name: " + name);
+		}
+
+		Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+
+		if (family.type != type) {
+			throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type);
+		}
+
+		Object metric = family.metrics.computeIfAbsent(formatLabels(labels), key -> factory.get());
+
+		if (!clazz.isInstance(metric)) {
+			throw new IllegalArgumentException("Metric " + name + " is already registered as " + metric.getClass().getSimpleName());
+		}
+
+		return clazz.cast(metric);
+	}
+
+	/**
+	 * Format label pairs as Prometheus label set, without braces. Labels are sorted by name.
+	 */
+	static String formatLabels(String[] labels) {
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException("Labels must be name and value pairs");
+		}
+
+		Map<String, String> sorted = new TreeMap<String, String>();
+
+		for (int i = 0; i < labels.length; i += 2) {
+			if (!VALID_NAME.matcher(labels[i]).matches()) {
+				throw new IllegalArgumentException("Invalid label name: " + labels[i]);
+			}
+
+			sorted.put(labels[i], labels[i + 1]);
+		}
+
+		StringBuilder sb = new StringBuilder();
+
+		for (Entry<String, String> entry : sorted.entrySet()) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+
+			sb.append(entry.getKey()).append("=\"").append(escape(entry.getValue())).append('"');
+		}
+
+		return sb.toString();
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	Map<String, Family> getFamilies() {
+		return new TreeMap<String, Family>(families);
+	}
+}
@@ -0,0 +1,83 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.metrics;
+
+/**
+ * The common metrics recorded by every role in the processing pipeline. All metrics are labeled with the role.
+ */
+public class PipelineMetrics {
+	private final Counter messagesProcessed;
+	private final Counter messagesFailed;
+	private final Timer processingTime;
+	private final Timer storageReadTime;
+	private final Timer storageWriteTime;
+	private final Timer decodeTime;
+	private final Timer databaseReadTime;
+	private final Timer databaseWriteTime;
+	private final Histogram imageSize;
+
+	/**
+	 * Create the metrics for a role in the global registry.
+	 * 
+	 * @param role of the node, such as resizer or db
+	 */
+	public PipelineMetrics(String role) {
+		this(MetricsRegistry.global(), role);
+	}
+
+	/**
+	 * Create the metrics for a role.
+	 * 
+	 * @param registry to register the metrics with
+	 * @param role     of the node, such as resizer or db
+	 */
+	public PipelineMetrics(MetricsRegistry registry, String role) {
+		messagesProcessed = registry.counter("si2_messages_processed_total", "Messages processed successfully", "role", role);
+		messagesFailed = registry.counter("si2_messages_failed_total", "Messages that failed processing", "role", role);
+		processingTime = registry.timer("si2_message_processing_milliseconds", "Time to process a message", "role", role);
+		storageReadTime = registry.timer("si2_storage_read_milliseconds", "Time to read an object from the object store", "role", role);
+		storageWriteTime = registry.timer("si2_storage_write_milliseconds", "Time to write an object to the object store", "role", role);
+		decodeTime = registry.timer("si2_image_decode_milliseconds", "Time to decode an image", "role", role);
+		databaseReadTime = registry.timer("si2_database_read_milliseconds", "Time to read a document from the database", "role", role);
+		databaseWriteTime = registry.timer("si2_database_write_milliseconds", "Time to write a document to the database", "role", role);
+		imageSize = registry.byteHistogram("si2_image_size_bytes", "Size of the processed images", "role", role);
+	}
+
+	public Counter getMessagesProcessed() {
+		return messagesProcessed;
+	}
+
+	public Counter getMessagesFailed() {
+		return messagesFailed;
+	}
+
+	public Timer getProcessingTime() {
+		return processingTime;
+	}
+
+	public Timer getStorageReadTime() {
+		return storageReadTime;
+	}
+
+	public Timer getStorageWriteTime() {
+		return storageWriteTime;
+	}
+
+	public Timer getDecodeTime() {
+		return decodeTime;
+	}
+
+	public Timer getDatabaseReadTime() {
+		return databaseReadTime;
+	}
+
+	public Timer getDatabaseWriteTime() {
+		return databaseWriteTime;
+	}
+
+	public Histogram getImageSize() {
+		return imageSize;
+	}
+}
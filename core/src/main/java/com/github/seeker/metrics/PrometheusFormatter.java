@@ -0,0 +1,89 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.metrics;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import com.github.seeker.metrics.MetricsRegistry.Family;
+
+/**
+ * Formats the metrics of a {@link MetricsRegistry} in the Prometheus text exposition format.
+ */
+public class PrometheusFormatter {
+	/**
+	 * Content type of the formatted metrics.
+	 */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final MetricsRegistry registry;
+
+	public PrometheusFormatter(MetricsRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Format the current state of all metrics.
+	 * 
+	 * @return the metrics in text format
+	 */
+	public String format() {
+		StringBuilder sb = new StringBuilder();
+
+		for (Family family : registry.getFamilies().values()) {
+			sb.append("# HELP ").append(family.name).append(' ').append(family.help.replace("\n", " ")).append('\n');
+			sb.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+
+			Map<String, Object> metrics = new TreeMap<String, Object>(family.metrics);
+
+			for (Entry<String, Object> entry : metrics.entrySet()) {
+				Object metric = entry.getValue();
+
+				if (metric instanceof Counter) {
+					appendSample(sb, family.name, entry.getKey(), ((Counter) metric).get());
+				} else if (metric instanceof Timer) {
+					appendHistogram(sb, family.name, entry.getKey(), ((Timer) metric).getHistogram());
+				} else if (metric instanceof Histogram) {
+					appendHistogram(sb, family.name, entry.getKey(), (Histogram) metric);
+				}
+			}
+		}
+
+		return sb.toString();
+	}
+
+	private void appendHistogram(StringBuilder sb, String name, String labels, Histogram histogram) {
+		long[] bounds = histogram.getUpperBounds();
+		long[] counts = histogram.getBucketCounts();
+		long cumulative = 0;
+
+		for (int i = 0; i < bounds.length; i++) {
+			cumulative += counts[i];
+			appendSample(sb, name + "_bucket", withLabel(labels, "le", Long.toString(bounds[i])), cumulative);
+		}
+
+		cumulative += counts[bounds.length];
+		appendSample(sb, name + "_bucket", withLabel(labels, "le", "+Inf"), cumulative);
+		appendSample(sb, name + "_sum", labels, histogram.getSum());
+		appendSample(sb, name + "_count", labels, cumulative);
+	}
+
+	private String withLabel(String labels, String name, String value) {
+		String label = name + "=\"" + value + "\"";
+
+		return labels.isEmpty() ? label : labels + "," + label;
+	}
+
+	private void appendSample(StringBuilder sb, String name, String labels, long value) {
+		sb.append(name);
+
+		if (!labels.isEmpty()) {
+			sb.append('{').append(labels).append('}');
+		}
+
+		sb.append(' ').append(value).append('\n');
+	}
+}
@@ -0,0 +1,55 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records durations in milliseconds into a {@link Histogram}.
+ */
+public class Timer {
+	private final Histogram histogram;
+
+	public Timer() {
+		this(Histogram.milliseconds());
+	}
+
+	/**
+	 * Create a timer backed by the given histogram.
+	 * 
+	 * @param histogram with bucket bounds in milliseconds
+	 */
+	public Timer(Histogram histogram) {
+		this.histogram = histogram;
+	}
+
+	/**
+	 * Record the time elapsed since the given start.
+	 * 
+	 * @param startNanos start time, as returned by {@link System#nanoTime()}
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Record a duration.
+	 * 
+	 * @param duration to record
+	 * @param unit     of the duration
+	 */
+	public void record(long duration, TimeUnit unit) {
+		histogram.record(unit.toMillis(duration));
+	}
+
+	/**
+	 * Get the histogram with the recorded durations in milliseconds.
+	 * 
+	 * @return the backing histogram
+	 */
+	public Histogram getHistogram() {
+		return histogram;
+	}
+}
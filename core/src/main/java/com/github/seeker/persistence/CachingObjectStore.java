@@ -0,0 +1,506 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.seeker.metrics.Counter;
+import com.github.seeker.metrics.MetricsRegistry;
+import com.github.seeker.persistence.document.ImageMetaData;
+
+/**
+ * Caches objects read from another {@link ObjectStore} in a local directory, so workers in the same process download
+ * each object only once. The cache is bounded by size, the least recently used objects are evicted first. Writes go to
+ * the backing store and invalidate the cached copy. Cached files that exist on startup are reused.
+ * <p>
+ * Writes by other processes are not seen. Objects that can be replaced, such as thumbnails, must be invalidated with
+ * {@link #invalidate(ObjectKind, UUID)} when they change, and with {@link #invalidateStale(ObjectKind)} after startup.
+ * <p>
+ * The index and the size accounting are kept in memory, so a directory can only be used by one process at a time. This
+ * is enforced with a lock file, processes on the same host need separate directories.
+ */
+public class CachingObjectStore implements ObjectStore, Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CachingObjectStore.class);
+
+	private static final String PREFIX_IMAGE = "image";
+	private static final String PREFIX_THUMBNAIL = "thumb";
+	private static final String PREFIX_PREPROCESSED = "preprocessed";
+	private static final String OBJECT_ID_SUFFIX = ".jpg";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String LOCK_FILE = ".lock";
+
+	/**
+	 * Number of locks used to prevent concurrent downloads of the same object, or invalidating it during a download.
+	 */
+	private static final int LOCK_STRIPES = 64;
+
+	private final ObjectStore delegate;
+	private final Path cacheDirectory;
+	private final long maxSizeBytes;
+	private final Lock[] downloadLocks;
+	private final FileChannel lockChannel;
+
+	/**
+	 * Cached objects and their size in bytes, in access order.
+	 */
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long sizeBytes;
+
+	private final Counter hits;
+	private final Counter misses;
+	private final Counter evictions;
+
+	/**
+	 * Create a new cache.
+	 *
+	 * @param delegate       the store to cache
+	 * @param cacheDirectory directory for the cached objects
+	 * @param maxSizeBytes   the maximum total size of the cached objects
+	 * @throws IOException if the cache directory cannot be created or read, or is used by another process
+	 */
+	public CachingObjectStore(ObjectStore delegate, Path cacheDirectory, long maxSizeBytes) throws IOException {
+		if (maxSizeBytes < 1) {
+			throw new IllegalArgumentException("The cache size must be at least 1 byte");
+		}
+
+		this.delegate = delegate;
+		this.cacheDirectory = cacheDirectory;
+		this.maxSizeBytes = maxSizeBytes;
+		this.downloadLocks = new Lock[LOCK_STRIPES];
+
+		for (int i = 0; i < downloadLocks.length; i++) {
+			downloadLocks[i] = new ReentrantLock();
+		}
+
+		MetricsRegistry metrics = MetricsRegistry.global();
+		this.hits = metrics.counter("si2_object_cache_hits_total", "Object reads served from the local cache");
+		this.misses = metrics.counter("si2_object_cache_misses_total", "Object reads that had to be downloaded");
+		this.evictions = metrics.counter("si2_object_cache_evictions_total", "Objects evicted from the local cache");
+
+		Files.createDirectories(cacheDirectory);
+		this.lockChannel = lockDirectory();
+
+		try {
+			loadExistingEntries();
+		} catch (IOException e) {
+			lockChannel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Lock the cache directory for this process. Temporary files are deleted on startup, and the size is only tracked
+	 * per process, so sharing the directory would break downloads in progress and the size limit.
+	 */
+	private FileChannel lockDirectory() throws IOException {
+		FileChannel channel = FileChannel.open(cacheDirectory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock lock;
+
+		try {
+			lock = channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			// locked by another cache in this process
+			lock = null;
+		}
+
+		if (lock == null) {
+			channel.close();
+			throw new IOException("The cache directory " + cacheDirectory + " is used by another process");
+		}
+
+		return channel;
+	}
+
+	/**
+	 * Release the cache directory, so it can be used by another process. The cache must not be used afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		lockChannel.close();
+	}
+
+	private void loadExistingEntries() throws IOException {
+		for (String prefix : new String[] { PREFIX_IMAGE, PREFIX_THUMBNAIL, PREFIX_PREPROCESSED }) {
+			Files.createDirectories(cacheDirectory.resolve(prefix));
+		}
+
+		List<Path> cached;
+
+		try (Stream<Path> files = Files.walk(cacheDirectory)) {
+			cached = files.filter(Files::isRegularFile).filter(path -> !path.getFileName().toString().equals(LOCK_FILE))
+					.collect(Collectors.toList());
+		}
+
+		List<Path> temporary = cached.stream().filter(path -> path.toString().endsWith(TEMP_SUFFIX)).collect(Collectors.toList());
+
+		for (Path path : temporary) {
+			deleteQuietly(path);
+		}
+
+		cached.removeAll(temporary);
+		cached.sort(Comparator.comparing(this::lastAccess));
+
+		synchronized (entries) {
+			for (Path path : cached) {
+				String key = cacheDirectory.relativize(path).toString().replace('\\', '/');
+				long size = Files.size(path);
+				entries.put(key, size);
+				sizeBytes += size;
+			}
+
+			LOGGER.info("Loaded {} cached objects with {} bytes from {}", entries.size(), sizeBytes, cacheDirectory);
+		}
+
+		evict();
+	}
+
+	private long lastAccess(Path path) {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class).lastAccessTime().toMillis();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Get the number of cached objects.
+	 *
+	 * @return number of objects in the cache
+	 */
+	public int getEntryCount() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Get the total size of the cached objects.
+	 *
+	 * @return size in bytes
+	 */
+	public long getSizeBytes() {
+		synchronized (entries) {
+			return sizeBytes;
+		}
+	}
+
+	@Override
+	public void createBuckets() {
+		delegate.createBuckets();
+	}
+
+	@Override
+	public void storeImage(Path path, UUID imageID) throws MinioPersistenceException {
+		delegate.storeImage(path, imageID);
+		invalidate(key(PREFIX_IMAGE, imageID));
+	}
+
+	@Override
+	public void storeImage(String path, UUID imageID) throws MinioPersistenceException {
+		delegate.storeImage(path, imageID);
+		invalidate(key(PREFIX_IMAGE, imageID));
+	}
+
+	@Override
+	public CompletableFuture<Void> storeImageAsync(Path path, UUID imageID) {
+		return delegate.storeImageAsync(path, imageID).thenRun(() -> invalidate(key(PREFIX_IMAGE, imageID)));
+	}
+
+	@Override
+	public InputStream getImage(UUID uuid) throws MinioPersistenceException {
+		return read(key(PREFIX_IMAGE, uuid), () -> delegate.getImage(uuid));
+	}
+
+	@Override
+	public void deleteImage(UUID imageId) throws MinioPersistenceException {
+		delegate.deleteImage(imageId);
+		invalidate(key(PREFIX_IMAGE, imageId));
+	}
+
+	@Override
+	public boolean imageExisits(UUID imageId) throws MinioPersistenceException {
+		return delegate.imageExisits(imageId);
+	}
+
+	@Override
+	public void deleteImages(Iterator<ImageMetaData> imagesToDelete) {
+		Iterator<ImageMetaData> invalidating = new Iterator<ImageMetaData>() {
+			@Override
+			public boolean hasNext() {
+				return imagesToDelete.hasNext();
+			}
+
+			@Override
+			public ImageMetaData next() {
+				ImageMetaData next = imagesToDelete.next();
+				invalidate(key(PREFIX_IMAGE, next.getImageId()));
+				return next;
+			}
+		};
+
+		delegate.deleteImages(invalidating);
+	}
+
+	@Override
+	public void deleteImagesById(Collection<UUID> imageIds) throws MinioPersistenceException {
+		delegate.deleteImagesById(imageIds);
+		imageIds.forEach(imageId -> invalidate(key(PREFIX_IMAGE, imageId)));
+	}
+
+	@Override
+	public void deletePreProcessedImages(Collection<UUID> imageIds) throws MinioPersistenceException {
+		delegate.deletePreProcessedImages(imageIds);
+		imageIds.forEach(imageId -> invalidate(key(PREFIX_PREPROCESSED, imageId)));
+	}
+
+	@Override
+	public Iterator<StoredObject> listObjects(ObjectKind kind) throws MinioPersistenceException {
+		return delegate.listObjects(kind);
+	}
+
+	@Override
+	public void deleteObjects(ObjectKind kind, Collection<UUID> imageIds) throws MinioPersistenceException {
+		delegate.deleteObjects(kind, imageIds);
+		imageIds.forEach(imageId -> invalidate(key(kind.getPrefix(), imageId)));
+	}
+
+	@Override
+	public void storeThumbnail(UUID imageId, InputStream imageStream) throws MinioPersistenceException {
+		delegate.storeThumbnail(imageId, imageStream);
+		invalidate(key(PREFIX_THUMBNAIL, imageId));
+	}
+
+	@Override
+	public InputStream getThumbnail(UUID imageId) throws MinioPersistenceException {
+		return read(key(PREFIX_THUMBNAIL, imageId), () -> delegate.getThumbnail(imageId));
+	}
+
+	@Override
+	public void storePreProcessedImage(UUID imageId, InputStream imageStream) throws MinioPersistenceException {
+		delegate.storePreProcessedImage(imageId, imageStream);
+		invalidate(key(PREFIX_PREPROCESSED, imageId));
+	}
+
+	@Override
+	public InputStream getPreProcessedImage(UUID imageId) throws MinioPersistenceException {
+		return read(key(PREFIX_PREPROCESSED, imageId), () -> delegate.getPreProcessedImage(imageId));
+	}
+
+	@Override
+	public void moveImageToCorrupted(UUID imageId) throws MinioPersistenceException {
+		delegate.moveImageToCorrupted(imageId);
+		invalidate(key(PREFIX_IMAGE, imageId));
+	}
+
+	private String key(String prefix, UUID imageId) {
+		return prefix + "/" + imageId.toString() + OBJECT_ID_SUFFIX;
+	}
+
+	private InputStream read(String key, ObjectLoader loader) throws MinioPersistenceException {
+		InputStream cached = openCached(key);
+
+		if (cached != null) {
+			hits.increment();
+			return cached;
+		}
+
+		Lock lock = downloadLock(key);
+		lock.lock();
+
+		try {
+			// another thread may have downloaded the object while waiting for the lock
+			cached = openCached(key);
+
+			if (cached != null) {
+				hits.increment();
+				return cached;
+			}
+
+			misses.increment();
+			download(key, loader);
+		} finally {
+			lock.unlock();
+		}
+
+		cached = openCached(key);
+
+		if (cached == null) {
+			// evicted right away, e.g. the object is larger than the cache
+			return loader.load();
+		}
+
+		return cached;
+	}
+
+	private InputStream openCached(String key) {
+		synchronized (entries) {
+			if (entries.get(key) == null) {
+				return null;
+			}
+
+			try {
+				// open while holding the lock, so the file cannot be evicted in the meantime
+				return Files.newInputStream(cacheDirectory.resolve(key));
+			} catch (IOException e) {
+				LOGGER.warn("Failed to read cached object {}, removing it: {}", key, e.getMessage());
+				sizeBytes -= entries.remove(key);
+				return null;
+			}
+		}
+	}
+
+	private void download(String key, ObjectLoader loader) throws MinioPersistenceException {
+		Path target = cacheDirectory.resolve(key);
+		Path temp = target.resolveSibling(target.getFileName().toString() + "." + UUID.randomUUID() + TEMP_SUFFIX);
+		long size;
+
+		try (InputStream is = loader.load()) {
+			size = Files.copy(is, temp);
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			deleteQuietly(temp);
+			throw new MinioPersistenceException("Failed to cache object " + key, e);
+		}
+
+		synchronized (entries) {
+			Long previous = entries.put(key, size);
+			sizeBytes += size - (previous == null ? 0 : previous);
+		}
+
+		evict();
+	}
+
+	/**
+	 * Remove a cached object that was changed by another process. The next read downloads it again.
+	 *
+	 * @param kind    the kind of the object
+	 * @param imageId ID of the image
+	 */
+	public void invalidate(ObjectKind kind, UUID imageId) {
+		invalidate(key(kind.getPrefix(), imageId));
+	}
+
+	/**
+	 * Remove the cached objects of a kind that were modified in the backing store after they were cached, e.g. while
+	 * this process was not running. All objects of the kind are listed, so this should run in the background.
+	 *
+	 * @param kind the kind of objects to check
+	 * @return the number of removed objects
+	 * @throws MinioPersistenceException if the objects could not be listed
+	 */
+	public int invalidateStale(ObjectKind kind) throws MinioPersistenceException {
+		Iterator<StoredObject> objects = delegate.listObjects(kind);
+		int invalidated = 0;
+
+		while (objects.hasNext()) {
+			StoredObject object = objects.next();
+			String key = key(kind.getPrefix(), object.getImageId());
+
+			if (isStale(key, object.getLastModified())) {
+				invalidate(key);
+				invalidated++;
+			}
+		}
+
+		return invalidated;
+	}
+
+	private boolean isStale(String key, Instant lastModified) {
+		synchronized (entries) {
+			// does not change the access order
+			if (!entries.containsKey(key)) {
+				return false;
+			}
+
+			try {
+				return Files.getLastModifiedTime(cacheDirectory.resolve(key)).toInstant().isBefore(lastModified);
+			} catch (IOException e) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Takes the download lock, so a download that started before the object was changed cannot add the old content
+	 * after it was invalidated.
+	 */
+	private void invalidate(String key) {
+		Lock lock = downloadLock(key);
+		lock.lock();
+
+		try {
+			synchronized (entries) {
+				Long size = entries.remove(key);
+
+				if (size == null) {
+					return;
+				}
+
+				sizeBytes -= size;
+				deleteQuietly(cacheDirectory.resolve(key));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Lock downloadLock(String key) {
+		return downloadLocks[Math.floorMod(key.hashCode(), downloadLocks.length)];
+	}
+
+	private void evict() {
+		synchronized (entries) {
+			Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+
+			while (sizeBytes > maxSizeBytes && eldest.hasNext()) {
+				Map.Entry<String, Long> entry = eldest.next();
+				eldest.remove();
+				sizeBytes -= entry.getValue();
+				deleteQuietly(cacheDirectory.resolve(entry.getKey()));
+				evictions.increment();
+				LOGGER.debug("Evicted {} from cache", entry.getKey());
+			}
+		}
+	}
+
+	private void deleteQuietly(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to delete cached file {}: {}", path, e.getMessage());
+		}
+	}
+
+	@FunctionalInterface
+	private interface ObjectLoader {
+		InputStream load() throws MinioPersistenceException;
+	}
+}
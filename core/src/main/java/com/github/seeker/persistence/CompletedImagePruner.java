@@ -0,0 +1,127 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.persistence;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prunes images as soon as the pipeline has finished processing them, instead of waiting for a manual prune run.
+ * Completed images are collected and pruned in batches on a background thread, a partial batch is pruned after the
+ * flush interval. Failed batches are left to the next {@link ImagePruner} run.
+ */
+public class CompletedImagePruner implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CompletedImagePruner.class);
+
+	private final ImagePruner pruner;
+	private final int batchSize;
+	private final ScheduledExecutorService executor;
+
+	private List<UUID> pending;
+
+	/**
+	 * Create a new pruner and start the flush timer.
+	 *
+	 * @param pruner        used to prune the batches
+	 * @param batchSize     number of images to collect before pruning them
+	 * @param flushInterval how long to wait before pruning a partial batch
+	 */
+	public CompletedImagePruner(ImagePruner pruner, int batchSize, Duration flushInterval) {
+		if (batchSize < 1 || batchSize > ImagePruner.BATCH_SIZE) {
+			throw new IllegalArgumentException("Batch size must be between 1 and " + ImagePruner.BATCH_SIZE);
+		}
+
+		this.pruner = pruner;
+		this.batchSize = batchSize;
+		this.pending = new ArrayList<UUID>(batchSize);
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "completed-image-pruner");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		long interval = flushInterval.toMillis();
+		executor.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Called when the pipeline has finished processing an image. The image is pruned with the next batch.
+	 *
+	 * @param imageId ID of the completed image
+	 */
+	public void imageCompleted(UUID imageId) {
+		List<UUID> batch = null;
+
+		synchronized (this) {
+			pending.add(imageId);
+
+			if (pending.size() >= batchSize) {
+				batch = takePending();
+			}
+		}
+
+		if (batch != null) {
+			List<UUID> fullBatch = batch;
+			executor.execute(() -> prune(fullBatch));
+		}
+	}
+
+	/**
+	 * Get the number of completed images waiting for the next batch.
+	 *
+	 * @return number of pending images
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	private synchronized List<UUID> takePending() {
+		List<UUID> batch = pending;
+		pending = new ArrayList<UUID>(batchSize);
+		return batch;
+	}
+
+	private void flush() {
+		List<UUID> batch = takePending();
+
+		if (!batch.isEmpty()) {
+			prune(batch);
+		}
+	}
+
+	private void prune(List<UUID> batch) {
+		if (pruner.pruneBatch(batch)) {
+			LOGGER.debug("Pruned {} completed images", batch.size());
+		}
+	}
+
+	/**
+	 * Prune the pending images and stop the background thread. Does nothing if already closed.
+	 */
+	@Override
+	public void close() {
+		if (executor.isShutdown()) {
+			return;
+		}
+
+		executor.execute(this::flush);
+		executor.shutdown();
+
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.persistence;
+
+/**
+ * Receives changes of watched documents.
+ *
+ * @param <T> the type of the documents
+ */
+public interface DocumentChangeListener<T> {
+	/**
+	 * A document was inserted. Delegates to {@link #changed(Object)} by default.
+	 *
+	 * @param document the new document
+	 */
+	default void inserted(T document) {
+		changed(document);
+	}
+
+	/**
+	 * A document was updated or replaced.
+	 *
+	 * @param document the document after the change
+	 */
+	void changed(T document);
+
+	/**
+	 * A document was deleted.
+	 *
+	 * @param id the string form of the deleted document's ID
+	 */
+	void deleted(String id);
+}
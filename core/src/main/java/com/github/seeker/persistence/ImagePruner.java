@@ -0,0 +1,177 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.seeker.metrics.Counter;
+import com.github.seeker.metrics.MetricsRegistry;
+import com.github.seeker.persistence.document.ImageMetaData;
+
+import de.caluga.morphium.driver.MorphiumId;
+
+/**
+ * Deletes the original and pre-processed images of completely processed entries from the object store. Eligible
+ * entries are read in batches, and several batches are deleted concurrently. Pruned entries are marked in the
+ * database, so they are skipped by later runs.
+ */
+public class ImagePruner {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ImagePruner.class);
+
+	/**
+	 * Number of images per batch. This is also the maximum number of objects S3 deletes with one request.
+	 */
+	public static final int BATCH_SIZE = 1000;
+
+	/**
+	 * Name of the custom hash, which is computed from the pre-processed image.
+	 */
+	public static final String CUSTOM_HASH_NAME = "phash";
+
+	private final MongoDbMapper mapper;
+	private final ObjectStore store;
+	private final int concurrency;
+	private final Counter prunedImages;
+	private final Counter failedImages;
+
+	/**
+	 * Callback for the progress of a prune run.
+	 */
+	@FunctionalInterface
+	public interface ProgressListener {
+		/**
+		 * Called after each batch. May be called concurrently.
+		 *
+		 * @param pruned          images pruned so far
+		 * @param total           images that were eligible at the start of the run
+		 * @param imagesPerSecond average rate since the start of the run
+		 */
+		void progress(long pruned, long total, double imagesPerSecond);
+	}
+
+	/**
+	 * Create a new pruner.
+	 *
+	 * @param mapper      to find and mark the entries to prune
+	 * @param store       to delete the images from
+	 * @param concurrency number of batches deleted at the same time
+	 */
+	public ImagePruner(MongoDbMapper mapper, ObjectStore store, int concurrency) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("Concurrency must be at least 1");
+		}
+
+		this.mapper = mapper;
+		this.store = store;
+		this.concurrency = concurrency;
+
+		MetricsRegistry metrics = MetricsRegistry.global();
+		this.prunedImages = metrics.counter("si2_pruned_images_total", "Images whose original and pre-processed objects were deleted");
+		this.failedImages = metrics.counter("si2_prune_failed_images_total", "Images that could not be pruned");
+	}
+
+	/**
+	 * Get the hashes an entry must have before it can be pruned. The custom hash is always included, as it is computed
+	 * from the pre-processed image that is deleted by pruning.
+	 *
+	 * @param requiredHashes the configured required hashes, separated by commas
+	 * @return the required hashes and the custom hash
+	 */
+	public static List<String> completionHashes(String requiredHashes) {
+		List<String> hashes = new ArrayList<String>(Arrays.asList(requiredHashes.split(Pattern.quote(","))));
+
+		if (!hashes.contains(CUSTOM_HASH_NAME)) {
+			hashes.add(CUSTOM_HASH_NAME);
+		}
+
+		return hashes;
+	}
+
+	/**
+	 * Prune all completed entries. Blocks until all batches are done.
+	 *
+	 * @param requiredHashes the hashes an entry must have to be complete, see {@link #completionHashes(String)}
+	 * @param listener       receives progress updates
+	 * @return the number of pruned images
+	 * @throws InterruptedException if interrupted while waiting for batches to complete
+	 */
+	public long prune(List<String> requiredHashes, ProgressListener listener) throws InterruptedException {
+		long total = mapper.countPrunableMetadata(requiredHashes);
+		long started = System.nanoTime();
+		AtomicLong pruned = new AtomicLong();
+
+		LOGGER.info("Pruning {} images with {} concurrent batches", total, concurrency);
+
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		// limit the batches waiting for a thread, so memory use does not depend on the number of entries
+		Semaphore pendingBatches = new Semaphore(concurrency * 2);
+
+		try {
+			MorphiumId last = null;
+			List<ImageMetaData> batch;
+
+			while (!(batch = mapper.getPrunableMetadata(requiredHashes, last, BATCH_SIZE)).isEmpty()) {
+				last = batch.get(batch.size() - 1).getId();
+				List<UUID> imageIds = new ArrayList<UUID>(batch.size());
+				batch.forEach(meta -> imageIds.add(meta.getImageId()));
+
+				pendingBatches.acquire();
+				executor.execute(() -> {
+					try {
+						if (pruneBatch(imageIds)) {
+							long done = pruned.addAndGet(imageIds.size());
+							listener.progress(done, total, rate(done, started));
+						}
+					} finally {
+						pendingBatches.release();
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		}
+
+		LOGGER.info("Pruned {} of {} images at {} images/s", pruned.get(), total, String.format("%.1f", rate(pruned.get(), started)));
+		return pruned.get();
+	}
+
+	/**
+	 * Prune a single batch of images. Entries of failed batches are not marked, so they are retried by the next run.
+	 *
+	 * @param imageIds IDs of the images to prune, at most {@link #BATCH_SIZE}
+	 * @return true if the batch was pruned
+	 */
+	public boolean pruneBatch(List<UUID> imageIds) {
+		try {
+			store.deleteImagesById(imageIds);
+			store.deletePreProcessedImages(imageIds);
+			mapper.markPruned(imageIds);
+			prunedImages.increment(imageIds.size());
+			return true;
+		} catch (MinioPersistenceException | RuntimeException e) {
+			failedImages.increment(imageIds.size());
+			LOGGER.warn("Failed to prune batch of {} images: {}", imageIds.size(), e.getMessage());
+			return false;
+		}
+	}
+
+	private double rate(long images, long started) {
+		double seconds = (System.nanoTime() - started) / 1e9;
+		return seconds > 0 ? images / seconds : 0;
+	}
+}
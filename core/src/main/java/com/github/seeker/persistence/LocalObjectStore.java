@@ -0,0 +1,272 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.seeker.persistence.document.ImageMetaData;
+
+/**
+ * {@link ObjectStore} that keeps the objects in a local directory, for deployments where all nodes run on the same
+ * host. Objects are written with {@link FileChannel} transfers to a temporary file and moved into place, so readers
+ * never see partial objects. Objects are read as streams on the open file, so they can be replaced or deleted as soon
+ * as the stream is closed, also on Windows.
+ */
+public class LocalObjectStore implements ObjectStore {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LocalObjectStore.class);
+
+	private static final String PREFIX_IMAGE = "image";
+	private static final String PREFIX_THUMBNAIL = "thumb";
+	private static final String PREFIX_PREPROCESSED = "preprocessed";
+	private static final String PREFIX_CORRUPTED = "corrupted";
+	private static final String[] PREFIXES = { PREFIX_IMAGE, PREFIX_THUMBNAIL, PREFIX_PREPROCESSED, PREFIX_CORRUPTED };
+
+	// Same naming as the Minio store, so the directory can be served or synced as is
+	private static final String OBJECT_ID_SUFFIX = ".jpg";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+
+	private final Path root;
+
+	/**
+	 * Create a store for the given directory.
+	 *
+	 * @param root directory for the objects
+	 */
+	public LocalObjectStore(Path root) {
+		this.root = root;
+	}
+
+	@Override
+	public void createBuckets() {
+		for (String prefix : PREFIXES) {
+			try {
+				Files.createDirectories(root.resolve(prefix));
+			} catch (IOException e) {
+				LOGGER.error("Failed to create directory {}: {}", root.resolve(prefix), e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public void storeImage(Path path, UUID imageID) throws MinioPersistenceException {
+		Path target = objectPath(PREFIX_IMAGE, imageID);
+		Path temp = tempPath(target);
+
+		try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ);
+				FileChannel destination = openForWrite(temp)) {
+			long size = source.size();
+			long position = 0;
+
+			while (position < size) {
+				position += source.transferTo(position, size - position, destination);
+			}
+		} catch (IOException e) {
+			deleteQuietly(temp);
+			throw new MinioPersistenceException("Failed to store image " + path, e);
+		}
+
+		moveIntoPlace(temp, target);
+	}
+
+	@Override
+	public void storeImage(String path, UUID imageID) throws MinioPersistenceException {
+		storeImage(Paths.get(path), imageID);
+	}
+
+	@Override
+	public InputStream getImage(UUID uuid) throws MinioPersistenceException {
+		return read(objectPath(PREFIX_IMAGE, uuid));
+	}
+
+	@Override
+	public void deleteImage(UUID imageId) throws MinioPersistenceException {
+		try {
+			Files.deleteIfExists(objectPath(PREFIX_IMAGE, imageId));
+		} catch (IOException e) {
+			throw new MinioPersistenceException(e);
+		}
+	}
+
+	@Override
+	public boolean imageExisits(UUID imageId) throws MinioPersistenceException {
+		return Files.exists(objectPath(PREFIX_IMAGE, imageId));
+	}
+
+	@Override
+	public void deleteImages(Iterator<ImageMetaData> imagesToDelete) {
+		while (imagesToDelete.hasNext()) {
+			Path image = objectPath(PREFIX_IMAGE, imagesToDelete.next().getImageId());
+
+			try {
+				Files.deleteIfExists(image);
+			} catch (IOException e) {
+				LOGGER.warn("Failed to delete {}: {}", image, e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public void deleteImagesById(Collection<UUID> imageIds) throws MinioPersistenceException {
+		deleteAll(PREFIX_IMAGE, imageIds);
+	}
+
+	@Override
+	public void deletePreProcessedImages(Collection<UUID> imageIds) throws MinioPersistenceException {
+		deleteAll(PREFIX_PREPROCESSED, imageIds);
+	}
+
+	@Override
+	public void deleteObjects(ObjectKind kind, Collection<UUID> imageIds) throws MinioPersistenceException {
+		deleteAll(kind.getPrefix(), imageIds);
+	}
+
+	/**
+	 * The directory is read and sorted before iterating, file systems do not return entries in order.
+	 */
+	@Override
+	public Iterator<StoredObject> listObjects(ObjectKind kind) throws MinioPersistenceException {
+		List<StoredObject> objects = new ArrayList<StoredObject>();
+
+		try (DirectoryStream<Path> directory = Files.newDirectoryStream(root.resolve(kind.getPrefix()))) {
+			for (Path path : directory) {
+				UUID imageId = StoredObject.parseImageId(path.getFileName().toString(), OBJECT_ID_SUFFIX);
+
+				if (imageId != null) {
+					objects.add(new StoredObject(imageId, Files.getLastModifiedTime(path).toInstant()));
+				}
+			}
+		} catch (NoSuchFileException e) {
+			return Collections.emptyIterator();
+		} catch (IOException e) {
+			throw new MinioPersistenceException(e);
+		}
+
+		objects.sort(Comparator.comparing(object -> object.getImageId().toString()));
+		return objects.iterator();
+	}
+
+	private void deleteAll(String prefix, Collection<UUID> imageIds) throws MinioPersistenceException {
+		for (UUID imageId : imageIds) {
+			try {
+				Files.deleteIfExists(objectPath(prefix, imageId));
+			} catch (IOException e) {
+				throw new MinioPersistenceException(e);
+			}
+		}
+	}
+
+	@Override
+	public void storeThumbnail(UUID imageId, InputStream imageStream) throws MinioPersistenceException {
+		write(objectPath(PREFIX_THUMBNAIL, imageId), imageStream);
+	}
+
+	@Override
+	public InputStream getThumbnail(UUID imageId) throws MinioPersistenceException {
+		return read(objectPath(PREFIX_THUMBNAIL, imageId));
+	}
+
+	@Override
+	public void storePreProcessedImage(UUID imageId, InputStream imageStream) throws MinioPersistenceException {
+		write(objectPath(PREFIX_PREPROCESSED, imageId), imageStream);
+	}
+
+	@Override
+	public InputStream getPreProcessedImage(UUID imageId) throws MinioPersistenceException {
+		return read(objectPath(PREFIX_PREPROCESSED, imageId));
+	}
+
+	@Override
+	public void moveImageToCorrupted(UUID imageId) throws MinioPersistenceException {
+		Path target = objectPath(PREFIX_CORRUPTED, imageId);
+
+		try {
+			Files.createDirectories(target.getParent());
+			Files.move(objectPath(PREFIX_IMAGE, imageId), target, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new MinioPersistenceException(e);
+		}
+	}
+
+	private Path objectPath(String prefix, UUID imageId) {
+		return root.resolve(prefix).resolve(imageId.toString() + OBJECT_ID_SUFFIX);
+	}
+
+	private Path tempPath(Path target) {
+		return target.resolveSibling(target.getFileName().toString() + "." + UUID.randomUUID() + TEMP_SUFFIX);
+	}
+
+	private FileChannel openForWrite(Path path) throws IOException {
+		Files.createDirectories(path.getParent());
+		return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	private void write(Path target, InputStream data) throws MinioPersistenceException {
+		Path temp = tempPath(target);
+
+		try (ReadableByteChannel source = Channels.newChannel(data); FileChannel destination = openForWrite(temp)) {
+			long position = 0;
+			long transferred;
+
+			while ((transferred = destination.transferFrom(source, position, TRANSFER_CHUNK_SIZE)) > 0) {
+				position += transferred;
+			}
+		} catch (IOException e) {
+			deleteQuietly(temp);
+			throw new MinioPersistenceException("Failed to write " + target, e);
+		}
+
+		moveIntoPlace(temp, target);
+	}
+
+	private void moveIntoPlace(Path temp, Path target) throws MinioPersistenceException {
+		try {
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			deleteQuietly(temp);
+			throw new MinioPersistenceException("Failed to move " + temp + " to " + target, e);
+		}
+	}
+
+	private InputStream read(Path path) throws MinioPersistenceException {
+		try {
+			return Files.newInputStream(path);
+		} catch (NoSuchFileException e) {
+			throw new MinioPersistenceException("Object " + root.relativize(path) + " does not exist", e);
+		} catch (IOException e) {
+			throw new MinioPersistenceException(e);
+		}
+	}
+
+	private void deleteQuietly(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to delete temporary file {}: {}", path, e.getMessage());
+		}
+	}
+}
@@ -9,9 +9,15 @@ import java.io.InputStream;
 import java.nio.file.Path;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -24,6 +30,8 @@ import com.github.seeker.persistence.document.ImageMetaData;
 import io.minio.CopyObjectArgs;
 import io.minio.CopySource;
 import io.minio.GetObjectArgs;
+import io.minio.ListObjectsArgs;
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
 import io.minio.PutObjectArgs;
 import io.minio.RemoveObjectArgs;
@@ -40,8 +48,12 @@ import io.minio.errors.ServerException;
 import io.minio.errors.XmlParserException;
 import io.minio.messages.DeleteError;
 import io.minio.messages.DeleteObject;
+import io.minio.messages.Item;
 
-public class MinioStore {
+/**
+ * {@link ObjectStore} backed by a Minio or other S3 compatible server.
+ */
+public class MinioStore implements ObjectStore {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MinioStore.class);
 
 	private static final String PREFIX_IMAGE = "image";
@@ -53,32 +65,65 @@ public class MinioStore {
 	// correct extension, despite the Content Type: image/jpeg
 	private static final String OBJECT_ID_SUFFIX = ".jpg";
 
+	/**
+	 * Smallest part size allowed by S3 for multipart uploads.
+	 */
+	public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
 	private final MinioClient client;
+	private final MinioAsyncClient asyncClient;
 	private final Map<BucketKey, String> bucketNames;
+	private final long partSize;
 
 	public MinioStore(MinioClient client, Map<BucketKey, String> bucketNames) {
+		this(client, null, bucketNames, MIN_PART_SIZE);
+	}
+
+	/**
+	 * Create a store that uploads original images with the asynchronous client, see
+	 * {@link #storeImageAsync(Path, UUID)}.
+	 * 
+	 * @param client      client for blocking operations
+	 * @param asyncClient client for asynchronous uploads, if null uploads are blocking
+	 * @param bucketNames names of the buckets to use
+	 * @param partSize    size of the parts for multipart uploads, in bytes. Files larger than this are uploaded in
+	 *                    multiple parts.
+	 */
+	public MinioStore(MinioClient client, MinioAsyncClient asyncClient, Map<BucketKey, String> bucketNames, long partSize) {
+		if (partSize < MIN_PART_SIZE) {
+			throw new IllegalArgumentException("The part size must be at least " + MIN_PART_SIZE + " bytes");
+		}
+
 		this.client = client;
+		this.asyncClient = asyncClient;
 		this.bucketNames = bucketNames;
+		this.partSize = partSize;
 
 		// Prevent timeout when processing large files
 		client.setTimeout(TimeUnit.MINUTES.toMillis(5), TimeUnit.MINUTES.toMillis(5), TimeUnit.MINUTES.toMillis(5));
+
+		if (asyncClient != null) {
+			asyncClient.setTimeout(TimeUnit.MINUTES.toMillis(5), TimeUnit.MINUTES.toMillis(5), TimeUnit.MINUTES.toMillis(5));
+		}
 	}
 
+	@Override
 	public void createBuckets() {
 		for (BucketKey key : BucketKey.values()) {
 			MinioConfiguration.createBucket(client, bucketNames.get(key));
 		}
 	}
 
+	@Override
 	public void storeImage(Path path, UUID imageID) throws MinioPersistenceException {
 		this.storeImage(path.toString(), imageID);
 	}
 
+	@Override
 	public void storeImage(String path, UUID imageID) throws MinioPersistenceException {
 
 		try {
-			client.uploadObject(UploadObjectArgs.builder().bucket(this.bucketNames.get(BucketKey.Si2)).object(uuidToObjectName(PREFIX_IMAGE, imageID))
-					.filename(path).build());
+			client.uploadObject(uploadImageArgs(path, imageID));
 		} catch (InvalidKeyException | ErrorResponseException | InsufficientDataException | InternalException | InvalidResponseException
 				| NoSuchAlgorithmException | ServerException | XmlParserException | IllegalArgumentException | IOException e) {
 			throw new MinioPersistenceException(e);
@@ -86,6 +131,37 @@ public class MinioStore {
 
 	}
 
+	/**
+	 * Upload the original image with the asynchronous client. Uploads run on the HTTP client threads, so the caller can
+	 * start several uploads and should limit the number in flight. Falls back to a blocking upload if there is no
+	 * asynchronous client.
+	 */
+	@Override
+	public CompletableFuture<Void> storeImageAsync(Path path, UUID imageID) {
+		if (asyncClient == null) {
+			return ObjectStore.super.storeImageAsync(path, imageID);
+		}
+
+		try {
+			return asyncClient.uploadObject(uploadImageArgs(path.toString(), imageID)).handle((response, error) -> {
+				if (error != null) {
+					Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+					throw new CompletionException(new MinioPersistenceException("Failed to upload " + path, cause));
+				}
+
+				return null;
+			});
+		} catch (InvalidKeyException | InsufficientDataException | InternalException | NoSuchAlgorithmException | XmlParserException
+				| IllegalArgumentException | IOException e) {
+			return CompletableFuture.failedFuture(new MinioPersistenceException(e));
+		}
+	}
+
+	private UploadObjectArgs uploadImageArgs(String path, UUID imageID) throws IOException {
+		return UploadObjectArgs.builder().bucket(this.bucketNames.get(BucketKey.Si2)).object(uuidToObjectName(PREFIX_IMAGE, imageID))
+				.filename(path, partSize).build();
+	}
+
 	private String uuidToObjectName(String pathPrefix, UUID uuid) {
 		return pathPrefix + "/" + uuid.toString() + OBJECT_ID_SUFFIX;
 	}
@@ -94,6 +170,7 @@ public class MinioStore {
 		return this.bucketNames.get(key);
 	}
 
+	@Override
 	public InputStream getImage(UUID uuid) throws MinioPersistenceException {
 		try {
 			return client.getObject(GetObjectArgs.builder().bucket(bucketNames.get(BucketKey.Si2)).object(uuidToObjectName(PREFIX_IMAGE, uuid)).build());
@@ -103,6 +180,7 @@ public class MinioStore {
 		}
 	}
 
+	@Override
 	public void deleteImage(UUID imageId) throws MinioPersistenceException {
 		try {
 			client.removeObject(RemoveObjectArgs.builder().bucket(bucketName(BucketKey.Si2)).object(uuidToObjectName(PREFIX_IMAGE, imageId)).build());
@@ -112,6 +190,7 @@ public class MinioStore {
 		}
 	}
 
+	@Override
 	public boolean imageExisits(UUID imageId) throws MinioPersistenceException {
 		try {
 		StatObjectResponse stat = client.statObject(
@@ -131,6 +210,7 @@ public class MinioStore {
 		}
 	}
 
+	@Override
 	public void deleteImages(Iterator<ImageMetaData> imagesToDelete) {
 		Iterator<DeleteObject> metaToDelete = new Iterator<DeleteObject>() {
 			@Override
@@ -165,6 +245,108 @@ public class MinioStore {
 		});
 	}
 
+	@Override
+	public void deleteImagesById(Collection<UUID> imageIds) throws MinioPersistenceException {
+		removeObjects(PREFIX_IMAGE, imageIds);
+	}
+
+	@Override
+	public void deletePreProcessedImages(Collection<UUID> imageIds) throws MinioPersistenceException {
+		removeObjects(PREFIX_PREPROCESSED, imageIds);
+	}
+
+	@Override
+	public void deleteObjects(ObjectKind kind, Collection<UUID> imageIds) throws MinioPersistenceException {
+		removeObjects(kind.getPrefix(), imageIds);
+	}
+
+	@Override
+	public Iterator<StoredObject> listObjects(ObjectKind kind) throws MinioPersistenceException {
+		String prefix = kind.getPrefix() + "/";
+
+		// S3 lists keys in ascending UTF-8 order and pages through them lazily
+		Iterator<Result<Item>> items = client.listObjects(
+				ListObjectsArgs.builder().bucket(bucketName(BucketKey.Si2)).prefix(prefix).recursive(true).build()).iterator();
+
+		return new Iterator<StoredObject>() {
+			private StoredObject next;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null && items.hasNext()) {
+					next = toStoredObject(items.next(), prefix);
+				}
+
+				return next != null;
+			}
+
+			@Override
+			public StoredObject next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				StoredObject current = next;
+				next = null;
+				return current;
+			}
+		};
+	}
+
+	private StoredObject toStoredObject(Result<Item> result, String prefix) {
+		Item item;
+
+		try {
+			item = result.get();
+		} catch (InvalidKeyException | ErrorResponseException | IllegalArgumentException | InsufficientDataException | InternalException
+				| InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException | IOException e) {
+			throw new IllegalStateException("Failed to list objects with prefix " + prefix, new MinioPersistenceException(e));
+		}
+
+		UUID imageId = item.isDir() ? null : StoredObject.parseImageId(item.objectName().substring(prefix.length()), OBJECT_ID_SUFFIX);
+
+		if (imageId == null) {
+			LOGGER.debug("Skipping object {}, the name is not an image ID", item.objectName());
+			return null;
+		}
+
+		return new StoredObject(imageId, item.lastModified().toInstant());
+	}
+
+	private void removeObjects(String prefix, Collection<UUID> imageIds) throws MinioPersistenceException {
+		List<DeleteObject> objects = new ArrayList<DeleteObject>(imageIds.size());
+
+		for (UUID imageId : imageIds) {
+			objects.add(new DeleteObject(uuidToObjectName(prefix, imageId)));
+		}
+
+		// the deletes are only sent while iterating the result
+		Iterable<Result<DeleteError>> result = client.removeObjects(
+				RemoveObjectsArgs.builder().bucket(bucketName(BucketKey.Si2)).objects(objects).build());
+
+		int errors = 0;
+		String firstError = null;
+
+		try {
+			for (Result<DeleteError> error : result) {
+				DeleteError deleteError = error.get();
+
+				if (firstError == null) {
+					firstError = deleteError.objectName() + ": " + deleteError.message();
+				}
+
+				errors++;
+			}
+		} catch (InvalidKeyException | ErrorResponseException | IllegalArgumentException | InsufficientDataException | InternalException
+				| InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException | IOException e) {
+			throw new MinioPersistenceException(e);
+		}
+
+		if (errors > 0) {
+			throw new MinioPersistenceException("Failed to delete " + errors + " of " + imageIds.size() + " objects, first error " + firstError);
+		}
+	}
+
 	private void streamToObject(UUID imageId, InputStream imageStream, String prefix) throws MinioPersistenceException {
 		try {
 			client.putObject(PutObjectArgs.builder().bucket(bucketName(BucketKey.Si2)).object(uuidToObjectName(prefix, imageId))
@@ -184,22 +366,27 @@ public class MinioStore {
 		}
 	}
 
+	@Override
 	public void storeThumbnail(UUID imageId, InputStream imageStream) throws MinioPersistenceException {
 		streamToObject(imageId, imageStream, PREFIX_THUMBNAIL);
 	}
 
+	@Override
 	public InputStream getThumbnail(UUID imageId) throws MinioPersistenceException {
 		return objectToStream(imageId, PREFIX_THUMBNAIL);
 	}
 
+	@Override
 	public void storePreProcessedImage(UUID imageId, InputStream imageStream) throws MinioPersistenceException {
 		streamToObject(imageId, imageStream, PREFIX_PREPROCESSED);
 	}
 
+	@Override
 	public InputStream getPreProcessedImage(UUID imageId) throws MinioPersistenceException {
 		return objectToStream(imageId, PREFIX_PREPROCESSED);
 	}
 
+	@Override
 	public void moveImageToCorrupted(UUID imageId) throws MinioPersistenceException {
 		try {
 			client.copyObject(CopyObjectArgs.builder().bucket(bucketName(BucketKey.Si2))
@@ -4,25 +4,51 @@
  */
 package com.github.seeker.persistence;
 
+import java.io.Closeable;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.seeker.messaging.MessagePriority;
 import com.github.seeker.persistence.document.FileLoaderJob;
 import com.github.seeker.persistence.document.ImageMetaData;
 
 import de.caluga.morphium.Morphium;
+import de.caluga.morphium.changestream.ChangeStreamMonitor;
+import de.caluga.morphium.driver.MorphiumId;
 import de.caluga.morphium.query.MorphiumIterator;
 import de.caluga.morphium.query.Query;
 
 public class MongoDbMapper {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MongoDbMapper.class);
 
+	/**
+	 * Filter values starting with this are matched anywhere in the field, instead of as prefix or exact value.
+	 */
+	public static final String SUBSTRING_FILTER_PREFIX = "*";
+
+	/**
+	 * Fields that are filtered by prefix, all other fields must match exactly.
+	 */
+	private static final Set<String> PREFIX_FILTER_FIELDS = Set.of("path");
+
+	/**
+	 * Error code reported by MongoDB when a write violates a unique index.
+	 */
+	private static final String DUPLICATE_KEY_ERROR = "E11000";
+
 	private final Morphium client;
 
 	/**
@@ -38,6 +64,124 @@ public class MongoDbMapper {
 	public void storeDocument(ImageMetaData meta) {
 		client.store(meta);
 	}
+
+	/**
+	 * Create the indices declared by the documents, if they do not exist. Indices are only created automatically
+	 * when a collection is created, so indices added later must be created with this. Creating the unique anchor and
+	 * path index fails if the collection contains duplicates, these are logged and can be removed with
+	 * {@link #removeDuplicateMetadata()}.
+	 * 
+	 * @return true if all indices exist, false if the metadata indices could not be created due to duplicates
+	 */
+	public boolean ensureIndices() {
+		client.ensureIndicesFor(FileLoaderJob.class);
+
+		try {
+			client.ensureIndicesFor(ImageMetaData.class);
+			return true;
+		} catch (RuntimeException e) {
+			if (!isDuplicateKey(e)) {
+				throw e;
+			}
+
+			LOGGER.error("Failed to create the unique anchor and path index, the metadata contains duplicate entries. "
+					+ "Concurrent loaders can create further duplicates until they are removed with the dedup-metadata command: {}",
+					e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Remove entries that have the same anchor and path as another entry, so the unique anchor and path index can be
+	 * created. Of each set of duplicates, the entry with a thumbnail and the most hashes is kept, the oldest entry if
+	 * they are equal. Thumbnails of removed entries are left in the object store for the orphan cleanup.
+	 * 
+	 * @return the number of removed entries
+	 */
+	public long removeDuplicateMetadata() {
+		Query<ImageMetaData> query = client.createQueryFor(ImageMetaData.class).sort("anchor", "path", "_id");
+		MorphiumIterator<ImageMetaData> entries = project(query, "anchor", "path", "thumbnail", "hashes").asIterable(1000);
+		List<ImageMetaData> duplicates = new ArrayList<ImageMetaData>();
+		ImageMetaData kept = null;
+		long removed = 0;
+
+		while (entries.hasNext()) {
+			ImageMetaData meta = entries.next();
+
+			if (kept == null || !kept.getAnchor().equals(meta.getAnchor()) || !kept.getPath().equals(meta.getPath())) {
+				kept = meta;
+			} else if (isBetterDuplicate(meta, kept)) {
+				duplicates.add(kept);
+				kept = meta;
+			} else {
+				duplicates.add(meta);
+			}
+
+			if (duplicates.size() >= 1000) {
+				removed += deleteDuplicates(duplicates);
+			}
+		}
+
+		removed += deleteDuplicates(duplicates);
+		LOGGER.info("Removed {} duplicate entries", removed);
+		return removed;
+	}
+
+	private boolean isBetterDuplicate(ImageMetaData candidate, ImageMetaData kept) {
+		if (candidate.hasThumbnail() != kept.hasThumbnail()) {
+			return candidate.hasThumbnail();
+		}
+
+		return hashCount(candidate) > hashCount(kept);
+	}
+
+	private int hashCount(ImageMetaData meta) {
+		return meta.getHashes() == null ? 0 : meta.getHashes().size();
+	}
+
+	private int deleteDuplicates(List<ImageMetaData> duplicates) {
+		int count = duplicates.size();
+
+		if (count > 0) {
+			List<MorphiumId> ids = new ArrayList<MorphiumId>(count);
+			duplicates.forEach(meta -> ids.add(meta.getId()));
+			client.delete(client.createQueryFor(ImageMetaData.class).f("_id").in(ids));
+			duplicates.clear();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Store a new entry, unless an entry with the same anchor and path exists. The unique anchor and path index
+	 * decides, so concurrent loaders cannot create duplicates.
+	 * 
+	 * @param meta the new entry
+	 * @return the stored entry, or the existing entry with the same anchor and path
+	 */
+	public ImageMetaData storeIfAbsent(ImageMetaData meta) {
+		try {
+			client.store(meta);
+			return meta;
+		} catch (RuntimeException e) {
+			if (!isDuplicateKey(e)) {
+				throw e;
+			}
+
+			LOGGER.debug("Entry for {} - {} was created concurrently, using the existing entry", meta.getAnchor(), meta.getPath());
+			return getImageMetadata(meta.getAnchor(), meta.getPath());
+		}
+	}
+
+	private boolean isDuplicateKey(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (Objects.toString(cause.getMessage(), "").contains(DUPLICATE_KEY_ERROR)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
 	
 	/**
 	 * Check if the given hash is stored for an image.
@@ -48,14 +192,11 @@ public class MongoDbMapper {
 	 * @return true if a hash is found, else false
 	 */
 	public boolean hasHash(String anchor, Path relativeAnchorPath, String hashName) {
-		Query<ImageMetaData>  query = client.createQueryFor(ImageMetaData.class).f("anchor").eq(anchor).f("path").eq(relativeAnchorPath.toString());
-		ImageMetaData meta = query.get();
-		
-		if(meta == null) {
-			return false;
-		}
-		
-		return meta.getHashes().containsKey(hashName);
+		return idOnly(hasHashQuery(anchor, relativeAnchorPath.toString(), hashName)).get() != null;
+	}
+
+	Query<ImageMetaData> hasHashQuery(String anchor, String relativeAnchorPath, String hashName) {
+		return anchorPathQuery(anchor, relativeAnchorPath).f("hashes." + hashName).exists();
 	}
 
 	/**
@@ -65,7 +206,7 @@ public class MongoDbMapper {
 	 */
 	public boolean hasImageId(String imageId) {
 		Query<ImageMetaData>  query = client.createQueryFor(ImageMetaData.class).f("thumbnail.imageId").eq(UUID.fromString(imageId));
-		ImageMetaData meta = query.get();
+		ImageMetaData meta = idOnly(query).get();
 		
 		if(meta == null) {
 			return false;
@@ -74,6 +215,75 @@ public class MongoDbMapper {
 		}
 	}
 	
+	/**
+	 * Check if the database can report changes as they happen. Change streams are only supported by replica sets.
+	 * 
+	 * @return true if documents can be watched
+	 */
+	public boolean supportsChangeStreams() {
+		return client.getDriver().isReplicaset();
+	}
+
+	/**
+	 * Watch metadata for changes with a change stream, instead of querying it again. The hashes, phash bands and tags
+	 * are not sent, so the documents passed to the listener are partial and must not be stored.
+	 * 
+	 * @param listener receives the changes on a background thread
+	 * @return closing stops watching
+	 * @see #supportsChangeStreams()
+	 */
+	public Closeable watchImageMetadata(DocumentChangeListener<ImageMetaData> listener) {
+		return watch(ImageMetaData.class, listener, "hashes", "phashBands", "tags");
+	}
+
+	/**
+	 * Watch a collection with a change stream. Only document changes are sent by the server.
+	 * 
+	 * @param excludedFields fields of the changed documents that are not sent
+	 */
+	private <T> Closeable watch(Class<T> type, DocumentChangeListener<T> listener, String... excludedFields) {
+		String collection = client.getMapper().getCollectionName(type);
+		List<Map<String, Object>> pipeline = new ArrayList<Map<String, Object>>();
+		pipeline.add(Map.of("$match", Map.of("operationType", Map.of("$in", List.of("insert", "update", "replace", "delete")))));
+
+		if (excludedFields.length > 0) {
+			Map<String, Object> projection = new HashMap<String, Object>();
+
+			for (String field : excludedFields) {
+				projection.put("fullDocument." + client.getARHelper().getMongoFieldName(type, field), 0);
+			}
+
+			pipeline.add(Map.of("$project", projection));
+		}
+
+		// request the full document for updates, so partial updates can be applied as a whole
+		ChangeStreamMonitor monitor = new ChangeStreamMonitor(client, collection, true, pipeline);
+
+		monitor.addListener(event -> {
+			switch (event.getOperationType()) {
+			case "insert" -> listener.inserted(client.getMapper().deserialize(type, event.getFullDocument()));
+			case "update", "replace" -> listener.changed(client.getMapper().deserialize(type, event.getFullDocument()));
+			case "delete" -> listener.deleted(documentId(event.getDocumentKey()));
+			default -> LOGGER.debug("Ignoring {} event for {}", event.getOperationType(), collection);
+			}
+
+			return true;
+		});
+
+		monitor.start();
+		LOGGER.info("Watching {} for changes", collection);
+
+		return monitor::terminate;
+	}
+
+	private String documentId(Object documentKey) {
+		if (documentKey instanceof Map<?, ?> key) {
+			return Objects.toString(key.get("_id"), null);
+		}
+
+		return Objects.toString(documentKey, null);
+	}
+
 	/**
 	 * Get metadata for an image
 	 * @param anchor anchor for the image
@@ -84,15 +294,36 @@ public class MongoDbMapper {
 		return getImageMetadata(anchor, relativeAnchorPath.toString());
 	}
 	
-	private Query<ImageMetaData> filterQuery(Map<String, Object> searchParameters) {
+	/**
+	 * Build a query for the filter. Fields in {@link #PREFIX_FILTER_FIELDS} are matched with an anchored prefix and all
+	 * other fields exactly, so both can use the field index. Values starting with {@link #SUBSTRING_FILTER_PREFIX} are
+	 * matched anywhere in the field, which requires a scan. Blank values are ignored.
+	 */
+	Query<ImageMetaData> filterQuery(Map<String, Object> searchParameters) {
 		Query<ImageMetaData>  query = client.createQueryFor(ImageMetaData.class);
 		
 		for (Entry<String,Object> e: searchParameters.entrySet()) {
-			query = query.f(e.getKey()).matches("^.*" + e.getValue() + ".*$");
+			String value = Objects.toString(e.getValue(), "");
+
+			if (value.isBlank()) {
+				continue;
+			}
+
+			if (value.startsWith(SUBSTRING_FILTER_PREFIX)) {
+				query = query.f(e.getKey()).matches(escapeRegex(value.substring(SUBSTRING_FILTER_PREFIX.length())));
+			} else if (PREFIX_FILTER_FIELDS.contains(e.getKey())) {
+				query = query.f(e.getKey()).matches("^" + escapeRegex(value));
+			} else {
+				query = query.f(e.getKey()).eq(value);
+			}
 		}
 		
 		return query;
 	}
+
+	private static String escapeRegex(String value) {
+		return value.replaceAll("[\\\\.^$|?*+()\\[\\]{}]", "\\\\$0");
+	}
 	
 	public long getFilteredImageMetadataCount(Map<String, Object> searchParameters) {
 		Query<ImageMetaData> query = filterQuery(searchParameters);
@@ -106,9 +337,76 @@ public class MongoDbMapper {
 		return query.skip(skip).limit(limit).asList();
 	}
 	
+	/**
+	 * Get a page of entries that match the filter, ordered by id. The page starts after the given id, so the database
+	 * seeks to it via the _id index instead of skipping all entries on the previous pages. An exact anchor or path
+	 * filter seeks via the compound index of the field and the id. A path prefix matches a range of paths, so its
+	 * entries are sorted by id after they were found.
+	 * 
+	 * @param searchParameters field / value pairs for filtering results, all fields are combined with AND
+	 * @param after            id of the last entry of the previous page, null for the first page
+	 * @param limit            the maximum number of entries to return
+	 * @return the entries of the page, empty if there are no more
+	 */
+	public List<ImageMetaData> getImageMetadataPage(Map<String, Object> searchParameters, MorphiumId after, int limit) {
+		return imageMetadataPageQuery(searchParameters, after, limit).asList();
+	}
+
+	Query<ImageMetaData> imageMetadataPageQuery(Map<String, Object> searchParameters, MorphiumId after, int limit) {
+		Query<ImageMetaData> query = filterQuery(searchParameters);
+
+		if (after != null) {
+			query = query.f("_id").gt(after);
+		}
+
+		return query.sort("_id").limit(limit);
+	}
+
+	/**
+	 * Find the id of the entry that is a number of entries away from another entry, in id order. Only the id is
+	 * returned, so the entries in between are not loaded, but the database still walks over them. The cost grows with
+	 * the offset, so a jump far from any known boundary, e.g. the first jump to the last page, takes time proportional
+	 * to its distance. Used to find page boundaries for {@link #getImageMetadataPage(Map, MorphiumId, int)}.
+	 * 
+	 * @param searchParameters field / value pairs for filtering results, all fields are combined with AND
+	 * @param from             id of the entry to start from, null to start before the first entry
+	 * @param offset           number of entries to move, negative to move towards the first entry
+	 * @return the id of the entry, or null if there are not enough entries
+	 */
+	public MorphiumId getImageMetadataIdAtOffset(Map<String, Object> searchParameters, MorphiumId from, int offset) {
+		if (offset == 0 || (from == null && offset < 0)) {
+			throw new IllegalArgumentException("Cannot move " + offset + " entries from " + from);
+		}
+
+		Query<ImageMetaData> query = idOnly(filterQuery(searchParameters));
+
+		if (offset > 0) {
+			if (from != null) {
+				query = query.f("_id").gt(from);
+			}
+
+			query = query.sort("_id").skip(offset - 1);
+		} else {
+			// the first entry in descending order is the start entry itself
+			query = query.f("_id").lte(from).sort("-_id").skip(-offset);
+		}
+
+		ImageMetaData meta = query.limit(1).get();
+
+		return meta == null ? null : meta.getId();
+	}
+
+	/**
+	 * Get the entries with a thumbnail of a different size. Pruned entries are excluded, as their original is no longer
+	 * available to create a new thumbnail from. The entries are partial and must not be stored.
+	 * 
+	 * @param thumbnailSize the required thumbnail size
+	 * @return entries with anchor, path and image id
+	 */
 	public MorphiumIterator<ImageMetaData> getThumbnailsToResize(int thumbnailSize) {
-		Query<ImageMetaData> query = client.createQueryFor(ImageMetaData.class).f("thumbnail.max_image_size").ne(thumbnailSize);
-		return query.asIterable(1000);
+		Query<ImageMetaData> query = client.createQueryFor(ImageMetaData.class).f("thumbnail.max_image_size").ne(thumbnailSize)
+				.f("prunedTime").notExists();
+		return project(query, "anchor", "path", "imageId").asIterable(1000);
 	}
 
 	/**
@@ -133,10 +431,59 @@ public class MongoDbMapper {
 	 * @return Image metadata if found, otherwise null
 	 */
 	public ImageMetaData getImageMetadata(String anchor, String relativeAnchorPath) {
-		Query<ImageMetaData>  query = client.createQueryFor(ImageMetaData.class).f("anchor").eq(anchor).f("path").eq(relativeAnchorPath);
-		return query.get();
+		return anchorPathQuery(anchor, relativeAnchorPath).get();
+	}
+
+	/**
+	 * Query for the entry with the anchor and path, uses the compound anchor and path index.
+	 */
+	Query<ImageMetaData> anchorPathQuery(String anchor, String relativeAnchorPath) {
+		return client.createQueryFor(ImageMetaData.class).f("anchor").eq(anchor).f("path").eq(relativeAnchorPath);
 	}
 	
+	/**
+	 * Find images with a similar perceptual hash. Candidates sharing a band with the hash are looked up with the band
+	 * index, then filtered by their distance.
+	 * 
+	 * @param phash       the perceptual hash to compare with
+	 * @param maxDistance the largest Hamming distance, at most {@link PhashBands#MAX_DISTANCE}
+	 * @return partial entries with anchor, path, image id, thumbnail and perceptual hash
+	 */
+	public List<ImageMetaData> getSimilarImages(long phash, int maxDistance) {
+		if (maxDistance < 0 || maxDistance > PhashBands.MAX_DISTANCE) {
+			throw new IllegalArgumentException("The distance must be between 0 and " + PhashBands.MAX_DISTANCE + ", but was " + maxDistance);
+		}
+
+		Query<ImageMetaData> query = client.createQueryFor(ImageMetaData.class).f("phashBands").in(PhashBands.bands(phash));
+		List<ImageMetaData> candidates = new ArrayList<ImageMetaData>(project(query, "anchor", "path", "imageId", "thumbnail", "phash").asList());
+		candidates.removeIf(meta -> meta.getPhash() == null || PhashBands.distance(meta.getPhash(), phash) > maxDistance);
+
+		return candidates;
+	}
+
+	/**
+	 * Set the perceptual hash and its bands for entries that only have the hash as bytes, e.g. entries stored before
+	 * the bands were added.
+	 * 
+	 * @param hashName the name of the perceptual hash
+	 * @return the number of updated entries
+	 */
+	public long backfillPhashBands(String hashName) {
+		Query<ImageMetaData> query = client.createQueryFor(ImageMetaData.class).f("hashes." + hashName).exists().f("phashBands").notExists();
+		MorphiumIterator<ImageMetaData> entries = query.asIterable(1000);
+		long updated = 0;
+
+		while (entries.hasNext()) {
+			ImageMetaData meta = entries.next();
+			meta.setPhash(PhashBands.fromBytes(meta.getHashes().get(hashName).getHash()));
+			client.store(meta);
+			updated++;
+		}
+
+		LOGGER.info("Set perceptual hash bands for {} entries", updated);
+		return updated;
+	}
+
 	public List<ImageMetaData> getMetadataByHash(String hashName, byte[] hash) {
 		Query<ImageMetaData>  query = client.createQueryFor(ImageMetaData.class).f("hashes."+ hashName +".hash").eq(hash);
 		return query.asList();
@@ -152,18 +499,53 @@ public class MongoDbMapper {
 	}
 
 	/**
-	 * Return the first job for the given anchor that has not been completed, if
-	 * any.
+	 * Return the open job with the highest priority for the given anchor, if any.
 	 * 
 	 * @param anchor to search for jobs
 	 * @return the first open job or null if there are no jobs
 	 */
 	public FileLoaderJob getOpenFileLoadJobsForAnchor(String anchor) {
 		Query<FileLoaderJob> query = client.createQueryFor(FileLoaderJob.class).f("anchor").eq(anchor).f("completed")
-				.eq(false);
+				.eq(false).sort("-priority");
 		return query.get();
 	}
 
+	/**
+	 * Return the open job with the highest priority for any of the given anchors, if any.
+	 * 
+	 * @param anchors to search for jobs
+	 * @return the open job with the highest priority or null if there are no jobs
+	 */
+	public FileLoaderJob getNextOpenFileLoadJob(Collection<String> anchors) {
+		Query<FileLoaderJob> query = client.createQueryFor(FileLoaderJob.class).f("anchor").in(anchors).f("completed")
+				.eq(false).sort("-priority");
+		return query.get();
+	}
+
+	/**
+	 * Check if there is an open job for any of the given anchors with a priority higher than the given priority.
+	 * 
+	 * @param anchors  to search for jobs
+	 * @param priority the priority to compare against
+	 * @return true if there is an open job with a higher priority
+	 */
+	public boolean hasOpenFileLoadJobAbove(Collection<String> anchors, MessagePriority priority) {
+		Query<FileLoaderJob> query = client.createQueryFor(FileLoaderJob.class).f("anchor").in(anchors).f("completed")
+				.eq(false).f("priority").gt(priority.getValue());
+		return query.countAll() > 0;
+	}
+
+	/**
+	 * Watch file load jobs for changes.
+	 * 
+	 * @param listener receives the changes on a background thread
+	 * @return closing stops watching
+	 * @see #watchImageMetadata(DocumentChangeListener)
+	 */
+	public Closeable watchFileLoadJobs(DocumentChangeListener<FileLoaderJob> listener) {
+		return watch(FileLoaderJob.class, listener);
+	}
+
 	/**
 	 * Get all file load jobs.
 	 * 
@@ -181,12 +563,110 @@ public class MongoDbMapper {
 	 * @return An iterator with metadata matching the query
 	 */
 	public MorphiumIterator<ImageMetaData> getProcessingCompletedMetadata(List<String> requiredHashes) {
+		return processingCompletedQuery(requiredHashes).asIterable();
+	}
+
+	private Query<ImageMetaData> processingCompletedQuery(List<String> requiredHashes) {
 		Query<ImageMetaData> query = client.createQueryFor(ImageMetaData.class).f("thumbnail").exists();
 
 		for (String hash : requiredHashes) {
 			query = query.f("hashes." + hash).exists();
 		}
 
-		return query.asIterable();
+		return query;
+	}
+
+	private Query<ImageMetaData> prunableQuery(List<String> requiredHashes) {
+		return processingCompletedQuery(requiredHashes).f("prunedTime").notExists();
+	}
+
+	/**
+	 * Count the completed metadata entries whose images have not been pruned yet.
+	 * 
+	 * @param requiredHashes the hashes an entry must have to be complete
+	 * @return the number of entries that can be pruned
+	 */
+	public long countPrunableMetadata(List<String> requiredHashes) {
+		return prunableQuery(requiredHashes).countAll();
+	}
+
+	/**
+	 * Get the next batch of completed metadata entries whose images have not been pruned yet. Entries are ordered by
+	 * id, so the next batch can be fetched with the id of the last entry, regardless of entries pruned in the meantime.
+	 * 
+	 * @param requiredHashes the hashes an entry must have to be complete
+	 * @param after          only return entries with an id greater than this, null to start from the beginning
+	 * @param limit          the maximum number of entries to return
+	 * @return partial entries with id and image id, empty if there are no more
+	 */
+	public List<ImageMetaData> getPrunableMetadata(List<String> requiredHashes, MorphiumId after, int limit) {
+		Query<ImageMetaData> query = project(prunableQuery(requiredHashes), "imageId");
+
+		if (after != null) {
+			query = query.f("_id").gt(after);
+		}
+
+		return query.sort("_id").limit(limit).asList();
+	}
+
+	/**
+	 * Record that the original and pre-processed images were deleted.
+	 * 
+	 * @param imageIds IDs of the pruned images
+	 */
+	public void markPruned(Collection<UUID> imageIds) {
+		imageIdQuery(imageIds).set("prunedTime", new Date(), false, true);
+	}
+
+	/**
+	 * Iterate over all metadata, ordered by image id. Used to merge the metadata with sorted object listings.
+	 * 
+	 * @return An iterator over partial entries with anchor, path, image id, thumbnail and pruned time, in ascending
+	 *         image id order
+	 */
+	public MorphiumIterator<ImageMetaData> getMetadataOrderedByImageId() {
+		Query<ImageMetaData> query = client.createQueryFor(ImageMetaData.class).sort("imageId");
+		return project(query, "anchor", "path", "imageId", "thumbnail", "prunedTime").asIterable(1000);
+	}
+
+	/**
+	 * Check which of the image ids have metadata.
+	 * 
+	 * @param imageIds to check
+	 * @return the image ids that have metadata
+	 */
+	public Set<UUID> getExistingImageIds(Collection<UUID> imageIds) {
+		Set<UUID> existing = new HashSet<UUID>();
+		project(imageIdQuery(imageIds), "imageId").asList().forEach(meta -> existing.add(meta.getImageId()));
+
+		return existing;
+	}
+
+	Query<ImageMetaData> imageIdQuery(Collection<UUID> imageIds) {
+		return client.createQueryFor(ImageMetaData.class).f("imageId").in(imageIds);
+	}
+
+	/**
+	 * Only load the id of matching entries, for queries that check if an entry exists.
+	 */
+	private Query<ImageMetaData> idOnly(Query<ImageMetaData> query) {
+		query.addProjection("_id");
+		return query;
+	}
+
+	/**
+	 * Only load the given fields of matching entries, instead of whole documents with all hashes. The returned
+	 * entries are partial, other fields have their default value, so they must not be stored.
+	 * 
+	 * @param query  to restrict
+	 * @param fields the fields to load, the id is always loaded
+	 * @return the query
+	 */
+	private Query<ImageMetaData> project(Query<ImageMetaData> query, String... fields) {
+		for (String field : fields) {
+			query.addProjection(field);
+		}
+
+		return query;
 	}
 }
@@ -0,0 +1,27 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.persistence;
+
+/**
+ * The kinds of objects an {@link ObjectStore} keeps per image. Each kind is stored under its own prefix.
+ */
+public enum ObjectKind {
+	IMAGE("image"), THUMBNAIL("thumb"), PREPROCESSED("preprocessed");
+
+	private final String prefix;
+
+	private ObjectKind(String prefix) {
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Get the prefix, or directory, the objects of this kind are stored under.
+	 *
+	 * @return the prefix without a trailing separator
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+}
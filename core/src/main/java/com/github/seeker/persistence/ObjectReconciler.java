@@ -0,0 +1,288 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.persistence;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.seeker.metrics.Counter;
+import com.github.seeker.metrics.MetricsRegistry;
+import com.github.seeker.persistence.document.ImageMetaData;
+
+/**
+ * Finds objects without metadata and metadata without objects. The object listing and the metadata are both read in
+ * image ID order and merged, so memory use does not depend on the number of images. Orphaned objects are deleted in
+ * batches, missing thumbnails are requested again.
+ * <p>
+ * Objects are only deleted once they are older than the minimum age, as the loader stores the original before the
+ * metadata is created. Every orphan is confirmed with a lookup before it is deleted.
+ */
+public class ObjectReconciler {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ObjectReconciler.class);
+
+	/**
+	 * Number of orphans confirmed and deleted with one request.
+	 */
+	public static final int BATCH_SIZE = 1000;
+
+	private final MongoDbMapper mapper;
+	private final ObjectStore store;
+	private final Duration minimumAge;
+	private final boolean dryRun;
+	private final ThumbnailRequester thumbnailRequester;
+	private final Counter deletedObjects;
+	private final Counter requeuedThumbnails;
+
+	/**
+	 * Callback to generate a missing thumbnail.
+	 */
+	@FunctionalInterface
+	public interface ThumbnailRequester {
+		/**
+		 * Request a new thumbnail for the image.
+		 *
+		 * @param meta of the image without a thumbnail object
+		 * @throws IOException if the request could not be sent
+		 */
+		void requestThumbnail(ImageMetaData meta) throws IOException;
+	}
+
+	/**
+	 * The findings of a reconciliation run.
+	 */
+	public static class Report {
+		private long orphanedObjects;
+		private long deletedObjects;
+		private long recentObjects;
+		private long missingOriginals;
+		private long missingThumbnails;
+		private long requeuedThumbnails;
+
+		/**
+		 * @return objects without metadata that are older than the minimum age
+		 */
+		public long getOrphanedObjects() {
+			return orphanedObjects;
+		}
+
+		/**
+		 * @return orphaned objects that were deleted
+		 */
+		public long getDeletedObjects() {
+			return deletedObjects;
+		}
+
+		/**
+		 * @return objects without metadata that were skipped, as they are younger than the minimum age
+		 */
+		public long getRecentObjects() {
+			return recentObjects;
+		}
+
+		/**
+		 * @return metadata that was not pruned, but has no original. This includes images read from a shared file system
+		 */
+		public long getMissingOriginals() {
+			return missingOriginals;
+		}
+
+		/**
+		 * @return metadata with a thumbnail, but no thumbnail object
+		 */
+		public long getMissingThumbnails() {
+			return missingThumbnails;
+		}
+
+		/**
+		 * @return missing thumbnails that were requested again
+		 */
+		public long getRequeuedThumbnails() {
+			return requeuedThumbnails;
+		}
+
+		@Override
+		public String toString() {
+			return "orphaned objects: " + orphanedObjects + ", deleted objects: " + deletedObjects + ", recent objects: " + recentObjects
+					+ ", missing originals: " + missingOriginals + ", missing thumbnails: " + missingThumbnails + ", requeued thumbnails: "
+					+ requeuedThumbnails;
+		}
+	}
+
+	/**
+	 * Create a new reconciler.
+	 *
+	 * @param mapper             to read the metadata
+	 * @param store              to list and delete objects
+	 * @param minimumAge         objects without metadata that are younger than this are kept
+	 * @param dryRun             only report the findings, do not delete or request anything
+	 * @param thumbnailRequester used to request missing thumbnails
+	 */
+	public ObjectReconciler(MongoDbMapper mapper, ObjectStore store, Duration minimumAge, boolean dryRun, ThumbnailRequester thumbnailRequester) {
+		this.mapper = mapper;
+		this.store = store;
+		this.minimumAge = minimumAge;
+		this.dryRun = dryRun;
+		this.thumbnailRequester = thumbnailRequester;
+
+		MetricsRegistry metrics = MetricsRegistry.global();
+		this.deletedObjects = metrics.counter("si2_reconciled_orphans_total", "Objects without metadata that were deleted");
+		this.requeuedThumbnails = metrics.counter("si2_reconciled_thumbnails_total", "Missing thumbnails that were requested again");
+	}
+
+	/**
+	 * Reconcile all kinds of objects with the metadata.
+	 *
+	 * @return the findings
+	 * @throws MinioPersistenceException if objects could not be listed or deleted
+	 */
+	public Report reconcile() throws MinioPersistenceException {
+		Report report = new Report();
+
+		for (ObjectKind kind : ObjectKind.values()) {
+			reconcile(kind, report);
+		}
+
+		LOGGER.info("Reconciliation {}completed, {}", dryRun ? "dry run " : "", report);
+		return report;
+	}
+
+	private void reconcile(ObjectKind kind, Report report) throws MinioPersistenceException {
+		LOGGER.info("Reconciling {} objects", kind);
+
+		Instant cutoff = Instant.now().minus(minimumAge);
+		List<UUID> orphans = new ArrayList<UUID>(BATCH_SIZE);
+
+		SortedIterator<StoredObject> objects = new SortedIterator<>(store.listObjects(kind), StoredObject::getImageId, "objects");
+		SortedIterator<ImageMetaData> metadata = new SortedIterator<>(mapper.getMetadataOrderedByImageId(), ImageMetaData::getImageId, "metadata");
+		StoredObject object = objects.next();
+		ImageMetaData meta = metadata.next();
+
+		while (object != null || meta != null) {
+			int order;
+
+			if (object == null) {
+				order = 1;
+			} else if (meta == null) {
+				order = -1;
+			} else {
+				order = object.getImageId().toString().compareTo(meta.getImageId().toString());
+			}
+
+			if (order < 0) {
+				if (object.getLastModified().isAfter(cutoff)) {
+					report.recentObjects++;
+				} else {
+					orphans.add(object.getImageId());
+				}
+
+				if (orphans.size() >= BATCH_SIZE) {
+					removeOrphans(kind, orphans, report);
+					orphans = new ArrayList<UUID>(BATCH_SIZE);
+				}
+
+				object = objects.next();
+			} else if (order > 0) {
+				missingObject(kind, meta, report);
+				meta = metadata.next();
+			} else {
+				object = objects.next();
+				meta = metadata.next();
+			}
+		}
+
+		removeOrphans(kind, orphans, report);
+	}
+
+	private void removeOrphans(ObjectKind kind, List<UUID> orphans, Report report) throws MinioPersistenceException {
+		if (orphans.isEmpty()) {
+			return;
+		}
+
+		// the metadata may have been created after it was read
+		orphans.removeAll(mapper.getExistingImageIds(orphans));
+		report.orphanedObjects += orphans.size();
+
+		if (!dryRun && !orphans.isEmpty()) {
+			store.deleteObjects(kind, orphans);
+			report.deletedObjects += orphans.size();
+			deletedObjects.increment(orphans.size());
+			LOGGER.info("Deleted {} orphaned {} objects", orphans.size(), kind);
+		}
+	}
+
+	private void missingObject(ObjectKind kind, ImageMetaData meta, Report report) {
+		if (kind == ObjectKind.IMAGE && !meta.isPruned()) {
+			report.missingOriginals++;
+			LOGGER.debug("Original for {} - {} is missing", meta.getAnchor(), meta.getPath());
+		} else if (kind == ObjectKind.THUMBNAIL && meta.hasThumbnail()) {
+			report.missingThumbnails++;
+
+			if (meta.isPruned()) {
+				LOGGER.warn("Thumbnail for {} - {} is missing, but the original was pruned. Load the image again to restore it", meta.getAnchor(),
+						meta.getPath());
+			} else if (!dryRun) {
+				requestThumbnail(meta, report);
+			}
+		}
+	}
+
+	private void requestThumbnail(ImageMetaData meta, Report report) {
+		try {
+			thumbnailRequester.requestThumbnail(meta);
+			report.requeuedThumbnails++;
+			requeuedThumbnails.increment();
+		} catch (IOException e) {
+			LOGGER.warn("Failed to request thumbnail for {} - {}: {}", meta.getAnchor(), meta.getPath(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Wraps one side of the merge, and fails if it is not in image ID order. Merging unordered input would report
+	 * images as missing that exist.
+	 */
+	private static final class SortedIterator<T> {
+		private final Iterator<T> iterator;
+		private final Function<T, UUID> imageId;
+		private final String name;
+		private String previous;
+
+		SortedIterator(Iterator<T> iterator, Function<T, UUID> imageId, String name) {
+			this.iterator = iterator;
+			this.imageId = imageId;
+			this.name = name;
+		}
+
+		T next() {
+			while (iterator.hasNext()) {
+				T next = iterator.next();
+				UUID id = imageId.apply(next);
+
+				if (id == null) {
+					continue;
+				}
+
+				String current = id.toString();
+
+				if (previous != null && previous.compareTo(current) > 0) {
+					throw new IllegalStateException("The " + name + " are not ordered by image ID, " + current + " follows " + previous);
+				}
+
+				previous = current;
+				return next;
+			}
+
+			return null;
+		}
+	}
+}
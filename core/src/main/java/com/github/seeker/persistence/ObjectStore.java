@@ -0,0 +1,174 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.persistence;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import com.github.seeker.persistence.document.ImageMetaData;
+
+/**
+ * Stores original images, thumbnails and pre-processed images by image ID. Failures are reported with a
+ * {@link MinioPersistenceException}, regardless of the backend.
+ */
+public interface ObjectStore {
+	/**
+	 * Create the buckets or directories required by the store, if they do not exist.
+	 */
+	void createBuckets();
+
+	/**
+	 * Store the original image.
+	 *
+	 * @param path    of the image file
+	 * @param imageID ID of the image
+	 * @throws MinioPersistenceException if the image could not be stored
+	 */
+	void storeImage(Path path, UUID imageID) throws MinioPersistenceException;
+
+	/**
+	 * Store the original image.
+	 *
+	 * @param path    of the image file
+	 * @param imageID ID of the image
+	 * @throws MinioPersistenceException if the image could not be stored
+	 */
+	void storeImage(String path, UUID imageID) throws MinioPersistenceException;
+
+	/**
+	 * Store the original image without blocking the caller. Stores that have no asynchronous client store the image
+	 * before returning.
+	 *
+	 * @param path    of the image file
+	 * @param imageID ID of the image
+	 * @return completes when the image is stored, or exceptionally with a {@link MinioPersistenceException}
+	 */
+	default CompletableFuture<Void> storeImageAsync(Path path, UUID imageID) {
+		try {
+			storeImage(path, imageID);
+			return CompletableFuture.completedFuture(null);
+		} catch (MinioPersistenceException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * Get the original image. The caller is responsible for closing the stream.
+	 *
+	 * @param uuid ID of the image
+	 * @return stream of the image data
+	 * @throws MinioPersistenceException if the image could not be read
+	 */
+	InputStream getImage(UUID uuid) throws MinioPersistenceException;
+
+	/**
+	 * Delete the original image.
+	 *
+	 * @param imageId ID of the image
+	 * @throws MinioPersistenceException if the image could not be deleted
+	 */
+	void deleteImage(UUID imageId) throws MinioPersistenceException;
+
+	/**
+	 * Check if the original image is stored.
+	 *
+	 * @param imageId ID of the image
+	 * @return true if the image exists
+	 * @throws MinioPersistenceException if the store could not be queried
+	 */
+	boolean imageExisits(UUID imageId) throws MinioPersistenceException;
+
+	/**
+	 * Delete the original images for the given metadata. Failures are logged.
+	 *
+	 * @param imagesToDelete metadata of the images to delete
+	 */
+	void deleteImages(Iterator<ImageMetaData> imagesToDelete);
+
+	/**
+	 * Delete a batch of original images with as few requests as possible. Missing images are ignored.
+	 *
+	 * @param imageIds IDs of the images to delete
+	 * @throws MinioPersistenceException if any of the images could not be deleted
+	 */
+	void deleteImagesById(Collection<UUID> imageIds) throws MinioPersistenceException;
+
+	/**
+	 * Delete a batch of pre-processed images with as few requests as possible. Missing images are ignored.
+	 *
+	 * @param imageIds IDs of the images to delete
+	 * @throws MinioPersistenceException if any of the images could not be deleted
+	 */
+	void deletePreProcessedImages(Collection<UUID> imageIds) throws MinioPersistenceException;
+
+	/**
+	 * List all objects of a kind, ordered by the string form of their image ID. Objects are fetched lazily while
+	 * iterating, so the listing can be consumed with constant memory. Objects whose name is not an image ID are
+	 * skipped. Failures while iterating are thrown as {@link IllegalStateException} with a
+	 * {@link MinioPersistenceException} as cause.
+	 *
+	 * @param kind the kind of objects to list
+	 * @return the objects in ascending order
+	 * @throws MinioPersistenceException if the listing could not be started
+	 */
+	Iterator<StoredObject> listObjects(ObjectKind kind) throws MinioPersistenceException;
+
+	/**
+	 * Delete a batch of objects of a kind with as few requests as possible. Missing objects are ignored.
+	 *
+	 * @param kind     the kind of objects to delete
+	 * @param imageIds IDs of the images whose objects should be deleted
+	 * @throws MinioPersistenceException if any of the objects could not be deleted
+	 */
+	void deleteObjects(ObjectKind kind, Collection<UUID> imageIds) throws MinioPersistenceException;
+
+	/**
+	 * Store the thumbnail for an image.
+	 *
+	 * @param imageId     ID of the image
+	 * @param imageStream thumbnail data
+	 * @throws MinioPersistenceException if the thumbnail could not be stored
+	 */
+	void storeThumbnail(UUID imageId, InputStream imageStream) throws MinioPersistenceException;
+
+	/**
+	 * Get the thumbnail for an image. The caller is responsible for closing the stream.
+	 *
+	 * @param imageId ID of the image
+	 * @return stream of the thumbnail data
+	 * @throws MinioPersistenceException if the thumbnail could not be read
+	 */
+	InputStream getThumbnail(UUID imageId) throws MinioPersistenceException;
+
+	/**
+	 * Store the pre-processed image used for custom hashes.
+	 *
+	 * @param imageId     ID of the image
+	 * @param imageStream pre-processed image data
+	 * @throws MinioPersistenceException if the image could not be stored
+	 */
+	void storePreProcessedImage(UUID imageId, InputStream imageStream) throws MinioPersistenceException;
+
+	/**
+	 * Get the pre-processed image. The caller is responsible for closing the stream.
+	 *
+	 * @param imageId ID of the image
+	 * @return stream of the pre-processed image data
+	 * @throws MinioPersistenceException if the image could not be read
+	 */
+	InputStream getPreProcessedImage(UUID imageId) throws MinioPersistenceException;
+
+	/**
+	 * Move an original image that could not be decoded out of the way, so it can be inspected later.
+	 *
+	 * @param imageId ID of the image
+	 * @throws MinioPersistenceException if the image could not be moved
+	 */
+	void moveImageToCorrupted(UUID imageId) throws MinioPersistenceException;
+}
@@ -0,0 +1,74 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.persistence;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a 64 bit perceptual hash into four 16 bit bands, so near duplicates can be found with an index lookup.
+ * Hashes that differ in at most three bits differ in at most three bands, so they share at least one band with the
+ * query. Band values are tagged with the band number, so all bands can be stored in one indexed array.
+ */
+public final class PhashBands {
+	/**
+	 * Number of bands a hash is split into.
+	 */
+	public static final int BANDS = 4;
+
+	/**
+	 * The largest Hamming distance for which all matches are found by the band lookup.
+	 */
+	public static final int MAX_DISTANCE = BANDS - 1;
+
+	private static final int BAND_BITS = Long.SIZE / BANDS;
+	private static final long BAND_MASK = (1L << BAND_BITS) - 1;
+
+	private PhashBands() {
+	}
+
+	/**
+	 * Read a hash stored as bytes, in the order written by {@link java.io.DataOutput#writeLong(long)}.
+	 * 
+	 * @param hash the stored hash
+	 * @return the hash as number
+	 */
+	public static long fromBytes(byte[] hash) {
+		if (hash == null || hash.length != Long.BYTES) {
+			throw new IllegalArgumentException("A perceptual hash must have " + Long.BYTES + " bytes");
+		}
+
+		return ByteBuffer.wrap(hash).getLong();
+	}
+
+	/**
+	 * Get the tagged bands of a hash.
+	 * 
+	 * @param phash the hash
+	 * @return one value per band, the band number in the upper bits
+	 */
+	public static List<Integer> bands(long phash) {
+		List<Integer> bands = new ArrayList<Integer>(BANDS);
+
+		for (int band = 0; band < BANDS; band++) {
+			int value = (int) ((phash >>> (band * BAND_BITS)) & BAND_MASK);
+			bands.add((band << BAND_BITS) | value);
+		}
+
+		return bands;
+	}
+
+	/**
+	 * Get the number of differing bits.
+	 * 
+	 * @param a first hash
+	 * @param b second hash
+	 * @return the Hamming distance
+	 */
+	public static int distance(long a, long b) {
+		return Long.bitCount(a ^ b);
+	}
+}
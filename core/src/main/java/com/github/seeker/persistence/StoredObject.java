@@ -0,0 +1,53 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.persistence;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * An object returned by {@link ObjectStore#listObjects(ObjectKind)}.
+ */
+public final class StoredObject {
+	private final UUID imageId;
+	private final Instant lastModified;
+
+	public StoredObject(UUID imageId, Instant lastModified) {
+		this.imageId = imageId;
+		this.lastModified = lastModified;
+	}
+
+	public UUID getImageId() {
+		return imageId;
+	}
+
+	public Instant getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Parse the image ID from the file name of an object.
+	 *
+	 * @param fileName the name of the object without prefix
+	 * @param suffix   the suffix after the image ID
+	 * @return the image ID, or null if the name is not an image ID followed by the suffix
+	 */
+	static UUID parseImageId(String fileName, String suffix) {
+		if (!fileName.endsWith(suffix)) {
+			return null;
+		}
+
+		try {
+			return UUID.fromString(fileName.substring(0, fileName.length() - suffix.length()));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return imageId + " (" + lastModified + ")";
+	}
+}
@@ -7,6 +7,8 @@ package com.github.seeker.persistence.document;
 import java.util.Objects;
 import java.util.UUID;
 
+import com.github.seeker.messaging.MessagePriority;
+
 import de.caluga.morphium.annotations.Entity;
 import de.caluga.morphium.annotations.Id;
 import de.caluga.morphium.annotations.Index;
@@ -35,6 +37,11 @@ public class FileLoaderJob {
 	@Index
 	private boolean generateThumbnail;
 
+	@Index
+	private int priority;
+
+	private String resumeAfter;
+
 	/**
 	 * Generate a new {@link FileLoaderJob} with a random job id. The job will be
 	 * created as not completed with no thumbnails being generated.
@@ -88,6 +95,7 @@ public class FileLoaderJob {
 		this.relativePath = relativePath;
 		this.generateThumbnail = generateThumbnail;
 		this.completed = false;
+		this.priority = MessagePriority.NORMAL.getValue();
 	}
 
 	public boolean isCompleted() {
@@ -109,6 +117,49 @@ public class FileLoaderJob {
 		this.generateThumbnail = generateThumbnail;
 	}
 
+	/**
+	 * Get the priority of this job. Jobs stored without a priority are treated as {@link MessagePriority#BULK}.
+	 * 
+	 * @return the priority of this job
+	 */
+	public MessagePriority getPriority() {
+		return MessagePriority.fromValue(priority);
+	}
+
+	/**
+	 * Set the priority for this job. Open jobs are processed in order of priority, and the messages generated by the
+	 * job are sent with this priority.
+	 * 
+	 * @param priority for this job
+	 */
+	public void setPriority(MessagePriority priority) {
+		Objects.requireNonNull(priority, "Priority cannot be null!");
+		this.priority = priority.getValue();
+	}
+
+	/**
+	 * Get the file the walk of this job stopped at, if it was preempted or stopped.
+	 * 
+	 * @return the path of the last visited file relative to the anchor, or null if the walk starts from the beginning
+	 */
+	public String getResumeAfter() {
+		return resumeAfter;
+	}
+
+	/**
+	 * Set the file the walk stopped at. The next walk for this job skips all files up to and including this file, so
+	 * files that were already queued are not uploaded and queued again.
+	 * 
+	 * @param resumeAfter the path of the last visited file relative to the anchor, null to start from the beginning
+	 */
+	public void setResumeAfter(String resumeAfter) {
+		this.resumeAfter = resumeAfter;
+	}
+
+	public MorphiumId getId() {
+		return id;
+	}
+
 	public UUID getJobId() {
 		return jobId;
 	}
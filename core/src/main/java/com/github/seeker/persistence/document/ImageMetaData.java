@@ -4,6 +4,7 @@
  */
 package com.github.seeker.persistence.document;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -13,6 +14,8 @@ import java.util.UUID;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.github.seeker.persistence.PhashBands;
+
 import de.caluga.morphium.annotations.CreationTime;
 import de.caluga.morphium.annotations.Entity;
 import de.caluga.morphium.annotations.Id;
@@ -20,23 +23,24 @@ import de.caluga.morphium.annotations.Index;
 import de.caluga.morphium.driver.MorphiumId;
 
 /**
- * Stores metadata for an image.
+ * Stores metadata for an image. Anchor and path identify an image, and are unique together. Anchor and path are also
+ * indexed together with the id, so pages filtered by either can be read in id order from the index.
  */
 @CreationTime
 @Entity(translateCamelCase = true)
+@Index(value = { "anchor,path", "anchor,_id", "path,_id" }, options = { "unique: 1" })
 public class ImageMetaData {
 	@Id
 	private MorphiumId id;
 	/**
-	 * Identify the source of the file. This value can be arbitrary.
+	 * Identify the source of the file. This value can be arbitrary. Indexed by the compound anchor and path index.
 	 */
-	@Index
 	private String anchor;
 
 	/**
-	 * The path of the file, relative to the anchor. Must be unique per anchor.
+	 * The path of the file, relative to the anchor. Must be unique per anchor. Indexed by the compound path and id
+	 * index.
 	 */
-	@Index
 	private String path;
 	/**
 	 * When this record was created
@@ -71,6 +75,23 @@ public class ImageMetaData {
 	@Index(options = "unique: 1")
 	private UUID imageId;
 	
+	/**
+	 * When the original and pre-processed images were deleted from the object store, null if they were not
+	 */
+	@Index
+	private Date prunedTime;
+
+	/**
+	 * The perceptual hash as number, null if it was not calculated. The same hash is also stored in the hashes.
+	 */
+	private Long phash;
+
+	/**
+	 * Bands of the perceptual hash, used to look up similar images. See {@link PhashBands}.
+	 */
+	@Index
+	private List<Integer> phashBands;
+	
 	/**
 	 * Create a new {@link ImageMetaData} with no hashes and an empty anchor and path.		
 	 */
@@ -81,6 +102,10 @@ public class ImageMetaData {
 		this.imageId = UUID.randomUUID();
 	}
 
+	public MorphiumId getId() {
+		return id;
+	}
+
 	public UUID getImageId() {
 		return imageId;
 	}
@@ -129,6 +154,40 @@ public class ImageMetaData {
 		this.thumbnail = thumbnail;
 	}
 	
+	public Date getPrunedTime() {
+		return prunedTime;
+	}
+
+	public void setPrunedTime(Date prunedTime) {
+		this.prunedTime = prunedTime;
+	}
+
+	/**
+	 * Were the original and pre-processed images deleted from the object store?
+	 * @return true if the images were pruned
+	 */
+	public boolean isPruned() {
+		return this.prunedTime != null;
+	}
+
+	public Long getPhash() {
+		return phash;
+	}
+
+	public List<Integer> getPhashBands() {
+		return phashBands;
+	}
+
+	/**
+	 * Set the perceptual hash and its bands.
+	 * 
+	 * @param phash the perceptual hash
+	 */
+	public void setPhash(long phash) {
+		this.phash = phash;
+		this.phashBands = PhashBands.bands(phash);
+	}
+	
 	/**
 	 * Is there a thumbnail available for this image?
 	 * @return true if there is a thumbnail
@@ -136,6 +195,15 @@ public class ImageMetaData {
 	public boolean hasThumbnail() {
 		return this.thumbnail != null;
 	}
+
+	/**
+	 * Has the pipeline finished processing this image?
+	 * @param requiredHashes the hashes the image must have
+	 * @return true if there is a thumbnail and all required hashes
+	 */
+	public boolean isComplete(Collection<String> requiredHashes) {
+		return hasThumbnail() && this.hashes.keySet().containsAll(requiredHashes);
+	}
 	
 	@Override
 	final public boolean equals(Object obj) {
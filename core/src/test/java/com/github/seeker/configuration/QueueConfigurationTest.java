@@ -4,26 +4,51 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.startsWith;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import com.github.seeker.configuration.QueueConfiguration.ConfiguredExchanges;
 import com.github.seeker.configuration.QueueConfiguration.ConfiguredQueues;
 import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
 
 @ExtendWith(MockitoExtension.class)
 public class QueueConfigurationTest {
 	private static final String PERSISTENCE_QUEUE_NAME = "persistence";
 	private static final String FILE_QUEUE_NAME = "fileDigest";
 	private static final String FILE_RESIZE_NAME = "fileResize";
+	private static final String NODE_ID = "node1";
 	
 	@Mock
 	private Channel channel;
 
+	@Mock
+	private Connection connection;
+
+	@Mock
+	private Channel moveChannel;
+
 	private QueueConfiguration cut;
 	private QueueConfiguration cutIntegration;
 
@@ -33,6 +58,10 @@ public class QueueConfigurationTest {
 	
 	@BeforeEach
 	public void setUp() throws Exception {
+		lenient().when(channel.getConnection()).thenReturn(connection);
+		lenient().when(connection.createChannel()).thenReturn(moveChannel);
+		lenient().when(moveChannel.isOpen()).thenReturn(true);
+
 		cut = new QueueConfiguration(channel);
 		cutIntegration = new QueueConfiguration(channel, true);
 	}
@@ -103,4 +132,176 @@ public class QueueConfigurationTest {
 		
 		assertThat(firstCall, is(secondCall));
 	}
+
+	@Test
+	public void deadLetterQueueName() throws Exception {
+		assertThat(cut.getDeadLetterQueueName(ConfiguredQueues.fileResize), is(FILE_RESIZE_NAME + "-dead"));
+	}
+
+	@Test
+	public void retryQueueName() throws Exception {
+		assertThat(cut.getRetryQueueName(ConfiguredQueues.fileResize, 1), is(FILE_RESIZE_NAME + "-retry-1"));
+	}
+
+	@Test
+	public void retryQueueNameIntegration() throws Exception {
+		assertThat(cutIntegration.getRetryQueueName(ConfiguredQueues.fileDigest, 0), is(prefixWithIntegration(FILE_QUEUE_NAME) + "-retry-0"));
+	}
+
+	@Test
+	public void invalidRetryTier() throws Exception {
+		assertThrows(IllegalArgumentException.class, () -> {
+			cut.getRetryQueueName(ConfiguredQueues.fileResize, cut.getRetryTierCount());
+		});
+	}
+
+	@Test
+	public void notColocatedByDefault() throws Exception {
+		assertThat(cut.isColocated(), is(false));
+	}
+
+	@Test
+	public void colocatedQueueNameIncludesNode() throws Exception {
+		QueueConfiguration colocated = new QueueConfiguration(channel, false, true, NODE_ID);
+
+		assertThat(colocated.getQueueName(ConfiguredQueues.fileResize), is(FILE_RESIZE_NAME + "-node-" + NODE_ID));
+	}
+
+	@Test
+	public void colocatedRetryQueueNameIncludesNode() throws Exception {
+		QueueConfiguration colocated = new QueueConfiguration(channel, false, true, NODE_ID);
+
+		assertThat(colocated.getRetryQueueName(ConfiguredQueues.fileDigest, 0), is(FILE_QUEUE_NAME + "-node-" + NODE_ID + "-retry-0"));
+	}
+
+	@Test
+	public void persistenceIsNotColocated() throws Exception {
+		QueueConfiguration colocated = new QueueConfiguration(channel, false, true, NODE_ID);
+
+		assertThat(colocated.getQueueName(ConfiguredQueues.persistence), is(PERSISTENCE_QUEUE_NAME));
+	}
+
+	@Test
+	public void colocatedMessagesArePublishedToHashExchange() throws Exception {
+		QueueConfiguration colocated = new QueueConfiguration(channel, false, true, NODE_ID);
+
+		assertThat(colocated.getPublishExchange(ConfiguredQueues.filePreProcessed), is("filePreProcessed-hash"));
+	}
+
+	@Test
+	public void messagesArePublishedToQueue() throws Exception {
+		assertThat(cut.getPublishExchange(ConfiguredQueues.filePreProcessed), is(""));
+		assertThat(cut.getPublishRoutingKey(ConfiguredQueues.filePreProcessed), is("filePreProcessed"));
+	}
+
+	@Test
+	public void joinStageBindsNodeQueue() throws Exception {
+		QueueConfiguration colocated = new QueueConfiguration(channel, false, true, NODE_ID);
+
+		colocated.joinStage(ConfiguredQueues.fileDigest);
+
+		verify(channel).queueBind(FILE_QUEUE_NAME + "-node-" + NODE_ID, "fileDigest-hash", "1");
+	}
+
+	@Test
+	public void joinStageWithoutColocationDoesNothing() throws Exception {
+		cut.joinStage(ConfiguredQueues.fileDigest);
+
+		verify(channel, never()).queueBind(eq(FILE_QUEUE_NAME), eq("fileDigest-hash"), anyString());
+	}
+
+	@Test
+	public void joinPersistenceStageThrows() throws Exception {
+		QueueConfiguration colocated = new QueueConfiguration(channel, false, true, NODE_ID);
+
+		assertThrows(IllegalArgumentException.class, () -> {
+			colocated.joinStage(ConfiguredQueues.persistence);
+		});
+	}
+
+	@Test
+	public void drainNodeRepublishesMessages() throws Exception {
+		QueueConfiguration colocated = new QueueConfiguration(channel, false, true, NODE_ID);
+		byte[] body = { 1 };
+		GetResponse response = new GetResponse(new Envelope(42, false, "", ""), null, body, 0);
+		when(moveChannel.basicGet(FILE_QUEUE_NAME + "-node-other", false)).thenReturn(response, (GetResponse) null);
+
+		int moved = colocated.drainNode(ConfiguredQueues.fileDigest, "other");
+
+		assertThat(moved, is(1));
+		verify(channel).queueUnbind(FILE_QUEUE_NAME + "-node-other", "fileDigest-hash", "1");
+		verify(moveChannel).basicPublish("fileDigest-hash", "", true, null, body);
+		verify(moveChannel).basicAck(42, true);
+	}
+
+	@Test
+	public void drainNodeWaitsForConfirm() throws Exception {
+		QueueConfiguration colocated = new QueueConfiguration(channel, false, true, NODE_ID);
+		GetResponse response = new GetResponse(new Envelope(42, false, "", ""), null, new byte[] { 1 }, 0);
+		when(moveChannel.basicGet(FILE_QUEUE_NAME + "-node-other", false)).thenReturn(response, (GetResponse) null);
+
+		colocated.drainNode(ConfiguredQueues.fileDigest, "other");
+
+		InOrder inOrder = inOrder(moveChannel);
+		inOrder.verify(moveChannel).confirmSelect();
+		inOrder.verify(moveChannel).waitForConfirmsOrDie(anyLong());
+		inOrder.verify(moveChannel).basicAck(42, true);
+	}
+
+	@Test
+	public void drainNodeConfirmsMessagesInBatches() throws Exception {
+		QueueConfiguration colocated = new QueueConfiguration(channel, false, true, NODE_ID);
+		GetResponse first = new GetResponse(new Envelope(41, false, "", ""), null, new byte[] { 1 }, 0);
+		GetResponse second = new GetResponse(new Envelope(42, false, "", ""), null, new byte[] { 2 }, 0);
+		when(moveChannel.basicGet(FILE_QUEUE_NAME + "-node-other", false)).thenReturn(first, second, null);
+
+		int moved = colocated.drainNode(ConfiguredQueues.fileDigest, "other");
+
+		assertThat(moved, is(2));
+		verify(moveChannel).waitForConfirmsOrDie(anyLong());
+		verify(moveChannel).basicAck(42, true);
+	}
+
+	@Test
+	public void unconfirmedMessageIsRequeued() throws Exception {
+		QueueConfiguration colocated = new QueueConfiguration(channel, false, true, NODE_ID);
+		GetResponse response = new GetResponse(new Envelope(42, false, "", ""), null, new byte[] { 1 }, 0);
+		when(moveChannel.basicGet(FILE_QUEUE_NAME + "-node-other", false)).thenReturn(response);
+		doThrow(new TimeoutException()).when(moveChannel).waitForConfirmsOrDie(anyLong());
+
+		assertThrows(IOException.class, () -> {
+			colocated.drainNode(ConfiguredQueues.fileDigest, "other");
+		});
+
+		verify(moveChannel).basicNack(42, true, true);
+		verify(moveChannel, never()).basicAck(anyLong(), anyBoolean());
+	}
+
+	@Test
+	public void joinStageMovesMessagesFromSharedQueue() throws Exception {
+		QueueConfiguration colocated = new QueueConfiguration(channel, false, true, NODE_ID);
+		byte[] body = { 1 };
+		GetResponse response = new GetResponse(new Envelope(42, false, "", ""), null, body, 0);
+		when(moveChannel.basicGet(FILE_QUEUE_NAME, false)).thenReturn(response, (GetResponse) null);
+
+		colocated.joinStage(ConfiguredQueues.fileDigest);
+
+		verify(moveChannel).basicPublish("fileDigest-hash", "", true, null, body);
+		verify(moveChannel).basicAck(42, true);
+	}
+
+	@Test
+	public void sharedQueueKeepsUnroutedMessages() throws Exception {
+		new QueueConfiguration(channel, false, true, NODE_ID);
+
+		verify(channel).queueBind(FILE_QUEUE_NAME, "fileDigest-unrouted", "");
+	}
+
+	@Test
+	public void hashExchangeHasAlternateExchange() throws Exception {
+		new QueueConfiguration(channel, false, true, NODE_ID);
+
+		verify(channel).exchangeDeclare(eq("fileDigest-hash"), eq("x-consistent-hash"), eq(false), eq(false),
+				argThat(properties -> "fileDigest-unrouted".equals(properties.get("alternate-exchange"))));
+	}
 }
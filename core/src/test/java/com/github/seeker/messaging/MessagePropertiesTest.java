@@ -0,0 +1,53 @@
+package com.github.seeker.messaging;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+public class MessagePropertiesTest {
+	@Test
+	public void priorityIsSet() throws Exception {
+		assertThat(MessageProperties.forPriority(MessagePriority.BULK).getPriority(), is(MessagePriority.BULK.getValue()));
+	}
+
+	@Test
+	public void priorityIsInherited() throws Exception {
+		BasicProperties received = MessageProperties.forPriority(MessagePriority.INTERACTIVE);
+
+		assertThat(MessageProperties.inherit(received).getPriority(), is(MessagePriority.INTERACTIVE.getValue()));
+	}
+
+	@Test
+	public void retryHeadersAreNotInherited() throws Exception {
+		BasicProperties received = new BasicProperties.Builder()
+				.headers(Collections.singletonMap(RetryHandler.ATTEMPT_HEADER, 3)).build();
+
+		assertThat(MessageProperties.inherit(received).getHeaders().isEmpty(), is(true));
+	}
+
+	@Test
+	public void inheritFromNull() throws Exception {
+		assertThat(MessageProperties.inherit(null).getPriority(), is(nullValue()));
+	}
+
+	@Test
+	public void valueBelowBulkIsBulk() throws Exception {
+		assertThat(MessagePriority.fromValue(0), is(MessagePriority.BULK));
+	}
+
+	@Test
+	public void valueBetweenLanesRoundsDown() throws Exception {
+		assertThat(MessagePriority.fromValue(7), is(MessagePriority.NORMAL));
+	}
+
+	@Test
+	public void maxPriorityIsInteractive() throws Exception {
+		assertThat(MessagePriority.fromValue(MessagePriority.MAX_PRIORITY), is(MessagePriority.INTERACTIVE));
+	}
+}
@@ -0,0 +1,102 @@
+package com.github.seeker.messaging;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.github.seeker.configuration.QueueConfiguration;
+import com.github.seeker.configuration.QueueConfiguration.ConfiguredQueues;
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+
+@ExtendWith(MockitoExtension.class)
+public class RetryHandlerTest {
+	private static final long DELIVERY_TAG = 42L;
+	private static final byte[] BODY = { 1, 2, 3 };
+
+	@Mock
+	private Channel channel;
+
+	private Envelope envelope;
+	private QueueConfiguration queueConfig;
+	private RetryHandler cut;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		envelope = new Envelope(DELIVERY_TAG, false, "", "fileResize");
+		queueConfig = new QueueConfiguration(channel);
+		cut = new RetryHandler(queueConfig, 3);
+	}
+
+	private BasicProperties withHeaders(Map<String, Object> headers) {
+		return new BasicProperties.Builder().headers(headers).build();
+	}
+
+	@Test
+	public void firstFailureIsPublishedToFirstTier() throws Exception {
+		assertThat(cut.retry(channel, ConfiguredQueues.fileResize, envelope, null, BODY), is(true));
+
+		verify(channel).basicPublish(eq(""), eq("fileResize-retry-0"), any(), eq(BODY));
+		verify(channel).basicAck(DELIVERY_TAG, false);
+	}
+
+	@Test
+	public void attemptHeaderIsIncremented() throws Exception {
+		ArgumentCaptor<BasicProperties> properties = ArgumentCaptor.forClass(BasicProperties.class);
+
+		cut.retry(channel, ConfiguredQueues.fileResize, envelope, withHeaders(Collections.singletonMap(RetryHandler.ATTEMPT_HEADER, 1)), BODY);
+
+		verify(channel).basicPublish(eq(""), eq("fileResize-retry-1"), properties.capture(), eq(BODY));
+		assertThat(RetryHandler.getAttempts(properties.getValue()), is(2));
+	}
+
+	@Test
+	public void existingHeadersArePreserved() throws Exception {
+		ArgumentCaptor<BasicProperties> properties = ArgumentCaptor.forClass(BasicProperties.class);
+
+		cut.retry(channel, ConfiguredQueues.fileResize, envelope, withHeaders(Collections.singletonMap("foo", "bar")), BODY);
+
+		verify(channel).basicPublish(anyString(), anyString(), properties.capture(), any());
+		assertThat(properties.getValue().getHeaders().get("foo"), is("bar"));
+	}
+
+	@Test
+	public void exhaustedMessageIsDeadLettered() throws Exception {
+		assertThat(cut.retry(channel, ConfiguredQueues.fileResize, envelope,
+				withHeaders(Collections.singletonMap(RetryHandler.ATTEMPT_HEADER, 2)), BODY), is(false));
+
+		verify(channel).basicNack(DELIVERY_TAG, false, false);
+		verify(channel, never()).basicAck(DELIVERY_TAG, false);
+	}
+
+	@Test
+	public void maxAttemptsHeaderOverridesDefault() throws Exception {
+		assertThat(cut.retry(channel, ConfiguredQueues.fileResize, envelope,
+				withHeaders(Collections.singletonMap(RetryHandler.MAX_ATTEMPTS_HEADER, 1)), BODY), is(false));
+
+		verify(channel).basicNack(DELIVERY_TAG, false, false);
+	}
+
+	@Test
+	public void maxAttemptsMustBePositive() throws Exception {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new RetryHandler(queueConfig, 0);
+		});
+	}
+}
@@ -0,0 +1,177 @@
+package com.github.seeker.messaging;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.seeker.messaging.proto.FileLoadOuterClass.FileLoad;
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+public class TraceAggregatorTest {
+	private static final String IMAGE_ID = "c0ffee";
+
+	private TraceAggregator cut;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		cut = new TraceAggregator();
+	}
+
+	private BasicProperties trace(long start, long loader, long resizer, long customHash) {
+		Map<String, Object> headers = new HashMap<String, Object>();
+		headers.put(TraceContext.IMAGE_ID_HEADER, IMAGE_ID);
+		headers.put(TraceContext.START_HEADER, start);
+		headers.put(TraceContext.HEADER_PREFIX + "loader", loader);
+		headers.put(TraceContext.HEADER_PREFIX + "resizer", resizer);
+		headers.put(TraceContext.HEADER_PREFIX + "custom_hash", customHash);
+
+		return new BasicProperties.Builder().headers(headers).build();
+	}
+
+	private BasicProperties update(int expectedUpdates, long start, Map<PipelineStage, Long> timestamps) {
+		Map<String, Object> headers = new HashMap<String, Object>();
+		headers.put(TraceContext.IMAGE_ID_HEADER, IMAGE_ID);
+		headers.put(TraceContext.START_HEADER, start);
+		headers.put(TraceContext.EXPECTED_UPDATES_HEADER, expectedUpdates);
+		timestamps.forEach((stage, timestamp) -> headers.put(TraceContext.HEADER_PREFIX + stage.name().toLowerCase(), timestamp));
+
+		return new BasicProperties.Builder().headers(headers).build();
+	}
+
+	private void recordImageWithThreeUpdates() {
+		cut.record(update(3, 0, Map.of(PipelineStage.LOADER, 3L, PipelineStage.DIGEST, 20L)), 40);
+		cut.record(update(3, 0, Map.of(PipelineStage.LOADER, 3L, PipelineStage.RESIZER, 30L)), 50);
+		cut.record(update(3, 0, Map.of(PipelineStage.LOADER, 3L, PipelineStage.RESIZER, 30L, PipelineStage.CUSTOM_HASH, 100L)), 200);
+	}
+
+	@Test
+	public void messageWithoutTraceIsIgnored() throws Exception {
+		assertThat(cut.record(new BasicProperties.Builder().build(), 100), is(false));
+		assertThat(cut.getEndToEndLatency().getCount(), is(0L));
+	}
+
+	@Test
+	public void stageLatencyIsTimeSincePreviousStage() throws Exception {
+		cut.record(trace(0, 3, 30, 100), 200);
+
+		assertThat(cut.getStageLatency(PipelineStage.LOADER).getSum(), is(3L));
+		assertThat(cut.getStageLatency(PipelineStage.RESIZER).getSum(), is(27L));
+		assertThat(cut.getStageLatency(PipelineStage.CUSTOM_HASH).getSum(), is(70L));
+		assertThat(cut.getStageLatency(PipelineStage.DB).getSum(), is(100L));
+	}
+
+	@Test
+	public void skippedStageIsNotRecorded() throws Exception {
+		cut.record(trace(0, 3, 30, 100), 200);
+
+		assertThat(cut.getStageLatency(PipelineStage.DIGEST).getCount(), is(0L));
+	}
+
+	@Test
+	public void endToEndLatency() throws Exception {
+		cut.record(trace(0, 3, 30, 100), 200);
+
+		assertThat(cut.getEndToEndLatency().getSum(), is(200L));
+	}
+
+	@Test
+	public void clockSkewIsClampedToZero() throws Exception {
+		cut.record(trace(0, 50, 40, 100), 200);
+
+		assertThat(cut.getStageLatency(PipelineStage.RESIZER).getSum(), is(0L));
+	}
+
+	@Test
+	public void traceSurvivesInheritance() throws Exception {
+		BasicProperties started = TraceContext.start(MessageProperties.forPriority(MessagePriority.NORMAL), IMAGE_ID, 0);
+		BasicProperties derived = MessageProperties.inherit(started, PipelineStage.DIGEST);
+
+		assertThat(TraceContext.getImageId(derived).get(), is(IMAGE_ID));
+		assertThat(TraceContext.getTimestamps(derived).containsKey(PipelineStage.DIGEST), is(true));
+	}
+
+	@Test
+	public void imageWithSeveralUpdatesIsRecordedOnce() throws Exception {
+		recordImageWithThreeUpdates();
+
+		assertThat(cut.getEndToEndLatency().getCount(), is(1L));
+		assertThat(cut.getStageLatency(PipelineStage.LOADER).getCount(), is(1L));
+		assertThat(cut.getStageLatency(PipelineStage.RESIZER).getCount(), is(1L));
+	}
+
+	@Test
+	public void endToEndLatencyEndsWithLastUpdate() throws Exception {
+		recordImageWithThreeUpdates();
+
+		assertThat(cut.getEndToEndLatency().getSum(), is(200L));
+	}
+
+	@Test
+	public void parallelStagesStartAtLoader() throws Exception {
+		recordImageWithThreeUpdates();
+
+		assertThat(cut.getStageLatency(PipelineStage.DIGEST).getSum(), is(17L));
+		assertThat(cut.getStageLatency(PipelineStage.RESIZER).getSum(), is(27L));
+		assertThat(cut.getStageLatency(PipelineStage.CUSTOM_HASH).getSum(), is(70L));
+	}
+
+	@Test
+	public void databaseLatencyIsTimeSinceLastStage() throws Exception {
+		recordImageWithThreeUpdates();
+
+		assertThat(cut.getStageLatency(PipelineStage.DB).getSum(), is(100L));
+	}
+
+	@Test
+	public void incompleteTraceIsNotRecorded() throws Exception {
+		cut.record(update(3, 0, Map.of(PipelineStage.LOADER, 3L, PipelineStage.DIGEST, 20L)), 40);
+		cut.record(update(3, 0, Map.of(PipelineStage.LOADER, 3L, PipelineStage.RESIZER, 30L)), 50);
+
+		assertThat(cut.getEndToEndLatency().getCount(), is(0L));
+		assertThat(cut.getPendingCount(), is(1));
+	}
+
+	@Test
+	public void expiredTraceIsDiscarded() throws Exception {
+		cut.record(update(3, 0, Map.of(PipelineStage.LOADER, 3L, PipelineStage.DIGEST, 20L)), 40);
+		cut.record(update(2, 0, Map.of(PipelineStage.LOADER, 3L, PipelineStage.DIGEST, 20L)), 40 + TraceAggregator.PENDING_TIMEOUT);
+
+		assertThat(cut.getPendingCount(), is(1));
+	}
+
+	@Test
+	public void summaryShowsOverflowBucket() throws Exception {
+		cut.record(trace(0, 3, 30, 100), Long.MAX_VALUE / 2);
+
+		assertThat(cut.summary(), containsString("p99>"));
+		assertThat(cut.summary(), not(containsString(Long.toString(Long.MAX_VALUE))));
+	}
+
+	@Test
+	public void expectedUpdatesForNewImage() throws Exception {
+		FileLoad message = FileLoad.newBuilder().addMissingHash("SHA-256").addMissingCustomHash("phash").setGenerateThumbnail(true).build();
+
+		assertThat(TraceContext.expectedUpdates(message), is(3));
+	}
+
+	@Test
+	public void expectedUpdatesWithoutThumbnail() throws Exception {
+		FileLoad message = FileLoad.newBuilder().addMissingHash("SHA-256").build();
+
+		assertThat(TraceContext.expectedUpdates(message), is(1));
+	}
+
+	@Test
+	public void expectedUpdatesForThumbnailRecreation() throws Exception {
+		FileLoad message = FileLoad.newBuilder().addMissingHash("SHA-256").setRecreateThumbnail(true).build();
+
+		assertThat(TraceContext.expectedUpdates(message), is(1));
+	}
+}
@@ -0,0 +1,96 @@
+package com.github.seeker.messaging;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+
+@ExtendWith(MockitoExtension.class)
+public class VirtualThreadConsumerTest {
+	private static final String CONSUMER_TAG = "foo";
+	private static final long DELIVERY_TAG = 42L;
+	private static final byte[] BODY = { 1, 2, 3 };
+
+	@Mock
+	private Channel channel;
+
+	@Mock
+	private Consumer delegate;
+
+	private Envelope envelope;
+
+	private Envelope redeliveredEnvelope;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		envelope = new Envelope(DELIVERY_TAG, false, "", "bar");
+		redeliveredEnvelope = new Envelope(DELIVERY_TAG, true, "", "bar");
+	}
+
+	@Test
+	public void deliveryIsProcessedOnVirtualThread() throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		AtomicBoolean virtual = new AtomicBoolean();
+
+		VirtualThreadConsumer cut = new VirtualThreadConsumer(channel, new DefaultConsumer(channel) {
+			@Override
+			public void handleDelivery(String consumerTag, Envelope envelope, BasicProperties properties, byte[] body) throws IOException {
+				virtual.set(Thread.currentThread().isVirtual());
+				latch.countDown();
+			}
+		}, 1);
+
+		cut.handleDelivery(CONSUMER_TAG, envelope, null, BODY);
+
+		assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(virtual.get(), is(true));
+	}
+
+	@Test
+	public void failedDeliveryIsRequeued() throws Exception {
+		doThrow(new IOException("test")).when(delegate).handleDelivery(anyString(), any(), any(), any());
+		VirtualThreadConsumer cut = new VirtualThreadConsumer(channel, delegate, 1);
+
+		cut.handleDelivery(CONSUMER_TAG, envelope, null, BODY);
+
+		verify(channel, timeout(5000)).basicNack(DELIVERY_TAG, false, true);
+	}
+
+	@Test
+	public void failedRedeliveryIsRejected() throws Exception {
+		doThrow(new IOException("test")).when(delegate).handleDelivery(anyString(), any(), any(), any());
+		VirtualThreadConsumer cut = new VirtualThreadConsumer(channel, delegate, 1);
+
+		cut.handleDelivery(CONSUMER_TAG, redeliveredEnvelope, null, BODY);
+
+		verify(channel, timeout(5000)).basicNack(DELIVERY_TAG, false, false);
+	}
+
+	@Test
+	public void limitMustBePositive() throws Exception {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new VirtualThreadConsumer(channel, delegate, 0);
+		});
+	}
+}
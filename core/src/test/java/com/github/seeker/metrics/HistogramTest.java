@@ -0,0 +1,73 @@
+package com.github.seeker.metrics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class HistogramTest {
+	private Histogram cut;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		cut = new Histogram(10, 100, 1000);
+	}
+
+	@Test
+	public void valueOnBoundIsInBucket() throws Exception {
+		cut.record(10);
+
+		assertThat(cut.getBucketCounts()[0], is(1L));
+	}
+
+	@Test
+	public void largeValueIsInOverflowBucket() throws Exception {
+		cut.record(5000);
+
+		assertThat(cut.getBucketCounts()[3], is(1L));
+	}
+
+	@Test
+	public void countAndSum() throws Exception {
+		cut.record(5);
+		cut.record(50);
+
+		assertThat(cut.getCount(), is(2L));
+		assertThat(cut.getSum(), is(55L));
+	}
+
+	@Test
+	public void medianIsUpperBoundOfBucket() throws Exception {
+		cut.record(5);
+		cut.record(50);
+		cut.record(60);
+
+		assertThat(cut.quantile(0.5), is(100L));
+	}
+
+	@Test
+	public void quantileOfEmptyHistogram() throws Exception {
+		assertThat(cut.quantile(0.99), is(0L));
+	}
+
+	@Test
+	public void quantileInOverflow() throws Exception {
+		cut.record(5000);
+
+		assertThat(cut.quantile(1), is(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void exponentialBounds() throws Exception {
+		assertThat(Histogram.exponential(1, 2, 4).getUpperBounds(), is(new long[] { 1, 2, 4, 8 }));
+	}
+
+	@Test
+	public void boundsMustBeAscending() throws Exception {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new Histogram(10, 5);
+		});
+	}
+}
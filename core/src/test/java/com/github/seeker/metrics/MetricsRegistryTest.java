@@ -0,0 +1,64 @@
+package com.github.seeker.metrics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MetricsRegistryTest {
+	private MetricsRegistry cut;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		cut = new MetricsRegistry();
+	}
+
+	@Test
+	public void sameNameAndLabelsReturnSameCounter() throws Exception {
+		assertThat(cut.counter("foo_total", "help", "role", "db"), is(sameInstance(cut.counter("foo_total", "help", "role", "db"))));
+	}
+
+	@Test
+	public void differentLabelsReturnDifferentCounters() throws Exception {
+		assertThat(cut.counter("foo_total", "help", "role", "db"), is(not(sameInstance(cut.counter("foo_total", "help", "role", "loader")))));
+	}
+
+	@Test
+	public void typeMismatchIsRejected() throws Exception {
+		cut.counter("foo", "help");
+
+		assertThrows(IllegalArgumentException.class, () -> {
+			cut.timer("foo", "help");
+		});
+	}
+
+	@Test
+	public void invalidNameIsRejected() throws Exception {
+		assertThrows(IllegalArgumentException.class, () -> {
+			cut.counter("foo-bar", "help");
+		});
+	}
+
+	@Test
+	public void oddNumberOfLabelsIsRejected() throws Exception {
+		assertThrows(IllegalArgumentException.class, () -> {
+			cut.counter("foo", "help", "role");
+		});
+	}
+
+	@Test
+	public void labelsAreSortedAndEscaped() throws Exception {
+		assertThat(MetricsRegistry.formatLabels(new String[] { "b", "x\"y", "a", "1" }), is("a=\"1\",b=\"x\\\"y\""));
+	}
+
+	@Test
+	public void counterCannotDecrease() throws Exception {
+		assertThrows(IllegalArgumentException.class, () -> {
+			cut.counter("foo", "help").increment(-1);
+		});
+	}
+}
@@ -0,0 +1,53 @@
+package com.github.seeker.metrics;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PrometheusFormatterTest {
+	private MetricsRegistry registry;
+	private PrometheusFormatter cut;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		registry = new MetricsRegistry();
+		cut = new PrometheusFormatter(registry);
+	}
+
+	@Test
+	public void counterIsFormatted() throws Exception {
+		registry.counter("si2_test_total", "A test counter", "role", "db").increment(3);
+
+		String formatted = cut.format();
+
+		assertThat(formatted, containsString("# TYPE si2_test_total counter\n"));
+		assertThat(formatted, containsString("si2_test_total{role=\"db\"} 3\n"));
+	}
+
+	@Test
+	public void timerBucketsAreCumulative() throws Exception {
+		Timer timer = registry.timer("si2_test_milliseconds", "A test timer");
+		timer.record(1, TimeUnit.MILLISECONDS);
+		timer.record(3, TimeUnit.MILLISECONDS);
+
+		String formatted = cut.format();
+
+		assertThat(formatted, containsString("# TYPE si2_test_milliseconds histogram\n"));
+		assertThat(formatted, containsString("si2_test_milliseconds_bucket{le=\"1\"} 1\n"));
+		assertThat(formatted, containsString("si2_test_milliseconds_bucket{le=\"4\"} 2\n"));
+		assertThat(formatted, containsString("si2_test_milliseconds_bucket{le=\"+Inf\"} 2\n"));
+		assertThat(formatted, containsString("si2_test_milliseconds_sum 4\n"));
+		assertThat(formatted, containsString("si2_test_milliseconds_count 2\n"));
+	}
+
+	@Test
+	public void histogramLabelsAreCombined() throws Exception {
+		registry.byteHistogram("si2_test_bytes", "A test histogram", "role", "loader").record(10);
+
+		assertThat(cut.format(), containsString("si2_test_bytes_bucket{role=\"loader\",le=\"1024\"} 1\n"));
+	}
+}
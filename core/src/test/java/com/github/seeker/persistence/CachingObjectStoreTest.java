@@ -0,0 +1,268 @@
+package com.github.seeker.persistence;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+public class CachingObjectStoreTest {
+	private static final byte[] DATA = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+	private static final long MAX_SIZE = 25;
+
+	@TempDir
+	Path cacheDirectory;
+
+	@Mock
+	private ObjectStore delegate;
+
+	private UUID imageId;
+
+	private CachingObjectStore cut;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		imageId = UUID.randomUUID();
+		cut = new CachingObjectStore(delegate, cacheDirectory, MAX_SIZE);
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		cut.close();
+	}
+
+	private void stubImage(UUID id) throws Exception {
+		when(delegate.getImage(id)).then(invocation -> new ByteArrayInputStream(DATA));
+	}
+
+	private byte[] readImage(UUID id) throws Exception {
+		try (InputStream is = cut.getImage(id)) {
+			return is.readAllBytes();
+		}
+	}
+
+	@Test
+	public void missReturnsData() throws Exception {
+		stubImage(imageId);
+
+		assertThat(readImage(imageId), is(DATA));
+	}
+
+	@Test
+	public void hitReturnsData() throws Exception {
+		stubImage(imageId);
+		readImage(imageId);
+
+		assertThat(readImage(imageId), is(DATA));
+	}
+
+	@Test
+	public void hitDoesNotDownloadAgain() throws Exception {
+		stubImage(imageId);
+
+		readImage(imageId);
+		readImage(imageId);
+
+		verify(delegate, times(1)).getImage(imageId);
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvicted() throws Exception {
+		UUID second = UUID.randomUUID();
+		UUID third = UUID.randomUUID();
+		stubImage(imageId);
+		stubImage(second);
+		stubImage(third);
+
+		readImage(imageId);
+		readImage(second);
+		readImage(imageId);
+		readImage(third);
+		readImage(imageId);
+		readImage(second);
+
+		verify(delegate, times(1)).getImage(imageId);
+		verify(delegate, times(2)).getImage(second);
+	}
+
+	@Test
+	public void sizeIsBounded() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			UUID id = UUID.randomUUID();
+			stubImage(id);
+			readImage(id);
+		}
+
+		assertThat(cut.getEntryCount(), is(2));
+		assertThat(cut.getSizeBytes(), is(20L));
+	}
+
+	@Test
+	public void deleteInvalidatesCachedObject() throws Exception {
+		stubImage(imageId);
+		readImage(imageId);
+
+		cut.deleteImage(imageId);
+		readImage(imageId);
+
+		verify(delegate, times(2)).getImage(imageId);
+	}
+
+	@Test
+	public void asyncStoreInvalidatesCachedObject() throws Exception {
+		Path file = cacheDirectory.resolve("upload.jpg");
+		stubImage(imageId);
+		when(delegate.storeImageAsync(file, imageId)).thenReturn(CompletableFuture.completedFuture(null));
+		readImage(imageId);
+
+		cut.storeImageAsync(file, imageId).join();
+		readImage(imageId);
+
+		verify(delegate, times(2)).getImage(imageId);
+	}
+
+	@Test
+	public void deleteDuringDownloadInvalidatesDownloadedObject() throws Exception {
+		CountDownLatch downloading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(delegate.getImage(imageId)).then(invocation -> {
+			downloading.countDown();
+			release.await();
+			return new ByteArrayInputStream(DATA);
+		}).then(invocation -> new ByteArrayInputStream(DATA));
+
+		CompletableFuture<byte[]> read = CompletableFuture.supplyAsync(() -> {
+			try {
+				return readImage(imageId);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		downloading.await();
+		CompletableFuture<Void> delete = CompletableFuture.runAsync(() -> {
+			try {
+				cut.deleteImage(imageId);
+			} catch (MinioPersistenceException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		verify(delegate, timeout(1000)).deleteImage(imageId);
+		release.countDown();
+		read.join();
+		delete.join();
+
+		readImage(imageId);
+
+		verify(delegate, times(2)).getImage(imageId);
+	}
+
+	@Test
+	public void invalidatedObjectIsDownloadedAgain() throws Exception {
+		stubImage(imageId);
+		readImage(imageId);
+
+		cut.invalidate(ObjectKind.IMAGE, imageId);
+		readImage(imageId);
+
+		verify(delegate, times(2)).getImage(imageId);
+	}
+
+	@Test
+	public void objectModifiedAfterCachingIsStale() throws Exception {
+		stubImage(imageId);
+		readImage(imageId);
+		when(delegate.listObjects(ObjectKind.IMAGE))
+				.thenReturn(List.of(new StoredObject(imageId, Instant.now().plusSeconds(60))).iterator());
+
+		assertThat(cut.invalidateStale(ObjectKind.IMAGE), is(1));
+	}
+
+	@Test
+	public void staleObjectIsDownloadedAgain() throws Exception {
+		stubImage(imageId);
+		readImage(imageId);
+		when(delegate.listObjects(ObjectKind.IMAGE))
+				.thenReturn(List.of(new StoredObject(imageId, Instant.now().plusSeconds(60))).iterator());
+
+		cut.invalidateStale(ObjectKind.IMAGE);
+		readImage(imageId);
+
+		verify(delegate, times(2)).getImage(imageId);
+	}
+
+	@Test
+	public void objectModifiedBeforeCachingIsKept() throws Exception {
+		stubImage(imageId);
+		readImage(imageId);
+		when(delegate.listObjects(ObjectKind.IMAGE))
+				.thenReturn(List.of(new StoredObject(imageId, Instant.now().minusSeconds(60))).iterator());
+
+		assertThat(cut.invalidateStale(ObjectKind.IMAGE), is(0));
+	}
+
+	@Test
+	public void cachedObjectsAreReusedAfterRestart() throws Exception {
+		stubImage(imageId);
+		readImage(imageId);
+
+		cut.close();
+		cut = new CachingObjectStore(delegate, cacheDirectory, MAX_SIZE);
+		readImage(imageId);
+
+		verify(delegate, times(1)).getImage(imageId);
+	}
+
+	@Test
+	public void cachedFileIsStoredUnderObjectName() throws Exception {
+		stubImage(imageId);
+		readImage(imageId);
+
+		assertThat(Files.exists(cacheDirectory.resolve("image").resolve(imageId + ".jpg")), is(true));
+	}
+
+	@Test
+	public void directoryCannotBeSharedByTwoCaches() throws Exception {
+		assertThrows(IOException.class, () -> {
+			new CachingObjectStore(delegate, cacheDirectory, MAX_SIZE);
+		});
+	}
+
+	@Test
+	public void directoryCanBeUsedAfterClose() throws Exception {
+		cut.close();
+
+		cut = new CachingObjectStore(delegate, cacheDirectory, MAX_SIZE);
+
+		assertThat(cut.getEntryCount(), is(0));
+	}
+
+	@Test
+	public void lockFileIsNotCached() throws Exception {
+		cut.close();
+		cut = new CachingObjectStore(delegate, cacheDirectory, MAX_SIZE);
+
+		assertThat(cut.getSizeBytes(), is(0L));
+	}
+}
@@ -0,0 +1,88 @@
+package com.github.seeker.persistence;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+public class CompletedImagePrunerTest {
+	private static final int BATCH_SIZE = 2;
+
+	@Mock
+	private ImagePruner pruner;
+
+	private UUID first;
+	private UUID second;
+
+	private CompletedImagePruner cut;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		first = UUID.randomUUID();
+		second = UUID.randomUUID();
+
+		cut = new CompletedImagePruner(pruner, BATCH_SIZE, Duration.ofHours(1));
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		cut.close();
+	}
+
+	@Test
+	public void fullBatchIsPruned() throws Exception {
+		cut.imageCompleted(first);
+		cut.imageCompleted(second);
+
+		verify(pruner, timeout(1000)).pruneBatch(List.of(first, second));
+	}
+
+	@Test
+	public void partialBatchIsPending() throws Exception {
+		cut.imageCompleted(first);
+
+		verify(pruner, never()).pruneBatch(any());
+		assertThat(cut.getPendingCount(), is(1));
+	}
+
+	@Test
+	public void partialBatchIsPrunedAfterFlushInterval() throws Exception {
+		cut.close();
+		cut = new CompletedImagePruner(pruner, BATCH_SIZE, Duration.ofMillis(50));
+
+		cut.imageCompleted(first);
+
+		verify(pruner, timeout(1000)).pruneBatch(List.of(first));
+	}
+
+	@Test
+	public void closePrunesPendingImages() throws Exception {
+		cut.imageCompleted(first);
+
+		cut.close();
+
+		verify(pruner).pruneBatch(List.of(first));
+	}
+
+	@Test
+	public void invalidBatchSizeIsRejected() throws Exception {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new CompletedImagePruner(pruner, ImagePruner.BATCH_SIZE + 1, Duration.ofSeconds(1));
+		});
+	}
+}
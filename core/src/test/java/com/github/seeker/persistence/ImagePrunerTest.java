@@ -0,0 +1,133 @@
+package com.github.seeker.persistence;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.github.seeker.persistence.document.ImageMetaData;
+
+import de.caluga.morphium.driver.MorphiumId;
+
+@ExtendWith(MockitoExtension.class)
+public class ImagePrunerTest {
+	private static final List<String> REQUIRED_HASHES = List.of("sha256");
+
+	@Mock
+	private MongoDbMapper mapper;
+
+	@Mock
+	private ObjectStore store;
+
+	@Mock
+	private ImageMetaData first;
+
+	@Mock
+	private ImageMetaData second;
+
+	private MorphiumId lastId;
+
+	private ImagePruner cut;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		lastId = new MorphiumId();
+
+		lenient().when(first.getImageId()).thenReturn(UUID.randomUUID());
+		lenient().when(second.getImageId()).thenReturn(UUID.randomUUID());
+		lenient().when(second.getId()).thenReturn(lastId);
+
+		lenient().when(mapper.countPrunableMetadata(REQUIRED_HASHES)).thenReturn(2L);
+		lenient().when(mapper.getPrunableMetadata(eq(REQUIRED_HASHES), isNull(), anyInt())).thenReturn(List.of(first, second));
+		lenient().when(mapper.getPrunableMetadata(eq(REQUIRED_HASHES), eq(lastId), anyInt())).thenReturn(Collections.emptyList());
+
+		cut = new ImagePruner(mapper, store, 2);
+	}
+
+	private List<UUID> imageIds() {
+		List<UUID> imageIds = new ArrayList<>();
+		imageIds.add(first.getImageId());
+		imageIds.add(second.getImageId());
+
+		return imageIds;
+	}
+
+	@Test
+	public void allImagesArePruned() throws Exception {
+		assertThat(cut.prune(REQUIRED_HASHES, (pruned, total, rate) -> {
+		}), is(2L));
+	}
+
+	@Test
+	public void originalsAreDeleted() throws Exception {
+		cut.prune(REQUIRED_HASHES, (pruned, total, rate) -> {
+		});
+
+		verify(store).deleteImagesById(imageIds());
+	}
+
+	@Test
+	public void preProcessedImagesAreDeleted() throws Exception {
+		cut.prune(REQUIRED_HASHES, (pruned, total, rate) -> {
+		});
+
+		verify(store).deletePreProcessedImages(imageIds());
+	}
+
+	@Test
+	public void prunedImagesAreMarked() throws Exception {
+		cut.prune(REQUIRED_HASHES, (pruned, total, rate) -> {
+		});
+
+		verify(mapper).markPruned(imageIds());
+	}
+
+	@Test
+	public void progressIsReported() throws Exception {
+		AtomicLong reportedTotal = new AtomicLong();
+
+		cut.prune(REQUIRED_HASHES, (pruned, total, rate) -> reportedTotal.set(total));
+
+		assertThat(reportedTotal.get(), is(2L));
+	}
+
+	@Test
+	public void failedBatchIsNotMarked() throws Exception {
+		doThrow(new MinioPersistenceException("test")).when(store).deleteImagesById(any());
+
+		long pruned = cut.prune(REQUIRED_HASHES, (done, total, rate) -> {
+		});
+
+		assertThat(pruned, is(0L));
+		verify(mapper, never()).markPruned(any());
+	}
+
+	@Test
+	public void completionHashesIncludeCustomHash() throws Exception {
+		assertThat(ImagePruner.completionHashes("SHA-256,SHA-512"), is(List.of("SHA-256", "SHA-512", ImagePruner.CUSTOM_HASH_NAME)));
+	}
+
+	@Test
+	public void completionHashesDoNotDuplicateCustomHash() throws Exception {
+		assertThat(ImagePruner.completionHashes("SHA-256,phash"), is(List.of("SHA-256", "phash")));
+	}
+}
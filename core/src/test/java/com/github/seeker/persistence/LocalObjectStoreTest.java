@@ -0,0 +1,163 @@
+package com.github.seeker.persistence;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.seeker.persistence.document.ImageMetaData;
+
+public class LocalObjectStoreTest {
+	private static final byte[] SMALL_DATA = { 1, 2, 3, 4 };
+
+	@TempDir
+	Path tempDir;
+
+	private Path storeRoot;
+	private Path sourceFile;
+	private byte[] largeData;
+	private UUID imageId;
+
+	private LocalObjectStore cut;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		storeRoot = tempDir.resolve("store");
+		sourceFile = tempDir.resolve("source.jpg");
+
+		// larger than a single read buffer
+		largeData = new byte[256 * 1024];
+		new Random(42).nextBytes(largeData);
+		Files.write(sourceFile, largeData);
+
+		imageId = UUID.randomUUID();
+
+		cut = new LocalObjectStore(storeRoot);
+		cut.createBuckets();
+	}
+
+	private byte[] readAll(InputStream is) throws Exception {
+		try (is) {
+			return is.readAllBytes();
+		}
+	}
+
+	@Test
+	public void storedImageCanBeRead() throws Exception {
+		cut.storeImage(sourceFile, imageId);
+
+		assertThat(readAll(cut.getImage(imageId)), is(largeData));
+	}
+
+	@Test
+	public void storedImageExists() throws Exception {
+		cut.storeImage(sourceFile, imageId);
+
+		assertThat(cut.imageExisits(imageId), is(true));
+	}
+
+	@Test
+	public void missingImageDoesNotExist() throws Exception {
+		assertThat(cut.imageExisits(imageId), is(false));
+	}
+
+	@Test
+	public void readingMissingImageThrows() throws Exception {
+		assertThrows(MinioPersistenceException.class, () -> {
+			cut.getImage(imageId);
+		});
+	}
+
+	@Test
+	public void storeImageLeavesNoTemporaryFiles() throws Exception {
+		cut.storeImage(sourceFile, imageId);
+
+		try (var files = Files.list(storeRoot.resolve("image"))) {
+			assertThat(files.count(), is(1L));
+		}
+	}
+
+	@Test
+	public void deletedImageDoesNotExist() throws Exception {
+		cut.storeImage(sourceFile, imageId);
+
+		cut.deleteImage(imageId);
+
+		assertThat(cut.imageExisits(imageId), is(false));
+	}
+
+	@Test
+	public void deleteImagesRemovesAll() throws Exception {
+		ImageMetaData first = new ImageMetaData();
+		ImageMetaData second = new ImageMetaData();
+		cut.storeImage(sourceFile, first.getImageId());
+		cut.storeImage(sourceFile, second.getImageId());
+
+		cut.deleteImages(List.of(first, second).iterator());
+
+		assertThat(cut.imageExisits(first.getImageId()), is(false));
+		assertThat(cut.imageExisits(second.getImageId()), is(false));
+	}
+
+	@Test
+	public void thumbnailCanBeRead() throws Exception {
+		cut.storeThumbnail(imageId, new ByteArrayInputStream(SMALL_DATA));
+
+		assertThat(readAll(cut.getThumbnail(imageId)), is(SMALL_DATA));
+	}
+
+	@Test
+	public void largePreProcessedImageCanBeRead() throws Exception {
+		cut.storePreProcessedImage(imageId, new ByteArrayInputStream(largeData));
+
+		assertThat(readAll(cut.getPreProcessedImage(imageId)), is(largeData));
+	}
+
+	@Test
+	public void corruptedImageIsMoved() throws Exception {
+		cut.storeImage(sourceFile, imageId);
+
+		cut.moveImageToCorrupted(imageId);
+
+		assertThat(cut.imageExisits(imageId), is(false));
+		assertThat(Files.exists(storeRoot.resolve("corrupted").resolve(imageId + ".jpg")), is(true));
+	}
+
+	@Test
+	public void objectsAreListedInImageIdOrder() throws Exception {
+		List<UUID> imageIds = new ArrayList<UUID>();
+
+		for (int i = 0; i < 10; i++) {
+			UUID id = UUID.randomUUID();
+			cut.storeThumbnail(id, new ByteArrayInputStream(SMALL_DATA));
+			imageIds.add(id);
+		}
+
+		imageIds.sort(Comparator.comparing(UUID::toString));
+		List<UUID> listed = new ArrayList<UUID>();
+		cut.listObjects(ObjectKind.THUMBNAIL).forEachRemaining(object -> listed.add(object.getImageId()));
+
+		assertThat(listed, is(imageIds));
+	}
+
+	@Test
+	public void deletedObjectsAreNotListed() throws Exception {
+		cut.storePreProcessedImage(imageId, new ByteArrayInputStream(SMALL_DATA));
+		cut.deleteObjects(ObjectKind.PREPROCESSED, List.of(imageId));
+
+		assertThat(cut.listObjects(ObjectKind.PREPROCESSED).hasNext(), is(false));
+	}
+}
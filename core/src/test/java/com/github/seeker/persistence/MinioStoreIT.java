@@ -218,4 +218,19 @@ public class MinioStoreIT {
 
 		assertThat(sut.imageExisits(IMAGE_ROAD_FAR_UUID), is(false));
 	}
+
+	@Test
+	public void listObjectsReturnsStoredThumbnail() throws Exception {
+		List<UUID> listed = new LinkedList<UUID>();
+		sut.listObjects(ObjectKind.THUMBNAIL).forEachRemaining(object -> listed.add(object.getImageId()));
+
+		assertThat(listed, is(List.of(IMAGE_AUTUMN_UUID)));
+	}
+
+	@Test
+	public void deleteObjectsRemovesObject() throws Exception {
+		sut.deleteObjects(ObjectKind.PREPROCESSED, List.of(IMAGE_ROAD_NEAR_UUID));
+
+		assertThat(sut.listObjects(ObjectKind.PREPROCESSED).hasNext(), is(false));
+	}
 }
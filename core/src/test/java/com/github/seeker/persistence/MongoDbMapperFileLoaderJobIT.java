@@ -11,6 +11,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.jupiter.api.AfterEach;
@@ -24,6 +25,7 @@ import com.github.seeker.configuration.ConnectionProvider;
 import com.github.seeker.configuration.ConsulConfiguration;
 import com.github.seeker.configuration.VaultIntegrationCredentials;
 import com.github.seeker.configuration.VaultIntegrationCredentials.Approle;
+import com.github.seeker.messaging.MessagePriority;
 import com.github.seeker.persistence.document.FileLoaderJob;
 
 import de.caluga.morphium.Morphium;
@@ -129,4 +131,36 @@ public class MongoDbMapperFileLoaderJobIT {
 
 		assertThat(jobAfterUpdate, is(nullValue()));
 	}
+
+	@Test
+	public void openJobWithHighestPriorityIsReturned() throws Exception {
+		FileLoaderJob urgent = new FileLoaderJob(TEST_ANCHOR_ANIMAL, TEST_PATH_DOG.toString());
+		urgent.setPriority(MessagePriority.INTERACTIVE);
+		mapper.storeFileLoadJob(urgent);
+
+		FileLoaderJob job = mapper.getOpenFileLoadJobsForAnchor(TEST_ANCHOR_ANIMAL);
+
+		assertThat(job.getJobId(), is(urgent.getJobId()));
+	}
+
+	@Test
+	public void nextOpenJobAcrossAnchors() throws Exception {
+		FileLoaderJob urgent = new FileLoaderJob(TEST_ANCHOR_FRUIT, TEST_PATH_DOG.toString());
+		urgent.setPriority(MessagePriority.INTERACTIVE);
+		mapper.storeFileLoadJob(urgent);
+
+		FileLoaderJob job = mapper.getNextOpenFileLoadJob(Arrays.asList(TEST_ANCHOR_ANIMAL, TEST_ANCHOR_FRUIT));
+
+		assertThat(job.getJobId(), is(urgent.getJobId()));
+	}
+
+	@Test
+	public void noOpenJobAboveNormalPriority() throws Exception {
+		assertThat(mapper.hasOpenFileLoadJobAbove(Arrays.asList(TEST_ANCHOR_ANIMAL, TEST_ANCHOR_FRUIT), MessagePriority.NORMAL), is(false));
+	}
+
+	@Test
+	public void openJobAboveBulkPriority() throws Exception {
+		assertThat(mapper.hasOpenFileLoadJobAbove(Arrays.asList(TEST_ANCHOR_ANIMAL, TEST_ANCHOR_FRUIT), MessagePriority.BULK), is(true));
+	}
 }
@@ -4,19 +4,25 @@
  */
 package com.github.seeker.persistence;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.collection.IsIterableContainingInAnyOrder.containsInAnyOrder;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.junit.jupiter.api.AfterEach;
@@ -38,6 +44,7 @@ import com.github.seeker.persistence.document.Thumbnail;
 
 import de.caluga.morphium.Morphium;
 import de.caluga.morphium.query.MorphiumIterator;
+import de.caluga.morphium.query.Query;
 import de.caluga.morphium.query.QueryIterator;
 
 @Timeout(10)
@@ -69,6 +76,8 @@ public class MongoDbMapperIT {
 	private static final Path TEST_PATH_BIRD = Paths.get("two/bird.jpg");
 	
 	private static final byte[] HASH_DATA_SHA256 = new byte[]{1,2,3,5};
+	private static final byte[] HASH_DATA_PHASH = new byte[]{6,37,3,1,5,85,2,9};
+	private static final long PHASH = PhashBands.fromBytes(HASH_DATA_PHASH);
 	
 	private static MongoDbMapper mapper;
 
@@ -93,9 +102,11 @@ public class MongoDbMapperIT {
 	
 	@BeforeEach
 	public void setUp() throws Exception {
+		mapper.ensureIndices();
+
 		Map<String, Hash> hashes = new HashMap<>();
 		hashes.put(HASH_NAME_SHA256, new Hash(HASH_DATA_SHA256));
-		hashes.put(HASH_NAME_PHASH, new Hash(new byte[]{6,37,3,1,5,85,2}));
+		hashes.put(HASH_NAME_PHASH, new Hash(HASH_DATA_PHASH));
 		
 		metadataExisting = new ImageMetaData();
 		metadataExisting.setThumbnailId(new Thumbnail(123));
@@ -293,6 +304,52 @@ public class MongoDbMapperIT {
 				)));
 	}
 	
+	@Test
+	public void filterMetadataByPartOfAnchorReturnsNothing() throws Exception {
+		Map<String, Object> filterParameters = new HashMap<String, Object>();
+		
+		filterParameters.put(FIELD_NAME_ANCHOR, "fru");
+		
+		assertThat(mapper.getImageMetadata(filterParameters).size(), is(0));
+	}
+
+	@Test
+	public void filterMetadataByPathOnlyMatchesPrefix() throws Exception {
+		Map<String, Object> filterParameters = new HashMap<String, Object>();
+		
+		filterParameters.put(FIELD_NAME_PATH, "cat");
+		
+		assertThat(mapper.getImageMetadata(filterParameters).size(), is(0));
+	}
+
+	@Test
+	public void filterMetadataByPathSubstring() throws Exception {
+		Map<String, Object> filterParameters = new HashMap<String, Object>();
+		
+		filterParameters.put(FIELD_NAME_PATH, MongoDbMapper.SUBSTRING_FILTER_PREFIX + "cat");
+		
+		assertThat(mapper.getImageMetadata(filterParameters), is(containsInAnyOrder(metaInstances.get(TEST_PATH_CAT))));
+	}
+
+	@Test
+	public void filterMetadataEscapesRegex() throws Exception {
+		Map<String, Object> filterParameters = new HashMap<String, Object>();
+		
+		filterParameters.put(FIELD_NAME_PATH, "four.cat");
+		
+		assertThat(mapper.getImageMetadata(filterParameters).size(), is(0));
+	}
+
+	@Test
+	public void filterMetadataIgnoresBlankValues() throws Exception {
+		Map<String, Object> filterParameters = new HashMap<String, Object>();
+		
+		filterParameters.put(FIELD_NAME_ANCHOR, TEST_ANCHOR_FRUIT);
+		filterParameters.put(FIELD_NAME_PATH, "");
+		
+		assertThat(mapper.getFilteredImageMetadataCount(filterParameters), is(2L));
+	}
+	
 	private void cleanUpCollection(Class<? extends Object> clazz) {
 		morphium.dropCollection(clazz);
 		morphium.clearCachefor(clazz);
@@ -316,6 +373,24 @@ public class MongoDbMapperIT {
 		assertThat(iter.getCount(), is(5L));
 	}
 	
+	@Test
+	public void getThumbnailsToResizeSkipsPruned() {
+		mapper.markPruned(Arrays.asList(IMAGE_ID));
+
+		QueryIterator<ImageMetaData> iter = (QueryIterator<ImageMetaData>) mapper.getThumbnailsToResize(333);
+
+		assertThat(iter.getCount(), is(5L));
+	}
+
+	@Test
+	public void thumbnailsToResizeAreProjected() {
+		ImageMetaData meta = mapper.getThumbnailsToResize(333).next();
+
+		assertThat(meta.getAnchor(), is(notNullValue()));
+		assertThat(meta.getImageId(), is(notNullValue()));
+		assertThat(meta.getHashes().isEmpty(), is(true));
+	}
+
 	@Test
 	public void getProcessingCompletedMetadataCount() throws Exception {
 		QueryIterator<ImageMetaData> iter = (QueryIterator<ImageMetaData>) mapper
@@ -335,4 +410,323 @@ public class MongoDbMapperIT {
 
 		assertThat(meta.getImageId(), is(IMAGE_ID));
 	}
+
+	@Test
+	public void countPrunableMetadata() throws Exception {
+		assertThat(mapper.countPrunableMetadata(Arrays.asList(HASH_NAME_SHA256, HASH_NAME_PHASH)), is(1L));
+	}
+
+	@Test
+	public void getPrunableMetadata() throws Exception {
+		List<ImageMetaData> prunable = mapper.getPrunableMetadata(Arrays.asList(HASH_NAME_SHA256, HASH_NAME_PHASH), null, 10);
+
+		assertThat(prunable.get(0).getImageId(), is(IMAGE_ID));
+	}
+
+	@Test
+	public void prunableMetadataDoesNotLoadHashes() throws Exception {
+		List<ImageMetaData> prunable = mapper.getPrunableMetadata(Arrays.asList(HASH_NAME_SHA256, HASH_NAME_PHASH), null, 10);
+
+		assertThat(prunable.get(0).getHashes().isEmpty(), is(true));
+	}
+
+	@Test
+	public void getPrunableMetadataAfterLastEntryIsEmpty() throws Exception {
+		List<String> requiredHashes = Arrays.asList(HASH_NAME_SHA256, HASH_NAME_PHASH);
+		ImageMetaData last = mapper.getPrunableMetadata(requiredHashes, null, 10).get(0);
+
+		assertThat(mapper.getPrunableMetadata(requiredHashes, last.getId(), 10).isEmpty(), is(true));
+	}
+
+	@Test
+	public void prunedMetadataIsNotPrunable() throws Exception {
+		mapper.markPruned(Arrays.asList(IMAGE_ID));
+
+		assertThat(mapper.countPrunableMetadata(Arrays.asList(HASH_NAME_SHA256, HASH_NAME_PHASH)), is(0L));
+	}
+
+	@Test
+	public void prunedMetadataHasPrunedTime() throws Exception {
+		mapper.markPruned(Arrays.asList(IMAGE_ID));
+		morphium.clearCachefor(ImageMetaData.class);
+
+		assertThat(mapper.getImageMetadata(TEST_ANCHOR, TEST_PATH).isPruned(), is(true));
+	}
+
+	@Test
+	public void metadataIsOrderedLikeObjectNames() throws Exception {
+		List<String> imageIds = new ArrayList<String>();
+		MorphiumIterator<ImageMetaData> iter = mapper.getMetadataOrderedByImageId();
+
+		while (iter.hasNext()) {
+			imageIds.add(iter.next().getImageId().toString());
+		}
+
+		List<String> sorted = new ArrayList<String>(imageIds);
+		Collections.sort(sorted);
+
+		assertThat(imageIds, is(sorted));
+	}
+
+	@Test
+	public void metadataOrderedByImageIdHasFieldsForReconciliation() throws Exception {
+		MorphiumIterator<ImageMetaData> iter = mapper.getMetadataOrderedByImageId();
+		ImageMetaData meta = null;
+
+		while (iter.hasNext() && meta == null) {
+			ImageMetaData next = iter.next();
+
+			if (IMAGE_ID.equals(next.getImageId())) {
+				meta = next;
+			}
+		}
+
+		assertThat(meta, is(notNullValue())); // guard assert
+
+		assertThat(meta.getPath(), is(TEST_PATH.toString()));
+		assertThat(meta.hasThumbnail(), is(true));
+		assertThat(meta.getHashes().isEmpty(), is(true));
+	}
+
+	@Test
+	public void duplicateAnchorAndPathIsRejected() throws Exception {
+		ImageMetaData duplicate = new ImageMetaData();
+		duplicate.setAnchor(TEST_ANCHOR);
+		duplicate.setPath(TEST_PATH.toString());
+
+		assertThrows(RuntimeException.class, () -> {
+			morphium.store(duplicate);
+		});
+	}
+
+	@Test
+	public void storeIfAbsentReturnsExistingEntry() throws Exception {
+		ImageMetaData duplicate = new ImageMetaData();
+		duplicate.setAnchor(TEST_ANCHOR);
+		duplicate.setPath(TEST_PATH.toString());
+
+		assertThat(mapper.storeIfAbsent(duplicate).getImageId(), is(IMAGE_ID));
+	}
+
+	@Test
+	public void storeIfAbsentDoesNotCreateDuplicate() throws Exception {
+		ImageMetaData duplicate = new ImageMetaData();
+		duplicate.setAnchor(TEST_ANCHOR);
+		duplicate.setPath(TEST_PATH.toString());
+
+		mapper.storeIfAbsent(duplicate);
+
+		assertThat(mapper.getImageMetadataCount(), is(6L));
+	}
+
+	@Test
+	public void storeIfAbsentStoresNewEntry() throws Exception {
+		ImageMetaData meta = new ImageMetaData();
+		meta.setAnchor(TEST_ANCHOR);
+		meta.setPath(TEST_PATH_NEW.toString());
+
+		mapper.storeIfAbsent(meta);
+
+		assertThat(mapper.getImageMetadata(TEST_ANCHOR, TEST_PATH_NEW), is(notNullValue()));
+	}
+
+	@Test
+	public void ensureIndicesReportsDuplicates() throws Exception {
+		storeDuplicatesWithoutIndex();
+
+		assertThat(mapper.ensureIndices(), is(false));
+	}
+
+	@Test
+	public void removeDuplicateMetadataRemovesDuplicates() throws Exception {
+		storeDuplicatesWithoutIndex();
+
+		assertThat(mapper.removeDuplicateMetadata(), is(1L));
+	}
+
+	@Test
+	public void removeDuplicateMetadataKeepsEntryWithThumbnail() throws Exception {
+		storeDuplicatesWithoutIndex();
+
+		mapper.removeDuplicateMetadata();
+
+		assertThat(mapper.getImageMetadata(TEST_ANCHOR, TEST_PATH).hasThumbnail(), is(true));
+	}
+
+	@Test
+	public void indicesCanBeCreatedAfterRemovingDuplicates() throws Exception {
+		storeDuplicatesWithoutIndex();
+
+		mapper.removeDuplicateMetadata();
+
+		assertThat(mapper.ensureIndices(), is(true));
+	}
+
+	@Test
+	public void removeDuplicateMetadataWithoutDuplicates() throws Exception {
+		assertThat(mapper.removeDuplicateMetadata(), is(0L));
+	}
+
+	private void storeDuplicatesWithoutIndex() {
+		cleanUpCollection(ImageMetaData.class);
+		morphium.getConfig().setAutoIndexAndCappedCreationOnWrite(false);
+
+		try {
+			ImageMetaData withoutThumbnail = new ImageMetaData();
+			withoutThumbnail.setAnchor(TEST_ANCHOR);
+			withoutThumbnail.setPath(TEST_PATH.toString());
+
+			ImageMetaData withThumbnail = new ImageMetaData();
+			withThumbnail.setAnchor(TEST_ANCHOR);
+			withThumbnail.setPath(TEST_PATH.toString());
+			withThumbnail.setThumbnailId(new Thumbnail(123));
+
+			mapper.storeDocument(withoutThumbnail);
+			mapper.storeDocument(withThumbnail);
+		} finally {
+			morphium.getConfig().setAutoIndexAndCappedCreationOnWrite(true);
+		}
+	}
+
+	@Test
+	public void anchorAndPathLookupUsesIndex() throws Exception {
+		assertIndexScan(mapper.anchorPathQuery(TEST_ANCHOR, TEST_PATH.toString()));
+	}
+
+	@Test
+	public void hasHashUsesIndex() throws Exception {
+		assertIndexScan(mapper.hasHashQuery(TEST_ANCHOR, TEST_PATH.toString(), HASH_NAME_SHA256));
+	}
+
+	@Test
+	public void anchorFilterUsesIndex() throws Exception {
+		Map<String, Object> filterParameters = new HashMap<String, Object>();
+		filterParameters.put(FIELD_NAME_ANCHOR, TEST_ANCHOR_ANIMAL);
+
+		assertIndexScan(mapper.filterQuery(filterParameters));
+	}
+
+	@Test
+	public void pathPrefixFilterUsesIndex() throws Exception {
+		Map<String, Object> filterParameters = new HashMap<String, Object>();
+		filterParameters.put(FIELD_NAME_PATH, "four/");
+
+		assertIndexScan(mapper.filterQuery(filterParameters));
+	}
+
+	@Test
+	public void anchorFilterPageIsSortedByIndex() throws Exception {
+		Map<String, Object> filterParameters = new HashMap<String, Object>();
+		filterParameters.put(FIELD_NAME_ANCHOR, TEST_ANCHOR_ANIMAL);
+
+		assertIndexSort(mapper.imageMetadataPageQuery(filterParameters, null, 2), FIELD_NAME_ANCHOR);
+	}
+
+	@Test
+	public void pathFilterPageIsSortedByIndex() throws Exception {
+		assertIndexSort(mapper.imageMetadataPageQuery(Collections.emptyMap(), null, 2).f(FIELD_NAME_PATH).eq(TEST_PATH.toString()),
+				FIELD_NAME_PATH);
+	}
+
+	@Test
+	public void imageIdLookupUsesIndex() throws Exception {
+		assertIndexScan(mapper.imageIdQuery(Arrays.asList(IMAGE_ID)));
+	}
+
+	private void assertIndexScan(Query<ImageMetaData> query) throws Exception {
+		String plan = query.explain().toString();
+
+		assertThat(plan, containsString("IXSCAN"));
+		assertThat(plan, not(containsString("COLLSCAN")));
+	}
+
+	/**
+	 * Check that the matching entries are found with the compound index of the field and the id, and read in id order
+	 * from it, instead of being sorted after they were found.
+	 */
+	private void assertIndexSort(Query<ImageMetaData> query, String field) throws Exception {
+		String winningPlan = ((Map<?, ?>) query.explain().get("queryPlanner")).get("winningPlan").toString();
+
+		assertThat(winningPlan, containsString(field + "=1, _id=1"));
+		assertThat(winningPlan, not(containsString("SORT")));
+		assertThat(winningPlan, not(containsString("COLLSCAN")));
+	}
+
+	@Test
+	public void similarImageIsFound() throws Exception {
+		storeWithPhash(TEST_ANCHOR, TEST_PATH_NEW, PHASH ^ 0b111L);
+
+		List<ImageMetaData> similar = mapper.getSimilarImages(PHASH, 3);
+
+		assertThat(similar.size(), is(1));
+		assertThat(similar.get(0).getPath(), is(TEST_PATH_NEW.toString()));
+	}
+
+	@Test
+	public void imageBeyondDistanceIsNotFound() throws Exception {
+		storeWithPhash(TEST_ANCHOR, TEST_PATH_NEW, PHASH ^ 0b1111L);
+
+		assertThat(mapper.getSimilarImages(PHASH, 3).isEmpty(), is(true));
+	}
+
+	@Test
+	public void similarImageLookupUsesIndex() throws Exception {
+		assertIndexScan(morphium.createQueryFor(ImageMetaData.class).f("phashBands").in(PhashBands.bands(PHASH)));
+	}
+
+	@Test
+	public void backfillSetsPhashBands() throws Exception {
+		mapper.backfillPhashBands(HASH_NAME_PHASH);
+		morphium.clearCachefor(ImageMetaData.class);
+
+		ImageMetaData meta = mapper.getImageMetadata(TEST_ANCHOR, TEST_PATH);
+
+		assertThat(meta.getPhash(), is(PhashBands.fromBytes(HASH_DATA_PHASH)));
+	}
+
+	private void storeWithPhash(String anchor, Path path, long phash) {
+		ImageMetaData meta = new ImageMetaData();
+		meta.setAnchor(anchor);
+		meta.setPath(path.toString());
+		meta.setPhash(phash);
+
+		morphium.store(meta);
+	}
+
+	@Test
+	public void existingImageIds() throws Exception {
+		assertThat(mapper.getExistingImageIds(Arrays.asList(IMAGE_ID, UUID.randomUUID())), is(Set.of(IMAGE_ID)));
+	}
+
+	@Test
+	public void metadataPageHasLimit() throws Exception {
+		assertThat(mapper.getImageMetadataPage(new HashMap<String, Object>(), null, 4).size(), is(4));
+	}
+
+	@Test
+	public void nextMetadataPageContainsRemainingEntries() throws Exception {
+		List<ImageMetaData> first = mapper.getImageMetadataPage(new HashMap<String, Object>(), null, 4);
+		List<ImageMetaData> second = mapper.getImageMetadataPage(new HashMap<String, Object>(), first.get(3).getId(), 4);
+
+		assertThat(second.size(), is(2));
+	}
+
+	@Test
+	public void metadataIdAtOffsetIsLastEntryOfPage() throws Exception {
+		List<ImageMetaData> first = mapper.getImageMetadataPage(new HashMap<String, Object>(), null, 4);
+
+		assertThat(mapper.getImageMetadataIdAtOffset(new HashMap<String, Object>(), null, 4), is(first.get(3).getId()));
+	}
+
+	@Test
+	public void metadataIdAtNegativeOffset() throws Exception {
+		List<ImageMetaData> first = mapper.getImageMetadataPage(new HashMap<String, Object>(), null, 4);
+
+		assertThat(mapper.getImageMetadataIdAtOffset(new HashMap<String, Object>(), first.get(3).getId(), -3), is(first.get(0).getId()));
+	}
+
+	@Test
+	public void metadataIdAtOffsetBeyondLastEntryIsNull() throws Exception {
+		assertThat(mapper.getImageMetadataIdAtOffset(new HashMap<String, Object>(), null, 7), is(nullValue()));
+	}
 }
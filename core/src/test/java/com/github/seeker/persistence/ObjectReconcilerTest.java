@@ -0,0 +1,204 @@
+package com.github.seeker.persistence;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.github.seeker.persistence.ObjectReconciler.Report;
+import com.github.seeker.persistence.ObjectReconciler.ThumbnailRequester;
+import com.github.seeker.persistence.document.ImageMetaData;
+import com.github.seeker.persistence.document.Thumbnail;
+
+import de.caluga.morphium.query.MorphiumIterator;
+
+@ExtendWith(MockitoExtension.class)
+public class ObjectReconcilerTest {
+	private static final Duration MIN_AGE = Duration.ofHours(1);
+	private static final Instant OLD = Instant.now().minus(Duration.ofDays(1));
+
+	@Mock
+	private MongoDbMapper mapper;
+
+	@Mock
+	private ObjectStore store;
+
+	@Mock
+	private ThumbnailRequester thumbnailRequester;
+
+	private List<ImageMetaData> metadata;
+	private UUID first;
+	private UUID second;
+
+	private ObjectReconciler cut;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		List<UUID> ids = new ArrayList<>(Arrays.asList(UUID.randomUUID(), UUID.randomUUID()));
+		ids.sort((a, b) -> a.toString().compareTo(b.toString()));
+		first = ids.get(0);
+		second = ids.get(1);
+
+		metadata = new ArrayList<>();
+
+		for (ObjectKind kind : ObjectKind.values()) {
+			lenient().when(store.listObjects(kind)).thenAnswer(invocation -> Collections.emptyIterator());
+		}
+
+		lenient().when(mapper.getMetadataOrderedByImageId()).thenAnswer(invocation -> morphiumIterator(metadata.iterator()));
+
+		cut = new ObjectReconciler(mapper, store, MIN_AGE, false, thumbnailRequester);
+	}
+
+	@SuppressWarnings("unchecked")
+	private MorphiumIterator<ImageMetaData> morphiumIterator(Iterator<ImageMetaData> backing) {
+		MorphiumIterator<ImageMetaData> iterator = mock(MorphiumIterator.class);
+		lenient().when(iterator.hasNext()).thenAnswer(invocation -> backing.hasNext());
+		lenient().when(iterator.next()).thenAnswer(invocation -> backing.next());
+
+		return iterator;
+	}
+
+	private void objects(ObjectKind kind, StoredObject... objects) throws Exception {
+		when(store.listObjects(kind)).thenAnswer(invocation -> Arrays.asList(objects).iterator());
+	}
+
+	private ImageMetaData meta(UUID imageId, boolean thumbnail, boolean pruned) {
+		ImageMetaData meta = new ImageMetaData();
+		meta.setImageId(imageId);
+
+		if (thumbnail) {
+			meta.setThumbnailId(new Thumbnail(300));
+		}
+
+		if (pruned) {
+			meta.setPrunedTime(new Date());
+		}
+
+		metadata.add(meta);
+		return meta;
+	}
+
+	@Test
+	public void orphanedObjectIsDeleted() throws Exception {
+		objects(ObjectKind.IMAGE, new StoredObject(first, OLD));
+
+		cut.reconcile();
+
+		verify(store).deleteObjects(ObjectKind.IMAGE, List.of(first));
+	}
+
+	@Test
+	public void orphanIsCounted() throws Exception {
+		objects(ObjectKind.PREPROCESSED, new StoredObject(first, OLD), new StoredObject(second, OLD));
+
+		Report report = cut.reconcile();
+
+		assertThat(report.getDeletedObjects(), is(2L));
+	}
+
+	@Test
+	public void objectWithMetadataIsKept() throws Exception {
+		objects(ObjectKind.IMAGE, new StoredObject(first, OLD));
+		meta(first, true, false);
+
+		cut.reconcile();
+
+		verify(store, never()).deleteObjects(any(), anyCollection());
+	}
+
+	@Test
+	public void recentOrphanIsKept() throws Exception {
+		objects(ObjectKind.IMAGE, new StoredObject(first, Instant.now()));
+
+		Report report = cut.reconcile();
+
+		verify(store, never()).deleteObjects(any(), anyCollection());
+		assertThat(report.getRecentObjects(), is(1L));
+	}
+
+	@Test
+	public void orphanWithNewMetadataIsKept() throws Exception {
+		objects(ObjectKind.IMAGE, new StoredObject(first, OLD));
+		when(mapper.getExistingImageIds(List.of(first))).thenReturn(Set.of(first));
+
+		cut.reconcile();
+
+		verify(store, never()).deleteObjects(any(), anyCollection());
+	}
+
+	@Test
+	public void dryRunDoesNotDelete() throws Exception {
+		cut = new ObjectReconciler(mapper, store, MIN_AGE, true, thumbnailRequester);
+		objects(ObjectKind.IMAGE, new StoredObject(first, OLD));
+
+		Report report = cut.reconcile();
+
+		verify(store, never()).deleteObjects(any(), anyCollection());
+		assertThat(report.getOrphanedObjects(), is(1L));
+	}
+
+	@Test
+	public void missingThumbnailIsRequested() throws Exception {
+		objects(ObjectKind.THUMBNAIL, new StoredObject(second, OLD));
+		ImageMetaData meta = meta(first, true, false);
+		meta(second, true, false);
+
+		cut.reconcile();
+
+		verify(thumbnailRequester).requestThumbnail(meta);
+	}
+
+	@Test
+	public void missingThumbnailOfPrunedImageIsNotRequested() throws Exception {
+		meta(first, true, true);
+
+		Report report = cut.reconcile();
+
+		verify(thumbnailRequester, never()).requestThumbnail(any());
+		assertThat(report.getMissingThumbnails(), is(1L));
+	}
+
+	@Test
+	public void missingOriginalIsCounted() throws Exception {
+		meta(first, true, false);
+		meta(second, true, true);
+
+		Report report = cut.reconcile();
+
+		assertThat(report.getMissingOriginals(), is(1L));
+	}
+
+	@Test
+	public void unorderedMetadataThrows() throws Exception {
+		meta(second, true, false);
+		meta(first, true, false);
+
+		assertThrows(IllegalStateException.class, () -> {
+			cut.reconcile();
+		});
+	}
+}
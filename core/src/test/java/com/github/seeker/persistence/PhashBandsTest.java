@@ -0,0 +1,65 @@
+package com.github.seeker.persistence;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class PhashBandsTest {
+	private static final long PHASH = 8792943954746078079L;
+
+	@Test
+	public void fromBytesReadsWrittenLong() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new DataOutputStream(bytes).writeLong(PHASH);
+
+		assertThat(PhashBands.fromBytes(bytes.toByteArray()), is(PHASH));
+	}
+
+	@Test
+	public void fromBytesRejectsWrongLength() throws Exception {
+		assertThrows(IllegalArgumentException.class, () -> {
+			PhashBands.fromBytes(new byte[] { 1, 2, 3 });
+		});
+	}
+
+	@Test
+	public void fourBands() throws Exception {
+		assertThat(PhashBands.bands(PHASH).size(), is(4));
+	}
+
+	@Test
+	public void bandsAreTagged() throws Exception {
+		assertThat(PhashBands.bands(0L), is(List.of(0, 1 << 16, 2 << 16, 3 << 16)));
+	}
+
+	@Test
+	public void bandsContainHashBits() throws Exception {
+		assertThat(PhashBands.bands(0xFFFFL), is(List.of(0xFFFF, 1 << 16, 2 << 16, 3 << 16)));
+	}
+
+	@Test
+	public void hashesWithinMaxDistanceShareBand() throws Exception {
+		long similar = PHASH ^ (1L << 3) ^ (1L << 20) ^ (1L << 40);
+		List<Integer> shared = new ArrayList<Integer>(PhashBands.bands(PHASH));
+		shared.retainAll(PhashBands.bands(similar));
+
+		assertThat(shared.size(), is(1));
+	}
+
+	@Test
+	public void distanceCountsDifferentBits() throws Exception {
+		assertThat(PhashBands.distance(PHASH, PHASH ^ 0b1011L), is(3));
+	}
+
+	@Test
+	public void distanceToSelfIsZero() throws Exception {
+		assertThat(PhashBands.distance(PHASH, PHASH), is(0));
+	}
+}
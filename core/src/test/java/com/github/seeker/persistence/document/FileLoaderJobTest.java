@@ -5,12 +5,15 @@
 package com.github.seeker.persistence.document;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import com.github.seeker.messaging.MessagePriority;
+
 public class FileLoaderJobTest {
 	private FileLoaderJob cut;
 
@@ -56,4 +59,28 @@ public class FileLoaderJobTest {
 	public void generateThumbnailsSetViaConstructor() throws Exception {
 		assertThat(new FileLoaderJob(ANCHOR, PATH, true).isGenerateThumbnail(), is(true));
 	}
+
+	@Test
+	public void normalPriorityByDefault() throws Exception {
+		assertThat(cut.getPriority(), is(MessagePriority.NORMAL));
+	}
+
+	@Test
+	public void prioritySet() throws Exception {
+		cut.setPriority(MessagePriority.INTERACTIVE);
+
+		assertThat(cut.getPriority(), is(MessagePriority.INTERACTIVE));
+	}
+
+	@Test
+	public void noResumePointByDefault() throws Exception {
+		assertThat(cut.getResumeAfter(), is(nullValue()));
+	}
+
+	@Test
+	public void resumePointSet() throws Exception {
+		cut.setResumeAfter("bar/baz.jpg");
+
+		assertThat(cut.getResumeAfter(), is("bar/baz.jpg"));
+	}
 }
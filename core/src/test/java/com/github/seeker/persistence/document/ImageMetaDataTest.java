@@ -5,9 +5,13 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.collection.IsMapWithSize.anEmptyMap;
 import static org.hamcrest.text.IsEmptyString.emptyString;
 
+import java.util.List;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import com.github.seeker.persistence.PhashBands;
+
 import nl.jqno.equalsverifier.EqualsVerifier;
 import nl.jqno.equalsverifier.Warning;
 
@@ -39,9 +43,39 @@ public class ImageMetaDataTest {
 		assertThat(cut.hasThumbnail(), is(false));
 	}
 
+	@Test
+	public void isCompleteWithThumbnailAndHashes() throws Exception {
+		cut.setThumbnailId(new Thumbnail(300));
+		cut.getHashes().put("SHA-256", new Hash("SHA-256", new byte[] { 1 }, "1"));
+
+		assertThat(cut.isComplete(List.of("SHA-256")), is(true));
+	}
+
+	@Test
+	public void isNotCompleteWithoutThumbnail() throws Exception {
+		cut.getHashes().put("SHA-256", new Hash("SHA-256", new byte[] { 1 }, "1"));
+
+		assertThat(cut.isComplete(List.of("SHA-256")), is(false));
+	}
+
+	@Test
+	public void isNotCompleteWithMissingHash() throws Exception {
+		cut.setThumbnailId(new Thumbnail(300));
+		cut.getHashes().put("SHA-256", new Hash("SHA-256", new byte[] { 1 }, "1"));
+
+		assertThat(cut.isComplete(List.of("SHA-256", "phash")), is(false));
+	}
+
+	@Test
+	public void setPhashSetsBands() throws Exception {
+		cut.setPhash(42L);
+
+		assertThat(cut.getPhashBands(), is(PhashBands.bands(42L)));
+	}
+
 	@Test
 	public void verifyEqualsAndHash() throws Exception {
-		EqualsVerifier.forClass(ImageMetaData.class).withIgnoredFields("id", "creationTime", "fileSize", "hashes", "thumbnail", "tags", "imageId")
+		EqualsVerifier.forClass(ImageMetaData.class).withIgnoredFields("id", "creationTime", "fileSize", "hashes", "thumbnail", "tags", "imageId", "prunedTime", "phash", "phashBands")
 				.suppress(Warning.NONFINAL_FIELDS).verify();
 	}
 }
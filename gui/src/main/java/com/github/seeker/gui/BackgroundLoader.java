@@ -0,0 +1,109 @@
+package com.github.seeker.gui;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javafx.concurrent.Task;
+
+/**
+ * Runs database and object store requests on background threads, and passes the results to the JavaFX application
+ * thread. Loading again cancels the previous request of the same loader, so the result of a superseded request is
+ * never applied, e.g. the thumbnail of a row that is no longer selected.
+ * <p>
+ * Must be used from the JavaFX application thread.
+ */
+public class BackgroundLoader {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BackgroundLoader.class);
+
+	/**
+	 * Number of requests running at the same time, shared by all loaders.
+	 */
+	private static final int THREADS = 4;
+
+	private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, runnable -> {
+		Thread thread = new Thread(runnable, "gui-io-" + THREAD_NUMBER.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final String name;
+	private Task<?> current;
+
+	/**
+	 * Create a new loader.
+	 * 
+	 * @param name used for logging
+	 */
+	public BackgroundLoader(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Run the request in the background, cancelling the previous request of this loader.
+	 * 
+	 * @param request   the request to run
+	 * @param onSuccess receives the result on the JavaFX application thread
+	 * @param onFailure receives the error on the JavaFX application thread
+	 */
+	public <T> void load(Callable<T> request, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+		cancel();
+		current = execute(request, onSuccess, onFailure);
+	}
+
+	/**
+	 * Cancel the running request of this loader. A request that already started is not interrupted, as the database
+	 * driver may close its connection, but the result is discarded.
+	 */
+	public void cancel() {
+		if (current != null && current.cancel(false)) {
+			LOGGER.debug("Cancelled superseded {} request", name);
+		}
+
+		current = null;
+	}
+
+	/**
+	 * Run a request in the background that is not superseded by later requests, e.g. a write.
+	 * 
+	 * @param request   the request to run
+	 * @param onSuccess receives the result on the JavaFX application thread
+	 * @param onFailure receives the error on the JavaFX application thread
+	 * @return the task running the request
+	 */
+	public static <T> Task<T> execute(Callable<T> request, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+		return execute(EXECUTOR, request, onSuccess, onFailure);
+	}
+
+	/**
+	 * Run a request on the given executor, e.g. for requests that should not compete with interactive ones.
+	 * 
+	 * @param executor  to run the request
+	 * @param request   the request to run
+	 * @param onSuccess receives the result on the JavaFX application thread
+	 * @param onFailure receives the error on the JavaFX application thread
+	 * @return the task running the request
+	 */
+	static <T> Task<T> execute(Executor executor, Callable<T> request, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+		Task<T> task = new Task<T>() {
+			@Override
+			protected T call() throws Exception {
+				return request.call();
+			}
+		};
+
+		// not called for cancelled tasks
+		task.setOnSucceeded(event -> onSuccess.accept(task.getValue()));
+		task.setOnFailed(event -> onFailure.accept(task.getException()));
+
+		executor.execute(task);
+		return task;
+	}
+}
@@ -1,11 +1,16 @@
 package com.github.seeker.gui;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.seeker.messaging.MessagePriority;
+import com.github.seeker.persistence.DocumentChangeListener;
 import com.github.seeker.persistence.MongoDbMapper;
 import com.github.seeker.persistence.document.FileLoaderJob;
 
@@ -20,6 +25,7 @@ import javafx.event.EventHandler;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableColumn.CellDataFeatures;
@@ -36,6 +42,7 @@ public class FileLoaderJobs extends Stage {
 	private static final Logger LOGGER = LoggerFactory.getLogger(FileLoaderJobs.class);
 	private final MongoDbMapper mapper;
 	private final ObservableList<FileLoaderJob> jobList;
+	private final BackgroundLoader jobLoader = new BackgroundLoader("file loader jobs");
 
 	public FileLoaderJobs(MongoDbMapper mapper) throws IOException {
 		this.mapper = mapper;
@@ -45,9 +52,6 @@ public class FileLoaderJobs extends Stage {
 
 		setUpTable(table);
 
-		long metadataCount = mapper.getImageMetadataCount();
-		LOGGER.debug("Database has {} metadata records", metadataCount);
-
 		listenToChanges(table);
 
 		BorderPane border = new BorderPane();
@@ -58,16 +62,49 @@ public class FileLoaderJobs extends Stage {
 		setTitle("FileLoader Jobs");
 		setScene(scene);
 
-		refreshJobList();
+		if (mapper.supportsChangeStreams()) {
+			new LiveUpdates<FileLoaderJob>(this, mapper::watchFileLoadJobs, new DocumentChangeListener<FileLoaderJob>() {
+				@Override
+				public void changed(FileLoaderJob job) {
+					int index = jobList.indexOf(job);
+
+					if (index >= 0) {
+						jobList.set(index, job);
+					} else {
+						jobList.add(job);
+					}
+				}
+
+				@Override
+				public void deleted(String id) {
+					jobList.removeIf(job -> Objects.equals(Objects.toString(job.getId(), null), id));
+				}
+			}, this::refreshJobList);
+		} else {
+			LOGGER.info("The database does not support change streams, use refresh to see changes");
+			refreshJobList();
+		}
 	}
 
 	private void refreshJobList() {
-		jobList.clear();
-		jobList.addAll(mapper.getAllFileLoadJobs());
+		jobLoader.load(() -> mapper.getAllFileLoadJobs(), jobList::setAll, error -> LOGGER.error("Failed to load file loader jobs: {}", error.getMessage()));
 	}
 	
 	private void persistJobList() {
-		jobList.forEach(job -> mapper.storeFileLoadJob(job));
+		List<FileLoaderJob> jobs = new ArrayList<FileLoaderJob>(jobList);
+
+		BackgroundLoader.execute(() -> {
+			jobs.forEach(job -> mapper.storeFileLoadJob(job));
+			return null;
+		}, result -> LOGGER.debug("Persisted {} file loader jobs", jobs.size()),
+				error -> LOGGER.error("Failed to persist file loader jobs: {}", error.getMessage()));
+	}
+
+	private void storeJob(FileLoaderJob job) {
+		BackgroundLoader.execute(() -> {
+			mapper.storeFileLoadJob(job);
+			return null;
+		}, result -> refreshJobList(), error -> LOGGER.error("Failed to store file loader job: {}", error.getMessage()));
 	}
 
 	private HBox createJobEntryPane() {
@@ -79,6 +116,10 @@ public class FileLoaderJobs extends Stage {
 
 		CheckBox thumbnails = new CheckBox("Gen. Thumbnails");
 
+		ChoiceBox<MessagePriority> priority = new ChoiceBox<MessagePriority>(FXCollections.observableArrayList(MessagePriority.values()));
+		priority.setValue(MessagePriority.INTERACTIVE);
+		priority.setTooltip(new Tooltip("Job priority, jobs with a higher priority are processed first"));
+
 		Button submit = new Button("Add");
 		Button refresh = new Button("Refresh");
 		Button persist = new Button("Persist table");
@@ -88,8 +129,8 @@ public class FileLoaderJobs extends Stage {
 			@Override
 			public void handle(ActionEvent event) {
 				FileLoaderJob job = new FileLoaderJob(anchor.getText(), relativePath.getText(), thumbnails.isSelected());
-				mapper.storeFileLoadJob(job);
-				refreshJobList();
+				job.setPriority(priority.getValue());
+				storeJob(job);
 			}
 		};
 
@@ -112,7 +153,7 @@ public class FileLoaderJobs extends Stage {
 		submit.setOnAction(storeJob);
 		refresh.setOnAction(refreshJobs);
 		persist.setOnAction(persistJobs);
-		HBox filterPane = new HBox(anchor, relativePath, thumbnails, submit, refresh, persist);
+		HBox filterPane = new HBox(anchor, relativePath, thumbnails, priority, submit, refresh, persist);
 
 		return filterPane;
 	}
@@ -125,6 +166,7 @@ public class FileLoaderJobs extends Stage {
 		TableColumn<FileLoaderJob, String> relativePath = new TableColumn<FileLoaderJob, String>("Relative Path");
 		TableColumn<FileLoaderJob, Boolean> generateThumb = new TableColumn<FileLoaderJob, Boolean>("Generate Thumb");
 		TableColumn<FileLoaderJob, Boolean> completed = new TableColumn<FileLoaderJob, Boolean>("Completed");
+		TableColumn<FileLoaderJob, String> jobPriority = new TableColumn<FileLoaderJob, String>("Priority");
 
 		jobId.setCellValueFactory(
 				new Callback<TableColumn.CellDataFeatures<FileLoaderJob, String>, ObservableValue<String>>() {
@@ -200,7 +242,15 @@ public class FileLoaderJobs extends Stage {
 			}
 		});
 
-		table.getColumns().setAll(Arrays.asList(jobId, anchor, relativePath, generateThumb, completed));
+		jobPriority.setCellValueFactory(
+				new Callback<TableColumn.CellDataFeatures<FileLoaderJob, String>, ObservableValue<String>>() {
+					@Override
+					public ObservableValue<String> call(CellDataFeatures<FileLoaderJob, String> param) {
+						return new SimpleStringProperty(param.getValue().getPriority().toString());
+					}
+				});
+
+		table.getColumns().setAll(Arrays.asList(jobId, anchor, relativePath, jobPriority, generateThumb, completed));
 	}
 
 	private void listenToChanges(TableView<FileLoaderJob> tableView) {
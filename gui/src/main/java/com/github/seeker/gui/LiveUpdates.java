@@ -0,0 +1,129 @@
+package com.github.seeker.gui;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.seeker.persistence.DocumentChangeListener;
+
+import javafx.application.Platform;
+import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
+
+/**
+ * Watches documents while a window is shown, and passes the changes to the JavaFX application thread. Changes are
+ * queued and applied in batches, so a burst of writes does not post a task per change. Changes made while the window
+ * was hidden are missed, so the window reloads its data each time watching starts.
+ */
+public class LiveUpdates<T> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LiveUpdates.class);
+
+	private final Function<DocumentChangeListener<T>, Closeable> watch;
+	private final DocumentChangeListener<T> listener;
+	private final Runnable reload;
+	private final Queue<Consumer<DocumentChangeListener<T>>> pendingChanges = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean applyScheduled = new AtomicBoolean();
+	private Closeable subscription;
+
+	/**
+	 * Incremented each time watching starts or stops. The change stream stops asynchronously, so changes of a stopped
+	 * subscription can still arrive, and are dropped if their generation is no longer current. Only written on the
+	 * JavaFX application thread.
+	 */
+	private volatile int generation;
+
+	/**
+	 * Watch for changes while the stage is shown.
+	 * 
+	 * @param stage    the window showing the documents
+	 * @param watch    starts watching, e.g. {@link com.github.seeker.persistence.MongoDbMapper#watchImageMetadata}
+	 * @param listener receives the changes on the JavaFX application thread
+	 * @param reload   reloads the documents, called on the JavaFX application thread when watching starts
+	 */
+	public LiveUpdates(Stage stage, Function<DocumentChangeListener<T>, Closeable> watch, DocumentChangeListener<T> listener, Runnable reload) {
+		this.watch = watch;
+		this.listener = listener;
+		this.reload = reload;
+
+		stage.addEventHandler(WindowEvent.WINDOW_SHOWN, event -> start());
+		stage.addEventHandler(WindowEvent.WINDOW_HIDDEN, event -> stop());
+	}
+
+	private void start() {
+		if (subscription != null) {
+			return;
+		}
+
+		int subscriptionGeneration = ++generation;
+
+		subscription = watch.apply(new DocumentChangeListener<T>() {
+			@Override
+			public void inserted(T document) {
+				post(subscriptionGeneration, target -> target.inserted(document));
+			}
+
+			@Override
+			public void changed(T document) {
+				post(subscriptionGeneration, target -> target.changed(document));
+			}
+
+			@Override
+			public void deleted(String id) {
+				post(subscriptionGeneration, target -> target.deleted(id));
+			}
+		});
+
+		reload.run();
+	}
+
+	private void post(int subscriptionGeneration, Consumer<DocumentChangeListener<T>> change) {
+		if (subscriptionGeneration != generation) {
+			return;
+		}
+
+		// checked again when applied, as watching may stop after the change was queued
+		pendingChanges.add(target -> {
+			if (subscriptionGeneration == generation) {
+				change.accept(target);
+			}
+		});
+
+		if (applyScheduled.compareAndSet(false, true)) {
+			Platform.runLater(this::applyPendingChanges);
+		}
+	}
+
+	private void applyPendingChanges() {
+		applyScheduled.set(false);
+		Consumer<DocumentChangeListener<T>> change;
+
+		while ((change = pendingChanges.poll()) != null) {
+			change.accept(listener);
+		}
+	}
+
+	private void stop() {
+		if (subscription == null) {
+			return;
+		}
+
+		generation++;
+
+		try {
+			subscription.close();
+		} catch (IOException e) {
+			LOGGER.warn("Failed to stop watching for changes: {}", e.getMessage());
+		}
+
+		subscription = null;
+		// the window reloads when it is shown again
+		pendingChanges.clear();
+	}
+}
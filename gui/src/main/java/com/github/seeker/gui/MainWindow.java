@@ -1,9 +1,11 @@
 package com.github.seeker.gui;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeoutException;
-import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,13 +19,23 @@ import com.github.seeker.configuration.MinioConfiguration;
 import com.github.seeker.configuration.QueueConfiguration;
 import com.github.seeker.configuration.QueueConfiguration.ConfiguredExchanges;
 import com.github.seeker.configuration.RabbitMqRole;
+import com.github.seeker.messaging.MessagePriority;
+import com.github.seeker.messaging.MessageProperties;
+import com.github.seeker.messaging.TraceContext;
 import com.github.seeker.messaging.proto.FileLoadOuterClass.FileLoad;
 import com.github.seeker.messaging.proto.NodeCommandOuterClass.LoaderCommand;
 import com.github.seeker.messaging.proto.NodeCommandOuterClass.NodeCommand;
 import com.github.seeker.messaging.proto.NodeCommandOuterClass.NodeType;
+import com.github.seeker.persistence.CachingObjectStore;
+import com.github.seeker.persistence.DocumentChangeListener;
+import com.github.seeker.persistence.ImagePruner;
+import com.github.seeker.persistence.MinioPersistenceException;
 import com.github.seeker.persistence.MinioStore;
 import com.github.seeker.persistence.MongoDbMapper;
+import com.github.seeker.persistence.ObjectKind;
+import com.github.seeker.persistence.ObjectStore;
 import com.github.seeker.persistence.document.ImageMetaData;
+import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 
@@ -45,16 +57,27 @@ import javafx.stage.Stage;
 
 public class MainWindow extends Application{
 	private static final Logger LOGGER = LoggerFactory.getLogger(MainWindow.class); 
+	private static final int PRUNE_CONCURRENCY = 4;
+	private static final String THUMBNAIL_CACHE_DIR_PARAMETER = "thumbnail-cache-dir";
+	private static final String THUMBNAIL_CACHE_SIZE_PARAMETER = "thumbnail-cache-size";
+	private static final String DEFAULT_THUMBNAIL_CACHE_SIZE_MB = "512";
+	/**
+	 * Same flag as for the nodes. Originals were read in place and not uploaded, so workers must read them from the
+	 * shared file system.
+	 */
+	private static final String SHARED_FILESYSTEM_PARAMETER = "--shared-filesystem";
 	
 	private MongoDbMapper mapper;
-	private MinioStore minio;
+	private ObjectStore minio;
 	private MetaDataExplorer metaDataExplorer;
+	private ThumbnailGallery thumbnailGallery;
 	private FileLoaderJobs fileLoaderJobs;
 	private QueueConfiguration queueConfig;
 	private ConsulClient consul;
 	private ConnectionProvider connectionProvider;
 	private Connection rabbitConnection;
 	private Channel channel;
+	private Closeable thumbnailCacheWatch;
 	
 	public static void main(String[] args) {
 		launch(args);
@@ -68,16 +91,75 @@ public class MainWindow extends Application{
 		rabbitConnection = connectionProvider.getRabbitMQConnectionFactory(RabbitMqRole.dbnode).newConnection();
 		this.channel = rabbitConnection.createChannel();
 		
-		queueConfig = new QueueConfiguration(rabbitConnection.createChannel());
+		queueConfig = connectionProvider.getQueueConfiguration(rabbitConnection.createChannel());
 		
 		mapper = connectionProvider.getMongoDbMapper();
 		minio = new MinioStore(connectionProvider.getMinioClient(), MinioConfiguration.productionBuckets());
 		consul = connectionProvider.getConsulClient();
 
-		metaDataExplorer = new MetaDataExplorer(mapper, minio);
+		ObjectStore thumbnailStore = thumbnailStore(minio);
+		metaDataExplorer = new MetaDataExplorer(mapper, thumbnailStore);
+		thumbnailGallery = new ThumbnailGallery(mapper, thumbnailStore);
 		fileLoaderJobs = new FileLoaderJobs(mapper);
 	}
 	
+	/**
+	 * Keep downloaded thumbnails on disk if a cache directory is passed with {@value #THUMBNAIL_CACHE_DIR_PARAMETER}.
+	 * The size in megabytes can be set with {@value #THUMBNAIL_CACHE_SIZE_PARAMETER}. Thumbnails are replaced when they
+	 * are recreated, so the cache is kept fresh with {@link #keepFresh(CachingObjectStore)}.
+	 */
+	private ObjectStore thumbnailStore(ObjectStore store) {
+		Map<String, String> parameters = getParameters().getNamed();
+		String cacheDir = parameters.get(THUMBNAIL_CACHE_DIR_PARAMETER);
+
+		if (cacheDir == null) {
+			return store;
+		}
+
+		long cacheSizeBytes = Long.parseLong(parameters.getOrDefault(THUMBNAIL_CACHE_SIZE_PARAMETER, DEFAULT_THUMBNAIL_CACHE_SIZE_MB)) * 1024 * 1024;
+
+		try {
+			CachingObjectStore cache = new CachingObjectStore(store, Paths.get(cacheDir), cacheSizeBytes);
+			keepFresh(cache);
+			return cache;
+		} catch (IOException | IllegalArgumentException e) {
+			LOGGER.warn("Failed to create thumbnail cache in {}, continuing without cache: {}", cacheDir, e.getMessage());
+			return store;
+		}
+	}
+
+	/**
+	 * Invalidate cached thumbnails when their metadata changes, as the resizer updates the metadata after replacing a
+	 * thumbnail. Thumbnails replaced while the GUI was not running are found by comparing modification times in the
+	 * background. Watching starts first, so no replacement is missed in between.
+	 */
+	private void keepFresh(CachingObjectStore cache) {
+		thumbnailCacheWatch = mapper.watchImageMetadata(new DocumentChangeListener<ImageMetaData>() {
+			@Override
+			public void changed(ImageMetaData document) {
+				if (document.hasThumbnail()) {
+					cache.invalidate(ObjectKind.THUMBNAIL, document.getImageId());
+				}
+			}
+
+			@Override
+			public void deleted(String id) {
+				// deleted entries are no longer shown
+			}
+		});
+
+		Thread staleCheckThread = new Thread(() -> {
+			try {
+				LOGGER.info("Removed {} outdated thumbnails from the cache", cache.invalidateStale(ObjectKind.THUMBNAIL));
+			} catch (MinioPersistenceException | IllegalStateException e) {
+				LOGGER.warn("Failed to check the thumbnail cache for outdated thumbnails: {}", e.getMessage());
+			}
+		}, "thumbnail-cache-check");
+
+		staleCheckThread.setDaemon(true);
+		staleCheckThread.start();
+	}
+
 	private MenuBar buildMenuBar() {
 		MenuBar menuBar = new MenuBar();
 		
@@ -90,6 +172,14 @@ public class MainWindow extends Application{
 			}
 		});
 
+		MenuItem viewThumbnailGallery = new MenuItem("Thumbnail gallery");
+		viewThumbnailGallery.setOnAction(new EventHandler<ActionEvent>() {
+			@Override
+			public void handle(ActionEvent event) {
+				thumbnailGallery.show();
+			}
+		});
+
 		MenuItem viewFileLoaderJobs = new MenuItem("File loader jobs");
 		viewFileLoaderJobs.setOnAction(new EventHandler<ActionEvent>() {
 			@Override
@@ -126,16 +216,12 @@ public class MainWindow extends Application{
 		pruneProcessedImages.setOnAction(new EventHandler<ActionEvent>() {
 			@Override
 			public void handle(ActionEvent event) {
-				QueryIterator<ImageMetaData> originalImagesToDelete = (QueryIterator<ImageMetaData>) mapper
-						.getProcessingCompletedMetadata(Arrays.asList(consul.getKvAsString("config/general/required-hashes").split(Pattern.quote(","))));
-
-				LOGGER.info("Found {} complete metadata entries", originalImagesToDelete.getCount());
-				
-				minio.deleteImages(originalImagesToDelete);
+				pruneProcessedImages();
 			}
 		});
 
 		actions.getItems().add(exploreMetaData);
+		actions.getItems().add(viewThumbnailGallery);
 		actions.getItems().add(viewFileLoaderJobs);
 		actions.getItems().add(startLoader);
 		actions.getItems().add(stoploader);
@@ -147,21 +233,44 @@ public class MainWindow extends Application{
 		return menuBar;
 	}
 
+	private void pruneProcessedImages() {
+		List<String> requiredHashes = ImagePruner.completionHashes(consul.getKvAsString("config/general/required-hashes"));
+		ImagePruner pruner = new ImagePruner(mapper, minio, PRUNE_CONCURRENCY);
+
+		Thread pruneThread = new Thread(() -> {
+			try {
+				pruner.prune(requiredHashes, (pruned, total, rate) -> LOGGER.info("Pruned {} of {} images, {} images/s", pruned, total,
+						String.format("%.1f", rate)));
+			} catch (InterruptedException e) {
+				LOGGER.warn("Pruning was interrupted");
+			}
+		}, "image-pruner");
+
+		pruneThread.setDaemon(true);
+		pruneThread.start();
+	}
+
 	private void sendLoaderCommand(LoaderCommand command) {
 		try {
 			LOGGER.info("Sending {} command to file loaders", command);
 			NodeCommand message = NodeCommand.newBuilder().setNodeType(NodeType.NODE_TYPE_LOADER).setLoaderCommand(command).build();
 
-			channel.basicPublish(queueConfig.getExchangeName(ConfiguredExchanges.loaderCommand), "", null, message.toByteArray());
+			publish(ConfiguredExchanges.loaderCommand, null, message.toByteArray());
 		} catch (IOException e) {
 			LOGGER.error("Failed to send file loader command {}", command, e);
 		}
 	}
 	
 	private void recreateThumbnails() {
+		BackgroundLoader.execute(() -> {
+			queueThumbnailRecreation();
+			return null;
+		}, result -> LOGGER.debug("Thumbnail recreation queued"), error -> LOGGER.error("Failed to queue thumbnail recreation: {}", error.getMessage()));
+	}
 
-
+	private void queueThumbnailRecreation() {
 		int thumbnailSize = (int)consul.getKvAsLong("config/general/thumbnail-size");
+		boolean sharedFilesystem = getParameters().getRaw().contains(SHARED_FILESYSTEM_PARAMETER);
 		QueryIterator<ImageMetaData> iter = (QueryIterator<ImageMetaData>) mapper.getThumbnailsToResize(thumbnailSize);
 
 		LOGGER.info("Queueing thumbnail generation for {} thumbnails which do not have the required size of {}", iter.getCount(), thumbnailSize);
@@ -172,14 +281,26 @@ public class MainWindow extends Application{
 				builder.getImagePathBuilder().setAnchor(meta.getAnchor()).setRelativePath(meta.getPath());
 				builder.setImageId(meta.getImageId().toString());
 				builder.setRecreateThumbnail(true);
+				builder.setSharedFilesystem(sharedFilesystem);
 
-				channel.basicPublish(queueConfig.getExchangeName(ConfiguredExchanges.loader), "", null, builder.build().toByteArray());
+				publish(ConfiguredExchanges.loader, TraceContext.start(MessageProperties.forPriority(MessagePriority.BULK),
+						builder.getImageId(), System.currentTimeMillis()), builder.build().toByteArray());
 			} catch (IOException e) {
 				LOGGER.warn("Failed to create thumbnail recreate message for {} - {} due to {}", meta.getAnchor(), meta.getPath(), e.getMessage());
 			}
 		}
 	}
 
+	/**
+	 * Thumbnail recreation is queued from a background thread, and channels must not be used for publishing
+	 * concurrently.
+	 */
+	private void publish(ConfiguredExchanges exchange, BasicProperties properties, byte[] body) throws IOException {
+		synchronized (channel) {
+			channel.basicPublish(queueConfig.getExchangeName(exchange), "", properties, body);
+		}
+	}
+
 	@Override
 	public void start(Stage primaryStage) throws Exception {
 		setUpVars();
@@ -202,6 +323,10 @@ public class MainWindow extends Application{
 		super.stop();
 		LOGGER.info("JavaFx stop method called");
 
+		if (thumbnailCacheWatch != null) {
+			thumbnailCacheWatch.close();
+		}
+
 		this.rabbitConnection.close();
 		this.connectionProvider.shutdown();
 
@@ -1,15 +1,17 @@
 package com.github.seeker.gui;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.seeker.persistence.DocumentChangeListener;
 import com.github.seeker.persistence.MinioPersistenceException;
-import com.github.seeker.persistence.MinioStore;
 import com.github.seeker.persistence.MongoDbMapper;
+import com.github.seeker.persistence.ObjectStore;
 import com.github.seeker.persistence.document.ImageMetaData;
 
 import io.minio.errors.ErrorResponseException;
@@ -36,31 +38,57 @@ import javafx.util.Callback;
 
 public class MetaDataExplorer extends Stage {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MetaDataExplorer.class);
+	/**
+	 * Decoded size of the cached thumbnails, about 170 thumbnails with 300 pixels.
+	 */
+	private static final long THUMBNAIL_CACHE_BYTES = 64L * 1024 * 1024;
+	/**
+	 * Number of rows above and below the selection, and at the start of the next page, whose thumbnails are prefetched.
+	 */
+	private static final int PREFETCH_ROWS = 10;
 	private final MongoDbMapper mapper;
-	private final MinioStore minio;
 	private final ImageView imageView;
 	private final Pagination listPager;
+	private final BackgroundLoader thumbnailLoader = new BackgroundLoader("thumbnail");
+	private final ThumbnailCache thumbnails;
 	
-	public MetaDataExplorer(MongoDbMapper mapper, MinioStore minio) throws IOException {
+	public MetaDataExplorer(MongoDbMapper mapper, ObjectStore minio) throws IOException {
 		this.mapper = mapper;
-		this.minio = minio;
+		this.thumbnails = new ThumbnailCache(minio, THUMBNAIL_CACHE_BYTES);
 		
 		ObservableList<ImageMetaData> ol = FXCollections.observableArrayList();
         TableView<ImageMetaData> table = new TableView<ImageMetaData>(ol);
         
         setUpTable(table);
 
-        long metadataCount = mapper.getImageMetadataCount();
-        LOGGER.debug("Database has {} metadata records", metadataCount);
-
-        
         listPager = new Pagination();
         MetadataPageFactory pageFactory = new MetadataPageFactory(mapper,listPager, ol);
         listPager.setPageFactory(pageFactory);
+        pageFactory.setNextPageListener(entries -> thumbnails.prefetch(entries.subList(0, Math.min(PREFETCH_ROWS, entries.size()))));
         
         listenToChanges(table);
         
-        pageFactory.updatePaginator();
+        if (mapper.supportsChangeStreams()) {
+            new LiveUpdates<ImageMetaData>(this, mapper::watchImageMetadata, new DocumentChangeListener<ImageMetaData>() {
+                @Override
+                public void inserted(ImageMetaData meta) {
+                    pageFactory.entryInserted(meta);
+                }
+
+                @Override
+                public void changed(ImageMetaData meta) {
+                    pageFactory.entryChanged(meta);
+                }
+
+                @Override
+                public void deleted(String id) {
+                    pageFactory.entryDeleted(id);
+                }
+            }, pageFactory::reload);
+        } else {
+            LOGGER.info("The database does not support change streams, use reload to see changes");
+            pageFactory.updatePaginator();
+        }
 		
         imageView = new ImageView();
         imageView.setPreserveRatio(true);
@@ -83,7 +111,9 @@ public class MetaDataExplorer extends Stage {
 	
 	private HBox createFilterPane(MetadataPageFactory pageFactory) {
 		TextField anchorFilter = new TextField();
+		anchorFilter.setPromptText("Anchor");
 		TextField pathFilter = new TextField();
+		pathFilter.setPromptText("Path prefix, " + MongoDbMapper.SUBSTRING_FILTER_PREFIX + " for any part");
 		Button filter = new Button("Filter");
 		Button reload = new Button("Reload");
 		
@@ -105,7 +135,7 @@ public class MetaDataExplorer extends Stage {
 			@Override
 			public void handle(ActionEvent event) {
 				LOGGER.debug("User triggered table reload");
-				pageFactory.updatePaginator();
+				pageFactory.reload();
 			}
 		}; 
 		
@@ -135,10 +165,10 @@ public class MetaDataExplorer extends Stage {
 		});
 
         relativePath.setCellValueFactory(new Callback<TableColumn.CellDataFeatures<ImageMetaData,String>, ObservableValue<String>>() {
-        	@Override
-        	public ObservableValue<String> call(CellDataFeatures<ImageMetaData, String> param) {
-        		return new SimpleStringProperty(param.getValue().getPath());
-        	}
+            @Override
+            public ObservableValue<String> call(CellDataFeatures<ImageMetaData, String> param) {
+                return new SimpleStringProperty(param.getValue().getPath());
+            }
         });
         
         fileSize.setCellValueFactory(new Callback<TableColumn.CellDataFeatures<ImageMetaData,String>, ObservableValue<String>>() {
@@ -163,37 +193,64 @@ public class MetaDataExplorer extends Stage {
 				}
 				
 				if (!newValue.hasThumbnail()) {
+					thumbnailLoader.cancel();
 					LOGGER.debug("No thumbnail available for {}:{}", newValue.getAnchor(), newValue.getPath());
 					imageView.setImage(null);
 					return;
 				}
 				
 				LOGGER.debug("Selected {}:{}", newValue.getAnchor(), newValue.getPath());
+				prefetchNeighbours(tableView.getItems(), tableView.getSelectionModel().getSelectedIndex());
+				Image cached = thumbnails.getCached(newValue.getImageId());
+
+				if (cached != null) {
+					thumbnailLoader.cancel();
+					imageView.setImage(cached);
+					return;
+				}
 				
 				LOGGER.debug("Requesting thumbnail for image ID {}", newValue.getImageId());
-				try {
-					InputStream response = minio.getThumbnail(newValue.getImageId());
-
-					Image image = new Image(response);
+				thumbnailLoader.load(() -> thumbnails.load(newValue.getImageId()), image -> {
+					thumbnails.put(newValue.getImageId(), image);
 					imageView.setImage(image);
-				} catch (MinioPersistenceException m) {
-					if (m.getCause() instanceof ErrorResponseException) {
-						Throwable ere = m.getCause();
-
-						if ("NoSuchKey".equals(ere.getMessage())) {
-							LOGGER.warn("Unable to find thumbnail for {} - {} (imageID {})", newValue.getAnchor(), newValue.getPath(), newValue.getImageId());
-							imageView.setImage(null);
-						} else {
-							LOGGER.warn("Failed to load thumbnail: {}", ere.getMessage());
-						}
-					} else {
-						LOGGER.error("Failed to load thumbnail: {}", m.getMessage());
-					}
-
-				}
+				}, error -> thumbnailFailed(newValue, error));
 			}
 		});
 	}
+
+	/**
+	 * Prefetch the thumbnails of the rows around the selection, the closest first.
+	 */
+	private void prefetchNeighbours(List<ImageMetaData> rows, int selected) {
+		List<ImageMetaData> neighbours = new ArrayList<ImageMetaData>(PREFETCH_ROWS * 2);
+
+		for (int distance = 1; distance <= PREFETCH_ROWS; distance++) {
+			if (selected + distance < rows.size()) {
+				neighbours.add(rows.get(selected + distance));
+			}
+
+			if (selected - distance >= 0) {
+				neighbours.add(rows.get(selected - distance));
+			}
+		}
+
+		thumbnails.prefetch(neighbours);
+	}
+
+	private void thumbnailFailed(ImageMetaData meta, Throwable error) {
+		if (error instanceof MinioPersistenceException && error.getCause() instanceof ErrorResponseException) {
+			Throwable ere = error.getCause();
+
+			if ("NoSuchKey".equals(ere.getMessage())) {
+				LOGGER.warn("Unable to find thumbnail for {} - {} (imageID {})", meta.getAnchor(), meta.getPath(), meta.getImageId());
+				imageView.setImage(null);
+			} else {
+				LOGGER.warn("Failed to load thumbnail: {}", ere.getMessage());
+			}
+		} else {
+			LOGGER.error("Failed to load thumbnail: {}", error.getMessage());
+		}
+	}
 	
 	/*						|
 	 *						|
@@ -0,0 +1,124 @@
+package com.github.seeker.gui;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.seeker.persistence.MongoDbMapper;
+
+/**
+ * Caches metadata counts per filter, so paging through results and switching between filters does not count the
+ * collection again. Counts are computed on a background thread and expire after a fixed time, or when the cache is
+ * invalidated.
+ */
+public class MetadataCountCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MetadataCountCache.class);
+
+	/**
+	 * How long counts are used before counting again.
+	 */
+	public static final Duration DEFAULT_MAX_AGE = Duration.ofMinutes(5);
+
+	private final MongoDbMapper mapper;
+	private final long maxAgeNanos;
+	private final ExecutorService executor;
+	private final Map<Map<String, Object>, CachedCount> counts = new ConcurrentHashMap<Map<String, Object>, CachedCount>();
+
+	private static final class CachedCount {
+		private final long count;
+		private final long created;
+
+		CachedCount(long count) {
+			this.count = count;
+			this.created = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Create a new cache.
+	 * 
+	 * @param mapper to count the metadata
+	 * @param maxAge how long a count is used before it is counted again
+	 */
+	public MetadataCountCache(MongoDbMapper mapper, Duration maxAge) {
+		this.mapper = mapper;
+		this.maxAgeNanos = maxAge.toNanos();
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metadata-count");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Get the count for the filter, if it is cached.
+	 * 
+	 * @param filterParameters the filter, blank values are ignored
+	 * @return the count, or null if it is not cached or expired
+	 */
+	public Long getCachedCount(Map<String, Object> filterParameters) {
+		CachedCount cached = counts.get(normalize(filterParameters));
+
+		if (cached == null || System.nanoTime() - cached.created > maxAgeNanos) {
+			return null;
+		}
+
+		return cached.count;
+	}
+
+	/**
+	 * Get the count for the filter. Cached counts are passed to the callback right away, otherwise the count is
+	 * computed on a background thread and the callback is called from that thread.
+	 * 
+	 * @param filterParameters the filter, blank values are ignored
+	 * @param callback         receives the count
+	 */
+	public void count(Map<String, Object> filterParameters, LongConsumer callback) {
+		Long cached = getCachedCount(filterParameters);
+
+		if (cached != null) {
+			callback.accept(cached);
+			return;
+		}
+
+		Map<String, Object> filter = normalize(filterParameters);
+
+		executor.execute(() -> {
+			long started = System.nanoTime();
+			// without a filter the count is answered from collection metadata instead of scanning the collection
+			long count = filter.isEmpty() ? mapper.getImageMetadataCount() : mapper.getFilteredImageMetadataCount(filter);
+			counts.put(filter, new CachedCount(count));
+
+			LOGGER.debug("Counted {} entries for filter {} in {} ms", count, filter, (System.nanoTime() - started) / 1_000_000);
+			callback.accept(count);
+		});
+	}
+
+	/**
+	 * Forget all counts, e.g. after the metadata was reloaded.
+	 */
+	public void invalidate() {
+		counts.clear();
+	}
+
+	private Map<String, Object> normalize(Map<String, Object> filterParameters) {
+		Map<String, Object> normalized = new HashMap<String, Object>();
+
+		for (Entry<String, Object> e : filterParameters.entrySet()) {
+			if (!Objects.toString(e.getValue(), "").isBlank()) {
+				normalized.put(e.getKey(), e.getValue());
+			}
+		}
+
+		return normalized;
+	}
+}
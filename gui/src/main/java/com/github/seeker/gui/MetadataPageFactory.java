@@ -1,7 +1,12 @@
 package com.github.seeker.gui;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,6 +14,10 @@ import org.slf4j.LoggerFactory;
 import com.github.seeker.persistence.MongoDbMapper;
 import com.github.seeker.persistence.document.ImageMetaData;
 
+import de.caluga.morphium.driver.MorphiumId;
+import javafx.animation.Animation;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
 import javafx.collections.ObservableList;
 import javafx.scene.Node;
 import javafx.scene.control.Pagination;
@@ -19,28 +28,124 @@ public class MetadataPageFactory implements Callback<Integer, Node>{
 	private static final Logger LOGGER = LoggerFactory.getLogger(MetadataPageFactory.class);
 	
 	private static final int ENTRIES_PER_PAGE = 100;
+	/**
+	 * Minimum time between counts caused by changed entries.
+	 */
+	private static final int COUNT_REFRESH_SECONDS = 5;
 	private final MongoDbMapper mapper;
 	private final ObservableList<ImageMetaData> list;
 	private final Pagination parent;
+	private final BackgroundLoader pageLoader;
+	private PageBoundaryCache pageBoundaries;
+	private final MetadataCountCache countCache;
+	private final PauseTransition countRefresh;
 	private Map<String, Object> filterParameters = new HashMap<String, Object>();
+	private final BackgroundLoader nextPageLoader = new BackgroundLoader("next metadata page");
+	private Consumer<List<ImageMetaData>> nextPageListener = entries -> {};
+	private LoadedPage nextPage;
+
+	private static final class LoadedPage {
+		private final PageBoundaryCache boundaries;
+		private final int page;
+		private final List<ImageMetaData> entries;
+
+		LoadedPage(PageBoundaryCache boundaries, int page, List<ImageMetaData> entries) {
+			this.boundaries = boundaries;
+			this.page = page;
+			this.entries = entries;
+		}
+	}
 	
 	public MetadataPageFactory(MongoDbMapper mapper,Pagination parent, ObservableList<ImageMetaData> list) {
 		this.mapper = mapper;
 		this.list = list;
 		this.parent = parent;
+		this.pageBoundaries = newPageBoundaries(filterParameters);
+		this.pageLoader = new BackgroundLoader("metadata page");
+		this.countCache = new MetadataCountCache(mapper, MetadataCountCache.DEFAULT_MAX_AGE);
+		this.countRefresh = new PauseTransition(javafx.util.Duration.seconds(COUNT_REFRESH_SECONDS));
+		this.countRefresh.setOnFinished(event -> {
+			countCache.invalidate();
+			updatePageCount(true);
+		});
 	}
 
+	/**
+	 * Load the page in the background. The list is updated once the page is loaded, unless another page was requested
+	 * in the meantime.
+	 */
 	@Override
 	public Node call(Integer paginationIndex) {
-		LOGGER.debug("Setting list contents for page index {}", paginationIndex);
-		
-		list.clear();
-		list.addAll(mapper.getImageMetadata(filterParameters, paginationIndex*ENTRIES_PER_PAGE, ENTRIES_PER_PAGE));
-		LOGGER.debug("Loaded {} entries...", list.size());
-		
+		LOGGER.debug("Requesting list contents for page index {}", paginationIndex);
+
+		Map<String, Object> filter = filterParameters;
+		PageBoundaryCache boundaries = pageBoundaries;
+		int page = paginationIndex;
+
+		if (nextPage != null && nextPage.boundaries == boundaries && nextPage.page == page) {
+			LOGGER.debug("Using prefetched entries for page index {}", page);
+			pageLoader.cancel();
+			list.setAll(nextPage.entries);
+			prefetchNextPage(filter, boundaries, page);
+
+			return new VBox();
+		}
+
+		pageLoader.load(() -> loadPage(filter, boundaries, page), entries -> {
+			list.setAll(entries);
+			LOGGER.debug("Loaded {} entries...", list.size());
+			prefetchNextPage(filter, boundaries, page);
+		}, error -> LOGGER.error("Failed to load page {}: {}", page, error.getMessage()));
+
 		return new VBox();
 	}
 
+	/**
+	 * Load the page after the current one in the background, so paging forward does not wait for the database.
+	 */
+	private void prefetchNextPage(Map<String, Object> filter, PageBoundaryCache boundaries, int page) {
+		int next = page + 1;
+
+		nextPageLoader.load(() -> loadPage(filter, boundaries, next), entries -> {
+			if (entries.isEmpty()) {
+				return;
+			}
+
+			nextPage = new LoadedPage(boundaries, next, entries);
+			nextPageListener.accept(entries);
+		}, error -> LOGGER.debug("Failed to prefetch page {}: {}", next, error.getMessage()));
+	}
+
+	/**
+	 * Set the listener for the entries of prefetched pages, e.g. to prefetch their thumbnails.
+	 * 
+	 * @param nextPageListener called on the JavaFX application thread
+	 */
+	public void setNextPageListener(Consumer<List<ImageMetaData>> nextPageListener) {
+		this.nextPageListener = nextPageListener;
+	}
+
+	private List<ImageMetaData> loadPage(Map<String, Object> filter, PageBoundaryCache boundaries, int page) {
+		MorphiumId startAfter = boundaries.startAfter(page);
+
+		// a missing boundary means there are fewer entries than when the page count was set
+		if (page != 0 && startAfter == null) {
+			return Collections.emptyList();
+		}
+
+		List<ImageMetaData> entries = mapper.getImageMetadataPage(filter, startAfter, ENTRIES_PER_PAGE);
+
+		if (!entries.isEmpty()) {
+			boundaries.pageLoaded(page, entries.get(entries.size() - 1).getId());
+		}
+
+		return entries;
+	}
+
+	private PageBoundaryCache newPageBoundaries(Map<String, Object> filter) {
+		return new PageBoundaryCache(ENTRIES_PER_PAGE, (from, offset) -> mapper.getImageMetadataIdAtOffset(filter, from, offset));
+	}
+
 	public Map<String, Object> getFilterParameters() {
 		return filterParameters;
 	}
@@ -54,17 +159,146 @@ public class MetadataPageFactory implements Callback<Integer, Node>{
 	 */
 	public void updatePaginator() {
 		LOGGER.debug("Updating paginator...");
-		updatePageCount();
+		// pages still loading for the previous filter keep using the previous boundaries
+		pageBoundaries = newPageBoundaries(filterParameters);
+		nextPage = null;
+		updatePageCount(false);
 		call(0);
 	}
 	
-	private void updatePageCount() {
-		long metadataCount = mapper.getFilteredImageMetadataCount(filterParameters);
-		int numberOfPages = numberOfPages(metadataCount);
+	/**
+	 * Discard the cached counts, then update the pagination.
+	 */
+	public void reload() {
+		countCache.invalidate();
+		updatePaginator();
+	}
+
+	/**
+	 * Apply a new entry, e.g. from a change stream. Entries that match the filter are counted, and appended if the last
+	 * page is shown and not full. New entries have the highest ID, so other pages are not affected.
+	 * 
+	 * @param meta the new entry
+	 */
+	public void entryInserted(ImageMetaData meta) {
+		if (!matchesFilter(meta) || indexOf(Objects.toString(meta.getId(), null)) >= 0) {
+			return;
+		}
+
+		nextPage = null;
+		countChanged();
+
+		boolean lastPage = parent.getPageCount() != Pagination.INDETERMINATE && parent.getCurrentPageIndex() == parent.getPageCount() - 1;
+
+		if (lastPage && list.size() < ENTRIES_PER_PAGE) {
+			list.add(meta);
+		}
+	}
+
+	/**
+	 * Apply a change of an entry, e.g. from a change stream. Changed entries on the current page are replaced, changes
+	 * of other entries are ignored.
+	 * 
+	 * @param meta the entry after the change
+	 */
+	public void entryChanged(ImageMetaData meta) {
+		int index = indexOf(Objects.toString(meta.getId(), null));
+
+		if (index >= 0) {
+			list.set(index, meta);
+		}
+	}
+
+	/**
+	 * Remove a deleted entry from the current page, e.g. from a change stream.
+	 * 
+	 * @param id the string form of the entry's ID
+	 */
+	public void entryDeleted(String id) {
+		int index = indexOf(id);
+
+		if (index >= 0) {
+			list.remove(index);
+		}
+
+		nextPage = null;
+		countChanged();
+	}
+
+	private int indexOf(String id) {
+		for (int i = 0; i < list.size(); i++) {
+			if (Objects.equals(Objects.toString(list.get(i).getId(), null), id)) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Mirrors the filter applied by {@link MongoDbMapper} for the fields shown in the explorer.
+	 */
+	private boolean matchesFilter(ImageMetaData meta) {
+		for (Entry<String, Object> e : filterParameters.entrySet()) {
+			String value = Objects.toString(e.getValue(), "");
+
+			if (value.isBlank()) {
+				continue;
+			}
+
+			String actual = switch (e.getKey()) {
+			case "anchor" -> meta.getAnchor();
+			case "path" -> meta.getPath();
+			default -> null;
+			};
+
+			if (actual == null) {
+				return false;
+			} else if (value.startsWith(MongoDbMapper.SUBSTRING_FILTER_PREFIX)) {
+				if (!actual.contains(value.substring(MongoDbMapper.SUBSTRING_FILTER_PREFIX.length()))) {
+					return false;
+				}
+			} else if ("path".equals(e.getKey()) ? !actual.startsWith(value) : !actual.equals(value)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Count again after entries were added or removed. Counts are throttled, so a running ingest does not keep the
+	 * database counting.
+	 */
+	private void countChanged() {
+		if (countRefresh.getStatus() != Animation.Status.RUNNING) {
+			countRefresh.playFromStart();
+		}
+	}
+
+	/**
+	 * The page count is indeterminate until the count for the filter is available.
+	 * 
+	 * @param keepPageCount keep the current page count while counting, e.g. when counting the same filter again
+	 */
+	private void updatePageCount(boolean keepPageCount) {
+		Map<String, Object> countedFilter = filterParameters;
+
+		if (!keepPageCount && countCache.getCachedCount(countedFilter) == null) {
+			parent.setPageCount(Pagination.INDETERMINATE);
+		}
+
+		countCache.count(countedFilter, metadataCount -> Platform.runLater(() -> {
+			if (countedFilter != filterParameters) {
+				// the filter changed while counting
+				return;
+			}
+
+			int numberOfPages = numberOfPages(metadataCount);
+			parent.setPageCount(numberOfPages);
 
-		parent.setPageCount(numberOfPages);
-		
-		LOGGER.debug("Set paginator page count to {}", numberOfPages);
+			LOGGER.debug("Set paginator page count to {}", numberOfPages);
+		}));
 	}
 	
 	private int numberOfPages(long metadataCount) {
@@ -0,0 +1,114 @@
+package com.github.seeker.gui;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import de.caluga.morphium.driver.MorphiumId;
+
+/**
+ * Remembers the id of the last entry of each page, so a page can be loaded by seeking to the end of the previous
+ * page. Unknown boundaries are found starting from the nearest known one, and cached as well.
+ * <p>
+ * Pages are loaded in the background, so the cache is thread safe. Lookups run without holding the lock, as they
+ * query the database.
+ */
+public class PageBoundaryCache {
+	private final int pageSize;
+	private final BoundaryLookup lookup;
+
+	/**
+	 * Page index to the id of the last entry on that page.
+	 */
+	private final TreeMap<Integer, MorphiumId> lastIds = new TreeMap<Integer, MorphiumId>();
+
+	/**
+	 * Incremented when the boundaries are cleared, so a lookup for the previous filter is not cached.
+	 */
+	private int generation;
+
+	/**
+	 * Finds the id of the entry a number of entries away from another entry.
+	 */
+	@FunctionalInterface
+	public interface BoundaryLookup {
+		/**
+		 * @param from   id to start from, null to start before the first entry
+		 * @param offset number of entries to move, negative to move backwards
+		 * @return the id, or null if there are not enough entries
+		 */
+		MorphiumId find(MorphiumId from, int offset);
+	}
+
+	public PageBoundaryCache(int pageSize, BoundaryLookup lookup) {
+		this.pageSize = pageSize;
+		this.lookup = lookup;
+	}
+
+	/**
+	 * Get the id the page starts after.
+	 * 
+	 * @param page index of the page
+	 * @return id of the last entry of the previous page, null for the first page or if the page does not exist
+	 */
+	public MorphiumId startAfter(int page) {
+		if (page <= 0) {
+			return null;
+		}
+
+		int previous = page - 1;
+		MorphiumId from;
+		int offset;
+		int lookupGeneration;
+
+		synchronized (this) {
+			MorphiumId cached = lastIds.get(previous);
+
+			if (cached != null) {
+				return cached;
+			}
+
+			Map.Entry<Integer, MorphiumId> below = lastIds.floorEntry(previous);
+			Map.Entry<Integer, MorphiumId> above = lastIds.ceilingEntry(previous);
+			// the start of the collection acts as the boundary of page -1
+			int belowPage = below == null ? -1 : below.getKey();
+
+			if (above != null && above.getKey() - previous < previous - belowPage) {
+				from = above.getValue();
+				offset = -(above.getKey() - previous) * pageSize;
+			} else {
+				from = below == null ? null : below.getValue();
+				offset = (previous - belowPage) * pageSize;
+			}
+
+			lookupGeneration = generation;
+		}
+
+		MorphiumId boundary = lookup.find(from, offset);
+
+		synchronized (this) {
+			if (boundary != null && lookupGeneration == generation) {
+				lastIds.put(previous, boundary);
+			}
+		}
+
+		return boundary;
+	}
+
+	/**
+	 * Record the last entry of a loaded page.
+	 * 
+	 * @param page   index of the page
+	 * @param lastId id of the last entry on the page
+	 */
+	public synchronized void pageLoaded(int page, MorphiumId lastId) {
+		lastIds.put(page, lastId);
+	}
+
+	/**
+	 * Forget all boundaries, e.g. when the filter changed.
+	 */
+	public synchronized void clear() {
+		lastIds.clear();
+		generation++;
+	}
+}
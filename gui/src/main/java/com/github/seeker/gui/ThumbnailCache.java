@@ -0,0 +1,163 @@
+package com.github.seeker.gui;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.seeker.persistence.MinioPersistenceException;
+import com.github.seeker.persistence.ObjectStore;
+import com.github.seeker.persistence.document.ImageMetaData;
+
+import javafx.concurrent.Task;
+import javafx.scene.image.Image;
+
+/**
+ * Keeps decoded thumbnails in memory, so selecting a row again does not download and decode the thumbnail again. The
+ * cache is bounded by the decoded size of the images, the least recently used thumbnails are evicted first.
+ * Thumbnails can be prefetched on a separate thread, so they do not delay thumbnails the user is waiting for.
+ * <p>
+ * Except for {@link #load(UUID)}, must be used from the JavaFX application thread.
+ */
+public class ThumbnailCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThumbnailCache.class);
+
+	/**
+	 * Decoded images use 4 bytes per pixel.
+	 */
+	private static final int BYTES_PER_PIXEL = 4;
+
+	private final ObjectStore store;
+	private final long maxSizeBytes;
+	private final int decodeSize;
+	private final ExecutorService prefetchExecutor;
+
+	/**
+	 * Cached thumbnails in access order.
+	 */
+	private final LinkedHashMap<UUID, Image> images = new LinkedHashMap<UUID, Image>(16, 0.75f, true);
+	private long sizeBytes;
+
+	private final Set<UUID> prefetching = new HashSet<UUID>();
+	private final List<Task<Image>> prefetches = new ArrayList<Task<Image>>();
+
+	/**
+	 * Create a new cache.
+	 * 
+	 * @param store        to load the thumbnails from
+	 * @param maxSizeBytes the maximum decoded size of the cached thumbnails
+	 */
+	public ThumbnailCache(ObjectStore store, long maxSizeBytes) {
+		this(store, maxSizeBytes, 0);
+	}
+
+	/**
+	 * Create a new cache that scales thumbnails down while decoding them, so more of them fit into the cache.
+	 * 
+	 * @param store        to load the thumbnails from
+	 * @param maxSizeBytes the maximum decoded size of the cached thumbnails
+	 * @param decodeSize   the maximum width and height of the decoded thumbnails, 0 to keep the original size
+	 */
+	public ThumbnailCache(ObjectStore store, long maxSizeBytes, int decodeSize) {
+		if (maxSizeBytes < 1) {
+			throw new IllegalArgumentException("The cache size must be at least 1 byte");
+		}
+
+		this.store = store;
+		this.maxSizeBytes = maxSizeBytes;
+		this.decodeSize = decodeSize;
+		this.prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "thumbnail-prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Get a cached thumbnail.
+	 * 
+	 * @param imageId ID of the image
+	 * @return the thumbnail, or null if it is not cached
+	 */
+	public Image getCached(UUID imageId) {
+		return images.get(imageId);
+	}
+
+	/**
+	 * Download and decode a thumbnail, without caching it. Blocks, so this must not be called from the JavaFX
+	 * application thread.
+	 * 
+	 * @param imageId ID of the image
+	 * @return the decoded thumbnail
+	 * @throws MinioPersistenceException if the thumbnail could not be read
+	 * @throws IOException               if the stream could not be closed
+	 */
+	public Image load(UUID imageId) throws MinioPersistenceException, IOException {
+		try (InputStream response = store.getThumbnail(imageId)) {
+			return new Image(response, decodeSize, decodeSize, true, true);
+		}
+	}
+
+	/**
+	 * Add a thumbnail to the cache, evicting the least recently used thumbnails if the cache is full.
+	 * 
+	 * @param imageId ID of the image
+	 * @param image   the decoded thumbnail
+	 */
+	public void put(UUID imageId, Image image) {
+		if (image.isError()) {
+			return;
+		}
+
+		Image previous = images.put(imageId, image);
+		sizeBytes += size(image) - (previous == null ? 0 : size(previous));
+
+		while (sizeBytes > maxSizeBytes && !images.isEmpty()) {
+			UUID eldest = images.keySet().iterator().next();
+			sizeBytes -= size(images.remove(eldest));
+		}
+	}
+
+	/**
+	 * Load thumbnails in the background that are likely to be viewed next. Prefetches that have not started yet are
+	 * replaced. Thumbnails that are cached are skipped.
+	 * 
+	 * @param metadata the images to prefetch, the most likely first
+	 */
+	public void prefetch(List<ImageMetaData> metadata) {
+		prefetches.forEach(task -> task.cancel(false));
+		prefetches.clear();
+
+		for (ImageMetaData meta : metadata) {
+			UUID imageId = meta.getImageId();
+
+			if (!meta.hasThumbnail() || images.containsKey(imageId) || !prefetching.add(imageId)) {
+				continue;
+			}
+
+			Task<Image> task = BackgroundLoader.execute(prefetchExecutor, () -> load(imageId), image -> {
+				prefetching.remove(imageId);
+				put(imageId, image);
+			}, error -> {
+				prefetching.remove(imageId);
+				LOGGER.debug("Failed to prefetch thumbnail for image ID {}: {}", imageId, error.getMessage());
+			});
+
+			task.setOnCancelled(event -> prefetching.remove(imageId));
+			prefetches.add(task);
+		}
+	}
+
+	private long size(Image image) {
+		return (long) image.getWidth() * (long) image.getHeight() * BYTES_PER_PIXEL;
+	}
+}
@@ -0,0 +1,287 @@
+package com.github.seeker.gui;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.seeker.persistence.MongoDbMapper;
+import com.github.seeker.persistence.ObjectStore;
+import com.github.seeker.persistence.document.ImageMetaData;
+
+import de.caluga.morphium.driver.MorphiumId;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.Tooltip;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.stage.Stage;
+
+/**
+ * Shows the thumbnails of all images in a grid. The grid is a list of rows, so only the visible rows have cells, and
+ * the cells are reused while scrolling. Metadata is loaded page by page when a row of the page becomes visible, and
+ * only visible cells download their thumbnail. Downloads for cells that were scrolled out of view before the download
+ * started are cancelled.
+ */
+public class ThumbnailGallery extends Stage {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThumbnailGallery.class);
+
+	private static final int COLUMNS = 5;
+	private static final int ROWS_PER_PAGE = 20;
+	private static final int PAGE_SIZE = COLUMNS * ROWS_PER_PAGE;
+	/**
+	 * Number of metadata pages kept in memory, the least recently used pages are discarded.
+	 */
+	private static final int CACHED_PAGES = 50;
+	private static final int THUMBNAIL_SIZE = 150;
+	private static final int DOWNLOAD_THREADS = 4;
+	/**
+	 * Decoded size of the cached thumbnails, about 1400 thumbnails with 150 pixels.
+	 */
+	private static final long THUMBNAIL_CACHE_BYTES = 128L * 1024 * 1024;
+
+	private final MongoDbMapper mapper;
+	private final ThumbnailCache thumbnails;
+	private final MetadataCountCache countCache;
+	private final ExecutorService downloadExecutor;
+	private final ObservableList<Integer> rows = FXCollections.observableArrayList();
+	private final ListView<Integer> gallery;
+
+	/**
+	 * Loaded metadata pages by page index, in access order.
+	 */
+	private final Map<Integer, List<ImageMetaData>> pages = new LinkedHashMap<Integer, List<ImageMetaData>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, List<ImageMetaData>> eldest) {
+			return size() > CACHED_PAGES;
+		}
+	};
+	private final Set<Integer> loadingPages = new HashSet<Integer>();
+	private PageBoundaryCache pageBoundaries;
+
+	public ThumbnailGallery(MongoDbMapper mapper, ObjectStore store) {
+		this.mapper = mapper;
+		this.thumbnails = new ThumbnailCache(store, THUMBNAIL_CACHE_BYTES, THUMBNAIL_SIZE);
+		this.countCache = new MetadataCountCache(mapper, MetadataCountCache.DEFAULT_MAX_AGE);
+
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.downloadExecutor = Executors.newFixedThreadPool(DOWNLOAD_THREADS, runnable -> {
+			Thread thread = new Thread(runnable, "gallery-thumbnail-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		gallery = new ListView<Integer>(rows);
+		gallery.setFixedCellSize(THUMBNAIL_SIZE + 10);
+		gallery.setCellFactory(list -> new GalleryRow());
+
+		Button reload = new Button("Reload");
+		reload.setOnAction(event -> {
+			LOGGER.debug("User triggered gallery reload");
+			countCache.invalidate();
+			reload();
+		});
+
+		BorderPane border = new BorderPane();
+		border.setCenter(gallery);
+		border.setBottom(new HBox(reload));
+
+		Scene scene = new Scene(border, COLUMNS * (THUMBNAIL_SIZE + 10) + 30, 640);
+		setTitle("Thumbnail Gallery");
+		setScene(scene);
+
+		// only count and load once the gallery is opened
+		setOnShown(event -> {
+			if (pageBoundaries == null) {
+				reload();
+			}
+		});
+	}
+
+	private void reload() {
+		pageBoundaries = newPageBoundaries();
+		pages.clear();
+		loadingPages.clear();
+
+		countCache.count(Collections.emptyMap(), count -> Platform.runLater(() -> {
+			int rowCount = (int) ((count + COLUMNS - 1) / COLUMNS);
+			LOGGER.debug("Showing {} images in {} rows", count, rowCount);
+			rows.setAll(IntStream.range(0, rowCount).boxed().collect(Collectors.toList()));
+		}));
+	}
+
+	private PageBoundaryCache newPageBoundaries() {
+		return new PageBoundaryCache(PAGE_SIZE, (from, offset) -> mapper.getImageMetadataIdAtOffset(Collections.emptyMap(), from, offset));
+	}
+
+	/**
+	 * Get the entries of a row, loading its page if required.
+	 * 
+	 * @return the entries, or null if the page is not loaded yet
+	 */
+	private List<ImageMetaData> entriesOfRow(int row) {
+		int page = row / ROWS_PER_PAGE;
+		List<ImageMetaData> entries = pages.get(page);
+
+		if (entries == null) {
+			loadPage(page);
+			return null;
+		}
+
+		int from = Math.min((row % ROWS_PER_PAGE) * COLUMNS, entries.size());
+		return entries.subList(from, Math.min(from + COLUMNS, entries.size()));
+	}
+
+	private void loadPage(int page) {
+		if (!loadingPages.add(page)) {
+			return;
+		}
+
+		PageBoundaryCache boundaries = pageBoundaries;
+
+		BackgroundLoader.execute(() -> {
+			MorphiumId startAfter = boundaries.startAfter(page);
+
+			if (page != 0 && startAfter == null) {
+				return Collections.<ImageMetaData>emptyList();
+			}
+
+			List<ImageMetaData> entries = mapper.getImageMetadataPage(Collections.emptyMap(), startAfter, PAGE_SIZE);
+
+			if (!entries.isEmpty()) {
+				boundaries.pageLoaded(page, entries.get(entries.size() - 1).getId());
+			}
+
+			return entries;
+		}, entries -> {
+			if (boundaries != pageBoundaries) {
+				// reloaded in the meantime
+				return;
+			}
+
+			loadingPages.remove(page);
+			pages.put(page, entries);
+			updateRowsOfPage(page);
+		}, error -> {
+			loadingPages.remove(page);
+			LOGGER.error("Failed to load gallery page {}: {}", page, error.getMessage());
+		});
+	}
+
+	/**
+	 * Replace the rows of a page with themselves, so only the cells showing these rows are updated. Refreshing the whole
+	 * list would recreate all cells, abandoning the slots with their queued downloads.
+	 */
+	private void updateRowsOfPage(int page) {
+		int last = Math.min((page + 1) * ROWS_PER_PAGE, rows.size());
+
+		for (int row = page * ROWS_PER_PAGE; row < last; row++) {
+			rows.set(row, rows.get(row));
+		}
+	}
+
+	private final class GalleryRow extends ListCell<Integer> {
+		private final ThumbnailSlot[] slots = new ThumbnailSlot[COLUMNS];
+
+		GalleryRow() {
+			HBox box = new HBox(5);
+
+			for (int i = 0; i < slots.length; i++) {
+				slots[i] = new ThumbnailSlot();
+				box.getChildren().add(slots[i].label);
+			}
+
+			setGraphic(box);
+		}
+
+		@Override
+		protected void updateItem(Integer row, boolean empty) {
+			super.updateItem(row, empty);
+			List<ImageMetaData> entries = empty || row == null ? null : entriesOfRow(row);
+
+			for (int i = 0; i < slots.length; i++) {
+				slots[i].show(entries == null || i >= entries.size() ? null : entries.get(i));
+			}
+		}
+	}
+
+	/**
+	 * A single thumbnail of a row. Loading a different thumbnail cancels the previous download, if it did not start yet.
+	 */
+	private final class ThumbnailSlot {
+		private final ImageView view = new ImageView();
+		private final Label label = new Label(null, view);
+		private ImageMetaData meta;
+		private Task<Image> download;
+
+		ThumbnailSlot() {
+			view.setFitWidth(THUMBNAIL_SIZE);
+			view.setFitHeight(THUMBNAIL_SIZE);
+			view.setPreserveRatio(true);
+			label.setMinSize(THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+		}
+
+		void show(ImageMetaData meta) {
+			if (this.meta == meta) {
+				return;
+			}
+
+			this.meta = meta;
+
+			if (download != null) {
+				download.cancel(false);
+				download = null;
+			}
+
+			label.setTooltip(meta == null ? null : new Tooltip(meta.getAnchor() + ":" + meta.getPath()));
+			UUID imageId = meta == null || !meta.hasThumbnail() ? null : meta.getImageId();
+
+			if (imageId == null) {
+				view.setImage(null);
+				return;
+			}
+
+			Image cached = thumbnails.getCached(imageId);
+			view.setImage(cached);
+
+			if (cached != null) {
+				return;
+			}
+
+			download = BackgroundLoader.execute(downloadExecutor, () -> thumbnails.load(imageId), image -> {
+				thumbnails.put(imageId, image);
+				download = null;
+
+				if (this.meta != null && Objects.equals(this.meta.getImageId(), imageId)) {
+					view.setImage(image);
+				}
+			}, error -> {
+				download = null;
+				LOGGER.debug("Failed to load thumbnail for image ID {}: {}", imageId, error.getMessage());
+			});
+		}
+	}
+}
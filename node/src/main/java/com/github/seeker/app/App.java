@@ -4,12 +4,36 @@
  */
 package com.github.seeker.app;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+
 import com.bettercloud.vault.VaultException;
 import com.github.seeker.configuration.ConfigurationBuilder;
 import com.github.seeker.configuration.ConnectionProvider;
 import com.github.seeker.configuration.ConsulConfiguration;
 import com.github.seeker.configuration.MinioConfiguration;
+import com.github.seeker.configuration.QueueConfiguration;
+import com.github.seeker.configuration.QueueConfiguration.ConfiguredExchanges;
+import com.github.seeker.configuration.QueueConfiguration.ConfiguredQueues;
+import com.github.seeker.configuration.RabbitMqRole;
+import com.github.seeker.messaging.MessagePriority;
+import com.github.seeker.messaging.MessageProperties;
+import com.github.seeker.messaging.TraceContext;
+import com.github.seeker.messaging.proto.FileLoadOuterClass.FileLoad;
+import com.github.seeker.metrics.MetricsExporter;
+import com.github.seeker.metrics.MetricsRegistry;
+import com.github.seeker.persistence.CachingObjectStore;
+import com.github.seeker.persistence.ImagePruner;
+import com.github.seeker.persistence.LocalObjectStore;
 import com.github.seeker.persistence.MinioStore;
+import com.github.seeker.persistence.MongoDbMapper;
+import com.github.seeker.persistence.ObjectReconciler;
+import com.github.seeker.persistence.ObjectReconciler.Report;
+import com.github.seeker.persistence.ObjectStore;
+import com.github.seeker.processor.OriginalImageSource;
+
+import com.rabbitmq.client.Channel;
 
 import io.minio.MinioClient;
 import net.sourceforge.argparse4j.ArgumentParsers;
@@ -27,19 +51,80 @@ public class App {
 	private static final String CUSTOM_HASH_COMMAND = "custom-hash";
 	private static final String RESIZER_COMMAND = "resizer";
 	private static final String DB_COMMAND = "db";
+	private static final String DRAIN_NODE_COMMAND = "drain-node";
+	private static final String PRUNE_COMMAND = "prune";
+	private static final String RECONCILE_COMMAND = "reconcile";
+	private static final String BACKFILL_PHASH_COMMAND = "backfill-phash";
+	private static final String DEDUP_METADATA_COMMAND = "dedup-metadata";
+	private static final String VIRTUAL_THREADS_ATTRIBUTE = "virtual_threads";
+	private static final String METRICS_PORT_ATTRIBUTE = "metrics_port";
+	private static final String METRICS_FILE_ATTRIBUTE = "metrics_file";
+	private static final String OBJECT_STORE_PATH_ATTRIBUTE = "object_store_path";
+	private static final String SHARED_FILESYSTEM_ATTRIBUTE = "shared_filesystem";
+	private static final String CACHE_DIR_ATTRIBUTE = "cache_dir";
+	private static final String CACHE_SIZE_ATTRIBUTE = "cache_size";
+	private static final String NODE_ID_ATTRIBUTE = "node_id";
+	private static final String NODE_ATTRIBUTE = "node";
+	private static final String UPLOAD_WINDOW_ATTRIBUTE = "upload_window";
+	private static final String CONCURRENCY_ATTRIBUTE = "concurrency";
+	private static final String UPLOAD_PART_SIZE_ATTRIBUTE = "upload_part_size";
+	private static final String DRY_RUN_ATTRIBUTE = "dry_run";
+	private static final String MIN_AGE_ATTRIBUTE = "min_age";
+	private static final int DEFAULT_UPLOAD_WINDOW = 16;
+	private static final long DEFAULT_CACHE_SIZE_MB = 1024;
+	private static final long METRICS_FILE_INTERVAL_SECONDS = 15;
 
 	public static void main(String[] args) {
 		
 		ArgumentParser parser  = ArgumentParsers.newFor("Si2").build();
+		parser.addArgument("--metrics-port").type(Integer.class).metavar("PORT")
+				.help("Serve metrics in the Prometheus text format on this port at " + MetricsExporter.PATH);
+		parser.addArgument("--metrics-file").metavar("FILE")
+				.help("Write metrics in the Prometheus text format to this file every " + METRICS_FILE_INTERVAL_SECONDS + " seconds");
+		parser.addArgument("--object-store-path").metavar("DIR")
+				.help("Store images in this local directory instead of Minio, all nodes must use the same directory");
+		parser.addArgument("--shared-filesystem").action(Arguments.storeTrue())
+				.help("Loader and workers see the anchors on a shared file system, originals are read in place instead of uploaded. "
+						+ "Workers resolve the anchors with the loader configuration of their host");
+		parser.addArgument("--cache-dir").metavar("DIR")
+				.help("Cache images read from the object store in this local directory. Workers in this process share the cache, "
+						+ "each process needs its own directory");
+		parser.addArgument("--cache-size").type(Long.class).setDefault(DEFAULT_CACHE_SIZE_MB).metavar("MB")
+				.help("Maximum size of the local cache in megabytes, least recently used images are removed first");
+		parser.addArgument("--upload-part-size").type(Long.class).setDefault(MinioStore.MIN_PART_SIZE / 1024 / 1024).metavar("MB")
+				.help("Part size for multipart uploads to Minio in megabytes, at least " + MinioStore.MIN_PART_SIZE / 1024 / 1024);
+		parser.addArgument("--node-id").metavar("ID")
+				.help("Id of this node if stages are co-located, defaults to the host name. Workers with the same id share queues");
 		Subparsers subparsers = parser.addSubparsers().title("subcommands");
 		
 		Subparser loader = subparsers.addParser("loader").description("loads files for processing").setDefault(COMMAND_ATTRIBUTE, LOADER_COMMAND);
 		loader.addArgument("--id").required(true).action(Arguments.store()).help("The id of this loader, used to get anchors from consul");
+		loader.addArgument("--upload-window").type(Integer.class).setDefault(DEFAULT_UPLOAD_WINDOW).metavar("N")
+				.help("Keep walking while up to N images are uploaded, 0 to wait for each upload");
 		
-		subparsers.addParser("processor").description("Processes files from the queue").setDefault(COMMAND_ATTRIBUTE, PROCESSOR_COMMAND);
+		Subparser processor = subparsers.addParser("processor").description("Processes files from the queue").setDefault(COMMAND_ATTRIBUTE, PROCESSOR_COMMAND);
 		subparsers.addParser("custom-hash").description("Processes pre-proceesed files from the queue").setDefault(COMMAND_ATTRIBUTE, CUSTOM_HASH_COMMAND);
-		subparsers.addParser("db").description("Stores metadata entries in the database").setDefault(COMMAND_ATTRIBUTE, DB_COMMAND);
-		subparsers.addParser("resizer").description("Resizes images for thumbnails and further processing").setDefault(COMMAND_ATTRIBUTE, RESIZER_COMMAND);
+		Subparser db = subparsers.addParser("db").description("Stores metadata entries in the database").setDefault(COMMAND_ATTRIBUTE, DB_COMMAND);
+		Subparser drainNode = subparsers.addParser("drain-node").description("Moves the messages of a co-located node to the remaining nodes")
+				.setDefault(COMMAND_ATTRIBUTE, DRAIN_NODE_COMMAND);
+		drainNode.addArgument("--node").required(true).metavar("ID").help("The id of the node to remove");
+		Subparser prune = subparsers.addParser("prune").description("Deletes originals and pre-processed images of completely processed images")
+				.setDefault(COMMAND_ATTRIBUTE, PRUNE_COMMAND);
+		prune.addArgument("--concurrency").type(Integer.class).setDefault(4).metavar("N").help("Number of batches to delete at the same time");
+		Subparser reconcile = subparsers.addParser("reconcile").description("Deletes objects without metadata and requests missing thumbnails")
+				.setDefault(COMMAND_ATTRIBUTE, RECONCILE_COMMAND);
+		reconcile.addArgument("--dry-run").action(Arguments.storeTrue()).help("Only report the findings");
+		reconcile.addArgument("--min-age").type(Long.class).setDefault(24L).metavar("HOURS")
+				.help("Keep objects without metadata that are younger than this, they may still be processed");
+		subparsers.addParser("backfill-phash").description("Adds the perceptual hash bands used for similarity lookups to existing entries")
+				.setDefault(COMMAND_ATTRIBUTE, BACKFILL_PHASH_COMMAND);
+		subparsers.addParser("dedup-metadata").description("Removes entries with the same anchor and path, so the unique index can be created")
+				.setDefault(COMMAND_ATTRIBUTE, DEDUP_METADATA_COMMAND);
+		Subparser resizer = subparsers.addParser("resizer").description("Resizes images for thumbnails and further processing").setDefault(COMMAND_ATTRIBUTE, RESIZER_COMMAND);
+
+		addVirtualThreadArgument(processor);
+		addVirtualThreadArgument(db);
+		addVirtualThreadArgument(resizer);
 
 		try {
 			processArgs(parser.parseArgs(args));
@@ -51,27 +136,103 @@ public class App {
 		}
 	}
 	
+	private static void addVirtualThreadArgument(Subparser subparser) {
+		subparser.addArgument("--virtual-threads").type(Integer.class).setDefault(0).metavar("N")
+				.help("Process each message on a virtual thread with at most N messages in flight, instead of a fixed number of channels");
+	}
+	
+	private static void startMetricsExporter(Namespace namespace) {
+		Integer port = namespace.getInt(METRICS_PORT_ATTRIBUTE);
+		String file = namespace.getString(METRICS_FILE_ATTRIBUTE);
+
+		if (port == null && file == null) {
+			return;
+		}
+
+		MetricsExporter exporter = new MetricsExporter(MetricsRegistry.global());
+
+		if (port != null) {
+			try {
+				exporter.startHttpServer(port);
+			} catch (IOException e) {
+				System.err.println("Failed to start metrics server on port " + port + ": " + e.getMessage());
+			}
+		}
+
+		if (file != null) {
+			exporter.startFileDump(Paths.get(file), METRICS_FILE_INTERVAL_SECONDS);
+		}
+	}
+
+	private static ObjectStore createObjectStore(Namespace namespace, ConnectionProvider connectionProvider) throws VaultException {
+		String objectStorePath = namespace.getString(OBJECT_STORE_PATH_ATTRIBUTE);
+
+		if (objectStorePath != null) {
+			LocalObjectStore localStore = new LocalObjectStore(Paths.get(objectStorePath));
+			localStore.createBuckets();
+			return cached(namespace, localStore);
+		}
+
+		MinioClient minioClient = connectionProvider.getMinioClient();
+		long partSize = namespace.getLong(UPLOAD_PART_SIZE_ATTRIBUTE) * 1024 * 1024;
+
+		return cached(namespace,
+				new MinioStore(minioClient, connectionProvider.getMinioAsyncClient(), MinioConfiguration.productionBuckets(), partSize));
+	}
+
+	private static ObjectStore cached(Namespace namespace, ObjectStore store) {
+		String cacheDir = namespace.getString(CACHE_DIR_ATTRIBUTE);
+
+		if (cacheDir == null) {
+			return store;
+		}
+
+		long cacheSizeBytes = namespace.getLong(CACHE_SIZE_ATTRIBUTE) * 1024 * 1024;
+
+		try {
+			return new CachingObjectStore(store, Paths.get(cacheDir), cacheSizeBytes);
+		} catch (IOException | IllegalArgumentException e) {
+			System.err.println("Failed to create object cache in " + cacheDir + ", continuing without cache: " + e.getMessage());
+			return store;
+		}
+	}
+
+	private static OriginalImageSource createOriginalImageSource(Namespace namespace, ConfigurationBuilder configBuilder, ObjectStore minio) {
+		if (namespace.getBoolean(SHARED_FILESYSTEM_ATTRIBUTE)) {
+			return new OriginalImageSource(minio, configBuilder.getFileLoaderConfiguration().anchors());
+		}
+
+		return new OriginalImageSource(minio);
+	}
+
 	private static void processArgs(Namespace namespace) throws VaultException {
 		System.out.println(namespace);
 		
+		startMetricsExporter(namespace);
+		
 		ConfigurationBuilder configBuilder = new ConfigurationBuilder();
 		ConsulConfiguration consulConfig = configBuilder.getConsulConfiguration();
 		
 		ConnectionProvider connectionProvider = new ConnectionProvider(consulConfig, configBuilder.getVaultCredentials(), consulConfig.overrideVirtualBoxAddress());
-		MinioClient minioClient = connectionProvider.getMinioClient();
-		MinioStore minio = new MinioStore(minioClient, MinioConfiguration.productionBuckets());
+		ObjectStore minio = createObjectStore(namespace, connectionProvider);
+
+		if (namespace.getString(NODE_ID_ATTRIBUTE) != null) {
+			connectionProvider.setNodeId(namespace.getString(NODE_ID_ATTRIBUTE));
+		}
 
 		if(LOADER_COMMAND.equals(namespace.getString(COMMAND_ATTRIBUTE))) {
 			try {
 				new FileLoader(namespace.getString("id"), connectionProvider,
-						configBuilder.getFileLoaderConfiguration(), minio);
+						configBuilder.getFileLoaderConfiguration(), minio, namespace.getBoolean(SHARED_FILESYSTEM_ATTRIBUTE),
+						namespace.getInt(UPLOAD_WINDOW_ATTRIBUTE));
 				System.exit(0);
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
 		} else if(PROCESSOR_COMMAND.equals(namespace.getString(COMMAND_ATTRIBUTE))) {
 			try {
-				new MessageDigestHasher(connectionProvider, minio);
+				new MessageDigestHasher(connectionProvider, createOriginalImageSource(namespace, configBuilder, minio),
+						namespace.getInt(VIRTUAL_THREADS_ATTRIBUTE));
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
@@ -83,16 +244,101 @@ public class App {
 			}
 		} else if (DB_COMMAND.equals(namespace.getString(COMMAND_ATTRIBUTE))) {
 			try {
-				new DBNode(connectionProvider);
+				new DBNode(connectionProvider, minio, namespace.getInt(VIRTUAL_THREADS_ATTRIBUTE));
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
 		} else if(RESIZER_COMMAND.equals(namespace.getString(COMMAND_ATTRIBUTE))) {
 			try {
-				new ImageResizer(connectionProvider, minio);
+				new ImageResizer(connectionProvider, minio, createOriginalImageSource(namespace, configBuilder, minio),
+						namespace.getInt(VIRTUAL_THREADS_ATTRIBUTE));
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
+		} else if (PRUNE_COMMAND.equals(namespace.getString(COMMAND_ATTRIBUTE))) {
+			try {
+				ImagePruner pruner = new ImagePruner(connectionProvider.getMongoDbMapper(), minio, namespace.getInt(CONCURRENCY_ATTRIBUTE));
+				pruner.prune(ImagePruner.completionHashes(connectionProvider.getConsulClient().getKvAsString("config/general/required-hashes")),
+						(pruned, total, rate) -> System.out.println(String.format("Pruned %d of %d images, %.1f images/s", pruned, total, rate)));
+				System.exit(0);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		} else if (RECONCILE_COMMAND.equals(namespace.getString(COMMAND_ATTRIBUTE))) {
+			try {
+				Report report = reconcile(connectionProvider, minio, namespace);
+				System.out.println("Reconciliation completed, " + report);
+				System.exit(0);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		} else if (BACKFILL_PHASH_COMMAND.equals(namespace.getString(COMMAND_ATTRIBUTE))) {
+			try {
+				MongoDbMapper mapper = connectionProvider.getMongoDbMapper();
+				mapper.ensureIndices();
+				long updated = mapper.backfillPhashBands(CustomHashProcessor.CUSTOM_HASH_NAME);
+				System.out.println("Added perceptual hash bands to " + updated + " entries");
+				System.exit(0);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		} else if (DEDUP_METADATA_COMMAND.equals(namespace.getString(COMMAND_ATTRIBUTE))) {
+			try {
+				MongoDbMapper mapper = connectionProvider.getMongoDbMapper();
+				long removed = mapper.removeDuplicateMetadata();
+				System.out.println("Removed " + removed + " duplicate entries");
+
+				if (!mapper.ensureIndices()) {
+					System.out.println("Unique index could not be created, entries were duplicated concurrently, run the command again");
+					System.exit(1);
+				}
+
+				System.exit(0);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		} else if (DRAIN_NODE_COMMAND.equals(namespace.getString(COMMAND_ATTRIBUTE))) {
+			try {
+				drainNode(connectionProvider, namespace.getString(NODE_ATTRIBUTE));
+				System.exit(0);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static Report reconcile(ConnectionProvider connectionProvider, ObjectStore minio, Namespace namespace) throws Exception {
+		Channel channel = connectionProvider.getRabbitMQConnectionFactory(RabbitMqRole.client).newConnection().createChannel();
+		QueueConfiguration queueConfig = connectionProvider.getQueueConfiguration(channel);
+		boolean sharedFilesystem = namespace.getBoolean(SHARED_FILESYSTEM_ATTRIBUTE);
+
+		ObjectReconciler reconciler = new ObjectReconciler(connectionProvider.getMongoDbMapper(), minio,
+				Duration.ofHours(namespace.getLong(MIN_AGE_ATTRIBUTE)), namespace.getBoolean(DRY_RUN_ATTRIBUTE), meta -> {
+					FileLoad.Builder builder = FileLoad.newBuilder();
+					builder.getImagePathBuilder().setAnchor(meta.getAnchor()).setRelativePath(meta.getPath());
+					builder.setImageId(meta.getImageId().toString());
+					builder.setRecreateThumbnail(true);
+					builder.setSharedFilesystem(sharedFilesystem);
+
+					channel.basicPublish(queueConfig.getExchangeName(ConfiguredExchanges.loader), "", TraceContext.start(
+							MessageProperties.forPriority(MessagePriority.BULK), builder.getImageId(), System.currentTimeMillis()),
+							builder.build().toByteArray());
+				});
+
+		return reconciler.reconcile();
+	}
+
+	private static void drainNode(ConnectionProvider connectionProvider, String node) throws Exception {
+		QueueConfiguration queueConfig = connectionProvider
+				.getQueueConfiguration(connectionProvider.getRabbitMQConnectionFactory(RabbitMqRole.client).newConnection().createChannel());
+
+		if (!queueConfig.isColocated()) {
+			System.err.println("Stages are not co-located, nothing to drain");
+			return;
+		}
+
+		for (ConfiguredQueues queue : QueueConfiguration.getColocatedQueues()) {
+			System.out.println("Moved " + queueConfig.drainNode(queue, node) + " messages from " + queue);
 		}
 	}
 }
@@ -10,24 +10,28 @@ import java.util.concurrent.TimeoutException;
 import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
 
-import org.jtransforms.dct.DoubleDCT_2D;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.bettercloud.vault.VaultException;
-import com.github.dozedoff.commonj.util.ImageUtil;
-import com.github.seeker.commonhash.helper.TransformHelper;
 import com.github.seeker.configuration.ConnectionProvider;
 import com.github.seeker.configuration.ConsulClient;
 import com.github.seeker.configuration.QueueConfiguration;
 import com.github.seeker.configuration.QueueConfiguration.ConfiguredQueues;
 import com.github.seeker.configuration.RabbitMqRole;
+import com.github.seeker.messaging.MessageProperties;
+import com.github.seeker.messaging.PipelineStage;
+import com.github.seeker.messaging.RetryHandler;
 import com.github.seeker.messaging.proto.DbUpdateOuterClass.DbUpdate;
 import com.github.seeker.messaging.proto.DbUpdateOuterClass.UpdateType;
 import com.github.seeker.messaging.proto.FileLoadOuterClass.FileLoad;
 import com.github.seeker.messaging.proto.ImagePathOuterClass.ImagePath;
+import com.github.seeker.metrics.MetricsRegistry;
+import com.github.seeker.metrics.PipelineMetrics;
+import com.github.seeker.metrics.Timer;
 import com.github.seeker.persistence.MinioPersistenceException;
-import com.github.seeker.persistence.MinioStore;
+import com.github.seeker.persistence.ObjectStore;
+import com.github.seeker.processor.PerceptualHasher;
 import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
 import com.google.protobuf.ByteString;
@@ -44,11 +48,16 @@ import com.rabbitmq.client.Envelope;
 public class CustomHashProcessor {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CustomHashProcessor.class);
 
+	/**
+	 * Name of the hash stored by this processor.
+	 */
+	public static final String CUSTOM_HASH_NAME = "phash";
+
 	private final Channel channel;
-	private final MinioStore minio;
+	private final ObjectStore minio;
 	private final QueueConfiguration queueConfig;
 	
-	public CustomHashProcessor(Channel channel, ConsulClient consul, MinioStore minio, QueueConfiguration queueConfig)
+	public CustomHashProcessor(Channel channel, ConsulClient consul, ObjectStore minio, QueueConfiguration queueConfig)
 			throws IOException, TimeoutException, InterruptedException {
 		LOGGER.info("{} starting up...", CustomHashProcessor.class.getSimpleName());
 		
@@ -61,7 +70,7 @@ public class CustomHashProcessor {
 		processFiles();
 	}
 	
-	public CustomHashProcessor(ConnectionProvider connectionProvider, MinioStore minio)
+	public CustomHashProcessor(ConnectionProvider connectionProvider, ObjectStore minio)
 			throws IOException, TimeoutException, InterruptedException, VaultException {
 		LOGGER.info("{} starting up...", CustomHashProcessor.class.getSimpleName());
 		
@@ -69,7 +78,7 @@ public class CustomHashProcessor {
 		this.minio = minio;
 		channel = conn.createChannel();
 		
-		queueConfig = new QueueConfiguration(channel);
+		queueConfig = connectionProvider.getQueueConfiguration(channel);
 		
 		channel.basicQos(20);
 
@@ -77,6 +86,7 @@ public class CustomHashProcessor {
 	}
 
 	public void processFiles() throws IOException, InterruptedException {
+		queueConfig.joinStage(ConfiguredQueues.filePreProcessed);
 		String queueName =  queueConfig.getQueueName(ConfiguredQueues.filePreProcessed);
 		LOGGER.info("Starting consumer on queue {}", queueName);
 		channel.basicConsume(queueName, new CustomFileMessageConsumer(channel, queueConfig, minio));
@@ -86,21 +96,24 @@ public class CustomHashProcessor {
 class CustomFileMessageConsumer extends DefaultConsumer {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MessageDigestHashConsumer.class);
 
-	private static final int IMAGE_SIZE = 32;
-	private static final int DCT_MATRIX_SIZE = 8;
-	
-	private final DoubleDCT_2D jtransformDCT;
+	private final PerceptualHasher perceptualHasher;
 	
 	private final QueueConfiguration queueConfig;
-	private final MinioStore minio;
+	private final ObjectStore minio;
+	private final RetryHandler retryHandler;
+	private final PipelineMetrics metrics;
+	private final Timer phashTime;
 	
-	public CustomFileMessageConsumer(Channel channel, QueueConfiguration queueConfig, MinioStore minio) {
+	public CustomFileMessageConsumer(Channel channel, QueueConfiguration queueConfig, ObjectStore minio) {
 		super(channel);
 		
 		this.queueConfig = queueConfig;
 		this.minio = minio;
+		this.retryHandler = new RetryHandler(queueConfig);
+		this.metrics = new PipelineMetrics("custom-hash");
+		this.phashTime = MetricsRegistry.global().timer("si2_phash_milliseconds", "Time to calculate the perceptual hash");
 
-		this.jtransformDCT = new DoubleDCT_2D(IMAGE_SIZE, IMAGE_SIZE); 
+		this.perceptualHasher = new PerceptualHasher();
 		
 		ImageIO.setUseCache(false);
 	}
@@ -119,6 +132,7 @@ class CustomFileMessageConsumer extends DefaultConsumer {
 			return;
 		}
 		
+		long started = System.nanoTime();
 		UUID imageId = UUID.fromString(message.getImageId());
 		
 		try (InputStream response = minio.getPreProcessedImage(imageId)) {
@@ -129,6 +143,7 @@ class CustomFileMessageConsumer extends DefaultConsumer {
 			preProcessedImage = ImageIO.read(response);
 		} catch (IIOException e) {
 			LOGGER.warn("Failed to read image {}:{}: {}", anchor, relativePath, e.getMessage());
+			metrics.getMessagesFailed().increment();
 			getChannel().basicNack(envelope.getDeliveryTag(), false, false);
 			return;
 		}
@@ -136,53 +151,41 @@ class CustomFileMessageConsumer extends DefaultConsumer {
 		if (preProcessedImage == null) {
 			// TODO send an error message
 			LOGGER.warn("Was unable to read image data for {}:{} ", anchor, relativePath);
+			metrics.getMessagesFailed().increment();
 			getChannel().basicNack(envelope.getDeliveryTag(), false, false);
 			return;
 		}
 
-		long pHash = calculatePhash(preProcessedImage);
+		// the pre-processed image is small, reading it from the store and decoding is timed together
+		metrics.getDecodeTime().recordSince(started);
+
+		long phashStarted = System.nanoTime();
+		long pHash = perceptualHasher.calculatePhash(preProcessedImage);
+		phashTime.recordSince(phashStarted);
 		preProcessedImage.flush();
 
 		ByteArrayDataOutput hashValue = ByteStreams.newDataOutput();
 		hashValue.writeLong(pHash);
 
-		DbUpdate.Builder builder = DbUpdate.newBuilder().setUpdateType(UpdateType.UPDATE_TYPE_HASH).putHash("phash",
+		DbUpdate.Builder builder = DbUpdate.newBuilder().setUpdateType(UpdateType.UPDATE_TYPE_HASH).putHash(CustomHashProcessor.CUSTOM_HASH_NAME,
 				ByteString.copyFrom(hashValue.toByteArray()));
 		builder.getImagePathBuilder().setAnchor(anchor).setRelativePath(relativePath);
 
-		getChannel().basicPublish("", queueConfig.getQueueName(ConfiguredQueues.persistence), null, builder.build().toByteArray());
+		getChannel().basicPublish("", queueConfig.getQueueName(ConfiguredQueues.persistence), MessageProperties.inherit(properties, PipelineStage.CUSTOM_HASH), builder.build().toByteArray());
 
 		LOGGER.debug("Consumed message for {} - {} > hashes: {}", anchor, relativePath, customHashes);
 
 		getChannel().basicAck(envelope.getDeliveryTag(), false);
-	} catch (IllegalArgumentException | MinioPersistenceException e1) {
+		metrics.getMessagesProcessed().increment();
+		metrics.getProcessingTime().recordSince(started);
+	} catch (IllegalArgumentException e1) {
+		LOGGER.warn("Invalid message for {}:{}: {}", anchor, relativePath, e1.getMessage());
+		metrics.getMessagesFailed().increment();
 		getChannel().basicNack(envelope.getDeliveryTag(), false, false);
-		throw new IOException("Failed to load preprocessed image:", e1);
+	} catch (MinioPersistenceException e1) {
+		LOGGER.warn("Failed to load preprocessed image {}:{}, will retry: {}", anchor, relativePath, e1.getMessage());
+		metrics.getMessagesFailed().increment();
+		retryHandler.retry(getChannel(), ConfiguredQueues.filePreProcessed, envelope, properties, body);
 	}
 }
-	
-	
-	private long calculatePhash(BufferedImage originalImage) {
-		double[][] reducedColorValues = ImageUtil.toDoubleMatrix(originalImage);
-
-		jtransformDCT.forward(reducedColorValues, true);
-		double[][] dct = reducedColorValues;
-		
-		double dctAvg = TransformHelper.dctAverage(dct, DCT_MATRIX_SIZE);
-		
-		return convertToLong(dct, dctAvg);
-	}
-	
-	private long convertToLong(double[][] dctVals, double avg) {
-		long hash = 0;
-
-		for (int x = 0; x < DCT_MATRIX_SIZE; x++) {
-			for (int y = 0; y < DCT_MATRIX_SIZE; y++) {
-				hash += (dctVals[x][y] > avg ? 1 : 0);
-				hash = Long.rotateLeft(hash, 1);
-			}
-		}
-
-		return hash;
-	}
-}
\ No newline at end of file
+}
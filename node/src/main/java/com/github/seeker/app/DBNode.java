@@ -1,9 +1,19 @@
 package com.github.seeker.app;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,10 +24,19 @@ import com.github.seeker.configuration.ConsulClient;
 import com.github.seeker.configuration.QueueConfiguration;
 import com.github.seeker.configuration.QueueConfiguration.ConfiguredQueues;
 import com.github.seeker.configuration.RabbitMqRole;
+import com.github.seeker.messaging.PipelineStage;
+import com.github.seeker.messaging.TraceAggregator;
+import com.github.seeker.messaging.VirtualThreadConsumer;
 import com.github.seeker.messaging.proto.DbUpdateOuterClass.DbUpdate;
 import com.github.seeker.messaging.proto.DbUpdateOuterClass.UpdateType;
 import com.github.seeker.messaging.proto.ImagePathOuterClass.ImagePath;
+import com.github.seeker.metrics.MetricsRegistry;
+import com.github.seeker.metrics.PipelineMetrics;
+import com.github.seeker.persistence.CompletedImagePruner;
+import com.github.seeker.persistence.ImagePruner;
 import com.github.seeker.persistence.MongoDbMapper;
+import com.github.seeker.persistence.ObjectStore;
+import com.github.seeker.persistence.PhashBands;
 import com.github.seeker.persistence.document.Hash;
 import com.github.seeker.persistence.document.ImageMetaData;
 import com.github.seeker.persistence.document.Thumbnail;
@@ -34,33 +53,152 @@ import com.rabbitmq.client.Envelope;
  */
 public class DBNode {
 	private static final Logger LOGGER = LoggerFactory.getLogger(DBNode.class);
+	private static final long TRACE_SUMMARY_INTERVAL_MINUTES = 1;
+	private static final String AUTO_PRUNE_KV_PATH = "config/general/auto-prune";
+	private static final String REQUIRED_HASHES_KV_PATH = "config/general/required-hashes";
+	private static final Duration AUTO_PRUNE_FLUSH_INTERVAL = Duration.ofSeconds(30);
 
 	private final MongoDbMapper mapper;
 	private final QueueConfiguration queueConfig;
+	private final int virtualThreadLimit;
+	private final TraceAggregator traceAggregator;
+	private final List<String> completionHashes;
+	private final CompletedImagePruner completedImagePruner;
 	
 	public DBNode(ConnectionProvider connectionProvider) throws IOException, TimeoutException, InterruptedException, VaultException {
-		this(connectionProvider.getConsulClient(), connectionProvider.getMongoDbMapper(), connectionProvider.getRabbitMQConnectionFactory(RabbitMqRole.dbnode).newConnection());
+		this(connectionProvider, 0);
+	}
+
+	public DBNode(ConnectionProvider connectionProvider, int virtualThreadLimit) throws IOException, TimeoutException, InterruptedException, VaultException {
+		this(connectionProvider, null, virtualThreadLimit);
+	}
+
+	/**
+	 * Create a new database node that prunes completed images, if enabled in the configuration.
+	 * 
+	 * @param connectionProvider provider for the connections
+	 * @param store              store to prune completed images from, null to never prune
+	 * @param virtualThreadLimit see {@link #DBNode(ConsulClient, MongoDbMapper, Connection, QueueConfiguration, int, ObjectStore)}
+	 */
+	public DBNode(ConnectionProvider connectionProvider, ObjectStore store, int virtualThreadLimit) throws IOException, TimeoutException, InterruptedException, VaultException {
+		this(connectionProvider, connectionProvider.getRabbitMQConnectionFactory(RabbitMqRole.dbnode).newConnection(), store, virtualThreadLimit);
+	}
+
+	private DBNode(ConnectionProvider connectionProvider, Connection rabbitMqConnection, ObjectStore store, int virtualThreadLimit) throws IOException, TimeoutException, InterruptedException {
+		this(connectionProvider.getConsulClient(), connectionProvider.getMongoDbMapper(), rabbitMqConnection,
+				connectionProvider.getQueueConfiguration(rabbitMqConnection.createChannel()), virtualThreadLimit, store);
 	}
 	
 	public DBNode(ConsulClient consul, MongoDbMapper mapper, Connection rabbitMqConnection) throws IOException, TimeoutException, InterruptedException {
-		this(consul, mapper, rabbitMqConnection, new QueueConfiguration(rabbitMqConnection.createChannel()));
+		this(consul, mapper, rabbitMqConnection, 0);
+	}
+
+	public DBNode(ConsulClient consul, MongoDbMapper mapper, Connection rabbitMqConnection, int virtualThreadLimit) throws IOException, TimeoutException, InterruptedException {
+		this(consul, mapper, rabbitMqConnection, new QueueConfiguration(rabbitMqConnection.createChannel()), virtualThreadLimit);
 	}
 	
 	public DBNode(ConsulClient consul, MongoDbMapper mapper, Connection rabbitMqConnection, QueueConfiguration queueConfig) throws IOException, TimeoutException, InterruptedException {
+		this(consul, mapper, rabbitMqConnection, queueConfig, 0);
+	}
+
+	public DBNode(ConsulClient consul, MongoDbMapper mapper, Connection rabbitMqConnection, QueueConfiguration queueConfig, int virtualThreadLimit) throws IOException, TimeoutException, InterruptedException {
+		this(consul, mapper, rabbitMqConnection, queueConfig, virtualThreadLimit, null);
+	}
+
+	/**
+	 * Create a new database node and start consuming messages.
+	 * 
+	 * @param consul             client for the configuration
+	 * @param mapper             mapper used to store the metadata
+	 * @param rabbitMqConnection connection to the message broker
+	 * @param queueConfig        the queue configuration to use
+	 * @param virtualThreadLimit if greater than 0, messages are processed on virtual threads with at most this many
+	 *                           messages in flight. If 0, messages are processed one at a time.
+	 * @param store              if not null and auto-prune is enabled, originals and pre-processed images are deleted
+	 *                           from this store once an image is completely processed
+	 */
+	public DBNode(ConsulClient consul, MongoDbMapper mapper, Connection rabbitMqConnection, QueueConfiguration queueConfig, int virtualThreadLimit,
+			ObjectStore store) throws IOException, TimeoutException, InterruptedException {
 		LOGGER.info("{} starting up...", DBNode.class.getSimpleName());
 		
 		this.queueConfig = queueConfig;
 		this.mapper = mapper;
+		this.virtualThreadLimit = virtualThreadLimit;
+
+		// indices added to an existing collection are not created automatically, duplicates are logged but must not stop the node
+		mapper.ensureIndices();
+		this.traceAggregator = new TraceAggregator();
+
+		if (store != null && consul.getKvAsBoolean(AUTO_PRUNE_KV_PATH, false)) {
+			this.completionHashes = ImagePruner.completionHashes(consul.getKvAsString(REQUIRED_HASHES_KV_PATH));
+			this.completedImagePruner = new CompletedImagePruner(new ImagePruner(mapper, store, 1), ImagePruner.BATCH_SIZE, AUTO_PRUNE_FLUSH_INTERVAL);
+			// prune the pending batch, else its images are only pruned by a manual prune
+			Runtime.getRuntime().addShutdownHook(new Thread(completedImagePruner::close, "auto-prune-shutdown"));
+			LOGGER.info("Pruning images once they have a thumbnail and the hashes {}", completionHashes);
+		} else {
+			this.completionHashes = Collections.emptyList();
+			this.completedImagePruner = null;
+		}
+
+		for (PipelineStage stage : PipelineStage.values()) {
+			MetricsRegistry.global().register("si2_pipeline_stage_latency_milliseconds",
+					"Time from the previous stage handing the image on until this stage hands it on",
+					() -> traceAggregator.getStageLatency(stage), "stage", stage.name().toLowerCase());
+		}
+
+		MetricsRegistry.global().register("si2_pipeline_latency_milliseconds", "Time from loading an image to storing a result",
+				traceAggregator::getEndToEndLatency);
 		
+		startTraceSummary();
 		startConsumers(rabbitMqConnection);
 	}
 
+	private void startTraceSummary() {
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "trace-summary");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		executor.scheduleAtFixedRate(() -> {
+			if (traceAggregator.getEndToEndLatency().getCount() > 0) {
+				LOGGER.info("Pipeline latency: {}", traceAggregator.summary());
+			}
+		}, TRACE_SUMMARY_INTERVAL_MINUTES, TRACE_SUMMARY_INTERVAL_MINUTES, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Get the aggregator for the traces finished by this node.
+	 * 
+	 * @return the trace aggregator
+	 */
+	public TraceAggregator getTraceAggregator() {
+		return traceAggregator;
+	}
+
+	private DBStore createDBStore(Channel channel) {
+		if (completedImagePruner == null) {
+			return new DBStore(channel, mapper, traceAggregator);
+		}
+
+		return new DBStore(channel, mapper, traceAggregator, completionHashes, completedImagePruner::imageCompleted);
+	}
+
 	private void startConsumers(Connection rabbitmqConnection) throws IOException {
 		Channel dbStoreChannel = rabbitmqConnection.createChannel();
-		dbStoreChannel.basicQos(100);
 		String queueName = queueConfig.getQueueName(ConfiguredQueues.persistence);
+
+		if (virtualThreadLimit > 0) {
+			dbStoreChannel.basicQos(virtualThreadLimit);
+			LOGGER.info("Starting consumer on queue {} with up to {} messages in flight on virtual threads", queueName, virtualThreadLimit);
+			dbStoreChannel.basicConsume(queueName,
+					new VirtualThreadConsumer(dbStoreChannel, createDBStore(dbStoreChannel), virtualThreadLimit));
+			return;
+		}
+
+		dbStoreChannel.basicQos(100);
 		LOGGER.info("Starting consumer on queue {}", queueName);
-		dbStoreChannel.basicConsume(queueName, new DBStore(dbStoreChannel, mapper));
+		dbStoreChannel.basicConsume(queueName, createDBStore(dbStoreChannel));
 	}
 }
 
@@ -69,30 +207,129 @@ class DBStore extends DefaultConsumer {
 	private static final Logger LOGGER = LoggerFactory.getLogger(DBStore.class);
 
 	private final MongoDbMapper mapper;
+	private final UpdateLocks updateLocks;
+	private final TraceAggregator traceAggregator;
+	private final PipelineMetrics metrics;
+	private final List<String> completionHashes;
+	private final CompletionListener completionListener;
+
+	/**
+	 * Notified when an update completes the processing of an image.
+	 */
+	@FunctionalInterface
+	interface CompletionListener {
+		/**
+		 * Called once per image, after the update that completed it was stored.
+		 * 
+		 * @param imageId ID of the completed image
+		 */
+		void imageCompleted(UUID imageId);
+	}
+
+	/**
+	 * Serializes updates for the same image, when messages are processed concurrently. Consumers that update the same
+	 * metadata must share one instance.
+	 */
+	static final class UpdateLocks {
+		/**
+		 * Number of locks, updates for different images may share a lock.
+		 */
+		private static final int LOCK_STRIPES = 64;
+
+		private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+		UpdateLocks() {
+			for (int i = 0; i < locks.length; i++) {
+				locks[i] = new ReentrantLock();
+			}
+		}
+
+		Lock forImage(String anchor, String relativeAnchorPath) {
+			return locks[Math.floorMod(Objects.hash(anchor, relativeAnchorPath), locks.length)];
+		}
+	}
 	
-	public DBStore(Channel channel, MongoDbMapper mapper) {
+	public DBStore(Channel channel, MongoDbMapper mapper, TraceAggregator traceAggregator) {
+		this(channel, mapper, traceAggregator, new UpdateLocks());
+	}
+
+	/**
+	 * Create a consumer that shares its update locks with other consumers.
+	 * 
+	 * @param channel         to consume from
+	 * @param mapper          to store the metadata
+	 * @param traceAggregator records the traces of the updates
+	 * @param updateLocks     locks shared by all consumers that update the same metadata
+	 */
+	public DBStore(Channel channel, MongoDbMapper mapper, TraceAggregator traceAggregator, UpdateLocks updateLocks) {
+		this(channel, mapper, traceAggregator, Collections.emptyList(), null, updateLocks);
+	}
+
+	/**
+	 * Create a consumer that reports completed images.
+	 * 
+	 * @param channel            to consume from
+	 * @param mapper             to store the metadata
+	 * @param traceAggregator    records the traces of the updates
+	 * @param completionHashes   the hashes an image must have, in addition to a thumbnail, to be complete
+	 * @param completionListener notified when an image is complete, null to disable
+	 */
+	public DBStore(Channel channel, MongoDbMapper mapper, TraceAggregator traceAggregator, List<String> completionHashes,
+			CompletionListener completionListener) {
+		this(channel, mapper, traceAggregator, completionHashes, completionListener, new UpdateLocks());
+	}
+
+	private DBStore(Channel channel, MongoDbMapper mapper, TraceAggregator traceAggregator, List<String> completionHashes,
+			CompletionListener completionListener, UpdateLocks updateLocks) {
 		super(channel);
 		
 		this.mapper = mapper;
+		this.traceAggregator = traceAggregator;
+		this.completionHashes = completionHashes;
+		this.completionListener = completionListener;
+		this.metrics = new PipelineMetrics("db");
+		this.updateLocks = updateLocks;
 	}
 
 	@Override
 	public void handleDelivery(String consumerTag, Envelope envelope, BasicProperties properties, byte[] body) throws IOException {
+		long started = System.nanoTime();
 		DbUpdate message = DbUpdate.parseFrom(body);
 		ImagePath imagePath = message.getImagePath();
 
 		String anchor = imagePath.getAnchor();
 		String relativeAnchorPath = imagePath.getRelativePath();
-		
+
+		// Updates are read-modify-write, concurrent updates for the same image would overwrite each other
+		Lock lock = updateLocks.forImage(anchor, relativeAnchorPath);
+		lock.lock();
+
+		try {
+			updateMetadata(message, anchor, relativeAnchorPath);
+		} finally {
+			lock.unlock();
+		}
+
+		traceAggregator.record(properties);
+		getChannel().basicAck(envelope.getDeliveryTag(), false);
+		metrics.getMessagesProcessed().increment();
+		metrics.getProcessingTime().recordSince(started);
+	}
+
+	private void updateMetadata(DbUpdate message, String anchor, String relativeAnchorPath) {
+		long readStarted = System.nanoTime();
 		ImageMetaData meta = mapper.getImageMetadata(anchor, relativeAnchorPath);
+		metrics.getDatabaseReadTime().recordSince(readStarted);
 		
 		if(meta == null) {
 			LOGGER.warn("No metadata found in database for {} - {}", anchor, relativeAnchorPath);
 			meta = new ImageMetaData();
 			meta.setAnchor(anchor);
 			meta.setPath(relativeAnchorPath.toString());
+			meta = mapper.storeIfAbsent(meta);
 		}
 		
+		boolean wasComplete = meta.isComplete(completionHashes);
 		UpdateType type = message.getUpdateType();
 
 		switch (type) {
@@ -107,10 +344,14 @@ class DBStore extends DefaultConsumer {
 			break;
 		}
 
+		long writeStarted = System.nanoTime();
 		mapper.storeDocument(meta);
+		metrics.getDatabaseWriteTime().recordSince(writeStarted);
 		LOGGER.info("Updated {} database entry for {} - {} with ID {}", type, anchor, relativeAnchorPath, meta.getImageId());
 
-		getChannel().basicAck(envelope.getDeliveryTag(), false);
+		if (completionListener != null && !wasComplete && !meta.isPruned() && meta.isComplete(completionHashes)) {
+			completionListener.imageCompleted(meta.getImageId());
+		}
 	}
 
 	private void handleHashUpdate(DbUpdate message, ImageMetaData meta) {
@@ -118,6 +359,10 @@ class DBStore extends DefaultConsumer {
 
 		for (Entry<String, ByteString> entry : hashes.entrySet()) {
 			meta.getHashes().put(entry.getKey(), new Hash(entry.getKey(), entry.getValue().toByteArray(), "1"));
+
+			if (CustomHashProcessor.CUSTOM_HASH_NAME.equals(entry.getKey())) {
+				meta.setPhash(PhashBands.fromBytes(entry.getValue().toByteArray()));
+			}
 		}
 	}
 
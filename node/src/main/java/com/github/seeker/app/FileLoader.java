@@ -7,7 +7,6 @@ import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -26,8 +25,8 @@ import com.github.seeker.configuration.RabbitMqRole;
 import com.github.seeker.messaging.proto.NodeCommandOuterClass.LoaderCommand;
 import com.github.seeker.messaging.proto.NodeCommandOuterClass.NodeCommand;
 import com.github.seeker.messaging.proto.NodeCommandOuterClass.NodeType;
-import com.github.seeker.persistence.MinioStore;
 import com.github.seeker.persistence.MongoDbMapper;
+import com.github.seeker.persistence.ObjectStore;
 import com.github.seeker.persistence.document.FileLoaderJob;
 import com.github.seeker.processor.FileToQueueVistor;
 import com.rabbitmq.client.AMQP.BasicProperties;
@@ -44,13 +43,15 @@ public class FileLoader {
 	
 	private final Channel channel;
 	private final MongoDbMapper mapper;
-	private final MinioStore minio;
+	private final ObjectStore minio;
 	private final List<String> requriedHashes;
 	private final QueueConfiguration queueConfig;
 	
 	private FileToQueueVistor fileToQueueVistor;
 	private final AtomicBoolean walking;
 	private final FileLoaderConfiguration fileLoaderConfig;
+	private final boolean sharedFileSystem;
+	private final int uploadWindow;
 	
 	public static enum Command {
 		/**
@@ -66,14 +67,37 @@ public class FileLoader {
 	//TODO get file types from consul
 	
 	public FileLoader(String id, ConnectionProvider connectionProvider, FileLoaderConfiguration fileLoaderConfig,
-			MinioStore minio) throws IOException, TimeoutException, VaultException {
+			ObjectStore minio) throws IOException, TimeoutException, VaultException {
+		this(id, connectionProvider, fileLoaderConfig, minio, false);
+	}
+
+	public FileLoader(String id, ConnectionProvider connectionProvider, FileLoaderConfiguration fileLoaderConfig,
+			ObjectStore minio, boolean sharedFileSystem) throws IOException, TimeoutException, VaultException {
+		this(id, connectionProvider, fileLoaderConfig, minio, sharedFileSystem, 0);
+	}
+
+	/**
+	 * Create a new loader and wait for commands.
+	 * 
+	 * @param id                 of this loader
+	 * @param connectionProvider provides the connections to the services
+	 * @param fileLoaderConfig   configuration with the anchors to load
+	 * @param minio              store to upload images to
+	 * @param sharedFileSystem   if true, images are not uploaded, the workers read them from a shared file system
+	 * @param uploadWindow       if greater than 0, the walk continues while at most this many images are uploaded. If
+	 *                           0, each image is uploaded before the walk continues.
+	 */
+	public FileLoader(String id, ConnectionProvider connectionProvider, FileLoaderConfiguration fileLoaderConfig,
+			ObjectStore minio, boolean sharedFileSystem, int uploadWindow) throws IOException, TimeoutException, VaultException {
 		this.walking = new AtomicBoolean();
 		this.fileLoaderConfig = fileLoaderConfig;
+		this.sharedFileSystem = sharedFileSystem;
+		this.uploadWindow = uploadWindow;
 		
 		ConsulClient consul = connectionProvider.getConsulClient();
 		Connection conn = connectionProvider.getRabbitMQConnectionFactory(RabbitMqRole.file_loader).newConnection();
 		channel = conn.createChannel();
-		queueConfig = new QueueConfiguration(channel);
+		queueConfig = connectionProvider.getQueueConfiguration(channel);
 		
 		mapper = connectionProvider.getMongoDbMapper();
 		this.minio = minio;
@@ -103,47 +127,87 @@ public class FileLoader {
 	public void loadFiles() {
 		Map<String, String> anchors = fileLoaderConfig.anchors();
 		
-		for (Entry<String, String> entry : anchors.entrySet()) {
-			String anchor = entry.getKey();
-			LOGGER.info("Processing loading jobs for {}", anchor);
-			
-			while(true) {
-				if(!walking.get()) {
-					LOGGER.info("File walk interrupted, aborting...");
-					break;
-				}
-				
-				FileLoaderJob job = mapper.getOpenFileLoadJobsForAnchor(anchor);
-				
-				if(Objects.isNull(job)) {
-					break;
-				}
-				LOGGER.info("Working on Job ID {}, {}-{}", job.getJobId(), job.getAnchor(), job.getRelativePath());
-				Path anchorAbsolutePath = Paths.get(anchors.get(anchor), job.getRelativePath());
-				
-				loadFilesForAnchor(anchor, anchorAbsolutePath, Paths.get(anchors.get(anchor)), job.isGenerateThumbnail());
-				job.markCompleted();
-				mapper.storeFileLoadJob(job);
+		while (true) {
+			if (!walking.get()) {
+				LOGGER.info("File walk interrupted, aborting...");
+				break;
 			}
-			
+
+			FileLoaderJob job = mapper.getNextOpenFileLoadJob(anchors.keySet());
+
+			if (Objects.isNull(job)) {
+				break;
+			}
+
+			String anchor = job.getAnchor();
+			LOGGER.info("Working on Job ID {} with priority {}, {}-{}", job.getJobId(), job.getPriority(), anchor, job.getRelativePath());
+			Path anchorAbsolutePath = Paths.get(anchors.get(anchor), job.getRelativePath());
+
+			boolean finished = loadFilesForAnchor(anchor, anchorAbsolutePath, Paths.get(anchors.get(anchor)), job);
+
+			if (!finished) {
+				LOGGER.info("Job ID {} did not finish, it will be resumed later", job.getJobId());
+				continue;
+			}
+
+			job.markCompleted();
+			mapper.storeFileLoadJob(job);
 		}
 		
 		LOGGER.info("Finished processing Jobs, waiting for more work...");
 		walking.set(false);
 	}
 	
-	private void loadFilesForAnchor(String anchor, Path anchorAbsolutePath, Path anchorRootPath, boolean generateThumbnails) {
+	/**
+	 * Walk the path for the job. The walk yields if a job with a higher priority is added in the meantime.
+	 * 
+	 * @return true if the walk finished, false if it was preempted by a job with a higher priority or stopped
+	 */
+	private boolean loadFilesForAnchor(String anchor, Path anchorAbsolutePath, Path anchorRootPath, FileLoaderJob job) {
 		LOGGER.info("Walking {} for anchor {}", anchorRootPath, anchor);
 		
 		fileToQueueVistor = new FileToQueueVistor(channel, anchor, anchorRootPath, mapper, minio, requriedHashes,
 				queueConfig.getExchangeName(ConfiguredExchanges.loader));
-		fileToQueueVistor.setGenerateThumbnails(generateThumbnails);
+		fileToQueueVistor.setGenerateThumbnails(job.isGenerateThumbnail());
+		fileToQueueVistor.setPriority(job.getPriority());
+		fileToQueueVistor.setSharedFileSystem(sharedFileSystem);
+		fileToQueueVistor.setUploadWindow(uploadWindow);
+		fileToQueueVistor.setPreemptionCheck(
+				() -> mapper.hasOpenFileLoadJobAbove(fileLoaderConfig.anchors().keySet(), job.getPriority()));
+
+		if (Objects.nonNull(job.getResumeAfter())) {
+			LOGGER.info("Resuming Job ID {} after {}", job.getJobId(), job.getResumeAfter());
+			fileToQueueVistor.setResumeAfter(Paths.get(job.getResumeAfter()));
+		}
 		
 		try {
 			Files.walkFileTree(anchorAbsolutePath, fileToQueueVistor);
 		} catch (IOException e) {
 			LOGGER.warn("Failed to walk file tree for {}: {}", anchorAbsolutePath, e.getMessage());
 		}
+
+		fileToQueueVistor.awaitUploads();
+
+		if (fileToQueueVistor.isPreempted() || fileToQueueVistor.isTerminated()) {
+			// persist where the walk stopped, so the next walk does not upload and queue the same files again
+			Path resumePoint = fileToQueueVistor.getResumePoint();
+
+			if (Objects.nonNull(resumePoint)) {
+				job.setResumeAfter(resumePoint.toString());
+				mapper.storeFileLoadJob(job);
+			}
+
+			return false;
+		}
+
+		if (fileToQueueVistor.isResumePending()) {
+			LOGGER.warn("Resume point {} of Job ID {} no longer exists, walking the whole path again", job.getResumeAfter(), job.getJobId());
+			job.setResumeAfter(null);
+			mapper.storeFileLoadJob(job);
+			return false;
+		}
+
+		return true;
 	}
 	
 	protected void stopFileWalk() {
@@ -1,13 +1,9 @@
 package com.github.seeker.app;
 
-import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
-import java.awt.image.ColorConvertOp;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collections;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.TimeoutException;
@@ -16,9 +12,6 @@ import java.util.stream.IntStream;
 import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
 
-import org.imgscalr.Scalr;
-import org.imgscalr.Scalr.Method;
-import org.imgscalr.Scalr.Mode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,15 +21,21 @@ import com.github.seeker.configuration.ConsulClient;
 import com.github.seeker.configuration.QueueConfiguration;
 import com.github.seeker.configuration.QueueConfiguration.ConfiguredQueues;
 import com.github.seeker.configuration.RabbitMqRole;
+import com.github.seeker.messaging.MessageProperties;
+import com.github.seeker.messaging.PipelineStage;
+import com.github.seeker.messaging.RetryHandler;
+import com.github.seeker.messaging.VirtualThreadConsumer;
 import com.github.seeker.messaging.proto.DbUpdateOuterClass.DbUpdate;
 import com.github.seeker.messaging.proto.DbUpdateOuterClass.UpdateType;
 import com.github.seeker.messaging.proto.FileLoadOuterClass.FileLoad;
 import com.github.seeker.messaging.proto.ImagePathOuterClass.ImagePath;
+import com.github.seeker.metrics.PipelineMetrics;
 import com.github.seeker.persistence.MinioPersistenceException;
-import com.github.seeker.persistence.MinioStore;
+import com.github.seeker.persistence.ObjectStore;
+import com.github.seeker.processor.ImageScaler;
+import com.github.seeker.processor.OriginalImageSource;
 import com.orbitz.consul.cache.KVCache;
 import com.orbitz.consul.model.kv.Value;
-import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
@@ -52,30 +51,70 @@ public class ImageResizer {
 
 	private final Connection rabbitMqConnection;
 	private final QueueConfiguration queueConfig;
-	private final MinioStore minio;
+	private final ObjectStore minio;
+	private final OriginalImageSource originals;
 	private final ConsulClient consul;
+	private final int virtualThreadLimit;
 	
-	public ImageResizer(Connection channel, ConsulClient consul, QueueConfiguration queueConfig, MinioStore minio)
+	public ImageResizer(Connection channel, ConsulClient consul, QueueConfiguration queueConfig, ObjectStore minio)
+			throws IOException, TimeoutException, InterruptedException {
+		this(channel, consul, queueConfig, minio, 0);
+	}
+
+	/**
+	 * Create a new resizer and start consuming messages.
+	 * 
+	 * @param channel            connection to the message broker
+	 * @param consul             client for the configuration
+	 * @param queueConfig        the queue configuration to use
+	 * @param minio              store to read and write images
+	 * @param virtualThreadLimit if greater than 0, messages are processed on virtual threads with at most this many
+	 *                           messages in flight. If 0, one channel per processor is used.
+	 */
+	public ImageResizer(Connection channel, ConsulClient consul, QueueConfiguration queueConfig, ObjectStore minio, int virtualThreadLimit)
 			throws IOException, TimeoutException, InterruptedException {
 		LOGGER.info("{} starting up...", ImageResizer.class.getSimpleName());
 		
 		this.rabbitMqConnection = channel;
 		this.queueConfig = queueConfig;
 		this.minio = minio;
+		this.originals = new OriginalImageSource(minio);
 		this.consul = consul;
+		this.virtualThreadLimit = virtualThreadLimit;
 
 		processFiles();
 	}
 	
-	public ImageResizer(ConnectionProvider connectionProvider, MinioStore minio)
+	public ImageResizer(ConnectionProvider connectionProvider, ObjectStore minio)
+			throws IOException, TimeoutException, InterruptedException, VaultException {
+		this(connectionProvider, minio, 0);
+	}
+
+	public ImageResizer(ConnectionProvider connectionProvider, ObjectStore minio, int virtualThreadLimit)
+			throws IOException, TimeoutException, InterruptedException, VaultException {
+		this(connectionProvider, minio, new OriginalImageSource(minio), virtualThreadLimit);
+	}
+
+	/**
+	 * Create a new resizer and start consuming messages.
+	 * 
+	 * @param connectionProvider provides the connections to the services
+	 * @param minio              store to write thumbnails and pre-processed images
+	 * @param originals          source to read original images from
+	 * @param virtualThreadLimit if greater than 0, messages are processed on virtual threads with at most this many
+	 *                           messages in flight. If 0, one channel per processor is used.
+	 */
+	public ImageResizer(ConnectionProvider connectionProvider, ObjectStore minio, OriginalImageSource originals, int virtualThreadLimit)
 			throws IOException, TimeoutException, InterruptedException, VaultException {
 		LOGGER.info("{} starting up...", ImageResizer.class.getSimpleName());
 		
 		consul = connectionProvider.getConsulClient();
 		rabbitMqConnection = connectionProvider.getRabbitMQConnectionFactory(RabbitMqRole.image_resizer).newConnection();
 		
-		queueConfig = new QueueConfiguration(rabbitMqConnection.createChannel());
+		queueConfig = connectionProvider.getQueueConfiguration(rabbitMqConnection.createChannel());
 		this.minio = minio;
+		this.originals = originals;
+		this.virtualThreadLimit = virtualThreadLimit;
 
 		minio.createBuckets();
 
@@ -83,9 +122,20 @@ public class ImageResizer {
 	}
 
 	public void processFiles() throws IOException, InterruptedException {
+		queueConfig.joinStage(ConfiguredQueues.fileResize);
+		String queueName = queueConfig.getQueueName(ConfiguredQueues.fileResize);
+
+		if (virtualThreadLimit > 0) {
+			LOGGER.info("Starting consumer on queue {} with up to {} messages in flight on virtual threads", queueName, virtualThreadLimit);
+			Channel channel = rabbitMqConnection.createChannel();
+			channel.basicQos(virtualThreadLimit);
+			channel.basicConsume(queueName, new VirtualThreadConsumer(channel,
+					new ImageFileMessageConsumer(channel, consul, queueConfig, minio, originals), virtualThreadLimit));
+			return;
+		}
+
 		int processorCount = Runtime.getRuntime().availableProcessors();
 		LOGGER.info("Starting {} message consumers", processorCount);
-		String queueName = queueConfig.getQueueName(ConfiguredQueues.fileResize);
 		
 		IntStream.range(0, processorCount).forEach(count -> {
 			try {
@@ -93,7 +143,7 @@ public class ImageResizer {
 				channel.basicQos(20);
 				LOGGER.info("Starting consumer on queue {}", queueName);
 				channel.basicConsume(queueName,
-						new ImageFileMessageConsumer(channel, consul, queueConfig, minio));
+						new ImageFileMessageConsumer(channel, consul, queueConfig, minio, originals));
 			} catch (IOException e) {
 				// TODO send message
 				LOGGER.warn("Failed to start consumer: {}", e);
@@ -105,29 +155,22 @@ public class ImageResizer {
 
 class ImageFileMessageConsumer extends DefaultConsumer {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MessageDigestHashConsumer.class);
+	private static final String THUMBNAIL_SIZE_KV_PATH = "config/general/thumbnail-size";
 
-	//TODO store in custom preprocessor class
-	private static final int IMAGE_SIZE = 32; 
-	
 	private int thumbnailSize;
 	private final QueueConfiguration queueConfig;
-	private final MinioStore minio;
+	private final ObjectStore minio;
+	private final OriginalImageSource originals;
+	private final RetryHandler retryHandler;
+	private final PipelineMetrics metrics;
 	
 	public ImageFileMessageConsumer(Channel channel, ConsulClient consul, QueueConfiguration queueConfig,
-			MinioStore minio) {
-		super(channel);
-		
-		this.queueConfig = queueConfig;
-		this.minio = minio;
-		
-		final String thumbnailSizeKVpath = "config/general/thumbnail-size";
-
-		this.thumbnailSize = (int) consul.getKvAsLong(thumbnailSizeKVpath);
-		LOGGER.info("Set thumbnail size to {}", thumbnailSize);
+			ObjectStore minio, OriginalImageSource originals) {
+		this(channel, (int) consul.getKvAsLong(THUMBNAIL_SIZE_KV_PATH), queueConfig, minio, originals);
 
-		KVCache rateLimitCache = consul.getKVCache(thumbnailSizeKVpath);
+		KVCache rateLimitCache = consul.getKVCache(THUMBNAIL_SIZE_KV_PATH);
 		rateLimitCache.addListener(newValues -> {
-			Optional<Value> newValue = newValues.values().stream().filter(value -> value.getKey().equals(thumbnailSizeKVpath)).findAny();
+			Optional<Value> newValue = newValues.values().stream().filter(value -> value.getKey().equals(THUMBNAIL_SIZE_KV_PATH)).findAny();
 
 			newValue.ifPresent(value -> {
 				Optional<String> decodedThumbSize = newValue.get().getValueAsString();
@@ -139,6 +182,28 @@ class ImageFileMessageConsumer extends DefaultConsumer {
 		});
 
 		rateLimitCache.start();
+	}
+
+	/**
+	 * Create a consumer with a fixed thumbnail size, that does not listen for configuration changes.
+	 * 
+	 * @param channel       the channel to consume from
+	 * @param thumbnailSize the maximum size of generated thumbnails
+	 * @param queueConfig   the queue configuration to use
+	 * @param minio         store for thumbnails and pre-processed images
+	 * @param originals     source to read original images from
+	 */
+	public ImageFileMessageConsumer(Channel channel, int thumbnailSize, QueueConfiguration queueConfig, ObjectStore minio,
+			OriginalImageSource originals) {
+		super(channel);
+
+		this.queueConfig = queueConfig;
+		this.minio = minio;
+		this.originals = originals;
+		this.retryHandler = new RetryHandler(queueConfig);
+		this.metrics = new PipelineMetrics("resizer");
+		this.thumbnailSize = thumbnailSize;
+		LOGGER.info("Set thumbnail size to {}", thumbnailSize);
 
 		ImageIO.setUseCache(false);
 	}
@@ -151,30 +216,68 @@ class ImageFileMessageConsumer extends DefaultConsumer {
 		String anchor = imagePath.getAnchor();
 		String relativePath = imagePath.getRelativePath();
 		
-		UUID imageId = UUID.fromString(message.getImageId());
+		long started = System.nanoTime();
+		byte[] imageData;
 		BufferedImage originalImage;
 		
-		try (InputStream is = getImageFromBucket(imageId)) {
-			originalImage = ImageIO.read(is);
+		try (InputStream is = originals.open(message)) {
+			imageData = is.readAllBytes();
+		} catch (IOException e) {
+			LOGGER.warn("Failed to read image {} - {}, will retry: {}", anchor, relativePath, e.getMessage());
+			metrics.getMessagesFailed().increment();
+			retryHandler.retry(getChannel(), ConfiguredQueues.fileResize, envelope, properties, body);
+			return;
+		}
+
+		metrics.getStorageReadTime().recordSince(started);
+		metrics.getImageSize().record(imageData.length);
+		long decodeStarted = System.nanoTime();
+
+		try {
+			originalImage = ImageIO.read(new ByteArrayInputStream(imageData));
 		} catch (IOException | IllegalArgumentException e) {
-			LOGGER.warn("Failed to read image {} - {}: {}", anchor, relativePath,e.getMessage());
-			getChannel().basicAck(envelope.getDeliveryTag(), false);
+			LOGGER.warn("Failed to decode image {} - {}: {}", anchor, relativePath, e.getMessage());
+			metrics.getMessagesFailed().increment();
+			getChannel().basicNack(envelope.getDeliveryTag(), false, false);
 			return;
 		}
 		
 		if (originalImage == null) {
 			//TODO send an error message
 			LOGGER.warn("Was unable to read image data for {} - {} ", anchor, relativePath);
-			getChannel().basicAck(envelope.getDeliveryTag(), false);
+			metrics.getMessagesFailed().increment();
+			getChannel().basicNack(envelope.getDeliveryTag(), false, false);
 			return;
 		}
+
+		metrics.getDecodeTime().recordSince(decodeStarted);
+
+		try {
+			processImage(message, originalImage, properties);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to store results for {} - {}, will retry: {}", anchor, relativePath, e.getMessage());
+			metrics.getMessagesFailed().increment();
+			retryHandler.retry(getChannel(), ConfiguredQueues.fileResize, envelope, properties, body);
+			return;
+		} finally {
+			originalImage.flush();
+		}
+
+		getChannel().basicAck(envelope.getDeliveryTag(), false);
+		metrics.getMessagesProcessed().increment();
+		metrics.getProcessingTime().recordSince(started);
+	}
+
+	private void processImage(FileLoad message, BufferedImage originalImage, BasicProperties properties) throws IOException {
+		ImagePath imagePath = message.getImagePath();
+
+		String anchor = imagePath.getAnchor();
+		String relativePath = imagePath.getRelativePath();
 		
 		if (message.getRecreateThumbnail()) {
 			LOGGER.debug("Recreating thumbnail for {} - {} with size {}", anchor, relativePath, thumbnailSize);
 			try {
-				createThumbnail(message, originalImage);
-				getChannel().basicAck(envelope.getDeliveryTag(), false);
-				return;
+				createThumbnail(message, originalImage, properties);
 			} catch (IllegalArgumentException iae) {
 				// TODO send a error message
 				LOGGER.warn("Failed to create thumbnail due to {}", iae);
@@ -183,14 +286,13 @@ class ImageFileMessageConsumer extends DefaultConsumer {
 				LOGGER.warn("Failed to create thumbnail for {}-{} due to an image error}", anchor, relativePath, iioe);
 			}
 
-			getChannel().basicAck(envelope.getDeliveryTag(), false);
 			return;
 		}
 		
 		if (message.getGenerateThumbnail()) {
 			LOGGER.debug("{}:{} does not have a thumbnail, creating...", anchor, relativePath);
 			try {
-				createThumbnail(message, originalImage);
+				createThumbnail(message, originalImage, properties);
 			} catch (IllegalArgumentException iae) {
 				//TODO send a error message
 				LOGGER.warn("Failed to create thumbnail due to {}", iae);
@@ -202,34 +304,23 @@ class ImageFileMessageConsumer extends DefaultConsumer {
 			LOGGER.debug("{}:{} already has a thumbnail, skipping...", anchor, relativePath);
 		}
 		
-		preProcessImage(message, originalImage);
-		
-		originalImage.flush();
+		preProcessImage(message, originalImage, properties);
 
 		LOGGER.debug("Consumed message for {}:{}", anchor, relativePath);
-		
-		getChannel().basicAck(envelope.getDeliveryTag(), false);
 	}
 
-	private InputStream getImageFromBucket(UUID imageId) throws IOException {
-		try {
-			return minio.getImage(imageId);
-		} catch (IllegalArgumentException | MinioPersistenceException e) {
-			throw new IOException("Failed to load image " + imageId.toString() + " :", e);
-		}
-	}
-
-	private void createThumbnail(FileLoad message, BufferedImage originalImage) throws IOException {
+	private void createThumbnail(FileLoad message, BufferedImage originalImage, BasicProperties properties) throws IOException {
 		int currentThumbnailSize = this.thumbnailSize;
 
-		BufferedImage thumbnail = Scalr.resize(originalImage, Method.BALANCED, currentThumbnailSize);
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(307200);
-		ImageIO.write(thumbnail, "jpg", baos);
+		BufferedImage thumbnail = ImageScaler.createThumbnail(originalImage, currentThumbnailSize);
+		byte[] encodedThumbnail = ImageScaler.toJpeg(thumbnail);
 		thumbnail.flush();
 		
 		try {
+			long storeStarted = System.nanoTime();
 			// TODO need to store metadata?
-			minio.storeThumbnail(UUID.fromString(message.getImageId()), new ByteArrayInputStream(baos.toByteArray()));
+			minio.storeThumbnail(UUID.fromString(message.getImageId()), new ByteArrayInputStream(encodedThumbnail));
+			metrics.getStorageWriteTime().recordSince(storeStarted);
 		} catch (IllegalArgumentException | MinioPersistenceException e) {
 			throw new IOException("Failed to store thumbnail due to:", e);
 		}
@@ -239,28 +330,24 @@ class ImageFileMessageConsumer extends DefaultConsumer {
 		builder.setUpdateType(UpdateType.UPDATE_TYPE_THUMBNAIL);
 		builder.setThumbnailSize(currentThumbnailSize);
 		
-		getChannel().basicPublish("", queueConfig.getQueueName(ConfiguredQueues.persistence), emptyHeader(), builder.build().toByteArray());
+		getChannel().basicPublish("", queueConfig.getQueueName(ConfiguredQueues.persistence), MessageProperties.inherit(properties, PipelineStage.RESIZER), builder.build().toByteArray());
 	}
 	
-	private void preProcessImage(FileLoad message, BufferedImage originalImage) throws IOException {
-		BufferedImage grayscaleImage = Scalr.resize(originalImage, Method.SPEED, Mode.FIT_EXACT, IMAGE_SIZE,
-				new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null));
-
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(307200);
-
-		ImageIO.write(grayscaleImage, "jpg", baos);
+	private void preProcessImage(FileLoad message, BufferedImage originalImage, BasicProperties properties) throws IOException {
+		BufferedImage grayscaleImage = ImageScaler.createPreProcessed(originalImage);
+		byte[] encodedImage = ImageScaler.toJpeg(grayscaleImage);
 		grayscaleImage.flush();
 
 		try {
-			minio.storePreProcessedImage(UUID.fromString(message.getImageId()), new ByteArrayInputStream(baos.toByteArray()));
+			long storeStarted = System.nanoTime();
+			minio.storePreProcessedImage(UUID.fromString(message.getImageId()), new ByteArrayInputStream(encodedImage));
+			metrics.getStorageWriteTime().recordSince(storeStarted);
 		} catch (IllegalArgumentException | MinioPersistenceException e) {
 			throw new IOException("Failed to store preprocessed image due to:", e);
 		}
 
-		getChannel().basicPublish("", queueConfig.getQueueName(ConfiguredQueues.filePreProcessed), emptyHeader(), message.toByteArray());
-	}
-
-	private BasicProperties emptyHeader() {
-		return new AMQP.BasicProperties.Builder().headers(Collections.emptyMap()).build();
+		getChannel().basicPublish(queueConfig.getPublishExchange(ConfiguredQueues.filePreProcessed),
+				queueConfig.getPublishRoutingKey(ConfiguredQueues.filePreProcessed), MessageProperties.inherit(properties, PipelineStage.RESIZER),
+				message.toByteArray());
 	}
 }
\ No newline at end of file
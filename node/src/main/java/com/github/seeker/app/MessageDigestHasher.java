@@ -3,9 +3,7 @@ package com.github.seeker.app;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.List;
-import java.util.UUID;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.IntStream;
 
@@ -18,12 +16,19 @@ import com.github.seeker.configuration.ConsulClient;
 import com.github.seeker.configuration.QueueConfiguration;
 import com.github.seeker.configuration.QueueConfiguration.ConfiguredQueues;
 import com.github.seeker.configuration.RabbitMqRole;
+import com.github.seeker.messaging.MessageProperties;
+import com.github.seeker.messaging.PipelineStage;
+import com.github.seeker.messaging.RetryHandler;
+import com.github.seeker.messaging.VirtualThreadConsumer;
 import com.github.seeker.messaging.proto.DbUpdateOuterClass.DbUpdate;
 import com.github.seeker.messaging.proto.DbUpdateOuterClass.UpdateType;
 import com.github.seeker.messaging.proto.FileLoadOuterClass.FileLoad;
 import com.github.seeker.messaging.proto.ImagePathOuterClass.ImagePath;
-import com.github.seeker.persistence.MinioPersistenceException;
-import com.github.seeker.persistence.MinioStore;
+import com.github.seeker.metrics.MetricsRegistry;
+import com.github.seeker.metrics.PipelineMetrics;
+import com.github.seeker.persistence.ObjectStore;
+import com.github.seeker.processor.ImageDigester;
+import com.github.seeker.processor.OriginalImageSource;
 import com.google.protobuf.ByteString;
 import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
@@ -39,38 +44,93 @@ public class MessageDigestHasher {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MessageDigestHasher.class);
 
 	private final Connection rabbitMqConnection;
-	private final MinioStore minio;
+	private final OriginalImageSource originals;
 	private final QueueConfiguration queueConfig;
+	private final int virtualThreadLimit;
 	
-	public MessageDigestHasher(Connection rabbitMqConnection, ConsulClient consul, MinioStore minio,
+	public MessageDigestHasher(Connection rabbitMqConnection, ConsulClient consul, ObjectStore minio,
 			QueueConfiguration queueConfig)
 			throws IOException, TimeoutException, InterruptedException {
+		this(rabbitMqConnection, consul, minio, queueConfig, 0);
+	}
+
+	/**
+	 * Create a new hasher and start consuming messages.
+	 * 
+	 * @param rabbitMqConnection connection to the message broker
+	 * @param consul             client for the configuration
+	 * @param minio              store to read images from
+	 * @param queueConfig        the queue configuration to use
+	 * @param virtualThreadLimit if greater than 0, messages are processed on virtual threads with at most this many
+	 *                           messages in flight. If 0, one channel per processor is used.
+	 */
+	public MessageDigestHasher(Connection rabbitMqConnection, ConsulClient consul, ObjectStore minio,
+			QueueConfiguration queueConfig, int virtualThreadLimit)
+			throws IOException, TimeoutException, InterruptedException {
+		this(rabbitMqConnection, consul, new OriginalImageSource(minio), queueConfig, virtualThreadLimit);
+	}
+
+	/**
+	 * Create a new hasher and start consuming messages.
+	 * 
+	 * @param rabbitMqConnection connection to the message broker
+	 * @param consul             client for the configuration
+	 * @param originals          source to read original images from
+	 * @param queueConfig        the queue configuration to use
+	 * @param virtualThreadLimit if greater than 0, messages are processed on virtual threads with at most this many
+	 *                           messages in flight. If 0, one channel per processor is used.
+	 */
+	public MessageDigestHasher(Connection rabbitMqConnection, ConsulClient consul, OriginalImageSource originals,
+			QueueConfiguration queueConfig, int virtualThreadLimit)
+			throws IOException, TimeoutException, InterruptedException {
 		LOGGER.info("{} starting up...", MessageDigestHasher.class.getSimpleName());
 		
 		this.rabbitMqConnection = rabbitMqConnection;
-		this.minio = minio;
+		this.originals = originals;
 		this.queueConfig = queueConfig;
+		this.virtualThreadLimit = virtualThreadLimit;
 		
 		processFiles();
 	}
 	
-	public MessageDigestHasher(ConnectionProvider connectionProvider, MinioStore minio)
+	public MessageDigestHasher(ConnectionProvider connectionProvider, ObjectStore minio)
+			throws IOException, TimeoutException, InterruptedException, VaultException {
+		this(connectionProvider, minio, 0);
+	}
+
+	public MessageDigestHasher(ConnectionProvider connectionProvider, ObjectStore minio, int virtualThreadLimit)
+			throws IOException, TimeoutException, InterruptedException, VaultException {
+		this(connectionProvider, new OriginalImageSource(minio), virtualThreadLimit);
+	}
+
+	public MessageDigestHasher(ConnectionProvider connectionProvider, OriginalImageSource originals, int virtualThreadLimit)
 			throws IOException, TimeoutException, InterruptedException, VaultException {
 		this(
 				connectionProvider.getRabbitMQConnectionFactory(RabbitMqRole.digest_hasher).newConnection(),
 				connectionProvider.getConsulClient(),
-				minio,
-				new QueueConfiguration(connectionProvider.getRabbitMQConnectionFactory(RabbitMqRole.digest_hasher)
-						.newConnection().createChannel())
+				originals,
+				connectionProvider.getQueueConfiguration(connectionProvider.getRabbitMQConnectionFactory(RabbitMqRole.digest_hasher)
+						.newConnection().createChannel()),
+				virtualThreadLimit
 		);
 	}
 	
 	public void processFiles() throws IOException, InterruptedException {
+		queueConfig.joinStage(ConfiguredQueues.fileDigest);
+		String queueName =  queueConfig.getQueueName(ConfiguredQueues.fileDigest);
+
+		if (virtualThreadLimit > 0) {
+			LOGGER.info("Starting message consumer with up to {} messages in flight on virtual threads", virtualThreadLimit);
+			Channel channel = rabbitMqConnection.createChannel();
+			channel.basicQos(virtualThreadLimit);
+			channel.basicConsume(queueName,
+					new VirtualThreadConsumer(channel, new MessageDigestHashConsumer(channel, originals, queueConfig), virtualThreadLimit));
+			return;
+		}
+
 		int processorCount = Runtime.getRuntime().availableProcessors();
 		LOGGER.info("System has {} processors", processorCount);
 		
-		String queueName =  queueConfig.getQueueName(ConfiguredQueues.fileDigest);
-		
 		LOGGER.info("Starting {} message consumers...", processorCount);
 		IntStream.range(0, processorCount).forEach(counter -> {
 			try {
@@ -87,7 +147,7 @@ public class MessageDigestHasher {
 	
 	private void createMessageConsumer(String queueName) throws IOException {
 		Channel channel = createChannel();
-		channel.basicConsume(queueName, new MessageDigestHashConsumer(channel, minio, queueConfig));
+		channel.basicConsume(queueName, new MessageDigestHashConsumer(channel, originals, queueConfig));
 	}
 
 	private Channel createChannel() throws IOException {
@@ -101,13 +161,17 @@ public class MessageDigestHasher {
 class MessageDigestHashConsumer extends DefaultConsumer {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MessageDigestHashConsumer.class);
 
-	private final MinioStore minio;
+	private final OriginalImageSource originals;
 	private final QueueConfiguration queueConfig;
+	private final RetryHandler retryHandler;
+	private final PipelineMetrics metrics;
 	
-	public MessageDigestHashConsumer(Channel channel, MinioStore minio, QueueConfiguration queueConfig) {
+	public MessageDigestHashConsumer(Channel channel, OriginalImageSource originals, QueueConfiguration queueConfig) {
 		super(channel);
-		this.minio = minio;
+		this.originals = originals;
 		this.queueConfig = queueConfig;
+		this.retryHandler = new RetryHandler(queueConfig);
+		this.metrics = new PipelineMetrics("digest");
 	}
 
 	@Override
@@ -134,34 +198,49 @@ class MessageDigestHashConsumer extends DefaultConsumer {
 		
 		LOGGER.debug("File {}:{} hash request for algorithms: {}", anchor, relativePath, hashes);
 
+		long started = System.nanoTime();
 		// TODO use InputStream with Memory Digest for more memory efficient processing
-		byte[] image = readImage(UUID.fromString(message.getImageId()));
+		byte[] image;
+
+		try {
+			image = readImage(message);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to read image {}:{}, will retry: {}", anchor, relativePath, e.getMessage());
+			metrics.getMessagesFailed().increment();
+			retryHandler.retry(getChannel(), ConfiguredQueues.fileDigest, envelope, properties, body);
+			return;
+		}
+
+		metrics.getStorageReadTime().recordSince(started);
+		metrics.getImageSize().record(image.length);
 
 		DbUpdate.Builder builder = DbUpdate.newBuilder();
 		builder.getImagePathBuilder().mergeFrom(imagePath);
 		builder.setUpdateType(UpdateType.UPDATE_TYPE_HASH);
 
 		for (String hash : hashes) {
-			try {
-				MessageDigest md = MessageDigest.getInstance(hash);
-				builder.putHash(hash, ByteString.copyFrom(md.digest(image)));
-			} catch (NoSuchAlgorithmException e) {
-				// TODO send a error message back
-				e.printStackTrace();
+			long hashStarted = System.nanoTime();
+			byte[] digest = ImageDigester.digest(image, hash);
+
+			if (digest != null) {
+				builder.putHash(hash, ByteString.copyFrom(digest));
+				MetricsRegistry.global().timer("si2_digest_milliseconds", "Time to calculate a message digest", "algorithm", hash)
+						.recordSince(hashStarted);
 			}
 		}
 		
-		getChannel().basicPublish("", queueConfig.getQueueName(ConfiguredQueues.persistence), null, builder.build().toByteArray());
+		getChannel().basicPublish("", queueConfig.getQueueName(ConfiguredQueues.persistence), MessageProperties.inherit(properties, PipelineStage.DIGEST), builder.build().toByteArray());
 		getChannel().basicAck(envelope.getDeliveryTag(), false);
+		metrics.getMessagesProcessed().increment();
+		metrics.getProcessingTime().recordSince(started);
 
 		LOGGER.debug("Consumed message for {} - {} > hashes: {}", anchor, relativePath, hashes);
 	}
 
-	private byte[] readImage(UUID imageId) throws IOException {
-		try {
-			InputStream response = minio.getImage(imageId);
+	private byte[] readImage(FileLoad message) throws IOException {
+		try (InputStream response = originals.open(message)) {
 			return response.readAllBytes();
-		} catch (IllegalArgumentException | IOException | MinioPersistenceException e1) {
+		} catch (IllegalArgumentException | IOException e1) {
 
 			throw new IOException("Failed to read object due to: ", e1);
 		}
@@ -0,0 +1,86 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.app;
+
+import com.github.seeker.configuration.QueueConfiguration;
+import com.github.seeker.messaging.TraceAggregator;
+import com.github.seeker.persistence.MongoDbMapper;
+import com.github.seeker.persistence.ObjectStore;
+import com.github.seeker.processor.OriginalImageSource;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+
+/**
+ * Creates the consumers of the pipeline stages without starting a node, e.g. to run the whole pipeline in one process.
+ * All consumers created by one factory share their state, so database consumers on different channels do not overwrite
+ * each other's updates.
+ */
+public class PipelineConsumers {
+	private final QueueConfiguration queueConfig;
+	private final ObjectStore store;
+	private final OriginalImageSource originals;
+	private final MongoDbMapper mapper;
+	private final TraceAggregator traceAggregator;
+	private final DBStore.UpdateLocks updateLocks = new DBStore.UpdateLocks();
+
+	/**
+	 * Create a new factory.
+	 * 
+	 * @param queueConfig     the queue configuration to use
+	 * @param store           store for images, thumbnails and pre-processed images
+	 * @param mapper          to store the metadata
+	 * @param traceAggregator records the traces finished by the database consumers
+	 */
+	public PipelineConsumers(QueueConfiguration queueConfig, ObjectStore store, MongoDbMapper mapper, TraceAggregator traceAggregator) {
+		this.queueConfig = queueConfig;
+		this.store = store;
+		this.originals = new OriginalImageSource(store);
+		this.mapper = mapper;
+		this.traceAggregator = traceAggregator;
+	}
+
+	/**
+	 * Create a consumer that creates thumbnails and pre-processed images. Safe for concurrent deliveries.
+	 * 
+	 * @param channel       to consume from
+	 * @param thumbnailSize the maximum size of generated thumbnails
+	 * @return a new consumer
+	 */
+	public Consumer resizer(Channel channel, int thumbnailSize) {
+		return new ImageFileMessageConsumer(channel, thumbnailSize, queueConfig, store, originals);
+	}
+
+	/**
+	 * Create a consumer that calculates message digests. Safe for concurrent deliveries.
+	 * 
+	 * @param channel to consume from
+	 * @return a new consumer
+	 */
+	public Consumer digest(Channel channel) {
+		return new MessageDigestHashConsumer(channel, originals, queueConfig);
+	}
+
+	/**
+	 * Create a consumer that calculates the custom hashes. It is not safe for concurrent deliveries, as with the custom
+	 * hash node it must process one message at a time.
+	 * 
+	 * @param channel to consume from
+	 * @return a new consumer
+	 */
+	public Consumer customHash(Channel channel) {
+		return new CustomFileMessageConsumer(channel, queueConfig, store);
+	}
+
+	/**
+	 * Create a consumer that stores the results in the database. Safe for concurrent deliveries, all database consumers
+	 * of this factory serialize updates for the same image.
+	 * 
+	 * @param channel to consume from
+	 * @return a new consumer
+	 */
+	public Consumer database(Channel channel) {
+		return new DBStore(channel, mapper, traceAggregator, updateLocks);
+	}
+}
@@ -10,22 +10,31 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BooleanSupplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.seeker.io.ImageFileFilter;
+import com.github.seeker.messaging.MessagePriority;
+import com.github.seeker.messaging.MessageProperties;
+import com.github.seeker.messaging.TraceContext;
 import com.github.seeker.messaging.proto.FileLoadOuterClass.FileLoad;
 import com.github.seeker.messaging.proto.FileLoadOuterClass.FileLoad.Builder;
+import com.github.seeker.metrics.Counter;
+import com.github.seeker.metrics.MetricsRegistry;
+import com.github.seeker.metrics.PipelineMetrics;
 import com.github.seeker.persistence.MinioPersistenceException;
-import com.github.seeker.persistence.MinioStore;
 import com.github.seeker.persistence.MongoDbMapper;
+import com.github.seeker.persistence.ObjectStore;
 import com.github.seeker.persistence.document.Hash;
 import com.github.seeker.persistence.document.ImageMetaData;
-import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
 
 /**
@@ -35,21 +44,35 @@ public class FileToQueueVistor extends SimpleFileVisitor<Path> {
 	private static final Logger LOGGER = LoggerFactory.getLogger(FileToQueueVistor.class);
 
 	private static final String PHASH_CUSTOM_HASH_ALGORITHM_NAME = "phash";
+	private static final int PREEMPTION_CHECK_INTERVAL = 1000;
 	
 	private final ImageFileFilter fileFilter = new ImageFileFilter();
 	private final Channel channel;
 	private final MongoDbMapper mapper;
-	private final MinioStore minio;
+	private final ObjectStore minio;
 	private final List<String> requiredHashes;
 	private final List<String> requiredCustomHashes;
 	private final String fileLoadExchange;
 	private final String anchor;
 	private final Path anchorRootPath;
 	private boolean terminate = false;
+	private boolean preempted = false;
 	private boolean generateThumbnails = true;
+	private boolean sharedFileSystem = false;
+	private int uploadWindow = 0;
+	private Semaphore uploadPermits = new Semaphore(0);
+	private MessagePriority priority = MessagePriority.NORMAL;
+	private BooleanSupplier preemptionCheck = () -> false;
+	private int visitedFiles;
+	private Path resumeAfter;
+	private Path lastVisited;
+	private final PipelineMetrics metrics = new PipelineMetrics("loader");
+	private final Counter filesVisited = MetricsRegistry.global().counter("si2_loader_files_visited_total", "Files visited by the loader");
+	private final Counter filesSkipped = MetricsRegistry.global().counter("si2_loader_files_skipped_total",
+			"Files skipped by the loader, because they are already processed");
 	
 	public FileToQueueVistor(Channel channel, String anchor, Path anchorRootPath, MongoDbMapper mapper,
-			MinioStore minio, List<String> requiredHashes, String fileLoadExchange) {
+			ObjectStore minio, List<String> requiredHashes, String fileLoadExchange) {
 		this.channel = channel;
 		this.mapper = mapper;
 		this.minio = minio;
@@ -78,17 +101,55 @@ public class FileToQueueVistor extends SimpleFileVisitor<Path> {
 		return terminate;
 	}
 
+	/**
+	 * Check if the walk was stopped because work with a higher priority is waiting.
+	 * 
+	 * @return true if the walk was preempted
+	 */
+	public boolean isPreempted() {
+		return preempted;
+	}
+
+	@Override
+	public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+		if (resumeAfter != null && !resumeAfter.startsWith(dir)) {
+			LOGGER.trace("Skipping {}, it does not contain the resume point", dir);
+			return FileVisitResult.SKIP_SUBTREE;
+		}
+
+		return FileVisitResult.CONTINUE;
+	}
+
 	@Override
 	public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
 		if (this.terminate) {
 			LOGGER.info("Terminate flag set, terminating file walk...");
 			return FileVisitResult.TERMINATE;
 		}
+
+		if (resumeAfter != null) {
+			if (resumeAfter.equals(file)) {
+				LOGGER.info("Reached resume point {}, continuing file walk", file);
+				resumeAfter = null;
+			}
+
+			return FileVisitResult.CONTINUE;
+		}
+
+		visitedFiles++;
+		filesVisited.increment();
+
+		if (visitedFiles % PREEMPTION_CHECK_INTERVAL == 0 && preemptionCheck.getAsBoolean()) {
+			LOGGER.info("Work with a higher priority than {} is waiting, pausing file walk...", priority);
+			preempted = true;
+			return FileVisitResult.TERMINATE;
+		}
 		
 		if(fileFilter.accept(file)) {
 			try {
 				loadFileIntoQueue(file, attrs);
 			} catch (Exception e) {
+				metrics.getMessagesFailed().increment();
 				LOGGER.warn("Failed to process {}: {}", file, e.getMessage());
 				e.printStackTrace();
 			}
@@ -96,6 +157,7 @@ public class FileToQueueVistor extends SimpleFileVisitor<Path> {
 			LOGGER.trace("Skipping {}", file);
 		}
 
+		lastVisited = file;
 		return FileVisitResult.CONTINUE;
 	}
 	
@@ -106,10 +168,13 @@ public class FileToQueueVistor extends SimpleFileVisitor<Path> {
 	}
 	
 	private void loadFileIntoQueue(Path file, BasicFileAttributes attrs) throws IOException {
+		long started = System.nanoTime();
+		long startedMillis = System.currentTimeMillis();
 		Path relativeToAnchor = anchorRootPath.relativize(file);
 		
 		LOGGER.trace("Fetching meta data for {} {}", anchor, relativeToAnchor);
 		ImageMetaData meta = mapper.getImageMetadata(anchor, relativeToAnchor);
+		metrics.getDatabaseReadTime().recordSince(started);
 		
 		if(meta == null) {
 			meta = new ImageMetaData();
@@ -118,7 +183,10 @@ public class FileToQueueVistor extends SimpleFileVisitor<Path> {
 			meta.setPath(relativeToAnchor.toString());
 			meta.setFileSize(attrs.size());
 			meta.setHashes(new HashMap<String, Hash>());
-			mapper.storeDocument(meta);
+			long writeStarted = System.nanoTime();
+			// another loader may have created the entry since it was read
+			meta = mapper.storeIfAbsent(meta);
+			metrics.getDatabaseWriteTime().recordSince(writeStarted);
 		}
 		
 		List<String> missingHashes = new ArrayList<String>();
@@ -140,23 +208,93 @@ public class FileToQueueVistor extends SimpleFileVisitor<Path> {
 		
 		if(missingHashes.isEmpty() && missingCustomHashes.isEmpty() && meta.hasThumbnail()) {
 			LOGGER.debug("Nothing to do for {}:{}, skipping message", anchor, relativeToAnchor);
+			filesSkipped.increment();
 			return;
 		}
 		
-		try {
-			minio.storeImage(file, meta.getImageId());
+		metrics.getImageSize().record(attrs.size());
+
+		Builder fileLoad = FileLoad.newBuilder().addAllMissingHash(missingHashes).addAllMissingCustomHash(missingCustomHashes)
+				.setGenerateThumbnail(Boolean.logicalAnd(generateThumbnails, !meta.hasThumbnail())).setImageId(meta.getImageId().toString())
+				.setSharedFilesystem(sharedFileSystem);
+		fileLoad.getImagePathBuilder().setAnchor(anchor).setRelativePath(relativeToAnchor.toString());
+		FileLoad message = fileLoad.build();
+		BasicProperties properties = TraceContext.start(MessageProperties.forPriority(priority), message.getImageId(), startedMillis,
+				TraceContext.expectedUpdates(message));
+
+		if (!sharedFileSystem && uploadWindow > 0) {
+			uploadAndPublish(file, meta.getImageId(), message, properties, started);
+			return;
+		}
 
-			Builder fileLoad = FileLoad.newBuilder().addAllMissingHash(missingHashes).addAllMissingCustomHash(missingCustomHashes)
-					.setGenerateThumbnail(Boolean.logicalAnd(generateThumbnails, !meta.hasThumbnail())).setImageId(meta.getImageId().toString());
-			fileLoad.getImagePathBuilder().setAnchor(anchor).setRelativePath(relativeToAnchor.toString());
-			FileLoad message = fileLoad.build();
+		try {
+			if (!sharedFileSystem) {
+				long uploadStarted = System.nanoTime();
+				minio.storeImage(file, meta.getImageId());
+				metrics.getStorageWriteTime().recordSince(uploadStarted);
+			}
 
-			channel.basicPublish(fileLoadExchange, "", new AMQP.BasicProperties.Builder().headers(Collections.emptyMap()).build(), message.toByteArray());
+			publish(message, properties, started);
 		} catch (IllegalArgumentException | IOException | MinioPersistenceException e) {
+			metrics.getMessagesFailed().increment();
 			LOGGER.error("Failed to upload image {} due to error {}", file, e.getMessage());
 		}
 	}
 
+	/**
+	 * Start the upload and publish the message once it completes, so the walk can continue while the upload is in
+	 * progress. Blocks if the upload window is full.
+	 */
+	private void uploadAndPublish(Path file, UUID imageId, FileLoad message, BasicProperties properties, long started) throws IOException {
+		try {
+			uploadPermits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for an upload to complete", e);
+		}
+
+		long uploadStarted = System.nanoTime();
+
+		minio.storeImageAsync(file, imageId).whenComplete((ignored, error) -> {
+			try {
+				if (error != null) {
+					Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+					metrics.getMessagesFailed().increment();
+					LOGGER.error("Failed to upload image {} due to error {}", file, cause.getMessage());
+					return;
+				}
+
+				metrics.getStorageWriteTime().recordSince(uploadStarted);
+				publish(message, properties, started);
+			} catch (IOException e) {
+				metrics.getMessagesFailed().increment();
+				LOGGER.error("Failed to queue image {} due to error {}", file, e.getMessage());
+			} finally {
+				uploadPermits.release();
+			}
+		});
+	}
+
+	/**
+	 * Uploads complete on other threads, and channels must not be used for publishing concurrently.
+	 */
+	private void publish(FileLoad message, BasicProperties properties, long started) throws IOException {
+		synchronized (channel) {
+			channel.basicPublish(fileLoadExchange, "", properties, message.toByteArray());
+		}
+
+		metrics.getMessagesProcessed().increment();
+		metrics.getProcessingTime().recordSince(started);
+	}
+
+	/**
+	 * Wait until all uploads that are in progress have completed and their messages are published.
+	 */
+	public void awaitUploads() {
+		uploadPermits.acquireUninterruptibly(uploadWindow);
+		uploadPermits.release(uploadWindow);
+	}
+
 	/**
 	 * Should thumbnails be generated for found images?
 	 * 
@@ -174,4 +312,106 @@ public class FileToQueueVistor extends SimpleFileVisitor<Path> {
 	public void setGenerateThumbnails(boolean generateThumbnails) {
 		this.generateThumbnails = generateThumbnails;
 	}
+
+	/**
+	 * Are the workers reading the images in place from a shared file system?
+	 * 
+	 * @return true if images are not uploaded to the object store
+	 */
+	public boolean isSharedFileSystem() {
+		return sharedFileSystem;
+	}
+
+	/**
+	 * Set if the workers can read the images in place from a shared file system. If set, the images are not uploaded to
+	 * the object store and the workers resolve the path using their own anchor configuration.
+	 * 
+	 * @param sharedFileSystem if set to true, images are not uploaded
+	 */
+	public void setSharedFileSystem(boolean sharedFileSystem) {
+		this.sharedFileSystem = sharedFileSystem;
+	}
+
+	/**
+	 * Get the maximum number of uploads in progress at the same time.
+	 * 
+	 * @return the upload window, 0 if images are uploaded before the walk continues
+	 */
+	public int getUploadWindow() {
+		return uploadWindow;
+	}
+
+	/**
+	 * Set the maximum number of uploads in progress at the same time. If greater than 0, the walk continues while
+	 * images are uploaded and the message for an image is published once its upload completes. Call
+	 * {@link #awaitUploads()} after the walk. Must not be changed during a walk.
+	 * 
+	 * @param uploadWindow the maximum number of uploads in progress, 0 to upload before the walk continues
+	 */
+	public void setUploadWindow(int uploadWindow) {
+		if (uploadWindow < 0) {
+			throw new IllegalArgumentException("The upload window cannot be negative");
+		}
+
+		this.uploadWindow = uploadWindow;
+		this.uploadPermits = new Semaphore(uploadWindow);
+	}
+
+	/**
+	 * Get the priority of the messages sent by this visitor.
+	 * 
+	 * @return the message priority
+	 */
+	public MessagePriority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Set the priority of the messages sent by this visitor.
+	 * 
+	 * @param priority the message priority
+	 */
+	public void setPriority(MessagePriority priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * Skip all files up to and including the given file, to resume a walk that was preempted or stopped. Directories
+	 * that do not contain the file are not walked. Must be set before the walk.
+	 * 
+	 * @param resumeAfter the last file visited by the previous walk, relative to the anchor, or null to visit all files
+	 */
+	public void setResumeAfter(Path resumeAfter) {
+		this.resumeAfter = resumeAfter == null ? null : anchorRootPath.resolve(resumeAfter);
+	}
+
+	/**
+	 * Check if the walk did not reach the resume point, e.g. because the file was deleted. No files were queued in
+	 * that case.
+	 * 
+	 * @return true if the resume point was not found
+	 */
+	public boolean isResumePending() {
+		return resumeAfter != null;
+	}
+
+	/**
+	 * Get the point to resume the walk from, after it was preempted or terminated. All files up to and including this
+	 * file were queued, or their uploads are in progress until {@link #awaitUploads()} returns.
+	 * 
+	 * @return the last visited file relative to the anchor, or null if no file was visited
+	 */
+	public Path getResumePoint() {
+		return lastVisited == null ? null : anchorRootPath.relativize(lastVisited);
+	}
+
+	/**
+	 * Set a check that is called periodically during the walk. If the check returns true, the walk is terminated and
+	 * marked as preempted.
+	 * 
+	 * @param preemptionCheck returns true if the walk should yield to other work
+	 */
+	public void setPreemptionCheck(BooleanSupplier preemptionCheck) {
+		this.preemptionCheck = preemptionCheck;
+	}
 }
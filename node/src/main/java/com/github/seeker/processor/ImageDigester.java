@@ -0,0 +1,61 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.processor;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calculates multiple message digests for image data.
+ */
+public final class ImageDigester {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ImageDigester.class);
+
+	private ImageDigester() {
+	}
+
+	/**
+	 * Calculate the digests for the given algorithms. Unknown algorithms are logged and skipped.
+	 * 
+	 * @param data       to digest
+	 * @param algorithms names of the {@link MessageDigest} algorithms
+	 * @return the digests by algorithm, in the order of the algorithms
+	 */
+	public static Map<String, byte[]> digest(byte[] data, List<String> algorithms) {
+		Map<String, byte[]> digests = new LinkedHashMap<String, byte[]>();
+
+		for (String algorithm : algorithms) {
+			byte[] digest = digest(data, algorithm);
+
+			if (digest != null) {
+				digests.put(algorithm, digest);
+			}
+		}
+
+		return digests;
+	}
+
+	/**
+	 * Calculate the digest for a single algorithm. Unknown algorithms are logged.
+	 * 
+	 * @param data      to digest
+	 * @param algorithm name of the {@link MessageDigest} algorithm
+	 * @return the digest, or null if the algorithm is unknown
+	 */
+	public static byte[] digest(byte[] data, String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm).digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			LOGGER.warn("Unknown message digest algorithm {}", algorithm);
+			return null;
+		}
+	}
+}
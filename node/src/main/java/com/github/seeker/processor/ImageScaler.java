@@ -0,0 +1,64 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.processor;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.imgscalr.Scalr;
+import org.imgscalr.Scalr.Method;
+import org.imgscalr.Scalr.Mode;
+
+/**
+ * Creates the thumbnails and pre-processed images from original images.
+ */
+public final class ImageScaler {
+	private static final int JPEG_BUFFER_SIZE = 307200;
+
+	private ImageScaler() {
+	}
+
+	/**
+	 * Create a thumbnail that fits into a square of the given size.
+	 * 
+	 * @param originalImage to create the thumbnail from
+	 * @param thumbnailSize maximum width and height of the thumbnail
+	 * @return the thumbnail
+	 */
+	public static BufferedImage createThumbnail(BufferedImage originalImage, int thumbnailSize) {
+		return Scalr.resize(originalImage, Method.BALANCED, thumbnailSize);
+	}
+
+	/**
+	 * Create the grayscale image used for calculating the perceptual hash.
+	 * 
+	 * @param originalImage to pre-process
+	 * @return a grayscale image of {@value PerceptualHasher#IMAGE_SIZE} by {@value PerceptualHasher#IMAGE_SIZE}
+	 *         pixels
+	 */
+	public static BufferedImage createPreProcessed(BufferedImage originalImage) {
+		return Scalr.resize(originalImage, Method.SPEED, Mode.FIT_EXACT, PerceptualHasher.IMAGE_SIZE,
+				new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null));
+	}
+
+	/**
+	 * Encode the image as JPEG.
+	 * 
+	 * @param image to encode
+	 * @return the encoded image
+	 * @throws IOException if the image could not be encoded
+	 */
+	public static byte[] toJpeg(BufferedImage image) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(JPEG_BUFFER_SIZE);
+		ImageIO.write(image, "jpg", baos);
+
+		return baos.toByteArray();
+	}
+}
@@ -0,0 +1,91 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.UUID;
+
+import com.github.seeker.configuration.FileLoaderConfiguration;
+import com.github.seeker.messaging.proto.FileLoadOuterClass.FileLoad;
+import com.github.seeker.messaging.proto.ImagePathOuterClass.ImagePath;
+import com.github.seeker.persistence.MinioPersistenceException;
+import com.github.seeker.persistence.ObjectStore;
+
+/**
+ * Opens the original image for a {@link FileLoad} message. If the loader and the workers share a file system, the
+ * original is read in place using the anchor paths of this node. Otherwise it is read from the {@link ObjectStore}.
+ */
+public class OriginalImageSource {
+	private final ObjectStore store;
+	private final Map<String, String> anchors;
+
+	/**
+	 * Create a source that reads all originals from the object store.
+	 *
+	 * @param store to read originals from
+	 */
+	public OriginalImageSource(ObjectStore store) {
+		this(store, Map.of());
+	}
+
+	/**
+	 * Create a source that reads originals on the shared file system in place.
+	 *
+	 * @param store   to read originals from, if they were uploaded
+	 * @param anchors anchor / path pairs as seen by this node, see {@link FileLoaderConfiguration#anchors()}
+	 */
+	public OriginalImageSource(ObjectStore store, Map<String, String> anchors) {
+		this.store = store;
+		this.anchors = anchors;
+	}
+
+	/**
+	 * Open the original image for the message. The caller is responsible for closing the stream.
+	 *
+	 * @param message the message to open the image for
+	 * @return stream of the original image data
+	 * @throws IOException if the image cannot be opened
+	 */
+	public InputStream open(FileLoad message) throws IOException {
+		if (message.getSharedFilesystem()) {
+			return Files.newInputStream(resolve(message.getImagePath()));
+		}
+
+		try {
+			return store.getImage(UUID.fromString(message.getImageId()));
+		} catch (IllegalArgumentException | MinioPersistenceException e) {
+			throw new IOException("Failed to load image " + message.getImageId(), e);
+		}
+	}
+
+	/**
+	 * Resolve the path of an image on the shared file system.
+	 *
+	 * @param imagePath anchor and relative path of the image
+	 * @return the absolute path of the image on this node
+	 * @throws IOException if the anchor is not configured on this node or the path leaves the anchor directory
+	 */
+	public Path resolve(ImagePath imagePath) throws IOException {
+		String anchorPath = anchors.get(imagePath.getAnchor());
+
+		if (anchorPath == null) {
+			throw new IOException("No path configured for anchor " + imagePath.getAnchor());
+		}
+
+		Path root = Paths.get(anchorPath).toAbsolutePath().normalize();
+		Path resolved = root.resolve(imagePath.getRelativePath()).normalize();
+
+		if (!resolved.startsWith(root)) {
+			throw new IOException("Path " + imagePath.getRelativePath() + " is outside of anchor " + imagePath.getAnchor());
+		}
+
+		return resolved;
+	}
+}
@@ -0,0 +1,59 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.processor;
+
+import java.awt.image.BufferedImage;
+
+import org.jtransforms.dct.DoubleDCT_2D;
+
+import com.github.dozedoff.commonj.util.ImageUtil;
+import com.github.seeker.commonhash.helper.TransformHelper;
+
+/**
+ * Calculates the DCT based perceptual hash of pre-processed images. Instances are not thread safe.
+ */
+public class PerceptualHasher {
+	/**
+	 * Width and height of the pre-processed images.
+	 */
+	public static final int IMAGE_SIZE = 32;
+	private static final int DCT_MATRIX_SIZE = 8;
+
+	private final DoubleDCT_2D jtransformDCT;
+
+	public PerceptualHasher() {
+		this.jtransformDCT = new DoubleDCT_2D(IMAGE_SIZE, IMAGE_SIZE);
+	}
+
+	/**
+	 * Calculate the hash for a pre-processed image.
+	 * 
+	 * @param preProcessedImage a grayscale image of {@value #IMAGE_SIZE} by {@value #IMAGE_SIZE} pixels
+	 * @return the perceptual hash
+	 */
+	public long calculatePhash(BufferedImage preProcessedImage) {
+		double[][] reducedColorValues = ImageUtil.toDoubleMatrix(preProcessedImage);
+
+		jtransformDCT.forward(reducedColorValues, true);
+		double[][] dct = reducedColorValues;
+		
+		double dctAvg = TransformHelper.dctAverage(dct, DCT_MATRIX_SIZE);
+		
+		return convertToLong(dct, dctAvg);
+	}
+	
+	private long convertToLong(double[][] dctVals, double avg) {
+		long hash = 0;
+
+		for (int x = 0; x < DCT_MATRIX_SIZE; x++) {
+			for (int y = 0; y < DCT_MATRIX_SIZE; y++) {
+				hash += (dctVals[x][y] > avg ? 1 : 0);
+				hash = Long.rotateLeft(hash, 1);
+			}
+		}
+
+		return hash;
+	}
+}
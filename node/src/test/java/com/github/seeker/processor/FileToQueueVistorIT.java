@@ -9,11 +9,13 @@ import static org.hamcrest.CoreMatchers.hasItems;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
@@ -88,6 +90,7 @@ public class FileToQueueVistorIT {
 
 	private FileToQueueVistor cut;
 	private Connection rabbitConn;
+	private QueueConfiguration queueConfig;
 
 	private Path fileWalkRoot;
 
@@ -101,7 +104,7 @@ public class FileToQueueVistorIT {
 
 		mapper = connProv.getIntegrationMongoDbMapper();
 		minioClient = connProv.getMinioClient();
-		minio = new MinioStore(minioClient, MinioConfiguration.integrationTestBuckets());
+		minio = new MinioStore(minioClient, connProv.getMinioAsyncClient(), MinioConfiguration.integrationTestBuckets(), MinioStore.MIN_PART_SIZE);
 		rabbitConnFactory = connProv.getRabbitMQConnectionFactory(RabbitMqRole.integration);
 		morphium = connProv.getMorphiumClient(ConnectionProvider.INTEGRATION_DB_CONSUL_KEY);
 
@@ -118,7 +121,7 @@ public class FileToQueueVistorIT {
 	@BeforeEach
 	public void setUp() throws Exception {
 		rabbitConn = rabbitConnFactory.newConnection();
-		QueueConfiguration queueConfig = new QueueConfiguration(rabbitConn.createChannel(), true);
+		queueConfig = new QueueConfiguration(rabbitConn.createChannel(), true);
 
 		messageData = new HashMap<>();
 		messageHeader = new HashMap<>();
@@ -179,6 +182,15 @@ public class FileToQueueVistorIT {
 		Awaitility.await().atMost(timeout).until(messageData::size, is(3));
 	}
 
+	@Test
+	public void filesAreQueuedWithUploadWindow() throws Exception {
+		cut.setUploadWindow(2);
+		Files.walkFileTree(fileWalkRoot, cut);
+		cut.awaitUploads();
+
+		Awaitility.await().atMost(timeout).until(messageData::size, is(3));
+	}
+
 	@Test
 	public void onlyImagesQueued() throws Exception {
 		Files.walkFileTree(fileWalkRoot, cut);
@@ -302,4 +314,40 @@ public class FileToQueueVistorIT {
 
 		assertThat(minioClient.statObject(args).size(), is(11L));
 	}
+
+	@Test
+	public void resumePointIsLastVisitedFile() throws Exception {
+		Files.walkFileTree(fileWalkRoot, cut);
+
+		assertThat(cut.getResumePoint(), is(notNullValue()));
+	}
+
+	@Test
+	public void resumePointIsReached() throws Exception {
+		Files.walkFileTree(fileWalkRoot, cut);
+		Path resumePoint = cut.getResumePoint();
+
+		FileToQueueVistor resumed = new FileToQueueVistor(rabbitConn.createChannel(), ANCHOR, fileWalkRoot, mapper, minio, requiredHashes,
+				queueConfig.getExchangeName(ConfiguredExchanges.loader));
+		resumed.setResumeAfter(resumePoint);
+		Files.walkFileTree(fileWalkRoot, resumed);
+
+		assertThat(resumed.isResumePending(), is(false));
+	}
+
+	@Test
+	public void missingResumePointIsPending() throws Exception {
+		cut.setResumeAfter(Paths.get("missing.jpg"));
+		Files.walkFileTree(fileWalkRoot, cut);
+
+		assertThat(cut.isResumePending(), is(true));
+	}
+
+	@Test
+	public void noFilesVisitedBeforeResumePoint() throws Exception {
+		cut.setResumeAfter(Paths.get("missing.jpg"));
+		Files.walkFileTree(fileWalkRoot, cut);
+
+		assertThat(cut.getResumePoint(), is(nullValue()));
+	}
 }
@@ -0,0 +1,75 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.processor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.seeker.persistence.PhashBands;
+
+public class ImageScalerTest {
+	private static final int THUMBNAIL_SIZE = 100;
+	private static final long ROAD_FAR_PHASH = 8792943954779618109L;
+	private static final int MAX_RESCALED_DISTANCE = 2;
+
+	private BufferedImage image;
+	private PerceptualHasher hasher;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		try (InputStream is = ImageScalerTest.class.getResourceAsStream("/images/road-far.jpg")) {
+			image = ImageIO.read(is);
+		}
+
+		hasher = new PerceptualHasher();
+	}
+
+	@Test
+	public void thumbnailFitsIntoSize() throws Exception {
+		BufferedImage thumbnail = ImageScaler.createThumbnail(image, THUMBNAIL_SIZE);
+
+		assertThat(Math.max(thumbnail.getWidth(), thumbnail.getHeight()), is(THUMBNAIL_SIZE));
+	}
+
+	@Test
+	public void preProcessedImageSize() throws Exception {
+		BufferedImage preProcessed = ImageScaler.createPreProcessed(image);
+
+		assertThat(preProcessed.getWidth(), is(PerceptualHasher.IMAGE_SIZE));
+		assertThat(preProcessed.getHeight(), is(PerceptualHasher.IMAGE_SIZE));
+	}
+
+	@Test
+	public void jpegCanBeDecoded() throws Exception {
+		byte[] jpeg = ImageScaler.toJpeg(ImageScaler.createThumbnail(image, THUMBNAIL_SIZE));
+
+		assertThat(ImageIO.read(new ByteArrayInputStream(jpeg)).getWidth(), is(greaterThan(0)));
+	}
+
+	@Test
+	public void phashOfKnownImage() throws Exception {
+		assertThat(hasher.calculatePhash(ImageScaler.createPreProcessed(image)), is(ROAD_FAR_PHASH));
+	}
+
+	@Test
+	public void phashOfRescaledImageIsSimilar() throws Exception {
+		BufferedImage rescaled = ImageScaler.createThumbnail(image, Math.max(image.getWidth(), image.getHeight()) / 2);
+
+		long phash = hasher.calculatePhash(ImageScaler.createPreProcessed(rescaled));
+
+		assertThat(PhashBands.distance(phash, ROAD_FAR_PHASH), is(lessThanOrEqualTo(MAX_RESCALED_DISTANCE)));
+	}
+}
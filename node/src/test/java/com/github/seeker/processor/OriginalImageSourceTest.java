@@ -0,0 +1,96 @@
+package com.github.seeker.processor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.seeker.helpers.InMemoryObjectStore;
+import com.github.seeker.messaging.proto.FileLoadOuterClass.FileLoad;
+
+public class OriginalImageSourceTest {
+	private static final String ANCHOR = "anchor";
+	private static final String RELATIVE_PATH = "foo/bar.jpg";
+	private static final byte[] SHARED_DATA = { 1, 2, 3 };
+	private static final byte[] STORED_DATA = { 4, 5, 6 };
+
+	@TempDir
+	Path anchorRoot;
+
+	private UUID imageId;
+	private InMemoryObjectStore store;
+
+	private OriginalImageSource cut;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		Path image = anchorRoot.resolve(RELATIVE_PATH);
+		Files.createDirectories(image.getParent());
+		Files.write(image, SHARED_DATA);
+
+		Path upload = anchorRoot.resolve("upload.jpg");
+		Files.write(upload, STORED_DATA);
+
+		imageId = UUID.randomUUID();
+		store = new InMemoryObjectStore();
+		store.storeImage(upload, imageId);
+
+		cut = new OriginalImageSource(store, Map.of(ANCHOR, anchorRoot.toString()));
+	}
+
+	private FileLoad message(String anchor, String relativePath, boolean shared) {
+		FileLoad.Builder builder = FileLoad.newBuilder().setImageId(imageId.toString()).setSharedFilesystem(shared);
+		builder.getImagePathBuilder().setAnchor(anchor).setRelativePath(relativePath);
+
+		return builder.build();
+	}
+
+	private byte[] read(FileLoad message) throws IOException {
+		try (InputStream is = cut.open(message)) {
+			return is.readAllBytes();
+		}
+	}
+
+	@Test
+	public void sharedImageIsReadInPlace() throws Exception {
+		assertThat(read(message(ANCHOR, RELATIVE_PATH, true)), is(SHARED_DATA));
+	}
+
+	@Test
+	public void uploadedImageIsReadFromStore() throws Exception {
+		assertThat(read(message(ANCHOR, RELATIVE_PATH, false)), is(STORED_DATA));
+	}
+
+	@Test
+	public void unknownAnchorThrows() throws Exception {
+		assertThrows(IOException.class, () -> {
+			cut.open(message("unknown", RELATIVE_PATH, true));
+		});
+	}
+
+	@Test
+	public void pathOutsideOfAnchorThrows() throws Exception {
+		assertThrows(IOException.class, () -> {
+			cut.open(message(ANCHOR, "../outside.jpg", true));
+		});
+	}
+
+	@Test
+	public void missingUploadThrows() throws Exception {
+		store.deleteImage(imageId);
+
+		assertThrows(IOException.class, () -> {
+			cut.open(message(ANCHOR, RELATIVE_PATH, false));
+		});
+	}
+}
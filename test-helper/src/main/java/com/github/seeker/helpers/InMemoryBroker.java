@@ -0,0 +1,528 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.helpers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.impl.AMQImpl;
+
+/**
+ * A minimal in-process stand-in for RabbitMQ, so the processing pipeline can be run without a broker. It supports the
+ * subset of the {@link Channel} API used by the nodes: declaring and binding exchanges and queues, publishing via the
+ * default, direct and fanout exchanges, consuming with manual or automatic acknowledgement, and dead-lettering with
+ * message TTLs as used by the retry queues. Queues declared with {@code x-max-priority} deliver messages with a higher
+ * priority first, all other queues are strictly FIFO.
+ * <p>
+ * The channel methods in {@link #UNSUPPORTED_METHODS}, e.g. publisher confirms, transactions and exchange to exchange
+ * bindings, throw an {@link UnsupportedOperationException}.
+ */
+public class InMemoryBroker implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryBroker.class);
+
+	private static final String DEFAULT_EXCHANGE = "";
+	private static final long POLL_INTERVAL_MILLIS = 50;
+
+	/**
+	 * Channel methods implemented by the broker, including the {@link Object} methods of the proxy.
+	 */
+	static final Set<String> SUPPORTED_METHODS = Set.of("exchangeDeclare", "queueDeclare", "queueBind", "queueUnbind", "queueDelete",
+			"basicPublish", "basicConsume", "basicCancel", "basicAck", "basicNack", "basicReject", "basicQos", "addShutdownListener",
+			"removeShutdownListener", "messageCount", "getChannelNumber", "isOpen", "close", "abort", "toString", "hashCode", "equals");
+
+	/**
+	 * Channel methods that are not implemented, because the nodes do not use them with the in-memory broker.
+	 */
+	static final Set<String> UNSUPPORTED_METHODS = Set.of("exchangeDeclareNoWait", "exchangeDeclarePassive", "exchangeDelete",
+			"exchangeDeleteNoWait", "exchangeBind", "exchangeBindNoWait", "exchangeUnbind", "exchangeUnbindNoWait", "queueDeclareNoWait",
+			"queueDeclarePassive", "queueBindNoWait", "queueDeleteNoWait", "queuePurge", "basicGet", "basicRecover", "consumerCount",
+			"confirmSelect", "waitForConfirms", "waitForConfirmsOrDie", "getNextPublishSeqNo", "addConfirmListener",
+			"removeConfirmListener", "clearConfirmListeners", "addReturnListener", "removeReturnListener", "clearReturnListeners",
+			"txSelect", "txCommit", "txRollback", "getConnection", "getDefaultConsumer", "setDefaultConsumer", "getCloseReason",
+			"notifyListeners", "rpc", "asyncRpc", "asyncCompletableRpc");
+
+	private final Map<String, BuiltinExchangeType> exchanges = new ConcurrentHashMap<>();
+	private final Map<String, CopyOnWriteArrayList<Binding>> bindings = new ConcurrentHashMap<>();
+	private final Map<String, MessageQueue> queues = new ConcurrentHashMap<>();
+	private final AtomicInteger channelNumbers = new AtomicInteger();
+	private final AtomicInteger consumerTags = new AtomicInteger();
+	/**
+	 * Publish order of the messages, so messages with the same priority are delivered in order.
+	 */
+	private final AtomicLong sequence = new AtomicLong();
+	/**
+	 * Incremented on every change of a queue, used to detect activity while checking if the broker is idle.
+	 */
+	private final AtomicLong modifications = new AtomicLong();
+	private final ExecutorService dispatchers;
+	private final ScheduledExecutorService expiry;
+
+	private volatile boolean open = true;
+
+	public InMemoryBroker() {
+		this.dispatchers = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "in-memory-broker-dispatch");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		this.expiry = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "in-memory-broker-expiry");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Create a new channel on this broker.
+	 *
+	 * @return a new channel
+	 */
+	public Channel createChannel() {
+		return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[] { Channel.class },
+				new InMemoryChannel(channelNumbers.incrementAndGet()));
+	}
+
+	/**
+	 * Get the number of messages waiting for delivery in a queue.
+	 *
+	 * @param queue name of the queue
+	 * @return number of messages ready for delivery, 0 if the queue does not exist
+	 */
+	public int getMessageCount(String queue) {
+		MessageQueue messageQueue = queues.get(queue);
+		return messageQueue == null ? 0 : messageQueue.ready.size();
+	}
+
+	/**
+	 * Wait until all queues that have consumers or expire messages are empty and no deliveries are awaiting an
+	 * acknowledgement. Queues without consumers, such as dead letter queues, are not considered.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit    unit of the timeout
+	 * @return true if the broker became idle, false if the timeout elapsed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		while (System.nanoTime() < deadline) {
+			if (isIdle()) {
+				return true;
+			}
+
+			Thread.sleep(POLL_INTERVAL_MILLIS);
+		}
+
+		return isIdle();
+	}
+
+	private boolean isIdle() {
+		long before = modifications.get();
+
+		for (MessageQueue queue : queues.values()) {
+			if (queue.isActive() && queue.pending.get() > 0) {
+				return false;
+			}
+		}
+
+		return before == modifications.get();
+	}
+
+	@Override
+	public void close() {
+		open = false;
+		dispatchers.shutdownNow();
+		expiry.shutdownNow();
+	}
+
+	private void route(String exchange, String routingKey, Message message) {
+		if (DEFAULT_EXCHANGE.equals(exchange)) {
+			enqueue(routingKey, message);
+			return;
+		}
+
+		BuiltinExchangeType type = exchanges.get(exchange);
+
+		if (type == null) {
+			LOGGER.warn("Dropping message for unknown exchange {}", exchange);
+			return;
+		}
+
+		for (Binding binding : bindings.getOrDefault(exchange, new CopyOnWriteArrayList<>())) {
+			if (type == BuiltinExchangeType.FANOUT || binding.routingKey.equals(routingKey)) {
+				enqueue(binding.queue, message);
+			}
+		}
+	}
+
+	private void enqueue(String queueName, Message message) {
+		MessageQueue queue = queues.get(queueName);
+
+		if (queue == null) {
+			LOGGER.warn("Dropping message for unknown queue {}", queueName);
+			return;
+		}
+
+		queue.pending.incrementAndGet();
+		queue.ready.add(message);
+		modifications.incrementAndGet();
+
+		if (queue.ttl != null) {
+			expiry.schedule(() -> {
+				if (queue.ready.remove(message)) {
+					deadLetter(queue, message);
+					settle(queue);
+				}
+			}, queue.ttl, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void deadLetter(MessageQueue queue, Message message) {
+		if (queue.deadLetterExchange == null) {
+			LOGGER.debug("Discarding message rejected by {}", queue.name);
+			return;
+		}
+
+		String routingKey = queue.deadLetterRoutingKey == null ? message.routingKey : queue.deadLetterRoutingKey;
+		route(queue.deadLetterExchange, routingKey, newMessage(queue.deadLetterExchange, routingKey, message.properties, message.body));
+	}
+
+	private void settle(MessageQueue queue) {
+		queue.pending.decrementAndGet();
+		modifications.incrementAndGet();
+	}
+
+	private Message newMessage(String exchange, String routingKey, BasicProperties properties, byte[] body) {
+		return new Message(exchange, routingKey, properties, body, false, sequence.incrementAndGet());
+	}
+
+	private static final class Binding {
+		private final String queue;
+		private final String routingKey;
+
+		Binding(String queue, String routingKey) {
+			this.queue = queue;
+			this.routingKey = routingKey;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Binding) {
+				Binding other = (Binding) obj;
+				return queue.equals(other.queue) && routingKey.equals(other.routingKey);
+			}
+
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(queue, routingKey);
+		}
+	}
+
+	/**
+	 * Messages are compared by identity, so expired messages can be removed from the queue reliably.
+	 */
+	private static final class Message {
+		private final String exchange;
+		private final String routingKey;
+		private final BasicProperties properties;
+		private final byte[] body;
+		private final boolean redelivered;
+		private final long sequence;
+
+		Message(String exchange, String routingKey, BasicProperties properties, byte[] body, boolean redelivered, long sequence) {
+			this.exchange = exchange;
+			this.routingKey = routingKey;
+			this.properties = properties;
+			this.body = body;
+			this.redelivered = redelivered;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Requeued messages keep their position, as with RabbitMQ.
+		 */
+		Message redelivery() {
+			return new Message(exchange, routingKey, properties, body, true, sequence);
+		}
+
+		int priority() {
+			Integer priority = properties == null ? null : properties.getPriority();
+			return priority == null ? 0 : priority;
+		}
+	}
+
+	private static final class MessageQueue {
+		private final String name;
+		private final BlockingQueue<Message> ready;
+		/**
+		 * Messages that are ready, waiting for an acknowledgement or waiting to expire.
+		 */
+		private final AtomicInteger pending = new AtomicInteger();
+		private final AtomicInteger consumers = new AtomicInteger();
+		private final Long ttl;
+		private final String deadLetterExchange;
+		private final String deadLetterRoutingKey;
+
+		MessageQueue(String name, Map<String, Object> arguments) {
+			this.name = name;
+
+			Object maxPriority = arguments.get("x-max-priority");
+			Comparator<Message> order = Comparator.comparingLong(message -> message.sequence);
+
+			if (maxPriority instanceof Number) {
+				// priorities above the maximum are treated as the maximum
+				int max = ((Number) maxPriority).intValue();
+				order = Comparator.<Message>comparingInt(message -> -Math.min(message.priority(), max)).thenComparing(order);
+			}
+
+			this.ready = new PriorityBlockingQueue<>(11, order);
+
+			Object ttlArgument = arguments.get("x-message-ttl");
+			this.ttl = ttlArgument instanceof Number ? ((Number) ttlArgument).longValue() : null;
+
+			Object exchange = arguments.get("x-dead-letter-exchange");
+			this.deadLetterExchange = exchange == null ? null : exchange.toString();
+
+			Object routingKey = arguments.get("x-dead-letter-routing-key");
+			this.deadLetterRoutingKey = routingKey == null ? null : routingKey.toString();
+		}
+
+		boolean isActive() {
+			return consumers.get() > 0 || ttl != null;
+		}
+	}
+
+	private static final class Unacked {
+		private final MessageQueue queue;
+		private final Message message;
+
+		Unacked(MessageQueue queue, Message message) {
+			this.queue = queue;
+			this.message = message;
+		}
+	}
+
+	private final class InMemoryChannel implements InvocationHandler {
+		private final int channelNumber;
+		private final AtomicLong deliveryTags = new AtomicLong();
+		private final Map<Long, Unacked> unacked = new ConcurrentHashMap<>();
+		private final List<String> activeConsumers = new CopyOnWriteArrayList<>();
+
+		InMemoryChannel(int channelNumber) {
+			this.channelNumber = channelNumber;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object[] arguments = args == null ? new Object[0] : args;
+
+			switch (method.getName()) {
+			case "exchangeDeclare":
+				exchanges.putIfAbsent((String) arguments[0], toExchangeType(arguments[1]));
+				return new AMQImpl.Exchange.DeclareOk();
+			case "queueDeclare":
+				return declareQueue(arguments);
+			case "queueBind":
+				bindings.computeIfAbsent((String) arguments[1], key -> new CopyOnWriteArrayList<>())
+						.addIfAbsent(new Binding((String) arguments[0], (String) arguments[2]));
+				return new AMQImpl.Queue.BindOk();
+			case "queueUnbind":
+				bindings.getOrDefault((String) arguments[1], new CopyOnWriteArrayList<>())
+						.remove(new Binding((String) arguments[0], (String) arguments[2]));
+				return new AMQImpl.Queue.UnbindOk();
+			case "queueDelete":
+				MessageQueue deleted = queues.remove(arguments[0]);
+				return new AMQImpl.Queue.DeleteOk(deleted == null ? 0 : deleted.ready.size());
+			case "basicPublish":
+				String exchange = (String) arguments[0];
+				String routingKey = (String) arguments[1];
+				BasicProperties properties = (BasicProperties) arguments[arguments.length - 2];
+				byte[] body = (byte[]) arguments[arguments.length - 1];
+				route(exchange, routingKey, newMessage(exchange, routingKey, properties, body));
+				return null;
+			case "basicConsume":
+				return consume(proxy, arguments);
+			case "basicCancel":
+				activeConsumers.remove(arguments[0]);
+				return null;
+			case "basicAck":
+				acknowledge((Long) arguments[0]);
+				return null;
+			case "basicNack":
+				reject((Long) arguments[0], (Boolean) arguments[2]);
+				return null;
+			case "basicReject":
+				reject((Long) arguments[0], (Boolean) arguments[1]);
+				return null;
+			case "basicQos":
+			case "addShutdownListener":
+			case "removeShutdownListener":
+				return null;
+			case "messageCount":
+				return (long) getMessageCount((String) arguments[0]);
+			case "getChannelNumber":
+				return channelNumber;
+			case "isOpen":
+				return open;
+			case "close":
+			case "abort":
+				activeConsumers.clear();
+				return null;
+			case "toString":
+				return "InMemoryChannel(" + channelNumber + ")";
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == arguments[0];
+			default:
+				if (UNSUPPORTED_METHODS.contains(method.getName())) {
+					throw new UnsupportedOperationException("Channel method " + method.getName() + " is not supported by the in-memory broker");
+				}
+
+				throw new IllegalStateException("Channel method " + method.getName() + " is unknown to the in-memory broker");
+			}
+		}
+
+		private BuiltinExchangeType toExchangeType(Object type) {
+			if (type instanceof BuiltinExchangeType) {
+				return (BuiltinExchangeType) type;
+			}
+
+			return BuiltinExchangeType.valueOf(type.toString().toUpperCase());
+		}
+
+		@SuppressWarnings("unchecked")
+		private Object declareQueue(Object[] arguments) {
+			if (arguments.length == 0) {
+				throw new UnsupportedOperationException("Server named queues are not supported by the in-memory broker");
+			}
+
+			String name = (String) arguments[0];
+			Map<String, Object> queueArguments = arguments[4] == null ? Map.of() : (Map<String, Object>) arguments[4];
+			MessageQueue queue = queues.computeIfAbsent(name, key -> new MessageQueue(key, queueArguments));
+
+			return new AMQImpl.Queue.DeclareOk(name, queue.ready.size(), queue.consumers.get());
+		}
+
+		private Object consume(Object proxy, Object[] arguments) {
+			String queueName = (String) arguments[0];
+			boolean autoAck = arguments[1] instanceof Boolean && (Boolean) arguments[1];
+			Consumer consumer = (Consumer) arguments[arguments.length - 1];
+			MessageQueue queue = queues.get(queueName);
+
+			if (queue == null) {
+				throw new IllegalArgumentException("Queue " + queueName + " does not exist");
+			}
+
+			String consumerTag = "in-memory-" + consumerTags.incrementAndGet();
+			activeConsumers.add(consumerTag);
+			queue.consumers.incrementAndGet();
+			consumer.handleConsumeOk(consumerTag);
+
+			dispatchers.execute(() -> dispatch((Channel) proxy, queue, consumer, consumerTag, autoAck));
+
+			return consumerTag;
+		}
+
+		private void dispatch(Channel channel, MessageQueue queue, Consumer consumer, String consumerTag, boolean autoAck) {
+			try {
+				while (open && activeConsumers.contains(consumerTag)) {
+					Message message = queue.ready.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+					if (message == null) {
+						continue;
+					}
+
+					if (!activeConsumers.contains(consumerTag)) {
+						// cancelled while waiting, the message keeps its position
+						queue.ready.add(message);
+						break;
+					}
+
+					long deliveryTag = deliveryTags.incrementAndGet();
+
+					if (!autoAck) {
+						unacked.put(deliveryTag, new Unacked(queue, message));
+					}
+
+					try {
+						consumer.handleDelivery(consumerTag, new Envelope(deliveryTag, message.redelivered, message.exchange, message.routingKey),
+								message.properties, message.body);
+					} catch (IOException | RuntimeException e) {
+						// The client library would close the channel, which requeues the message
+						LOGGER.warn("Consumer {} failed to process delivery {}: {}", consumerTag, deliveryTag, e.getMessage());
+
+						if (!autoAck) {
+							reject(deliveryTag, !message.redelivered);
+						}
+					}
+
+					if (autoAck) {
+						settle(queue);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				queue.consumers.decrementAndGet();
+			}
+		}
+
+		private void acknowledge(long deliveryTag) {
+			Unacked delivery = unacked.remove(deliveryTag);
+
+			if (delivery != null) {
+				settle(delivery.queue);
+			}
+		}
+
+		private void reject(long deliveryTag, boolean requeue) {
+			Unacked delivery = unacked.remove(deliveryTag);
+
+			if (delivery == null) {
+				return;
+			}
+
+			if (requeue) {
+				delivery.queue.ready.add(delivery.message.redelivery());
+				modifications.incrementAndGet();
+				return;
+			}
+
+			deadLetter(delivery.queue, delivery.message);
+			settle(delivery.queue);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.helpers;
+
+import com.github.seeker.persistence.MongoDbMapper;
+
+import de.caluga.morphium.Morphium;
+import de.caluga.morphium.MorphiumConfig;
+import de.caluga.morphium.driver.inmem.InMemoryDriver;
+
+/**
+ * Creates {@link Morphium} clients backed by the in-memory driver, for running the pipeline without a MongoDB server.
+ */
+public final class InMemoryMorphium {
+	private InMemoryMorphium() {
+	}
+
+	/**
+	 * Create a client for a new in-memory database.
+	 *
+	 * @param database name of the database
+	 * @return a client using the in-memory driver
+	 */
+	public static Morphium create(String database) {
+		MorphiumConfig cfg = new MorphiumConfig();
+		cfg.setDatabase(database);
+		cfg.setDriverName(InMemoryDriver.driverName);
+		cfg.setReplicasetMonitoring(false);
+
+		return new Morphium(cfg);
+	}
+
+	/**
+	 * Create a mapper for a new in-memory database.
+	 *
+	 * @param database name of the database
+	 * @return a mapper using the in-memory driver
+	 */
+	public static MongoDbMapper createMapper(String database) {
+		return new MongoDbMapper(create(database));
+	}
+}
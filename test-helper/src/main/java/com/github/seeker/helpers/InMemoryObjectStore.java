@@ -0,0 +1,183 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2024 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.seeker.helpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.seeker.persistence.MinioPersistenceException;
+import com.github.seeker.persistence.ObjectKind;
+import com.github.seeker.persistence.ObjectStore;
+import com.github.seeker.persistence.StoredObject;
+import com.github.seeker.persistence.document.ImageMetaData;
+
+/**
+ * An {@link ObjectStore} that keeps all objects in memory, for running the pipeline without a Minio server.
+ */
+public class InMemoryObjectStore implements ObjectStore {
+	private static final String PREFIX_IMAGE = "image/";
+	private static final String PREFIX_THUMBNAIL = "thumb/";
+	private static final String PREFIX_PREPROCESSED = "preprocessed/";
+	private static final String PREFIX_CORRUPTED = "corrupted/";
+
+	private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+	private final Map<String, Instant> lastModified = new ConcurrentHashMap<>();
+
+	@Override
+	public void createBuckets() {
+		// nothing to create
+	}
+
+	@Override
+	public void storeImage(Path path, UUID imageID) throws MinioPersistenceException {
+		try {
+			store(PREFIX_IMAGE + imageID, Files.readAllBytes(path));
+		} catch (IOException e) {
+			throw new MinioPersistenceException(e);
+		}
+	}
+
+	@Override
+	public void storeImage(String path, UUID imageID) throws MinioPersistenceException {
+		storeImage(Paths.get(path), imageID);
+	}
+
+	@Override
+	public InputStream getImage(UUID uuid) throws MinioPersistenceException {
+		return get(PREFIX_IMAGE + uuid);
+	}
+
+	@Override
+	public void deleteImage(UUID imageId) throws MinioPersistenceException {
+		remove(PREFIX_IMAGE + imageId);
+	}
+
+	@Override
+	public boolean imageExisits(UUID imageId) throws MinioPersistenceException {
+		return objects.containsKey(PREFIX_IMAGE + imageId);
+	}
+
+	@Override
+	public void deleteImages(Iterator<ImageMetaData> imagesToDelete) {
+		imagesToDelete.forEachRemaining(meta -> remove(PREFIX_IMAGE + meta.getImageId()));
+	}
+
+	@Override
+	public void deleteImagesById(Collection<UUID> imageIds) throws MinioPersistenceException {
+		imageIds.forEach(imageId -> remove(PREFIX_IMAGE + imageId));
+	}
+
+	@Override
+	public void deletePreProcessedImages(Collection<UUID> imageIds) throws MinioPersistenceException {
+		imageIds.forEach(imageId -> remove(PREFIX_PREPROCESSED + imageId));
+	}
+
+	@Override
+	public Iterator<StoredObject> listObjects(ObjectKind kind) throws MinioPersistenceException {
+		String prefix = kind.getPrefix() + "/";
+
+		return objects.keySet().stream().filter(name -> name.startsWith(prefix)).sorted()
+				.map(name -> new StoredObject(UUID.fromString(name.substring(prefix.length())), lastModified.getOrDefault(name, Instant.EPOCH)))
+				.iterator();
+	}
+
+	@Override
+	public void deleteObjects(ObjectKind kind, Collection<UUID> imageIds) throws MinioPersistenceException {
+		imageIds.forEach(imageId -> remove(kind.getPrefix() + "/" + imageId));
+	}
+
+	/**
+	 * Change the last modified time of an object, to simulate objects that were stored in the past.
+	 *
+	 * @param kind         of the object
+	 * @param imageId      ID of the image
+	 * @param modifiedTime the new last modified time
+	 */
+	public void setLastModified(ObjectKind kind, UUID imageId, Instant modifiedTime) {
+		String objectName = kind.getPrefix() + "/" + imageId;
+
+		if (objects.containsKey(objectName)) {
+			lastModified.put(objectName, modifiedTime);
+		}
+	}
+
+	@Override
+	public void storeThumbnail(UUID imageId, InputStream imageStream) throws MinioPersistenceException {
+		put(PREFIX_THUMBNAIL + imageId, imageStream);
+	}
+
+	@Override
+	public InputStream getThumbnail(UUID imageId) throws MinioPersistenceException {
+		return get(PREFIX_THUMBNAIL + imageId);
+	}
+
+	@Override
+	public void storePreProcessedImage(UUID imageId, InputStream imageStream) throws MinioPersistenceException {
+		put(PREFIX_PREPROCESSED + imageId, imageStream);
+	}
+
+	@Override
+	public InputStream getPreProcessedImage(UUID imageId) throws MinioPersistenceException {
+		return get(PREFIX_PREPROCESSED + imageId);
+	}
+
+	@Override
+	public void moveImageToCorrupted(UUID imageId) throws MinioPersistenceException {
+		byte[] data = remove(PREFIX_IMAGE + imageId);
+
+		if (data == null) {
+			throw new MinioPersistenceException("No image with ID " + imageId);
+		}
+
+		store(PREFIX_CORRUPTED + imageId, data);
+	}
+
+	/**
+	 * Get the number of stored objects.
+	 *
+	 * @return the number of objects in the store
+	 */
+	public int getObjectCount() {
+		return objects.size();
+	}
+
+	private void put(String objectName, InputStream data) throws MinioPersistenceException {
+		try {
+			store(objectName, data.readAllBytes());
+		} catch (IOException e) {
+			throw new MinioPersistenceException(e);
+		}
+	}
+
+	private void store(String objectName, byte[] data) {
+		objects.put(objectName, data);
+		lastModified.put(objectName, Instant.now());
+	}
+
+	private byte[] remove(String objectName) {
+		lastModified.remove(objectName);
+		return objects.remove(objectName);
+	}
+
+	private InputStream get(String objectName) throws MinioPersistenceException {
+		byte[] data = objects.get(objectName);
+
+		if (data == null) {
+			throw new MinioPersistenceException("Object " + objectName + " does not exist");
+		}
+
+		return new ByteArrayInputStream(data);
+	}
+}
@@ -0,0 +1,299 @@
+package com.github.seeker.helpers;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.anyOf;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.in;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+
+public class InMemoryBrokerTest {
+	private static final String QUEUE = "queue";
+	private static final String OTHER_QUEUE = "other";
+	private static final String DEAD_LETTER_QUEUE = "dead";
+	private static final String EXCHANGE = "exchange";
+	private static final String DEAD_LETTER_EXCHANGE = "dlx";
+	private static final String ROUTING_KEY = "key";
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+	private InMemoryBroker cut;
+	private Channel channel;
+	private List<String> received;
+	private List<Boolean> redelivered;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		cut = new InMemoryBroker();
+		channel = cut.createChannel();
+		received = new CopyOnWriteArrayList<String>();
+		redelivered = new CopyOnWriteArrayList<Boolean>();
+
+		channel.queueDeclare(QUEUE, false, false, false, null);
+		channel.queueDeclare(OTHER_QUEUE, false, false, false, null);
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		cut.close();
+	}
+
+	private void publish(String exchange, String routingKey, String body) throws IOException {
+		channel.basicPublish(exchange, routingKey, null, body.getBytes());
+	}
+
+	private void publish(String queue, int priority, String body) throws IOException {
+		channel.basicPublish("", queue, new BasicProperties.Builder().priority(priority).build(), body.getBytes());
+	}
+
+	/**
+	 * Consume messages, acknowledging them if requested, else rejecting them with the given requeue flag.
+	 */
+	private void consume(String queue, boolean ack, boolean requeue) throws IOException {
+		channel.basicConsume(queue, false, new DefaultConsumer(channel) {
+			@Override
+			public void handleDelivery(String consumerTag, Envelope envelope, BasicProperties properties, byte[] body) throws IOException {
+				received.add(new String(body));
+				redelivered.add(envelope.isRedeliver());
+
+				if (ack) {
+					getChannel().basicAck(envelope.getDeliveryTag(), false);
+				} else {
+					getChannel().basicReject(envelope.getDeliveryTag(), requeue && !envelope.isRedeliver());
+				}
+			}
+		});
+	}
+
+	private void consume(String queue) throws IOException {
+		consume(queue, true, false);
+	}
+
+	private void declareDeadLetterQueue(Map<String, Object> arguments) throws IOException {
+		channel.exchangeDeclare(DEAD_LETTER_EXCHANGE, BuiltinExchangeType.DIRECT);
+		channel.queueDeclare(DEAD_LETTER_QUEUE, false, false, false, null);
+		channel.queueBind(DEAD_LETTER_QUEUE, DEAD_LETTER_EXCHANGE, QUEUE);
+		channel.queueDelete(QUEUE);
+		channel.queueDeclare(QUEUE, false, false, false, arguments);
+	}
+
+	@Test
+	public void defaultExchangeRoutesByQueueName() throws Exception {
+		publish("", QUEUE, "foo");
+
+		assertThat(cut.getMessageCount(QUEUE), is(1));
+	}
+
+	@Test
+	public void directExchangeRoutesByRoutingKey() throws Exception {
+		channel.exchangeDeclare(EXCHANGE, BuiltinExchangeType.DIRECT);
+		channel.queueBind(QUEUE, EXCHANGE, ROUTING_KEY);
+		channel.queueBind(OTHER_QUEUE, EXCHANGE, "other-key");
+
+		publish(EXCHANGE, ROUTING_KEY, "foo");
+
+		assertThat(cut.getMessageCount(OTHER_QUEUE), is(0));
+	}
+
+	@Test
+	public void fanoutExchangeRoutesToAllQueues() throws Exception {
+		channel.exchangeDeclare(EXCHANGE, BuiltinExchangeType.FANOUT);
+		channel.queueBind(QUEUE, EXCHANGE, "");
+		channel.queueBind(OTHER_QUEUE, EXCHANGE, "");
+
+		publish(EXCHANGE, ROUTING_KEY, "foo");
+
+		assertThat(cut.getMessageCount(OTHER_QUEUE), is(1));
+	}
+
+	@Test
+	public void bindingTwiceRoutesOnce() throws Exception {
+		channel.exchangeDeclare(EXCHANGE, BuiltinExchangeType.FANOUT);
+		channel.queueBind(QUEUE, EXCHANGE, "");
+		channel.queueBind(QUEUE, EXCHANGE, "");
+
+		publish(EXCHANGE, ROUTING_KEY, "foo");
+
+		assertThat(cut.getMessageCount(QUEUE), is(1));
+	}
+
+	@Test
+	public void unboundQueueIsNotRouted() throws Exception {
+		channel.exchangeDeclare(EXCHANGE, BuiltinExchangeType.FANOUT);
+		channel.queueBind(QUEUE, EXCHANGE, "");
+		channel.queueUnbind(QUEUE, EXCHANGE, "");
+
+		publish(EXCHANGE, ROUTING_KEY, "foo");
+
+		assertThat(cut.getMessageCount(QUEUE), is(0));
+	}
+
+	@Test
+	public void unknownExchangeDropsMessage() throws Exception {
+		publish(EXCHANGE, ROUTING_KEY, "foo");
+
+		assertThat(cut.getMessageCount(QUEUE), is(0));
+	}
+
+	@Test
+	public void consumerReceivesMessagesInOrder() throws Exception {
+		publish("", QUEUE, "foo");
+		publish("", QUEUE, "bar");
+
+		consume(QUEUE);
+
+		Awaitility.await().atMost(TIMEOUT).until(received::size, is(2));
+		assertThat(received, contains("foo", "bar"));
+	}
+
+	@Test
+	public void acknowledgedMessagesLeaveBrokerIdle() throws Exception {
+		consume(QUEUE);
+		publish("", QUEUE, "foo");
+
+		assertThat(cut.awaitIdle(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS), is(true));
+	}
+
+	@Test
+	public void requeuedMessageIsRedelivered() throws Exception {
+		publish("", QUEUE, "foo");
+
+		consume(QUEUE, false, true);
+
+		Awaitility.await().atMost(TIMEOUT).until(redelivered::size, is(2));
+		assertThat(redelivered, contains(false, true));
+	}
+
+	@Test
+	public void rejectedMessageIsDeadLettered() throws Exception {
+		declareDeadLetterQueue(Map.of("x-dead-letter-exchange", DEAD_LETTER_EXCHANGE));
+		publish("", QUEUE, "foo");
+
+		consume(QUEUE, false, false);
+
+		Awaitility.await().atMost(TIMEOUT).until(() -> cut.getMessageCount(DEAD_LETTER_QUEUE), is(1));
+	}
+
+	@Test
+	public void rejectedMessageUsesDeadLetterRoutingKey() throws Exception {
+		channel.exchangeDeclare(DEAD_LETTER_EXCHANGE, BuiltinExchangeType.DIRECT);
+		channel.queueBind(OTHER_QUEUE, DEAD_LETTER_EXCHANGE, OTHER_QUEUE);
+		channel.queueDelete(QUEUE);
+		channel.queueDeclare(QUEUE, false, false, false,
+				Map.of("x-dead-letter-exchange", DEAD_LETTER_EXCHANGE, "x-dead-letter-routing-key", OTHER_QUEUE));
+		publish("", QUEUE, "foo");
+
+		consume(QUEUE, false, false);
+
+		Awaitility.await().atMost(TIMEOUT).until(() -> cut.getMessageCount(OTHER_QUEUE), is(1));
+	}
+
+	@Test
+	public void expiredMessageIsDeadLettered() throws Exception {
+		declareDeadLetterQueue(Map.of("x-dead-letter-exchange", DEAD_LETTER_EXCHANGE, "x-message-ttl", 50));
+
+		publish("", QUEUE, "foo");
+
+		Awaitility.await().atMost(TIMEOUT).until(() -> cut.getMessageCount(DEAD_LETTER_QUEUE), is(1));
+	}
+
+	@Test
+	public void expiredMessageIsRemoved() throws Exception {
+		declareDeadLetterQueue(Map.of("x-dead-letter-exchange", DEAD_LETTER_EXCHANGE, "x-message-ttl", 50));
+
+		publish("", QUEUE, "foo");
+
+		Awaitility.await().atMost(TIMEOUT).until(() -> cut.getMessageCount(QUEUE), is(0));
+	}
+
+	@Test
+	public void higherPriorityIsDeliveredFirst() throws Exception {
+		channel.queueDelete(QUEUE);
+		channel.queueDeclare(QUEUE, false, false, false, Map.of("x-max-priority", 9));
+
+		publish(QUEUE, 1, "low");
+		publish(QUEUE, 5, "high");
+		consume(QUEUE);
+
+		Awaitility.await().atMost(TIMEOUT).until(received::size, is(2));
+		assertThat(received, contains("high", "low"));
+	}
+
+	@Test
+	public void priorityAboveMaximumIsTreatedAsMaximum() throws Exception {
+		channel.queueDelete(QUEUE);
+		channel.queueDeclare(QUEUE, false, false, false, Map.of("x-max-priority", 2));
+
+		publish(QUEUE, 9, "first");
+		publish(QUEUE, 2, "second");
+		consume(QUEUE);
+
+		Awaitility.await().atMost(TIMEOUT).until(received::size, is(2));
+		assertThat(received, contains("first", "second"));
+	}
+
+	@Test
+	public void priorityIsIgnoredWithoutMaximum() throws Exception {
+		publish(QUEUE, 1, "low");
+		publish(QUEUE, 5, "high");
+		consume(QUEUE);
+
+		Awaitility.await().atMost(TIMEOUT).until(received::size, is(2));
+		assertThat(received, contains("low", "high"));
+	}
+
+	@Test
+	public void cancelledConsumerStopsReceiving() throws Exception {
+		String consumerTag = channel.basicConsume(QUEUE, true, new DefaultConsumer(channel) {
+			@Override
+			public void handleDelivery(String consumerTag, Envelope envelope, BasicProperties properties, byte[] body) {
+				received.add(new String(body));
+			}
+		});
+
+		channel.basicCancel(consumerTag);
+		publish("", QUEUE, "foo");
+
+		Awaitility.await().pollDelay(Duration.ofMillis(200)).atMost(TIMEOUT).until(() -> cut.getMessageCount(QUEUE), is(1));
+	}
+
+	@Test
+	public void unsupportedMethodThrows() throws Exception {
+		assertThrows(UnsupportedOperationException.class, () -> channel.confirmSelect());
+	}
+
+	@Test
+	public void allChannelMethodsAreListed() throws Exception {
+		for (Method method : Channel.class.getMethods()) {
+			assertThat(method.getName(), anyOf(in(InMemoryBroker.SUPPORTED_METHODS), in(InMemoryBroker.UNSUPPORTED_METHODS)));
+		}
+	}
+
+	@Test
+	public void methodsAreNotListedTwice() throws Exception {
+		for (String method : InMemoryBroker.SUPPORTED_METHODS) {
+			assertThat(InMemoryBroker.UNSUPPORTED_METHODS, not(hasItem(method)));
+		}
+	}
+}